@@ -1,6 +1,5 @@
 package org.webby.examples;
 
-import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.util.Optional;
 import javax.net.ssl.SSLContext;
@@ -108,25 +107,7 @@ final class ExampleSupport {
     }
 
     static Optional<String> queryParam(Request request, String key) {
-        String target = request.target();
-        int queryStart = target.indexOf('?');
-        if (queryStart < 0 || queryStart == target.length() - 1) {
-            return Optional.empty();
-        }
-        String query = target.substring(queryStart + 1);
-        for (String pair : query.split("&")) {
-            if (pair.isEmpty()) {
-                continue;
-            }
-            int equal = pair.indexOf('=');
-            String name = equal >= 0 ? pair.substring(0, equal) : pair;
-            if (!name.equals(key)) {
-                continue;
-            }
-            String value = equal >= 0 && equal < pair.length() - 1 ? pair.substring(equal + 1) : "";
-            return Optional.of(URLDecoder.decode(value, StandardCharsets.UTF_8));
-        }
-        return Optional.empty();
+        return Optional.ofNullable(request.queryParameter(key));
     }
 
     static String bodyAsString(Request request) {
@@ -12,3 +12,6 @@ include(":examples")
 include(":webby-server-jetty")
 include(":webby-server-netty")
 include(":webby-server")
+include(":webby-benchmarks")
+include(":webby-loadtest")
+include(":webby-json")
@@ -0,0 +1,28 @@
+import org.gradle.api.tasks.JavaExec
+
+dependencies {
+    implementation(project(":webby-core"))
+    implementation(project(":webby-server"))
+    implementation(project(":webby-json"))
+    implementation(libs.jmh.core)
+    annotationProcessor(libs.jmh.generator)
+}
+
+// Benchmarks are run, not published.
+tasks.named("javadoc") { enabled = false }
+
+// ./gradlew :webby-benchmarks:jmh -Pjmh.includes=Router -Pjmh.args="-f 1 -wi 2 -i 3"
+tasks.register<JavaExec>("jmh") {
+    group = "verification"
+    description = "Runs the JMH benchmarks with the GC profiler"
+    mainClass.set("org.openjdk.jmh.Main")
+    classpath = sourceSets["main"].runtimeClasspath
+    val includes = providers.gradleProperty("jmh.includes").orElse(".*")
+    val extraArgs = providers.gradleProperty("jmh.args").orElse("")
+    val results = layout.buildDirectory.file("reports/jmh/results.json")
+    argumentProviders.add(CommandLineArgumentProvider {
+        listOf(includes.get(), "-prof", "gc", "-rf", "json", "-rff", results.get().asFile.absolutePath) +
+            extraArgs.get().split(" ").filter { it.isNotBlank() }
+    })
+    doFirst { results.get().asFile.parentFile.mkdirs() }
+}
@@ -0,0 +1,78 @@
+package org.webby.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.webby.core.HttpStatus;
+import org.webby.core.Response;
+import org.webby.json.Json;
+
+/**
+ * Encoding and decoding of a typical record body with {@link Json}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+    public record Order(long id, String customer, double total, boolean paid, List<Line> lines) {
+    }
+
+    public record Line(String sku, int quantity, double price) {
+    }
+
+    private Order order;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() {
+        order = new Order(1042, "Ada Lovelace", 59.97, true, List.of(
+                new Line("book-17", 2, 19.99),
+                new Line("pen-03", 1, 19.99)));
+        encoded = Json.encode(order);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return Json.encode(order);
+    }
+
+    @Benchmark
+    public Order decode() {
+        return Json.decode(encoded, Order.class);
+    }
+
+    @Benchmark
+    public Response response() {
+        return Json.response(HttpStatus.OK, order);
+    }
+
+    /** Baseline: the same body built by string concatenation, as handlers without a codec do. */
+    @Benchmark
+    public byte[] concatenate() {
+        StringBuilder json = new StringBuilder("{\"id\":").append(order.id())
+                .append(",\"customer\":\"").append(order.customer())
+                .append("\",\"total\":").append(order.total())
+                .append(",\"paid\":").append(order.paid())
+                .append(",\"lines\":[");
+        for (int i = 0; i < order.lines().size(); i++) {
+            Line line = order.lines().get(i);
+            json.append(i == 0 ? "" : ",").append("{\"sku\":\"").append(line.sku())
+                    .append("\",\"quantity\":").append(line.quantity())
+                    .append(",\"price\":").append(line.price()).append('}');
+        }
+        return json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,72 @@
+package org.webby.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.webby.core.HttpMethod;
+import org.webby.core.HttpStatus;
+import org.webby.core.MiddlewareChain;
+import org.webby.core.Request;
+import org.webby.core.RequestHandler;
+import org.webby.core.RequestMiddleware;
+import org.webby.core.Response;
+
+/**
+ * Cost of dispatching through a {@link MiddlewareChain} as it gets deeper, and of wrapping a handler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MiddlewareChainBenchmark {
+    private static final Response OK = Response.text(HttpStatus.OK, "ok").prepare();
+    private static final RequestHandler TERMINAL = request -> OK;
+
+    @Param({"1", "4", "16"})
+    public int depth;
+
+    private MiddlewareChain chain;
+    private RequestHandler wrapped;
+    private Request request;
+
+    @Setup
+    public void setUp() {
+        chain = null;
+        for (int i = 0; i < depth; i++) {
+            // Distinct classes keep the call sites as polymorphic as a real chain.
+            RequestMiddleware middleware = switch (i % 3) {
+                case 0 -> (request, next) -> next.handle(request);
+                case 1 -> (request, next) -> request.header("Authorization") == null ? next.handle(request) : OK;
+                default -> (request, next) -> {
+                    Response response = next.handle(request);
+                    return response.statusCode() < 500 ? response : OK;
+                };
+            };
+            chain = MiddlewareChain.append(chain, middleware);
+        }
+        wrapped = chain.wrap(TERMINAL);
+        request = new Request(HttpMethod.GET, "/", "HTTP/1.1", Map.of(), null);
+    }
+
+    @Benchmark
+    public Response dispatch() {
+        return wrapped.handle(request);
+    }
+
+    @Benchmark
+    public RequestHandler wrap() {
+        return chain.wrap(TERMINAL);
+    }
+}
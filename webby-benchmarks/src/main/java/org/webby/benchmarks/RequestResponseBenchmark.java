@@ -0,0 +1,81 @@
+package org.webby.benchmarks;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.webby.core.HttpMethod;
+import org.webby.core.HttpStatus;
+import org.webby.core.Request;
+import org.webby.core.Response;
+
+/**
+ * Construction and header lookup of {@link Request} and construction of {@link Response} values.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestResponseBenchmark {
+    private Map<String, String> headers;
+    private Request request;
+
+    @Setup
+    public void setUp() {
+        headers = new LinkedHashMap<>();
+        headers.put("Host", "localhost:8080");
+        headers.put("User-Agent", "bench/1.0");
+        headers.put("Accept", "application/json");
+        headers.put("Accept-Encoding", "gzip, deflate");
+        headers.put("Accept-Language", "en-US");
+        headers.put("Connection", "keep-alive");
+        headers.put("Cookie", "session=abc123");
+        headers.put("X-Request-Id", "2f6a0c1e");
+        request = newRequest();
+    }
+
+    @Benchmark
+    public Request requestConstruction() {
+        return newRequest();
+    }
+
+    @Benchmark
+    public String headerExactCase() {
+        return request.header("Accept");
+    }
+
+    @Benchmark
+    public String headerOtherCase() {
+        return request.header("accept-encoding");
+    }
+
+    @Benchmark
+    public String headerMissing() {
+        return request.header("If-None-Match");
+    }
+
+    @Benchmark
+    public Response responseText() {
+        return Response.text(HttpStatus.OK, "Hello, World!");
+    }
+
+    @Benchmark
+    public Response responseTextPrepared() {
+        return Response.text(HttpStatus.OK, "Hello, World!").prepare();
+    }
+
+    private Request newRequest() {
+        return new Request(HttpMethod.GET, "/users/42?fields=name", "HTTP/1.1", headers, null);
+    }
+}
@@ -0,0 +1,80 @@
+package org.webby.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.webby.core.HttpMethod;
+import org.webby.core.HttpStatus;
+import org.webby.core.Request;
+import org.webby.core.Response;
+import org.webby.core.Router;
+
+/**
+ * Dispatch cost of {@link Router#handle(Request)} for literal, templated and unmatched targets as the route table
+ * grows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouterBenchmark {
+    private static final Response OK = Response.text(HttpStatus.OK, "ok").prepare();
+
+    @Param({"10", "100", "1000"})
+    public int routes;
+
+    @Param({"false", "true"})
+    public boolean matchCache;
+
+    private Router router;
+    private Request literal;
+    private Request variable;
+    private Request miss;
+
+    @Setup
+    public void setUp() {
+        router = new Router();
+        if (matchCache) {
+            router.enableMatchCache(1024);
+        }
+        for (int i = 0; i < routes; i++) {
+            router.get("/api/resource" + i + "/items", request -> OK);
+            router.get("/api/resource" + i + "/items/{id}/details", request -> OK);
+        }
+        int middle = routes / 2;
+        literal = request("/api/resource" + middle + "/items");
+        variable = request("/api/resource" + middle + "/items/42/details?verbose=true");
+        miss = request("/api/resource" + middle + "/missing");
+    }
+
+    @Benchmark
+    public Response literalRoute() {
+        return router.handle(literal);
+    }
+
+    @Benchmark
+    public Response variableRoute() {
+        return router.handle(variable);
+    }
+
+    @Benchmark
+    public Response missingRoute() {
+        return router.handle(miss);
+    }
+
+    private static Request request(String target) {
+        return new Request(HttpMethod.GET, target, "HTTP/1.1", Map.of(), null);
+    }
+}
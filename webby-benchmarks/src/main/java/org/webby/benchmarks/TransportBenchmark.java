@@ -0,0 +1,145 @@
+package org.webby.benchmarks;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.webby.core.HttpStatus;
+import org.webby.core.Response;
+import org.webby.core.Server;
+
+/**
+ * Requests per second of the socket {@link Server} over loopback TCP and over a Unix domain socket, end to end: each
+ * operation connects, sends a request, reads the response until the server closes the connection, as a local proxy
+ * would. The handler answers with a prepared response, so the difference between the two is the transport.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class TransportBenchmark {
+    private static final byte[] REQUEST = ("GET /users/42 HTTP/1.1\r\n"
+            + "Host: localhost\r\n"
+            + "Accept: application/json\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    @Param({"tcp", "unix"})
+    public String transport;
+
+    private Path directory;
+    private SocketAddress address;
+    private Server server;
+    private Thread serverThread;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        if (transport.equals("unix")) {
+            directory = Files.createTempDirectory("webby-bench");
+            UnixDomainSocketAddress unix = UnixDomainSocketAddress.of(directory.resolve("webby.sock"));
+            server = new Server(unix);
+            address = unix;
+        } else {
+            int port;
+            try (ServerSocket probe = new ServerSocket(0)) {
+                port = probe.getLocalPort();
+            }
+            server = new Server(port);
+            address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        }
+        Response user = new Response(HttpStatus.OK, Map.of("Content-Type", "application/json"),
+                "{\"id\":42,\"name\":\"webby\"}".getBytes(StandardCharsets.UTF_8)).prepare();
+        server.setRequestHandler(request -> user);
+        server.setExecutorService(Executors.newVirtualThreadPerTaskExecutor());
+        serverThread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }, "webby-bench-server");
+        serverThread.start();
+        awaitServer();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        server.close();
+        serverThread.join(TimeUnit.SECONDS.toMillis(5));
+        if (directory != null) {
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    @Benchmark
+    public int request() throws IOException {
+        return exchange(ByteBuffer.allocate(4096));
+    }
+
+    private int exchange(ByteBuffer response) throws IOException {
+        try (SocketChannel channel = open()) {
+            channel.write(ByteBuffer.wrap(REQUEST));
+            int total = 0;
+            int read;
+            while ((read = channel.read(response)) != -1) {
+                total += read;
+                response.clear();
+            }
+            return total;
+        }
+    }
+
+    private SocketChannel open() throws IOException {
+        SocketChannel channel = address instanceof UnixDomainSocketAddress
+                ? SocketChannel.open(StandardProtocolFamily.UNIX)
+                : SocketChannel.open();
+        try {
+            channel.connect(address);
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void awaitServer() throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (true) {
+            try {
+                exchange(ByteBuffer.allocate(4096));
+                return;
+            } catch (IOException e) {
+                if (System.nanoTime() > deadline) {
+                    throw new IOException("Server did not start in time", e);
+                }
+                Thread.sleep(20);
+            }
+        }
+    }
+}
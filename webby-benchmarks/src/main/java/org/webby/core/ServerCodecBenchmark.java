@@ -0,0 +1,92 @@
+package org.webby.core;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Request parsing and response writing of the socket {@link Server}, without the socket. Lives in the server's
+ * package to reach its package-private codec.
+ *
+ * <p>The parse benchmarks replay one buffered stream per request, rewound before every operation, so the allocation
+ * rate they report is the parser's own rather than that of a fresh 8 KiB stream buffer per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServerCodecBenchmark {
+    private static final byte[] GET = ("GET /users/42?fields=name HTTP/1.1\r\n"
+            + "Host: localhost:8080\r\n"
+            + "User-Agent: bench/1.0\r\n"
+            + "Accept: application/json\r\n"
+            + "Accept-Encoding: gzip, deflate\r\n"
+            + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] POST = ("POST /users HTTP/1.1\r\n"
+            + "Host: localhost:8080\r\n"
+            + "Content-Type: application/json\r\n"
+            + "Content-Length: 25\r\n\r\n"
+            + "{\"name\":\"webby\",\"age\":42}").getBytes(StandardCharsets.US_ASCII);
+
+    private final OutputStream sink = OutputStream.nullOutputStream();
+    private BufferedInputStream get;
+    private BufferedInputStream post;
+    private Response plain;
+    private Response prepared;
+
+    @Setup
+    public void setUp() {
+        get = replay(GET);
+        post = replay(POST);
+        plain = new Response(HttpStatus.OK, Map.of("Content-Type", "application/json"),
+                "{\"id\":42,\"name\":\"webby\"}".getBytes(StandardCharsets.UTF_8));
+        prepared = plain.prepare();
+    }
+
+    @Benchmark
+    public Request parseGet() throws IOException {
+        get.reset();
+        return Server.parseRequest(get, null, null, BodyLimits.DEFAULT, null);
+    }
+
+    @Benchmark
+    public Request parsePostWithBody() throws IOException {
+        post.reset();
+        return Server.parseRequest(post, null, null, BodyLimits.DEFAULT, null);
+    }
+
+    @Benchmark
+    public void writeResponse() throws IOException {
+        Server.writeResponse(sink, null, plain, false);
+    }
+
+    @Benchmark
+    public void writePreparedResponse() throws IOException {
+        Server.writeResponse(sink, null, prepared, false);
+    }
+
+    /**
+     * Returns a stream over the request that {@link BufferedInputStream#reset()} rewinds to its first byte.
+     */
+    private static BufferedInputStream replay(byte[] request) {
+        BufferedInputStream in = new BufferedInputStream(new ByteArrayInputStream(request));
+        in.mark(request.length);
+        return in;
+    }
+}
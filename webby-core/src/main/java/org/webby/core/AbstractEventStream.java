@@ -0,0 +1,306 @@
+package org.webby.core;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Base of the engines' {@link EventStream}s. It keeps one write in flight at a time, queues events sent meanwhile up
+ * to {@link EventStreamOptions#maxQueuedEvents()} and applies the {@link EventStreamOptions.Overflow} policy beyond
+ * that, writes heartbeats while the stream is idle, and delivers {@link EventStreamHandler#onClose(EventStream)} once.
+ *
+ * <p>Engines write the response head, call {@link #deliverOpen()}, and then only move bytes: they write the chunks
+ * handed to {@link #write(ByteBuffer, CompletableFuture)}, end the response in {@link #finish()} or
+ * {@link #abort()}, and call {@link #disconnected()} when they notice that the client has gone. Events queued while a
+ * write was in progress are written together, so a client that lags behind a busy stream costs one write per batch
+ * rather than one per event.
+ */
+public abstract class AbstractEventStream implements EventStream {
+    /** Largest batch of queued events merged into a single write. */
+    static final int MAX_BATCH_BYTES = 64 * 1024;
+
+    private static final byte[] HEARTBEAT = {':', '\n'};
+
+    private final Request request;
+    private final EventStreamHandler handler;
+    private final EventStreamOptions options;
+    private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private boolean writing;
+    private boolean closing;
+    private boolean ended;
+    private boolean active;
+    private long dropped;
+    private ScheduledFuture<?> heartbeat;
+
+    /**
+     * Creates a stream for an event stream response.
+     *
+     * @param request request that opened the stream
+     * @param handler handler receiving the stream
+     * @param options options of the serving engine
+     */
+    protected AbstractEventStream(Request request, EventStreamHandler handler, EventStreamOptions options) {
+        this.request = Objects.requireNonNull(request, "request");
+        this.handler = Objects.requireNonNull(handler, "handler");
+        this.options = Objects.requireNonNull(options, "options");
+    }
+
+    /**
+     * Writes a chunk of the response body. Called for one chunk at a time, possibly from different threads; the next
+     * call only happens once {@code done} has completed.
+     *
+     * @param data encoded events; may be shared with other streams and must not be modified
+     * @param done future to complete once the chunk is written, or to fail if it cannot be
+     */
+    protected abstract void write(ByteBuffer data, CompletableFuture<Void> done);
+
+    /**
+     * Ends the response after the last chunk. Called at most once, when no write is in progress, and never after
+     * {@link #abort()}.
+     */
+    protected abstract void finish();
+
+    /**
+     * Drops the connection, abandoning unwritten data. Called at most once, possibly while a write is in progress,
+     * and never after {@link #finish()}.
+     */
+    protected abstract void abort();
+
+    @Override
+    public final Request request() {
+        return request;
+    }
+
+    @Override
+    public final boolean send(ServerSentEvent event) {
+        ByteBuffer data = Objects.requireNonNull(event, "event").encoded();
+        synchronized (queue) {
+            if (closing) {
+                return false;
+            }
+            if (!writing) {
+                writing = true;
+                active = true;
+            } else if (queue.size() < options.maxQueuedEvents()) {
+                queue.add(data);
+                return true;
+            } else if (options.overflow() == EventStreamOptions.Overflow.DROP_OLDEST) {
+                queue.poll();
+                queue.add(data);
+                dropped++;
+                return true;
+            } else {
+                closing = true;
+                ended = true;
+                queue.clear();
+                data = null;
+            }
+        }
+        if (data == null) {
+            abort();
+            deliverClose();
+            return false;
+        }
+        startWrite(data);
+        return true;
+    }
+
+    @Override
+    public final void close() {
+        synchronized (queue) {
+            if (closing) {
+                return;
+            }
+            closing = true;
+            if (writing) {
+                // The writer finishes the response once the queue has drained.
+                return;
+            }
+            ended = true;
+        }
+        finish();
+        deliverClose();
+    }
+
+    @Override
+    public final boolean isOpen() {
+        synchronized (queue) {
+            return !closing;
+        }
+    }
+
+    @Override
+    public final int queuedEvents() {
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+
+    @Override
+    public final long droppedEvents() {
+        synchronized (queue) {
+            return dropped;
+        }
+    }
+
+    /**
+     * Starts the heartbeats and delivers {@link EventStreamHandler#onOpen(EventStream)}. Engines call it once the
+     * response head has been written or queued for writing.
+     */
+    protected final void deliverOpen() {
+        long interval = options.heartbeatInterval().toNanos();
+        if (interval > 0) {
+            ScheduledFuture<?> scheduled = Heartbeats.TIMER.scheduleWithFixedDelay(
+                    this::heartbeat, interval, interval, TimeUnit.NANOSECONDS);
+            synchronized (queue) {
+                if (ended) {
+                    scheduled.cancel(false);
+                } else {
+                    heartbeat = scheduled;
+                }
+            }
+        }
+        try {
+            handler.onOpen(this);
+        } catch (RuntimeException e) {
+            close();
+        }
+    }
+
+    /**
+     * Reports that the connection has gone, failing further sends and delivering
+     * {@link EventStreamHandler#onClose(EventStream)} unless that has happened already.
+     */
+    protected final void disconnected() {
+        boolean release;
+        synchronized (queue) {
+            closing = true;
+            release = !ended;
+            ended = true;
+            queue.clear();
+        }
+        if (release) {
+            abort();
+        }
+        deliverClose();
+    }
+
+    private void startWrite(ByteBuffer data) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        done.whenComplete((ignored, failure) -> written(failure));
+        try {
+            write(data, done);
+        } catch (RuntimeException e) {
+            done.completeExceptionally(e);
+        }
+    }
+
+    private void written(Throwable failure) {
+        if (failure != null) {
+            disconnected();
+            return;
+        }
+        ByteBuffer next = null;
+        synchronized (queue) {
+            if (ended) {
+                writing = false;
+                return;
+            }
+            if (!queue.isEmpty()) {
+                next = nextBatch();
+                active = true;
+            } else {
+                writing = false;
+                if (!closing) {
+                    return;
+                }
+                ended = true;
+            }
+        }
+        if (next != null) {
+            startWrite(next);
+        } else {
+            finish();
+            deliverClose();
+        }
+    }
+
+    /**
+     * Takes the next chunk off the queue: a single event as is, or several small ones merged into one buffer.
+     */
+    private ByteBuffer nextBatch() {
+        ByteBuffer first = queue.poll();
+        int size = first.remaining();
+        int count = 1;
+        for (ByteBuffer queued : queue) {
+            if (size + queued.remaining() > MAX_BATCH_BYTES) {
+                break;
+            }
+            size += queued.remaining();
+            count++;
+        }
+        if (count == 1) {
+            return first;
+        }
+        ByteBuffer batch = ByteBuffer.allocate(size).put(first);
+        for (int i = 1; i < count; i++) {
+            batch.put(queue.poll());
+        }
+        return batch.flip();
+    }
+
+    /**
+     * Writes a comment line if nothing was written since the previous tick.
+     */
+    private void heartbeat() {
+        synchronized (queue) {
+            if (closing || writing || active) {
+                active = false;
+                return;
+            }
+            writing = true;
+        }
+        startWrite(ByteBuffer.wrap(HEARTBEAT));
+    }
+
+    private void deliverClose() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        ScheduledFuture<?> scheduled;
+        synchronized (queue) {
+            scheduled = heartbeat;
+            heartbeat = null;
+        }
+        if (scheduled != null) {
+            scheduled.cancel(false);
+        }
+        try {
+            handler.onClose(this);
+        } catch (RuntimeException ignored) {
+            // The stream is gone already; there is nothing left to close.
+        }
+    }
+
+    /**
+     * Timer shared by the heartbeats of all streams, started with the first stream that needs it.
+     */
+    private static final class Heartbeats {
+        static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, "webby-event-stream-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        static {
+            // Thousands of streams come and go; cancelled heartbeats must not pile up in the queue.
+            TIMER.setRemoveOnCancelPolicy(true);
+        }
+    }
+}
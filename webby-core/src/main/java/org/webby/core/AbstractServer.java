@@ -7,6 +7,41 @@ public interface AbstractServer extends Closeable {
     void setRequestHandler(RequestHandler handler);
     void addMiddleware(RequestMiddleware middleware);
     void enableTls(SSLContext sslContext);
+    /**
+     * Installs a listener that receives connection events and request phase timestamps. Must be called before
+     * {@link #start()}; without a listener the engine takes no timestamps.
+     *
+     * @param listener lifecycle listener, or {@code null} to remove it
+     */
+    void setLifecycleListener(LifecycleListener listener);
+    /**
+     * Sets the limits applied while reading request bodies. Must be called before {@link #start()}; engines apply
+     * {@link BodyLimits#DEFAULT} otherwise.
+     *
+     * @param limits body limits
+     */
+    void setBodyLimits(BodyLimits limits);
+    /**
+     * Sets the options applied to WebSocket connections. Must be called before {@link #start()}; engines apply
+     * {@link WebSocketOptions#DEFAULT} otherwise.
+     *
+     * @param options WebSocket options
+     */
+    void setWebSocketOptions(WebSocketOptions options);
+    /**
+     * Sets the options applied to {@linkplain Response#eventStream(EventStreamHandler) event streams}. Must be called
+     * before {@link #start()}; engines apply {@link EventStreamOptions#DEFAULT} otherwise.
+     *
+     * @param options event stream options
+     */
+    void setEventStreamOptions(EventStreamOptions options);
+    /**
+     * Returns the engine's connection metrics: open connections by state and transport, accepted connections and
+     * connection lifetimes. They are recorded whether or not a {@link LifecycleListener} is installed.
+     *
+     * @return connection metrics of this server
+     */
+    ConnectionMetrics connectionMetrics();
     void start() throws Exception;
     boolean isRunning();
     int port();
@@ -0,0 +1,222 @@
+package org.webby.core;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Base of the engines' {@link WebSocketSession}s. It keeps the state every engine needs in the same way: it counts
+ * buffered bytes and rejects sends past {@link WebSocketOptions#maxBufferedBytes()}, makes sure only one close frame
+ * is sent, and delivers events to the {@link WebSocketHandler}, turning a callback that throws into
+ * {@link WebSocketHandler#onError(WebSocketSession, Throwable)} and a close with
+ * {@link WebSocketSession#INTERNAL_ERROR}.
+ *
+ * <p>Engines write frames in {@link #write(boolean, ByteBuffer, CompletableFuture)} and
+ * {@link #writeClose(int, String, CompletableFuture)}, and call the {@code deliver} methods from the thread reading
+ * the connection, one at a time.
+ */
+public abstract class AbstractWebSocketSession implements WebSocketSession {
+    private static final int MAX_REASON_BYTES = 123;
+
+    private final Request request;
+    private final WebSocketHandler handler;
+    private final long maxBufferedBytes;
+    private final AtomicLong buffered = new AtomicLong();
+    private final AtomicBoolean closing = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * Creates a session for an accepted upgrade.
+     *
+     * @param request handshake request
+     * @param handler handler receiving the session's events
+     * @param options options of the accepting engine
+     */
+    protected AbstractWebSocketSession(Request request, WebSocketHandler handler, WebSocketOptions options) {
+        this.request = Objects.requireNonNull(request, "request");
+        this.handler = Objects.requireNonNull(handler, "handler");
+        this.maxBufferedBytes = options.maxBufferedBytes();
+    }
+
+    /**
+     * Writes one complete message. Called once per send, in the order of the sends, possibly from several threads.
+     *
+     * @param text {@code true} for a text message, {@code false} for a binary one
+     * @param payload message bytes; text is already encoded as UTF-8
+     * @param done future to complete once the frame is written, or to fail if it cannot be
+     */
+    protected abstract void write(boolean text, ByteBuffer payload, CompletableFuture<Void> done);
+
+    /**
+     * Writes the close frame of this side. Called at most once.
+     *
+     * @param code close code
+     * @param reason close reason
+     * @param done future to complete once the frame is written
+     */
+    protected abstract void writeClose(int code, String reason, CompletableFuture<Void> done);
+
+    @Override
+    public final Request request() {
+        return request;
+    }
+
+    @Override
+    public final CompletableFuture<Void> sendText(String message) {
+        return send(true, ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Override
+    public final CompletableFuture<Void> sendBinary(ByteBuffer message) {
+        return send(false, message.slice());
+    }
+
+    @Override
+    public final CompletableFuture<Void> close(int code, String reason) {
+        String text = reason == null ? "" : reason;
+        if (!validCloseCode(code)) {
+            throw new IllegalArgumentException("invalid close code " + code);
+        }
+        if (text.getBytes(StandardCharsets.UTF_8).length > MAX_REASON_BYTES) {
+            throw new IllegalArgumentException("close reason exceeds " + MAX_REASON_BYTES + " bytes");
+        }
+        if (!startClosing()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        try {
+            writeClose(code, text, done);
+        } catch (RuntimeException e) {
+            done.completeExceptionally(e);
+        }
+        return done;
+    }
+
+    @Override
+    public final boolean isOpen() {
+        return !closing.get();
+    }
+
+    @Override
+    public final long bufferedAmount() {
+        return buffered.get();
+    }
+
+    /**
+     * Marks the session as closing, so further sends fail.
+     *
+     * @return {@code true} if this call started the closing handshake and this side's close frame is still to be sent
+     */
+    protected final boolean startClosing() {
+        return closing.compareAndSet(false, true);
+    }
+
+    /**
+     * Delivers {@link WebSocketHandler#onOpen(WebSocketSession)}.
+     */
+    protected final void deliverOpen() {
+        try {
+            handler.onOpen(this);
+        } catch (RuntimeException e) {
+            callbackFailed(e);
+        }
+    }
+
+    /**
+     * Delivers a text message, unless the session is already closed.
+     *
+     * @param message decoded message
+     */
+    protected final void deliverText(String message) {
+        if (closed.get()) {
+            return;
+        }
+        try {
+            handler.onText(this, message);
+        } catch (RuntimeException e) {
+            callbackFailed(e);
+        }
+    }
+
+    /**
+     * Delivers a binary message, unless the session is already closed.
+     *
+     * @param message message bytes
+     */
+    protected final void deliverBinary(ByteBuffer message) {
+        if (closed.get()) {
+            return;
+        }
+        try {
+            handler.onBinary(this, message);
+        } catch (RuntimeException e) {
+            callbackFailed(e);
+        }
+    }
+
+    /**
+     * Delivers {@link WebSocketHandler#onError(WebSocketSession, Throwable)}. Exceptions thrown by it are ignored.
+     *
+     * @param error the failure
+     */
+    protected final void deliverError(Throwable error) {
+        try {
+            handler.onError(this, error);
+        } catch (RuntimeException ignored) {
+            // The connection is failing already; there is nobody left to report to.
+        }
+    }
+
+    /**
+     * Delivers {@link WebSocketHandler#onClose(WebSocketSession, int, String)} the first time it is called.
+     *
+     * @param code close code received, or {@link WebSocketSession#ABNORMAL_CLOSURE}
+     * @param reason close reason received
+     */
+    protected final void deliverClose(int code, String reason) {
+        startClosing();
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            handler.onClose(this, code, reason == null ? "" : reason);
+        } catch (RuntimeException e) {
+            deliverError(e);
+        }
+    }
+
+    private CompletableFuture<Void> send(boolean text, ByteBuffer payload) {
+        if (closing.get()) {
+            return CompletableFuture.failedFuture(new ClosedChannelException());
+        }
+        int size = payload.remaining();
+        long total = buffered.addAndGet(size);
+        // A message larger than the limit still goes out once nothing else is waiting, or it could never be sent.
+        if (total > maxBufferedBytes && total != size) {
+            buffered.addAndGet(-size);
+            return CompletableFuture.failedFuture(new WebSocketBackpressureException(total - size, maxBufferedBytes));
+        }
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        // Callers chain on the returned stage, which completes only once the bytes have been released.
+        CompletableFuture<Void> result = written.whenComplete((ignored, failure) -> buffered.addAndGet(-size));
+        try {
+            write(text, payload, written);
+        } catch (RuntimeException e) {
+            written.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private void callbackFailed(RuntimeException e) {
+        deliverError(e);
+        close(INTERNAL_ERROR, "");
+    }
+
+    static boolean validCloseCode(int code) {
+        return code >= 1000 && code <= 4999 && code != 1004 && code != 1005 && code != 1006 && code != 1015;
+    }
+}
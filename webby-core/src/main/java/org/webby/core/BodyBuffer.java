@@ -0,0 +1,223 @@
+package org.webby.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Collects a request body for an engine while enforcing {@link BodyLimits}.
+ *
+ * <p>The body is held in a byte array while it fits within the memory threshold; a declared {@code Content-Length}
+ * that fits is allocated exactly once. Once the body outgrows the threshold, or declares a length above it, it is
+ * written to a temporary file instead. Writing past the maximum length throws {@link PayloadTooLargeException}, and
+ * so does creating a buffer for a declared length above it, so engines can answer {@code 413} before reading.
+ *
+ * <p>Engines create one buffer per request, turn it into a {@link Request} with {@link #toRequest} and close it once
+ * the response has been produced, which deletes the temporary file unless the handler moved it away. A buffer is not
+ * thread-safe.
+ */
+public final class BodyBuffer implements Closeable {
+    private static final byte[] EMPTY = new byte[0];
+    private static final int TRANSFER_SIZE = 8192;
+
+    private final BodyLimits limits;
+    private final long maxBytes;
+    private byte[] memory;
+    private long length;
+    private Path file;
+    private FileChannel channel;
+
+    /**
+     * Creates a buffer for one request body.
+     *
+     * @param limits memory threshold and spill directory
+     * @param maxBytes longest body accepted, usually {@link BodyLimits#maxBytesFor}
+     * @param contentLength declared body length, or {@code -1} if unknown
+     * @throws PayloadTooLargeException if the declared length exceeds {@code maxBytes}
+     */
+    public BodyBuffer(BodyLimits limits, long maxBytes, long contentLength) throws PayloadTooLargeException {
+        this.limits = Objects.requireNonNull(limits, "limits");
+        this.maxBytes = maxBytes;
+        if (contentLength > maxBytes) {
+            throw new PayloadTooLargeException(maxBytes);
+        }
+        this.memory = contentLength > 0 && contentLength <= limits.memoryThreshold()
+                ? new byte[(int) contentLength]
+                : EMPTY;
+    }
+
+    /**
+     * Appends bytes to the body.
+     *
+     * @throws PayloadTooLargeException if the body would exceed its maximum length; nothing is appended
+     * @throws IOException if the temporary file cannot be written
+     */
+    public void write(byte[] bytes, int offset, int count) throws IOException {
+        Objects.checkFromIndexSize(offset, count, bytes.length);
+        write(ByteBuffer.wrap(bytes, offset, count));
+    }
+
+    /**
+     * Appends the remaining bytes of a buffer to the body, consuming them.
+     *
+     * @throws PayloadTooLargeException if the body would exceed its maximum length; nothing is appended
+     * @throws IOException if the temporary file cannot be written
+     */
+    public void write(ByteBuffer bytes) throws IOException {
+        int count = bytes.remaining();
+        if (count > maxBytes - length) {
+            throw new PayloadTooLargeException(maxBytes);
+        }
+        if (channel == null && length + count <= limits.memoryThreshold()) {
+            ensureCapacity((int) length + count);
+            bytes.get(memory, (int) length, count);
+        } else {
+            spill();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+        length += count;
+    }
+
+    /**
+     * Reads the body from a stream, directly into the in-memory array where possible.
+     *
+     * @param input stream positioned at the start of the body
+     * @param contentLength number of bytes to read, or {@code -1} to read until the end of the stream; a stream that
+     *                      ends early leaves a truncated body
+     * @throws PayloadTooLargeException if the body exceeds its maximum length
+     * @throws IOException if reading or spilling fails
+     */
+    public void transferFrom(InputStream input, long contentLength) throws IOException {
+        long remaining = contentLength < 0 ? Long.MAX_VALUE : contentLength;
+        byte[] chunk = null;
+        while (remaining > 0) {
+            int read;
+            if (channel == null && length < memory.length) {
+                read = input.read(memory, (int) length, (int) Math.min(memory.length - length, remaining));
+                if (read > 0) {
+                    length += read;
+                }
+            } else {
+                if (chunk == null) {
+                    chunk = new byte[TRANSFER_SIZE];
+                }
+                read = input.read(chunk, 0, (int) Math.min(chunk.length, remaining));
+                if (read > 0) {
+                    write(chunk, 0, read);
+                }
+            }
+            if (read < 0) {
+                return;
+            }
+            remaining -= read;
+        }
+    }
+
+    /**
+     * Returns the number of body bytes collected so far.
+     *
+     * @return length in bytes
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Indicates whether the body was written to a temporary file.
+     *
+     * @return {@code true} if the body lives on disk
+     */
+    public boolean spilled() {
+        return file != null;
+    }
+
+    /**
+     * Creates the request carrying the collected body. A spilled body stays in its file, which remains owned by this
+     * buffer.
+     *
+     * @param method HTTP method
+     * @param target raw request target
+     * @param version protocol identifier
+     * @param headers request headers, see {@link Request#Request(HttpMethod, String, String, Map, byte[], Map)}
+     * @param remoteAddress address of the connected client, may be {@code null}
+     * @return request
+     * @throws IOException if the temporary file cannot be flushed
+     */
+    public Request toRequest(
+            HttpMethod method, String target, String version, Map<String, String> headers, SocketAddress remoteAddress)
+            throws IOException {
+        if (file != null) {
+            channel.close();
+            return new Request(method, target, version, headers, file, length, remoteAddress);
+        }
+        byte[] body = length == memory.length ? memory : Arrays.copyOf(memory, (int) length);
+        return new Request(method, target, version, headers, body, null, remoteAddress);
+    }
+
+    /**
+     * Releases the body, deleting its temporary file if it still exists.
+     */
+    @Override
+    public void close() {
+        memory = EMPTY;
+        if (file == null) {
+            return;
+        }
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException ignored) {
+            // The file is deleted either way.
+        }
+        delete(file);
+    }
+
+    /**
+     * Deletes a spilled body file. Package-private for the built-in server, which tracks the request rather than the
+     * buffer.
+     */
+    static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // Still mapped or open elsewhere on some platforms; try again when the JVM exits.
+            file.toFile().deleteOnExit();
+        }
+    }
+
+    private void ensureCapacity(int required) {
+        if (required > memory.length) {
+            // Callers have checked that the required length is within both limits.
+            long grown = Math.min(Math.max(required, memory.length * 2L), Math.min(limits.memoryThreshold(), maxBytes));
+            memory = Arrays.copyOf(memory, (int) grown);
+        }
+    }
+
+    private void spill() throws IOException {
+        if (channel != null) {
+            return;
+        }
+        Path directory = limits.spillDirectory();
+        file = directory == null
+                ? Files.createTempFile("webby-body-", ".tmp")
+                : Files.createTempFile(directory, "webby-body-", ".tmp");
+        channel = FileChannel.open(file, StandardOpenOption.WRITE);
+        ByteBuffer buffered = ByteBuffer.wrap(memory, 0, (int) length);
+        while (buffered.hasRemaining()) {
+            channel.write(buffered);
+        }
+        memory = EMPTY;
+    }
+}
@@ -0,0 +1,49 @@
+package org.webby.core;
+
+/**
+ * Middleware that sets the maximum request body length of the routes it is attached to.
+ *
+ * <p>The {@link Router} reports the limit to engines through {@link Router#maxBodySize(HttpMethod, String)}, so a body
+ * that is too long is rejected with {@code 413 Payload Too Large} before it is read. The limit replaces the server's
+ * {@link BodyLimits#maxBytes()}, which allows a single upload route to accept more than the rest of the application:
+ *
+ * <pre>{@code
+ * router.route(HttpMethod.POST, "/videos", upload, new BodyLimitMiddleware(2L << 30));
+ * }</pre>
+ *
+ * <p>When several apply to a route, the one closest to the handler wins. The middleware also checks the length of
+ * the body it is handed, which covers requests that reach it without the engine having consulted the router.
+ */
+public final class BodyLimitMiddleware implements RequestMiddleware {
+    private static final Response PAYLOAD_TOO_LARGE =
+            Response.text(HttpStatus.PAYLOAD_TOO_LARGE, "Payload Too Large").prepare();
+
+    private final long maxBytes;
+
+    /**
+     * Creates middleware with the given limit.
+     *
+     * @param maxBytes longest body accepted, in bytes
+     * @throws IllegalArgumentException if {@code maxBytes} is negative
+     */
+    public BodyLimitMiddleware(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes must not be negative");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the limit.
+     *
+     * @return longest body accepted, in bytes
+     */
+    public long maxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public Response handle(Request request, RequestHandler next) {
+        return request.bodyLength() > maxBytes ? PAYLOAD_TOO_LARGE : next.handle(request);
+    }
+}
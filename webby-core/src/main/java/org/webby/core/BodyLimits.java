@@ -0,0 +1,66 @@
+package org.webby.core;
+
+import java.nio.file.Path;
+
+/**
+ * Limits an engine applies while reading request bodies.
+ *
+ * <p>A body longer than {@code maxBytes} is answered with {@code 413 Payload Too Large}: a request that declares a
+ * longer {@code Content-Length} is rejected before any of its body is read or allocated, and a body without a declared
+ * length as soon as it grows past the limit. Routes can set their own maximum with {@link BodyLimitMiddleware}, which
+ * takes precedence over {@code maxBytes} in either direction.
+ *
+ * <p>Bodies of up to {@code memoryThreshold} bytes are held in memory. Longer bodies are written to a temporary file
+ * in {@code spillDirectory} as they arrive and reach the handler through {@link Request#bodyStream()} and
+ * {@link Request#bodyBuffer()}, so a few large uploads occupy disk rather than heap. The file is deleted once the
+ * response has been produced; handlers that keep an upload move {@link Request#bodyFile()} elsewhere.
+ *
+ * @param maxBytes longest body accepted, in bytes
+ * @param memoryThreshold longest body held in memory, in bytes
+ * @param spillDirectory directory for spilled bodies, or {@code null} for the default temporary-file directory
+ */
+public record BodyLimits(long maxBytes, int memoryThreshold, Path spillDirectory) {
+    /** Longest body accepted unless configured otherwise: 16 MiB. */
+    public static final long DEFAULT_MAX_BYTES = 16L << 20;
+
+    /** Longest body held in memory unless configured otherwise: 1 MiB. */
+    public static final int DEFAULT_MEMORY_THRESHOLD = 1 << 20;
+
+    /** Limits engines apply unless configured otherwise. */
+    public static final BodyLimits DEFAULT = new BodyLimits(DEFAULT_MAX_BYTES, DEFAULT_MEMORY_THRESHOLD, null);
+
+    /**
+     * Validates the limits.
+     *
+     * @throws IllegalArgumentException if {@code maxBytes} or {@code memoryThreshold} is negative
+     */
+    public BodyLimits {
+        if (maxBytes < 0 || memoryThreshold < 0) {
+            throw new IllegalArgumentException("maxBytes and memoryThreshold must not be negative");
+        }
+    }
+
+    /**
+     * Creates limits that spill to the default temporary-file directory.
+     *
+     * @param maxBytes longest body accepted, in bytes
+     * @param memoryThreshold longest body held in memory, in bytes
+     */
+    public BodyLimits(long maxBytes, int memoryThreshold) {
+        this(maxBytes, memoryThreshold, null);
+    }
+
+    /**
+     * Resolves the maximum body length for a request from its request line, before the body is read.
+     *
+     * @param handler handler that will receive the request, consulted through
+     *                {@link RequestHandler#maxBodySize(HttpMethod, String)}; may be {@code null}
+     * @param method request method
+     * @param target raw request target
+     * @return maximum body length in bytes
+     */
+    public long maxBytesFor(RequestHandler handler, HttpMethod method, String target) {
+        long routeLimit = handler == null ? -1 : handler.maxBodySize(method, target);
+        return routeLimit >= 0 ? routeLimit : maxBytes;
+    }
+}
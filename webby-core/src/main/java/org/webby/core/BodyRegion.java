@@ -0,0 +1,177 @@
+package org.webby.core;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Objects;
+
+/**
+ * Response body that lives in a file rather than on the Java heap.
+ *
+ * <p>Engines send a region without copying it onto the heap: Netty hands it to the socket as a file region, the
+ * blocking {@code Server} moves it to the socket's channel with {@link FileChannel#transferTo}, and Jetty writes the
+ * memory-mapped {@linkplain #buffer() buffer}. The channel is not closed by the region; it must stay open for as long
+ * as responses referencing the region may still be written. Regions of Webby's own file caches are the exception:
+ * their channel is closed once the cache has retired the file and the last write from it has finished, which engines
+ * report through {@link #retain()} and {@link #release()}.
+ */
+public final class BodyRegion {
+    private final FileChannel channel;
+    private final SharedFileChannel shared;
+    private final long position;
+    private final int length;
+    private volatile ByteBuffer content;
+
+    /**
+     * Creates a region that is mapped into memory on first use of {@link #buffer()}.
+     *
+     * @param channel readable file channel
+     * @param position offset of the first body byte in the file
+     * @param length number of body bytes
+     * @throws IllegalArgumentException if {@code position} or {@code length} is negative
+     */
+    public BodyRegion(FileChannel channel, long position, int length) {
+        if (position < 0 || length < 0) {
+            throw new IllegalArgumentException("position and length must not be negative");
+        }
+        this.channel = Objects.requireNonNull(channel, "channel");
+        this.shared = null;
+        this.position = position;
+        this.length = length;
+    }
+
+    /**
+     * Creates a region whose bytes are already mapped, typically as a slice of a larger mapping of the same file.
+     *
+     * @param channel readable file channel
+     * @param position offset of the first body byte in the file
+     * @param content the body bytes, between its position and limit
+     */
+    public BodyRegion(FileChannel channel, long position, ByteBuffer content) {
+        this(channel, position, content.remaining());
+        this.content = content.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Creates a region of a cache's shared channel. The bytes are mapped up front, so the region stays readable
+     * through {@link #buffer()} after the channel was closed.
+     */
+    BodyRegion(SharedFileChannel shared, long position, ByteBuffer content) {
+        this.channel = shared.channel();
+        this.shared = shared;
+        this.position = position;
+        this.length = content.remaining();
+        this.content = content.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the file channel holding the body.
+     *
+     * @return file channel
+     */
+    public FileChannel channel() {
+        return channel;
+    }
+
+    /**
+     * Returns the offset of the body in the file.
+     *
+     * @return file position
+     */
+    public long position() {
+        return position;
+    }
+
+    /**
+     * Returns the body length.
+     *
+     * @return number of bytes
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Returns the body as a read-only, memory-mapped buffer.
+     *
+     * @return buffer positioned at the start of the body
+     * @throws UncheckedIOException if the file cannot be mapped
+     */
+    public ByteBuffer buffer() {
+        ByteBuffer mapped = content;
+        if (mapped == null) {
+            try {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            content = mapped;
+        }
+        return mapped.duplicate();
+    }
+
+    /**
+     * Keeps the {@linkplain #channel() channel} open until the matching {@link #release()}. Engines call it before
+     * they write the region from the channel and release it once the write has finished or failed.
+     *
+     * @return {@code true} if the channel may be used; {@code false} if its owner closed it already, in which case the
+     *         body is still available from {@link #buffer()} and nothing must be released
+     */
+    public boolean retain() {
+        return shared == null || shared.retain();
+    }
+
+    /**
+     * Ends a write started with a successful {@link #retain()}.
+     */
+    public void release() {
+        if (shared != null) {
+            shared.release();
+        }
+    }
+
+    /**
+     * Writes the whole body to the target, letting the operating system move the bytes where it can. When the target
+     * is a socket channel, the bytes go from the page cache to the socket without passing through user space.
+     *
+     * @param target destination channel
+     * @throws IOException if reading the file or writing the target fails, or the file became shorter than the region
+     */
+    public void transferTo(WritableByteChannel target) throws IOException {
+        if (!retain()) {
+            // The owner closed the channel; the mapping outlives it.
+            ByteBuffer remaining = buffer();
+            while (remaining.hasRemaining()) {
+                target.write(remaining);
+            }
+            return;
+        }
+        try {
+            long next = position;
+            long end = position + length;
+            while (next < end) {
+                long transferred = channel.transferTo(next, end - next, target);
+                if (transferred <= 0) {
+                    throw new IOException("File ended before the body region");
+                }
+                next += transferred;
+            }
+        } finally {
+            release();
+        }
+    }
+
+    byte[] toByteArray() {
+        ByteBuffer buffer = buffer();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "BodyRegion[position=" + position + ", length=" + length + "]";
+    }
+}
@@ -0,0 +1,230 @@
+package org.webby.core;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Middleware that lets identical {@code GET} and {@code HEAD} requests arriving at the same time share one invocation
+ * of the downstream handler (also known as single-flight).
+ *
+ * <p>Requests are identical when their method, target and the values of the configured key headers match. The first
+ * of them runs the handler; the others wait for its response, up to the timeout, and receive the same
+ * {@link Response} instance. A response shared with at least one waiter is {@linkplain Response#prepare() prepared}
+ * first, so the engines encode it once for all of them. Nothing is kept once the handler returns: unlike
+ * {@link ResponseCacheMiddleware}, coalescing never serves a response that was produced before the request arrived,
+ * which makes it a safe guard against stampedes on handlers whose responses cannot be cached, and a good companion in
+ * front of a cache whose popular entry just expired.
+ *
+ * <p>A waiter whose timeout elapses runs the handler itself. What waiters do when the handler throws or answers with a
+ * {@code 5xx} status is decided by the {@link ErrorPolicy}. Requests carrying {@code Authorization} or {@code Cookie}
+ * are handled on their own unless that header is one of the key headers, so one user's response never reaches
+ * another. As with the cache, add {@code Accept-Encoding} to the key headers when {@link CompressionMiddleware} runs
+ * downstream.
+ *
+ * <p>Waiters block their thread. That costs nothing on virtual threads, but on the Netty engine, which runs handlers on
+ * its event loops, each waiter stalls its event loop and every connection on it until the response is ready or the
+ * timeout elapses. The default timeout is short for that reason: a burst of waiters holds up other connections for a
+ * fraction of a second at most. Raise it only on engines whose handlers run on their own threads.
+ */
+public final class CoalescingMiddleware implements RequestMiddleware {
+    /** Longest wait for a shared response unless configured otherwise. */
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofMillis(250);
+
+    private final long timeoutNanos;
+    private final ErrorPolicy errorPolicy;
+    private final String[] keyHeaders;
+    private final boolean keyedOnAuthorization;
+    private final boolean keyedOnCookie;
+    private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<>();
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+
+    /**
+     * Creates middleware that waits up to {@link #DEFAULT_TIMEOUT}, shares errors and keys requests on their method
+     * and target only.
+     */
+    public CoalescingMiddleware() {
+        this(DEFAULT_TIMEOUT, ErrorPolicy.SHARE);
+    }
+
+    /**
+     * Creates middleware.
+     *
+     * @param timeout longest time a request waits for a shared response before running the handler itself
+     * @param errorPolicy how waiters treat a failed response
+     * @param keyHeaders request headers whose values become part of the key
+     * @throws IllegalArgumentException if {@code timeout} is not positive
+     */
+    public CoalescingMiddleware(Duration timeout, ErrorPolicy errorPolicy, String... keyHeaders) {
+        if (timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("timeout must be positive");
+        }
+        this.timeoutNanos = timeout.toNanos();
+        this.errorPolicy = Objects.requireNonNull(errorPolicy, "errorPolicy");
+        this.keyHeaders = keyHeaders.clone();
+        this.keyedOnAuthorization = isKeyHeader("Authorization");
+        this.keyedOnCookie = isKeyHeader("Cookie");
+    }
+
+    @Override
+    public Response handle(Request request, RequestHandler next) {
+        HttpMethod method = request.method();
+        if (method != HttpMethod.GET && method != HttpMethod.HEAD
+                || !keyedOnAuthorization && request.header("Authorization") != null
+                || !keyedOnCookie && request.header("Cookie") != null) {
+            return next.handle(request);
+        }
+        String key = method.name() + ' ' + ResponseCacheMiddleware.key(request, keyHeaders);
+        Flight flight = new Flight();
+        Flight running = flights.putIfAbsent(key, flight);
+        return running == null ? lead(key, flight, request, next) : follow(running, request, next);
+    }
+
+    /**
+     * Returns a snapshot of the coalescing statistics.
+     *
+     * @return statistics
+     */
+    public Stats stats() {
+        return new Stats(executions.sum(), coalesced.sum(), timeouts.sum(), retries.sum(), flights.size());
+    }
+
+    /**
+     * Returns the number of requests waiting for a running handler.
+     */
+    int waiting() {
+        int waiting = 0;
+        for (Flight flight : flights.values()) {
+            waiting += flight.waiters.get();
+        }
+        return waiting;
+    }
+
+    private Response lead(String key, Flight flight, Request request, RequestHandler next) {
+        executions.increment();
+        Response response;
+        try {
+            response = next.handle(request);
+        } catch (RuntimeException | Error e) {
+            flights.remove(key, flight);
+            flight.result.completeExceptionally(e);
+            throw e;
+        }
+        // Leave the map first: requests arriving from now on start a new flight instead of joining this one.
+        flights.remove(key, flight);
+        if (response != null && flight.waiters.get() > 0 && isShareable(response)) {
+            response = response.prepare();
+        }
+        flight.result.complete(response);
+        return response;
+    }
+
+    private Response follow(Flight flight, Request request, RequestHandler next) {
+        flight.waiters.incrementAndGet();
+        Response response;
+        try {
+            response = flight.result.get(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            timeouts.increment();
+            return next.handle(request);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a coalesced response", e);
+        } catch (ExecutionException e) {
+            if (errorPolicy == ErrorPolicy.RETRY) {
+                retries.increment();
+                return next.handle(request);
+            }
+            coalesced.increment();
+            throw rethrow(e.getCause());
+        }
+        if (response != null && !isShareable(response)) {
+            // Streams and upgrades belong to one connection; let this request produce its own.
+            return next.handle(request);
+        }
+        if (response != null && errorPolicy == ErrorPolicy.RETRY && response.statusCode() >= 500) {
+            retries.increment();
+            return next.handle(request);
+        }
+        coalesced.increment();
+        return response;
+    }
+
+    private static boolean isShareable(Response response) {
+        return response.webSocketHandler() == null && response.eventStreamHandler() == null;
+    }
+
+    private static RuntimeException rethrow(Throwable cause) {
+        if (cause instanceof RuntimeException runtime) {
+            throw runtime;
+        }
+        if (cause instanceof Error error) {
+            throw error;
+        }
+        throw new IllegalStateException(cause);
+    }
+
+    private boolean isKeyHeader(String name) {
+        for (String keyHeader : keyHeaders) {
+            if (keyHeader.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * How requests that waited for a shared response treat a failure: an exception thrown by the handler, or a
+     * response with a {@code 5xx} status.
+     */
+    public enum ErrorPolicy {
+        /**
+         * Waiters receive the same failure. A failing backend then sees one request per burst rather than one per
+         * client, at the price of failing every waiter.
+         */
+        SHARE,
+        /**
+         * Waiters run the handler themselves, each with its own chance of succeeding.
+         */
+        RETRY
+    }
+
+    /**
+     * Coalescing statistics. The share of requests that did not reach the handler is
+     * {@code coalesced / (executions + coalesced)}, see {@link #coalescingRatio()}.
+     *
+     * @param executions requests that ran the handler for themselves and any waiters
+     * @param coalesced requests answered with another request's response or failure
+     * @param timeouts waiters that stopped waiting and ran the handler themselves
+     * @param retries waiters that ran the handler themselves under {@link ErrorPolicy#RETRY}
+     * @param inFlight keys whose handler is running now
+     */
+    public record Stats(long executions, long coalesced, long timeouts, long retries, int inFlight) {
+        /**
+         * Returns the share of coalescible requests that were answered without running the handler.
+         *
+         * @return ratio between 0 and 1
+         */
+        public double coalescingRatio() {
+            long total = executions + coalesced;
+            return total == 0 ? 0 : (double) coalesced / total;
+        }
+    }
+
+    /**
+     * One running handler invocation and the requests waiting for it.
+     */
+    private static final class Flight {
+        final CompletableFuture<Response> result = new CompletableFuture<>();
+        final AtomicInteger waiters = new AtomicInteger();
+    }
+}
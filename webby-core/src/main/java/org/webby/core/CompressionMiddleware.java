@@ -0,0 +1,343 @@
+package org.webby.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Middleware that compresses response bodies with {@code gzip} or {@code deflate}, as negotiated through the request's
+ * {@code Accept-Encoding} header.
+ *
+ * <p>Only responses with a compressible content type (text, JSON, XML, JavaScript, SVG), a body of at least the
+ * configured minimum size and no existing {@code Content-Encoding} are compressed; such responses also announce
+ * {@code Vary: Accept-Encoding}. A strong {@code ETag} gets the coding appended so that it keeps identifying exactly
+ * one representation. File-backed bodies are sent as they are.
+ *
+ * <p>Compressed bodies are cached under a SHA-256 digest of their content, so identical payloads are compressed only
+ * once; the cache is bounded by the combined size of the compressed bodies and split into independently locked
+ * stripes. {@linkplain Response#prepare() Prepared} responses keep their compressed variants with their
+ * {@link EncodedResponse} and are answered without hashing or copying the body at all.
+ */
+public final class CompressionMiddleware implements RequestMiddleware {
+    /** Bodies smaller than this many bytes are sent uncompressed unless configured otherwise. */
+    public static final int DEFAULT_MINIMUM_SIZE = 1024;
+    /** Combined size, in bytes, of the compressed bodies kept unless configured otherwise. */
+    public static final long DEFAULT_CACHE_BYTES = 16L * 1024 * 1024;
+
+    private final int minimumSize;
+    private final BodyCache cache;
+
+    /**
+     * Creates middleware with the default minimum size and cache capacity.
+     */
+    public CompressionMiddleware() {
+        this(DEFAULT_MINIMUM_SIZE, DEFAULT_CACHE_BYTES);
+    }
+
+    /**
+     * Creates middleware with explicit limits.
+     *
+     * @param minimumSize smallest body, in bytes, that is compressed
+     * @param cacheBytes upper bound for the combined size of the cached compressed bodies; {@code 0} disables the
+     *     content cache
+     * @throws IllegalArgumentException if either value is negative
+     */
+    public CompressionMiddleware(int minimumSize, long cacheBytes) {
+        if (minimumSize < 0 || cacheBytes < 0) {
+            throw new IllegalArgumentException("minimumSize and cacheBytes must not be negative");
+        }
+        this.minimumSize = minimumSize;
+        this.cache = new BodyCache(cacheBytes);
+    }
+
+    @Override
+    public Response handle(Request request, RequestHandler next) {
+        Response response = next.handle(request);
+        if (response == null
+                || response.bodyRegion() != null
+                || response.bodyLength() == 0
+                || response.bodyLength() < minimumSize
+                || response.header("Content-Encoding") != null
+                || !isCompressible(response.header("Content-Type"))) {
+            return response;
+        }
+        Coding coding = negotiate(request.header("Accept-Encoding"));
+        EncodedResponse encoded = response.encoded();
+        if (encoded != null) {
+            return encoded.engineForm(Variants.class, ignored -> new Variants()).get(this, response, coding);
+        }
+        return encode(response, coding, false);
+    }
+
+    private Response encode(Response response, Coding coding, boolean prepare) {
+        byte[] body = coding == null ? response.body() : cache.compress(coding, response.body());
+        Map<String, String> headers = new LinkedHashMap<>(response.headers());
+        if (body == null) {
+            // Compression did not pay off; send the original body but still tell caches that it depends on the coding.
+            body = response.body();
+            coding = null;
+        }
+        removeHeader(headers, "Content-Length");
+        String vary = removeHeader(headers, "Vary");
+        headers.put("Vary", vary == null || vary.isBlank() ? "Accept-Encoding" : vary + ", Accept-Encoding");
+        if (coding != null) {
+            headers.put("Content-Encoding", coding.token);
+            String etag = removeHeader(headers, "ETag");
+            if (etag != null) {
+                headers.put("ETag", etag.startsWith("\"") && etag.endsWith("\"") && etag.length() > 1
+                        ? etag.substring(0, etag.length() - 1) + "-" + coding.token + "\""
+                        : etag);
+            }
+        }
+        Response encoded = new Response(response.status(), headers, body);
+        return prepare ? encoded.prepare() : encoded;
+    }
+
+    /**
+     * Picks the preferred supported coding, favouring {@code gzip} when the client rates both equally.
+     *
+     * @param acceptEncoding value of the {@code Accept-Encoding} header, may be {@code null}
+     * @return coding to apply or {@code null} to send the body as is
+     */
+    static Coding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return null;
+        }
+        float gzip = -1;
+        float deflate = -1;
+        float wildcard = -1;
+        int start = 0;
+        while (start < acceptEncoding.length()) {
+            int end = acceptEncoding.indexOf(',', start);
+            if (end < 0) {
+                end = acceptEncoding.length();
+            }
+            int parameters = acceptEncoding.indexOf(';', start);
+            int tokenEnd = parameters < 0 || parameters > end ? end : parameters;
+            String token = acceptEncoding.substring(start, tokenEnd).trim();
+            float quality = tokenEnd == end ? 1 : quality(acceptEncoding.substring(tokenEnd + 1, end));
+            if (token.equalsIgnoreCase("gzip") || token.equalsIgnoreCase("x-gzip")) {
+                gzip = Math.max(gzip, quality);
+            } else if (token.equalsIgnoreCase("deflate")) {
+                deflate = Math.max(deflate, quality);
+            } else if (token.equals("*")) {
+                wildcard = quality;
+            }
+            start = end + 1;
+        }
+        if (gzip < 0) {
+            gzip = wildcard;
+        }
+        if (deflate < 0) {
+            deflate = wildcard;
+        }
+        if (gzip > 0 && gzip >= deflate) {
+            return Coding.GZIP;
+        }
+        return deflate > 0 ? Coding.DEFLATE : null;
+    }
+
+    private static float quality(String parameters) {
+        for (String parameter : parameters.split(";")) {
+            String trimmed = parameter.trim();
+            if (trimmed.length() > 2 && Character.toLowerCase(trimmed.charAt(0)) == 'q' && trimmed.charAt(1) == '=') {
+                try {
+                    return Float.parseFloat(trimmed.substring(2));
+                } catch (NumberFormatException ignored) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    static boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            // Engines default to text/plain.
+            return true;
+        }
+        int parameters = contentType.indexOf(';');
+        String type = (parameters < 0 ? contentType : contentType.substring(0, parameters))
+                .trim()
+                .toLowerCase(Locale.ROOT);
+        return type.startsWith("text/")
+                || type.equals("application/json")
+                || type.equals("application/javascript")
+                || type.equals("application/xml")
+                || type.equals("image/svg+xml")
+                || type.endsWith("+json")
+                || type.endsWith("+xml");
+    }
+
+    private static String removeHeader(Map<String, String> headers, String name) {
+        String removed = null;
+        Iterator<Map.Entry<String, String>> iterator = headers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, String> entry = iterator.next();
+            if (entry.getKey().equalsIgnoreCase(name)) {
+                removed = entry.getValue();
+                iterator.remove();
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Content codings supported by the middleware.
+     */
+    enum Coding {
+        GZIP("gzip"),
+        DEFLATE("deflate");
+
+        private final String token;
+
+        Coding(String token) {
+            this.token = token;
+        }
+
+        String token() {
+            return token;
+        }
+
+        OutputStream wrap(OutputStream out) throws IOException {
+            return this == GZIP ? new GZIPOutputStream(out) : new DeflaterOutputStream(out);
+        }
+    }
+
+    /**
+     * Prepared variants of one prepared response, built on first use. Attached to the response's
+     * {@link EncodedResponse}, so they live exactly as long as the prepared response.
+     */
+    private static final class Variants {
+        private volatile Response identity;
+        private volatile Response gzip;
+        private volatile Response deflate;
+
+        Response get(CompressionMiddleware middleware, Response response, Coding coding) {
+            if (coding == Coding.GZIP) {
+                Response variant = gzip;
+                return variant != null ? variant : (gzip = middleware.encode(response, coding, true));
+            }
+            if (coding == Coding.DEFLATE) {
+                Response variant = deflate;
+                return variant != null ? variant : (deflate = middleware.encode(response, coding, true));
+            }
+            Response variant = identity;
+            return variant != null ? variant : (identity = middleware.encode(response, null, true));
+        }
+    }
+
+    /**
+     * Least recently used cache of compressed bodies keyed by coding and content digest, bounded by bytes. The cache
+     * is split into stripes, each with its own lock and an equal share of the budget, so concurrent lookups of
+     * different bodies rarely contend.
+     */
+    private static final class BodyCache {
+        private static final byte[] NOT_SMALLER = new byte[0];
+        private static final int STRIPES = 16;
+        /** Approximate footprint of an entry besides the compressed body: key, digest words and map node. */
+        private static final int ENTRY_OVERHEAD = 112;
+
+        private final Stripe[] stripes;
+
+        BodyCache(long maxBytes) {
+            this.stripes = new Stripe[maxBytes == 0 ? 0 : STRIPES];
+            for (int i = 0; i < stripes.length; i++) {
+                stripes[i] = new Stripe(Math.max(1, maxBytes / STRIPES));
+            }
+        }
+
+        /**
+         * Returns the compressed body, or {@code null} when compression would not make it smaller.
+         */
+        byte[] compress(Coding coding, byte[] body) {
+            if (stripes.length == 0) {
+                byte[] compressed = deflate(coding, body);
+                return compressed.length >= body.length ? null : compressed;
+            }
+            BodyDigest key = BodyDigest.of(coding, body);
+            Stripe stripe = stripes[(int) key.first() & (STRIPES - 1)];
+            byte[] compressed = stripe.get(key);
+            if (compressed == null) {
+                compressed = deflate(coding, body);
+                if (compressed.length >= body.length) {
+                    compressed = NOT_SMALLER;
+                }
+                stripe.put(key, compressed);
+            }
+            return compressed == NOT_SMALLER ? null : compressed;
+        }
+
+        private static byte[] deflate(Coding coding, byte[] body) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(64, body.length / 4));
+            try (OutputStream out = coding.wrap(buffer)) {
+                out.write(body);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return buffer.toByteArray();
+        }
+    }
+
+    /**
+     * One independently locked part of the {@link BodyCache}.
+     */
+    private static final class Stripe {
+        private final long maxBytes;
+        private final LinkedHashMap<BodyDigest, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long bytes;
+
+        Stripe(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized byte[] get(BodyDigest key) {
+            return entries.get(key);
+        }
+
+        synchronized void put(BodyDigest key, byte[] compressed) {
+            long weight = weigh(compressed);
+            if (weight > maxBytes) {
+                return;
+            }
+            byte[] previous = entries.put(key, compressed);
+            bytes += weight - (previous == null ? 0 : weigh(previous));
+            Iterator<byte[]> eldest = entries.values().iterator();
+            while (bytes > maxBytes) {
+                bytes -= weigh(eldest.next());
+                eldest.remove();
+            }
+        }
+
+        private static long weigh(byte[] compressed) {
+            return BodyCache.ENTRY_OVERHEAD + compressed.length;
+        }
+    }
+
+    /**
+     * Cache key: the coding and the SHA-256 digest of the uncompressed body, so the cache never holds on to bodies.
+     */
+    private record BodyDigest(Coding coding, long first, long second, long third, long fourth) {
+        static BodyDigest of(Coding coding, byte[] body) {
+            MessageDigest sha256;
+            try {
+                sha256 = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                // Every Java platform is required to provide SHA-256.
+                throw new IllegalStateException(e);
+            }
+            ByteBuffer digest = ByteBuffer.wrap(sha256.digest(body));
+            return new BodyDigest(coding, digest.getLong(), digest.getLong(), digest.getLong(), digest.getLong());
+        }
+    }
+}
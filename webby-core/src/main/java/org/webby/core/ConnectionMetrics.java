@@ -0,0 +1,233 @@
+package org.webby.core;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Connection gauges and counters of one server engine, served in the Prometheus text exposition format. Every engine
+ * keeps one instance, available from {@link AbstractServer#connectionMetrics()}:
+ *
+ * <pre>{@code
+ * router.get("/metrics/connections", server.connectionMetrics().handler());
+ * }</pre>
+ *
+ * <p>The engine {@linkplain #open(State, boolean) registers} each accepted connection and moves it through the
+ * {@link State}s as it serves requests, so the gauges show where connections spend their time: a growing
+ * {@link State#QUEUED} count means workers cannot keep up with the accept rate, and an open count that grows while
+ * the states it is made of stay flat points to leaked connections. Accepted connections are exported as a
+ * {@code _total} counter, from which dashboards derive the accept rate with {@code rate()}, and the lifetime of closed
+ * connections as a histogram. Recording takes no lock and allocates only the per-connection handle.
+ */
+public final class ConnectionMetrics {
+    private static final String[] BUCKET_LABELS = {"0.001", "0.01", "0.1", "1", "10", "60", "300", "900"};
+    private static final long[] BUCKET_NANOS = Prometheus.bucketNanos(BUCKET_LABELS);
+    private static final State[] STATES = State.values();
+    private static final int CLOSED = -1;
+
+    private final LongSupplier ticker;
+    private final LongAdder[] inState = new LongAdder[STATES.length];
+    private final LongAdder acceptedPlain = new LongAdder();
+    private final LongAdder acceptedTls = new LongAdder();
+    private final LongAdder openPlain = new LongAdder();
+    private final LongAdder openTls = new LongAdder();
+    private final LatencyHistogram lifetime = new LatencyHistogram(BUCKET_NANOS);
+
+    /**
+     * Creates metrics with no connections recorded.
+     */
+    public ConnectionMetrics() {
+        this(System::nanoTime);
+    }
+
+    ConnectionMetrics(LongSupplier ticker) {
+        this.ticker = ticker;
+        for (int i = 0; i < inState.length; i++) {
+            inState[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Registers an accepted connection. Called by engines; the returned handle must be {@linkplain Connection#close()
+     * closed} exactly when the connection is.
+     *
+     * @param state state the connection starts in
+     * @param tls whether the connection is encrypted
+     * @return handle through which the engine reports the connection's state
+     */
+    public Connection open(State state, boolean tls) {
+        Objects.requireNonNull(state, "state");
+        (tls ? acceptedTls : acceptedPlain).increment();
+        (tls ? openTls : openPlain).increment();
+        inState[state.ordinal()].increment();
+        return new Connection(this, state, tls, ticker.getAsLong());
+    }
+
+    /**
+     * Returns a handler that answers with all metrics in the Prometheus text format.
+     *
+     * @return metrics handler
+     */
+    public RequestHandler handler() {
+        return Prometheus.handler(this::scrape);
+    }
+
+    /**
+     * Returns the number of connections currently open.
+     *
+     * @return open connections
+     */
+    public long openConnections() {
+        return openPlain.sum() + openTls.sum();
+    }
+
+    /**
+     * Returns the number of open connections that use TLS.
+     *
+     * @return open TLS connections
+     */
+    public long openTlsConnections() {
+        return openTls.sum();
+    }
+
+    /**
+     * Returns the number of open connections in one state.
+     *
+     * @param state connection state
+     * @return connections in the state
+     */
+    public long connections(State state) {
+        return inState[Objects.requireNonNull(state, "state").ordinal()].sum();
+    }
+
+    /**
+     * Returns the number of connections accepted since the metrics were created.
+     *
+     * @return accepted connections
+     */
+    public long acceptedConnections() {
+        return acceptedPlain.sum() + acceptedTls.sum();
+    }
+
+    /**
+     * Returns the histogram of the lifetimes of closed connections, from acceptance to close.
+     *
+     * @return live lifetime histogram
+     */
+    public LatencyHistogram lifetime() {
+        return lifetime;
+    }
+
+    /**
+     * Renders the metrics in the Prometheus text exposition format, version 0.0.4.
+     */
+    String scrape() {
+        StringBuilder out = new StringBuilder(2048);
+        out.append("# HELP webby_connections Open connections by state.\n")
+                .append("# TYPE webby_connections gauge\n");
+        for (State state : STATES) {
+            out.append("webby_connections{state=\"").append(state.label).append("\"} ")
+                    .append(inState[state.ordinal()].sum()).append('\n');
+        }
+        byTransport(out, "webby_connections_open", "gauge", "Open connections by transport.", openPlain, openTls);
+        byTransport(out, "webby_connections_accepted_total", "counter", "Connections accepted.",
+                acceptedPlain, acceptedTls);
+        out.append("# HELP webby_connection_duration_seconds Lifetime of closed connections.\n")
+                .append("# TYPE webby_connection_duration_seconds histogram\n");
+        Prometheus.histogram(out, "webby_connection_duration_seconds", "", BUCKET_LABELS, lifetime);
+        return out.toString();
+    }
+
+    private static void byTransport(
+            StringBuilder out, String name, String type, String help, LongAdder plain, LongAdder tls) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(' ').append(type).append('\n')
+                .append(name).append("{transport=\"plain\"} ").append(plain.sum()).append('\n')
+                .append(name).append("{transport=\"tls\"} ").append(tls.sum()).append('\n');
+    }
+
+    /**
+     * What an open connection is doing.
+     */
+    public enum State {
+        /** Accepted and waiting for a worker thread; only engines that hand connections to a pool report it. */
+        QUEUED("queued"),
+        /**
+         * Waiting for the next request's first bytes, or carrying a WebSocket or event stream after its request was
+         * answered.
+         */
+        IDLE("idle"),
+        /** Reading a request's head or body, including the TLS handshake. */
+        READING("reading"),
+        /** Running the middleware and handler. */
+        HANDLING("handling"),
+        /** Writing a response. */
+        WRITING("writing");
+
+        private final String label;
+
+        State(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * One registered connection. Transitions may be reported from any thread; those reported after
+     * {@link #close()} are ignored, as are repeated closes.
+     */
+    public static final class Connection {
+        private final ConnectionMetrics metrics;
+        private final boolean tls;
+        private final long opened;
+        private final AtomicInteger state;
+
+        private Connection(ConnectionMetrics metrics, State state, boolean tls, long opened) {
+            this.metrics = metrics;
+            this.tls = tls;
+            this.opened = opened;
+            this.state = new AtomicInteger(state.ordinal());
+        }
+
+        /**
+         * Moves the connection to another state.
+         *
+         * @param next new state
+         */
+        public void enter(State next) {
+            int target = next.ordinal();
+            int current;
+            do {
+                current = state.get();
+                if (current == CLOSED || current == target) {
+                    return;
+                }
+            } while (!state.compareAndSet(current, target));
+            metrics.inState[current].decrement();
+            metrics.inState[target].increment();
+        }
+
+        /**
+         * Returns the state the connection is in.
+         *
+         * @return current state, or {@code null} once the connection is closed
+         */
+        public State state() {
+            int current = state.get();
+            return current == CLOSED ? null : STATES[current];
+        }
+
+        /**
+         * Records that the connection was closed.
+         */
+        public void close() {
+            int previous = state.getAndSet(CLOSED);
+            if (previous == CLOSED) {
+                return;
+            }
+            metrics.inState[previous].decrement();
+            (tls ? metrics.openTls : metrics.openPlain).decrement();
+            metrics.lifetime.record(metrics.ticker.getAsLong() - opened);
+        }
+    }
+}
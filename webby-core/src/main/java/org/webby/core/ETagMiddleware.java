@@ -0,0 +1,162 @@
+package org.webby.core;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Middleware that tags {@code 200 OK} responses to {@code GET} and {@code HEAD} requests with an {@code ETag} and
+ * answers conditional requests with {@code 304 Not Modified}.
+ *
+ * <p>Responses that already carry an {@code ETag} keep it; otherwise the tag is derived from the body's length and
+ * CRC-32C checksum. {@linkplain Response#prepare() Prepared} responses keep their tagged and {@code 304} variants with
+ * their {@link EncodedResponse}, so their bodies are hashed once; other bodies are hashed on every request, which makes
+ * preparing worthwhile for bodies that are returned repeatedly. {@code If-None-Match} is evaluated with the weak
+ * comparison and takes precedence over {@code If-Modified-Since}, which is only checked against a
+ * {@code Last-Modified} header set by the handler.
+ *
+ * <p>Register it outside {@link CompressionMiddleware} to tag each content coding separately; tags suffixed by the
+ * compression middleware are matched as well.
+ */
+public final class ETagMiddleware implements RequestMiddleware {
+    private static final String[] VALIDATOR_HEADERS = {
+        "ETag", "Last-Modified", "Cache-Control", "Expires", "Vary", "Content-Location", "Date"
+    };
+
+    private final boolean weak;
+
+    /**
+     * Creates middleware that generates strong tags.
+     */
+    public ETagMiddleware() {
+        this(false);
+    }
+
+    /**
+     * Creates middleware that generates strong or weak tags.
+     *
+     * @param weak whether generated tags are marked weak ({@code W/"..."}), e.g. when equivalent bodies may differ
+     *             byte-wise
+     */
+    public ETagMiddleware(boolean weak) {
+        this.weak = weak;
+    }
+
+    @Override
+    public Response handle(Request request, RequestHandler next) {
+        HttpMethod method = request.method();
+        if (method != HttpMethod.GET && method != HttpMethod.HEAD) {
+            return next.handle(request);
+        }
+        Response response = next.handle(request);
+        if (response == null || response.status() != HttpStatus.OK || response.eventStreamHandler() != null) {
+            return response;
+        }
+        EncodedResponse encoded = response.encoded();
+        if (encoded != null) {
+            Validated validated = encoded.engineForm(Validated.class, ignored -> validate(response));
+            return isNotModified(request, validated.tagged.headers()) ? validated.notModified : validated.tagged;
+        }
+        Response tagged = tag(response);
+        return isNotModified(request, tagged.headers()) ? notModified(tagged) : tagged;
+    }
+
+    private Validated validate(Response response) {
+        Response tagged = tag(response).prepare();
+        return new Validated(tagged, notModified(tagged).prepare());
+    }
+
+    private Response tag(Response response) {
+        if (response.header("ETag") != null) {
+            return response;
+        }
+        BodyRegion region = response.bodyRegion();
+        CRC32C checksum = new CRC32C();
+        if (region != null) {
+            // Checksum the mapping directly instead of copying the file onto the heap.
+            checksum.update(region.buffer());
+        } else {
+            checksum.update(response.body());
+        }
+        String opaque = Integer.toHexString(response.bodyLength()) + "-" + Long.toHexString(checksum.getValue());
+        String tag = (weak ? "W/\"" : "\"") + opaque + "\"";
+        Map<String, String> headers = new LinkedHashMap<>(response.headers());
+        headers.put("ETag", tag);
+        return response.withHeaders(headers);
+    }
+
+    static Response notModified(Response response) {
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (String name : VALIDATOR_HEADERS) {
+            String value = response.header(name);
+            if (value != null) {
+                headers.put(name, value);
+            }
+        }
+        return new Response(HttpStatus.NOT_MODIFIED, headers, null);
+    }
+
+    static boolean isNotModified(Request request, Map<String, String> responseHeaders) {
+        String ifNoneMatch = request.header("If-None-Match");
+        if (ifNoneMatch != null) {
+            return matches(ifNoneMatch, Response.header(responseHeaders, "ETag"));
+        }
+        String ifModifiedSince = request.header("If-Modified-Since");
+        String lastModified = Response.header(responseHeaders, "Last-Modified");
+        if (ifModifiedSince == null || lastModified == null) {
+            return false;
+        }
+        try {
+            return !ZonedDateTime.parse(lastModified, DateTimeFormatter.RFC_1123_DATE_TIME)
+                    .isAfter(ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME));
+        } catch (DateTimeParseException invalid) {
+            return false;
+        }
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch.trim().equals("*")) {
+            return true;
+        }
+        String current = opaqueTag(etag, 0, etag.length());
+        int start = 0;
+        while (start < ifNoneMatch.length()) {
+            int end = ifNoneMatch.indexOf(',', start);
+            if (end < 0) {
+                end = ifNoneMatch.length();
+            }
+            if (current.equals(opaqueTag(ifNoneMatch, start, end))) {
+                return true;
+            }
+            start = end + 1;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the tag without the weakness indicator and without a content-coding suffix added by
+     * {@link CompressionMiddleware}, so that all representations of the same content compare equal.
+     */
+    private static String opaqueTag(String value, int start, int end) {
+        String tag = value.substring(start, end).trim();
+        if (tag.startsWith("W/")) {
+            tag = tag.substring(2);
+        }
+        for (CompressionMiddleware.Coding coding : CompressionMiddleware.Coding.values()) {
+            String suffix = "-" + coding.token() + "\"";
+            if (tag.endsWith(suffix) && tag.length() > suffix.length()) {
+                return tag.substring(0, tag.length() - suffix.length()) + "\"";
+            }
+        }
+        return tag;
+    }
+
+    /**
+     * Prepared variants of one prepared response.
+     */
+    private record Validated(Response tagged, Response notModified) {
+    }
+}
@@ -0,0 +1,167 @@
+package org.webby.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Frozen wire form of a {@linkplain Response#prepare() prepared} {@link Response}.
+ *
+ * <p>The effective headers (including the default {@code Content-Type} and the {@code Content-Length}) and the
+ * HTTP/1.1 response head are computed once. Engines that need a representation of their own, such as a Netty
+ * {@code ByteBuf} or Jetty header fields, build it through {@link #engineForm(Class, Function)} so it is also created
+ * only once per prepared response.
+ */
+public final class EncodedResponse {
+    static final String DEFAULT_CONTENT_TYPE = "text/plain; charset=UTF-8";
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final Map<String, String> headers;
+    private final byte[] head;
+    private final ByteBuffer body;
+    private final BodyRegion region;
+    private final Map<Class<?>, Object> engineForms = new ConcurrentHashMap<>();
+
+    private EncodedResponse(Map<String, String> headers, byte[] head, ByteBuffer body, BodyRegion region) {
+        this.headers = headers;
+        this.head = head;
+        this.body = body.asReadOnlyBuffer();
+        this.region = region;
+    }
+
+    static EncodedResponse encode(HttpStatus status, Map<String, String> responseHeaders, byte[] body) {
+        return encode(status, responseHeaders, ByteBuffer.wrap(body), null);
+    }
+
+    static EncodedResponse encode(HttpStatus status, Map<String, String> responseHeaders, BodyRegion region) {
+        // The mapping is only established when an engine asks for the buffer.
+        return encode(status, responseHeaders, null, region);
+    }
+
+    private static EncodedResponse encode(
+            HttpStatus status, Map<String, String> responseHeaders, ByteBuffer body, BodyRegion region) {
+        Map<String, String> headers = wireHeaders(
+                status.code(), responseHeaders, region != null ? region.length() : body.remaining());
+        StringBuilder head = new StringBuilder()
+                .append("HTTP/1.1 ")
+                .append(status.code())
+                .append(' ')
+                .append(status.reasonPhrase())
+                .append("\r\n");
+        headers.forEach((key, value) -> head.append(key).append(": ").append(value).append("\r\n"));
+        head.append("Connection: close\r\n\r\n");
+        return new EncodedResponse(Collections.unmodifiableMap(headers),
+                head.toString().getBytes(StandardCharsets.UTF_8), body == null ? EMPTY : body, region);
+    }
+
+    /**
+     * Returns the headers of a response as an engine sends them, without {@code Connection}: a copy of the handler's
+     * headers with the default {@code Content-Type} and the actual {@code Content-Length} for statuses that carry
+     * content. Names are matched in any case, so a handler's {@code connection} or {@code content-length} cannot end
+     * up on the wire next to the engine's own.
+     */
+    static Map<String, String> wireHeaders(int statusCode, Map<String, String> responseHeaders, long contentLength) {
+        boolean content = hasContent(statusCode);
+        Map<String, String> headers = new LinkedHashMap<>();
+        boolean typed = false;
+        for (Map.Entry<String, String> header : responseHeaders.entrySet()) {
+            String name = header.getKey();
+            if (name.equalsIgnoreCase("Connection") || content && name.equalsIgnoreCase("Content-Length")) {
+                continue;
+            }
+            typed |= name.equalsIgnoreCase("Content-Type");
+            headers.put(name, header.getValue());
+        }
+        if (content) {
+            if (!typed) {
+                headers.put("Content-Type", DEFAULT_CONTENT_TYPE);
+            }
+            headers.put("Content-Length", Long.toString(contentLength));
+        }
+        return headers;
+    }
+
+    /**
+     * Returns whether responses with the status code carry content. Informational, {@code 204 No Content} and
+     * {@code 304 Not Modified} responses never do, so engines send neither a body nor content headers for them.
+     *
+     * @param statusCode numeric status code
+     * @return {@code true} if the status allows a body
+     */
+    public static boolean hasContent(int statusCode) {
+        return statusCode >= 200 && statusCode != 204 && statusCode != 304;
+    }
+
+    /**
+     * Returns the headers as they go on the wire, including {@code Content-Type} and {@code Content-Length}. A
+     * {@code Connection} header set by the handler is dropped, whatever its case, as is its {@code Content-Length} on
+     * responses with content.
+     *
+     * @return unmodifiable header map
+     */
+    public Map<String, String> headers() {
+        return headers;
+    }
+
+    /**
+     * Returns the encoded HTTP/1.1 status line and headers, terminated by the blank line. The head announces
+     * {@code Connection: close} because the engines close the connection after every response.
+     *
+     * @return read-only view of the response head
+     */
+    public ByteBuffer head() {
+        return ByteBuffer.wrap(head).asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the response body. A file-backed body is returned as its memory-mapped buffer.
+     *
+     * @return read-only view of the body positioned at its start
+     */
+    public ByteBuffer body() {
+        return region != null ? region.buffer() : body.duplicate();
+    }
+
+    /**
+     * Returns the file region holding the body, which engines can send with a zero-copy file transfer.
+     *
+     * @return region or {@code null} if the body is held in memory
+     */
+    public BodyRegion bodyRegion() {
+        return region;
+    }
+
+    /**
+     * Writes the encoded head to the supplied stream.
+     *
+     * @param out destination stream
+     * @throws IOException if the stream fails
+     */
+    public void writeHead(OutputStream out) throws IOException {
+        out.write(head);
+    }
+
+    /**
+     * Returns an engine-specific representation of this response, building it on first use.
+     *
+     * @param type representation type, used as the cache key
+     * @param encoder builds the representation from this encoded response
+     * @param <T> representation type
+     * @return cached representation
+     */
+    public <T> T engineForm(Class<T> type, Function<? super EncodedResponse, ? extends T> encoder) {
+        Object form = engineForms.get(Objects.requireNonNull(type, "type"));
+        if (form == null) {
+            Objects.requireNonNull(encoder, "encoder");
+            form = engineForms.computeIfAbsent(type, key -> encoder.apply(this));
+        }
+        return type.cast(form);
+    }
+}
@@ -0,0 +1,67 @@
+package org.webby.core;
+
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Handler that subscribes every stream it opens and sends published events to all of them.
+ *
+ * <pre>{@code
+ * EventBroadcaster prices = new EventBroadcaster();
+ * router.get("/prices", request -> Response.eventStream(prices));
+ * prices.publish(ServerSentEvent.of("price", json));
+ * }</pre>
+ *
+ * <p>An event is encoded once and its bytes are shared by every subscriber, so publishing costs one queue insertion
+ * per subscriber. Slow subscribers do not hold up the others; their {@link EventStreamOptions} decide what happens to
+ * them.
+ */
+public final class EventBroadcaster implements EventStreamHandler {
+    private final Set<EventStream> subscribers = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public void onOpen(EventStream stream) {
+        subscribers.add(stream);
+    }
+
+    @Override
+    public void onClose(EventStream stream) {
+        subscribers.remove(stream);
+    }
+
+    /**
+     * Sends an event to every open subscriber.
+     *
+     * @param event event to send
+     * @return number of subscribers that accepted the event
+     */
+    public int publish(ServerSentEvent event) {
+        Objects.requireNonNull(event, "event");
+        int accepted = 0;
+        for (EventStream stream : subscribers) {
+            if (stream.send(event)) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * Returns the number of open subscribers.
+     *
+     * @return subscribers
+     */
+    public int subscribers() {
+        return subscribers.size();
+    }
+
+    /**
+     * Closes every subscriber's stream once its queued events have been written.
+     */
+    public void closeAll() {
+        for (EventStream stream : subscribers) {
+            stream.close();
+        }
+    }
+}
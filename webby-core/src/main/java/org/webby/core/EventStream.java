@@ -0,0 +1,52 @@
+package org.webby.core;
+
+/**
+ * An open {@code text/event-stream} response. Streams are safe to use from any thread; events are written in the order
+ * they are sent.
+ *
+ * <p>Sending never blocks. Events sent while an earlier write is still in progress wait in a queue of at most
+ * {@link EventStreamOptions#maxQueuedEvents()} events and go out together once the client has caught up. What happens
+ * when a client falls further behind is decided by {@link EventStreamOptions#overflow()}.
+ */
+public interface EventStream {
+    /**
+     * Returns the request that opened the stream, e.g. to read its {@code Last-Event-ID} header.
+     *
+     * @return request
+     */
+    Request request();
+
+    /**
+     * Sends an event.
+     *
+     * @param event event to send
+     * @return {@code false} if the stream is closed or was closed because its queue overflowed
+     */
+    boolean send(ServerSentEvent event);
+
+    /**
+     * Ends the response once the queued events have been written.
+     */
+    void close();
+
+    /**
+     * Indicates whether events can still be sent.
+     *
+     * @return {@code true} until the stream is closed
+     */
+    boolean isOpen();
+
+    /**
+     * Returns the number of events waiting to be written.
+     *
+     * @return queued events
+     */
+    int queuedEvents();
+
+    /**
+     * Returns the number of events dropped under {@link EventStreamOptions.Overflow#DROP_OLDEST}.
+     *
+     * @return dropped events
+     */
+    long droppedEvents();
+}
@@ -0,0 +1,28 @@
+package org.webby.core;
+
+/**
+ * Receives the {@link EventStream}s opened by {@linkplain Response#eventStream(EventStreamHandler) event stream
+ * responses}. One handler may serve every stream of a route, as {@link EventBroadcaster} does, or a route may return a
+ * new handler per request.
+ *
+ * <p>Callbacks should return promptly: the Netty engine runs them on the connection's event loop. Events can be sent
+ * from any thread, both during and after the callbacks.
+ */
+@FunctionalInterface
+public interface EventStreamHandler {
+    /**
+     * Called once the response head has been written and events can be sent. A callback that throws closes the
+     * stream.
+     *
+     * @param stream the new stream
+     */
+    void onOpen(EventStream stream);
+
+    /**
+     * Called once when the stream has ended, because either side closed it or the connection dropped.
+     *
+     * @param stream the closed stream
+     */
+    default void onClose(EventStream stream) {
+    }
+}
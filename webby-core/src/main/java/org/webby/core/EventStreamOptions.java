@@ -0,0 +1,60 @@
+package org.webby.core;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Settings an engine applies to the {@linkplain Response#eventStream(EventStreamHandler) event streams} it serves.
+ *
+ * <p>Each stream queues at most {@code maxQueuedEvents} events behind the one being written. Once the queue is full,
+ * {@link Overflow#DROP_OLDEST} discards the oldest queued event to make room, which suits streams where only the
+ * latest state matters, while {@link Overflow#DISCONNECT} drops the connection so the client reconnects and catches
+ * up from its {@code Last-Event-ID}.
+ *
+ * <p>While a stream is idle, a comment line is written every {@code heartbeatInterval}. It keeps proxies and load
+ * balancers from timing the connection out and reveals clients that went away without closing it.
+ * {@link Duration#ZERO} disables heartbeats.
+ *
+ * @param maxQueuedEvents most events a stream holds unwritten
+ * @param overflow what to do with an event that does not fit into the queue
+ * @param heartbeatInterval idle time after which a heartbeat is written
+ */
+public record EventStreamOptions(int maxQueuedEvents, Overflow overflow, Duration heartbeatInterval) {
+    /** Most queued events per stream unless configured otherwise. */
+    public static final int DEFAULT_MAX_QUEUED_EVENTS = 1024;
+
+    /** Heartbeat interval unless configured otherwise: 15 seconds. */
+    public static final Duration DEFAULT_HEARTBEAT_INTERVAL = Duration.ofSeconds(15);
+
+    /** Options engines apply unless configured otherwise. */
+    public static final EventStreamOptions DEFAULT =
+            new EventStreamOptions(DEFAULT_MAX_QUEUED_EVENTS, Overflow.DROP_OLDEST, DEFAULT_HEARTBEAT_INTERVAL);
+
+    /**
+     * Validates the options.
+     *
+     * @throws IllegalArgumentException if {@code maxQueuedEvents} is not positive or {@code heartbeatInterval} is
+     *                                  negative
+     * @throws NullPointerException if {@code overflow} or {@code heartbeatInterval} is {@code null}
+     */
+    public EventStreamOptions {
+        Objects.requireNonNull(overflow, "overflow");
+        Objects.requireNonNull(heartbeatInterval, "heartbeatInterval");
+        if (maxQueuedEvents <= 0) {
+            throw new IllegalArgumentException("maxQueuedEvents must be positive");
+        }
+        if (heartbeatInterval.isNegative()) {
+            throw new IllegalArgumentException("heartbeatInterval must not be negative");
+        }
+    }
+
+    /**
+     * How a stream treats a slow client whose queue is full.
+     */
+    public enum Overflow {
+        /** Discard the oldest queued event and queue the new one. */
+        DROP_OLDEST,
+        /** Drop the connection, discarding everything queued. */
+        DISCONNECT
+    }
+}
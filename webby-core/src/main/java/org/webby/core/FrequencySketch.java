@@ -0,0 +1,91 @@
+package org.webby.core;
+
+/**
+ * Approximate popularity of cache keys: a count-min sketch of 4-bit counters, as used by the TinyLFU admission policy.
+ *
+ * <p>Each key hash selects one counter in four different 64-bit words. The estimate is the smallest of the four
+ * counters. Once the number of recorded events reaches ten times the table size, all counters are halved so that the
+ * sketch follows changes in popularity. The sketch is not thread-safe; callers guard it with their own lock.
+ */
+final class FrequencySketch {
+    private static final long[] SEEDS = {
+        0x97cb3127L, 0xb5a3c2f1L, 0x9ae16a3bL, 0xe7037ed1L
+    };
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private long[] table = new long[0];
+    private int sampleSize;
+    private int size;
+
+    FrequencySketch() {
+        ensureCapacity(0);
+    }
+
+    /**
+     * Grows the table so that it can track roughly {@code maximum} keys. The recorded frequencies are kept: a key's
+     * counter in the larger table sits at its old index plus a multiple of the old length, so every copy of the old
+     * table carries the same estimate.
+     *
+     * @param maximum expected number of keys
+     */
+    void ensureCapacity(int maximum) {
+        int capacity = Math.max(64, Integer.highestOneBit(Math.max(1, Math.min(maximum, 1 << 26)) - 1) << 1);
+        if (table.length >= capacity) {
+            return;
+        }
+        long[] grown = new long[capacity];
+        for (int i = 0; i < capacity && table.length > 0; i += table.length) {
+            System.arraycopy(table, 0, grown, i, table.length);
+        }
+        table = grown;
+        sampleSize = 10 * capacity;
+    }
+
+    /**
+     * Returns the estimated number of times the key was recorded since the last aging, capped at 15.
+     *
+     * @param hash key hash
+     * @return estimated frequency
+     */
+    int frequency(int hash) {
+        int frequency = 15;
+        for (int i = 0; i < SEEDS.length; i++) {
+            frequency = Math.min(frequency, (int) (table[index(hash, i)] >>> shift(hash, i)) & 15);
+        }
+        return frequency;
+    }
+
+    /**
+     * Records one occurrence of the key.
+     *
+     * @param hash key hash
+     */
+    void increment(int hash) {
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int index = index(hash, i);
+            int shift = shift(hash, i);
+            if (((table[index] >>> shift) & 15) != 15) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+        }
+        if (added && ++size >= sampleSize) {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            size >>>= 1;
+        }
+    }
+
+    private int index(int hash, int row) {
+        long spread = (hash + SEEDS[row]) * SEEDS[row];
+        spread += spread >>> 32;
+        return (int) spread & (table.length - 1);
+    }
+
+    private static int shift(int hash, int row) {
+        // Sixteen 4-bit counters per word; each row picks its counter from a different byte of the hash.
+        return ((hash >>> (row << 3)) & 15) << 2;
+    }
+}
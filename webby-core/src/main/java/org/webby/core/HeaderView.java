@@ -0,0 +1,109 @@
+package org.webby.core;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Read-only header map that can be backed directly by an engine's native header storage.
+ *
+ * <p>{@link Request} keeps instances of this class as-is instead of copying them, so adapters can hand over their
+ * parsed headers without building an intermediate map. Lookups through {@link #get(Object)} ignore case; iteration
+ * materializes an ordered snapshot on first use.
+ */
+public abstract class HeaderView extends AbstractMap<String, String> {
+    private volatile Map<String, String> snapshot;
+
+    /**
+     * Creates a new view. Subclasses must only wrap storage that is not modified afterwards.
+     */
+    protected HeaderView() {
+    }
+
+    /**
+     * Returns the first value for the supplied header name, ignoring case.
+     *
+     * @param name header name
+     * @return header value or {@code null} when absent
+     */
+    protected abstract String lookup(String name);
+
+    /**
+     * Copies every header into the supplied map in wire order.
+     *
+     * @param target map receiving the headers
+     */
+    protected abstract void copyTo(Map<String, String> target);
+
+    @Override
+    public String get(Object key) {
+        return key instanceof String name ? lookup(name) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        Map<String, String> current = snapshot;
+        if (current == null) {
+            Map<String, String> copy = new LinkedHashMap<>();
+            copyTo(copy);
+            current = Collections.unmodifiableMap(copy);
+            snapshot = current;
+        }
+        return current.entrySet();
+    }
+
+    /**
+     * Wraps a map owned by the caller without copying it. The map must not be modified afterwards.
+     *
+     * @param headers headers to expose
+     * @return view over the supplied map
+     */
+    static HeaderView wrap(Map<String, String> headers) {
+        return new MapView(Objects.requireNonNull(headers, "headers"));
+    }
+
+    private static final class MapView extends HeaderView {
+        private final Map<String, String> headers;
+
+        MapView(Map<String, String> headers) {
+            this.headers = headers;
+        }
+
+        @Override
+        protected String lookup(String name) {
+            String exact = headers.get(name);
+            if (exact != null) {
+                return exact;
+            }
+            for (Entry<String, String> entry : headers.entrySet()) {
+                if (entry.getKey().equalsIgnoreCase(name)) {
+                    return entry.getValue();
+                }
+            }
+            return null;
+        }
+
+        @Override
+        protected void copyTo(Map<String, String> target) {
+            target.putAll(headers);
+        }
+
+        @Override
+        public int size() {
+            return headers.size();
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            return Collections.unmodifiableMap(headers).entrySet();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package org.webby.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations in nanoseconds with log-linear buckets.
+ *
+ * <p>Every power of two is split into eight equally wide buckets, so a recorded value is known to within 12.5% of its
+ * magnitude at any scale; values below 16 ns have a bucket each. Recording computes the bucket from the position of
+ * the highest set bit and increments one counter, without locking or allocating. Durations of 2<sup>40</sup> ns
+ * (about 18 minutes) and more are counted in the last bucket.
+ *
+ * <p>A histogram exported with fixed bounds, such as Prometheus {@code le} labels, is created with those bounds. The
+ * bucket a bound falls in also counts its durations up to the bound, so the exported counts are exact.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 39;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+    private static final int BUCKETS = index(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final long[] bounds;
+    private final int[] boundBuckets;
+    private final AtomicLongArray atOrBelowBound;
+
+    /**
+     * Creates an empty histogram.
+     */
+    public LatencyHistogram() {
+        this(new long[0]);
+    }
+
+    /**
+     * Creates an empty histogram that counts durations exactly at the bounds passed to {@link #cumulativeCounts()}.
+     *
+     * @param bounds ascending upper bounds in nanoseconds; the array is not copied
+     */
+    LatencyHistogram(long[] bounds) {
+        this.bounds = bounds;
+        this.boundBuckets = new int[bounds.length];
+        for (int i = 0; i < bounds.length; i++) {
+            boundBuckets[i] = index(Math.min(Math.max(bounds[i], 0), MAX_VALUE));
+        }
+        this.atOrBelowBound = new AtomicLongArray(bounds.length);
+    }
+
+    /**
+     * Records one duration.
+     *
+     * @param nanos duration in nanoseconds; negative values are recorded as zero
+     */
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+        int index = index(value);
+        // Incremented before the bound counters, which cumulativeCounts() reads first, so a bound never sees more
+        // durations than its bucket holds.
+        counts.getAndIncrement(index);
+        for (int i = 0; i < boundBuckets.length && boundBuckets[i] <= index; i++) {
+            if (boundBuckets[i] == index && value <= bounds[i]) {
+                atOrBelowBound.getAndIncrement(i);
+            }
+        }
+        sum.add(value);
+    }
+
+    /**
+     * Returns the number of recorded durations.
+     *
+     * @return count
+     */
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the sum of the recorded durations.
+     *
+     * @return sum in nanoseconds
+     */
+    public long sumNanos() {
+        return sum.sum();
+    }
+
+    /**
+     * Counts, in one pass, the recorded durations at or below each bound the histogram was created with: those in the
+     * buckets below the bound's bucket, plus those in its bucket that do not exceed it.
+     *
+     * @return cumulative count per bound, followed by the total count
+     */
+    long[] cumulativeCounts() {
+        long[] cumulative = new long[bounds.length + 1];
+        for (int i = 0; i < bounds.length; i++) {
+            cumulative[i] = atOrBelowBound.get(i);
+        }
+        long count = 0;
+        int bound = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            while (bound < bounds.length && boundBuckets[bound] == i) {
+                cumulative[bound++] += count;
+            }
+            count += counts.get(i);
+        }
+        cumulative[bounds.length] = count;
+        return cumulative;
+    }
+
+    /**
+     * Returns an estimate of the duration at the quantile: the upper bound of the bucket holding it, which exceeds the
+     * true value by at most 12.5%.
+     *
+     * @param quantile quantile between {@code 0} and {@code 1}, e.g. {@code 0.99}
+     * @return duration in nanoseconds, or {@code 0} if nothing was recorded
+     * @throws IllegalArgumentException if the quantile is outside {@code [0, 1]}
+     */
+    public long valueAtQuantile(double quantile) {
+        if (!(quantile >= 0 && quantile <= 1)) {
+            throw new IllegalArgumentException("quantile must be between 0 and 1");
+        }
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return upperBound(i) - 1;
+            }
+        }
+        return MAX_VALUE;
+    }
+
+    /**
+     * Maps a non-negative value to its bucket. Values below {@code 2 * SUB_BUCKETS} map to themselves; above that, the
+     * exponent selects a group of {@code SUB_BUCKETS} buckets and the bits below the highest set bit pick one of them.
+     */
+    static int index(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the exclusive upper bound of a bucket.
+     */
+    static long upperBound(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index + 1;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        return (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS);
+    }
+}
@@ -0,0 +1,38 @@
+package org.webby.core;
+
+import java.net.SocketAddress;
+
+/**
+ * Receives connection events and per-request phase timestamps from a server engine, so that latency can be attributed
+ * to the engine (accept queueing, parsing, writing) or to the handler.
+ *
+ * <p>All timestamps come from {@link System#nanoTime()}. Callbacks run on the engine's I/O or worker threads and must
+ * be fast and thread-safe. A server without a listener takes no timestamps at all. {@link LifecycleRecorder} is a
+ * ready-made implementation that aggregates the timestamps into histograms.
+ */
+public interface LifecycleListener {
+    /**
+     * Called when a client connection has been accepted.
+     *
+     * @param remoteAddress address of the client, may be {@code null}
+     * @param nanos time of the event
+     */
+    default void connectionOpened(SocketAddress remoteAddress, long nanos) {
+    }
+
+    /**
+     * Called when a client connection has been closed.
+     *
+     * @param remoteAddress address of the client, may be {@code null}
+     * @param nanos time of the event
+     */
+    default void connectionClosed(SocketAddress remoteAddress, long nanos) {
+    }
+
+    /**
+     * Called once the response to a request has been written to the connection.
+     *
+     * @param timings phase timestamps of the request
+     */
+    void requestCompleted(RequestTimings timings);
+}
@@ -0,0 +1,104 @@
+package org.webby.core;
+
+import java.net.SocketAddress;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Default {@link LifecycleListener} that aggregates request phases into {@link LatencyHistogram}s and counts
+ * connections.
+ *
+ * <pre>{@code
+ * LifecycleRecorder lifecycle = new LifecycleRecorder();
+ * server.setLifecycleListener(lifecycle);
+ * ...
+ * long p99 = lifecycle.histogram(LifecycleRecorder.Phase.HANDLER).valueAtQuantile(0.99);
+ * }</pre>
+ *
+ * <p>Comparing the {@link Phase#HANDLER} tail with the {@link Phase#TOTAL} tail shows whether slow requests are slow
+ * because of the application or because of the engine.
+ */
+public final class LifecycleRecorder implements LifecycleListener {
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Phase.values().length];
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder closed = new LongAdder();
+
+    /**
+     * Creates a recorder with empty histograms.
+     */
+    public LifecycleRecorder() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    @Override
+    public void connectionOpened(SocketAddress remoteAddress, long nanos) {
+        opened.increment();
+    }
+
+    @Override
+    public void connectionClosed(SocketAddress remoteAddress, long nanos) {
+        closed.increment();
+    }
+
+    @Override
+    public void requestCompleted(RequestTimings timings) {
+        record(Phase.QUEUE, timings.started() - timings.received());
+        record(Phase.PARSE, timings.headersParsed() - timings.started());
+        record(Phase.BODY, timings.bodyRead() - timings.headersParsed());
+        record(Phase.HANDLER, timings.handled() - timings.bodyRead());
+        record(Phase.WRITE, timings.written() - timings.handled());
+        record(Phase.TOTAL, timings.written() - timings.received());
+    }
+
+    /**
+     * Returns the histogram of one phase.
+     *
+     * @param phase request phase
+     * @return live histogram of the phase durations
+     */
+    public LatencyHistogram histogram(Phase phase) {
+        return histograms[Objects.requireNonNull(phase, "phase").ordinal()];
+    }
+
+    /**
+     * Returns the number of connections accepted so far.
+     *
+     * @return opened connections
+     */
+    public long connectionsOpened() {
+        return opened.sum();
+    }
+
+    /**
+     * Returns the number of connections currently open.
+     *
+     * @return open connections
+     */
+    public long openConnections() {
+        return opened.sum() - closed.sum();
+    }
+
+    private void record(Phase phase, long nanos) {
+        histograms[phase.ordinal()].record(nanos);
+    }
+
+    /**
+     * Request phases, each the interval between two {@link RequestTimings} timestamps.
+     */
+    public enum Phase {
+        /** From {@code received} to {@code started}: waiting for a worker. */
+        QUEUE,
+        /** From {@code started} to {@code headersParsed}: reading and parsing the request line and headers. */
+        PARSE,
+        /** From {@code headersParsed} to {@code bodyRead}: reading the body. */
+        BODY,
+        /** From {@code bodyRead} to {@code handled}: middleware and handler. */
+        HANDLER,
+        /** From {@code handled} to {@code written}: encoding and writing the response. */
+        WRITE,
+        /** From {@code received} to {@code written}. */
+        TOTAL
+    }
+}
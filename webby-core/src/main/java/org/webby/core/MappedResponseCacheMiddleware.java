@@ -0,0 +1,451 @@
+package org.webby.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+
+/**
+ * Response cache that keeps large bodies in memory-mapped files on local disk instead of on the Java heap.
+ *
+ * <p>Responses to {@code GET} requests with a body of at least the configured minimum size are appended to segment
+ * files in the cache directory and answered from then on with a {@linkplain BodyRegion file region} of the mapping,
+ * which engines send without copying it onto the heap. Keys, cacheability and freshness follow the same rules as
+ * {@link ResponseCacheMiddleware}; expiry is based on wall-clock time because entries outlive the process: on startup
+ * the segments are scanned and their unexpired entries indexed again.
+ *
+ * <p>When the disk budget is used up, the oldest segment is dropped as a whole. Entries in it that were requested
+ * since they were written get a second chance and are copied into the newest segment, so popular responses stay while
+ * one-off ones age out. A dropped segment's file is deleted at once and its channel closed when the last response
+ * still being written from it has finished; the mapping itself is released by the garbage collector.
+ *
+ * <p>Register it inside a {@link ResponseCacheMiddleware}, which then keeps the hot entries' metadata on the heap, and
+ * outside {@link CompressionMiddleware} with {@code Accept-Encoding} as a vary header so compressed bodies are stored.
+ */
+public final class MappedResponseCacheMiddleware implements RequestMiddleware, Closeable {
+    /** Bodies smaller than this many bytes are left to the heap unless configured otherwise. */
+    public static final int DEFAULT_MINIMUM_SIZE = 64 * 1024;
+
+    private static final int MAGIC = 0x57424331;
+    // Magic, key length, metadata length, body length, expiry time in epoch milliseconds.
+    private static final int RECORD_HEADER = 24;
+    private static final int MIN_SEGMENT_SIZE = 64 * 1024;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".cache";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final int minimumSize;
+    private final long defaultTtl;
+    private final String[] varyHeaders;
+    private final LongSupplier clock;
+
+    private final ConcurrentHashMap<String, Entry> index = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    // Oldest first; guarded by this.
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private long nextSegmentId;
+    private boolean closed;
+
+    /**
+     * Creates a cache with the default minimum body size that only stores responses with explicit freshness
+     * information, loading the entries left in the directory by an earlier run.
+     *
+     * @param directory cache directory, created if missing
+     * @param maxBytes disk budget for the segment files
+     * @throws IOException if the directory or its segments cannot be read
+     */
+    public MappedResponseCacheMiddleware(Path directory, long maxBytes) throws IOException {
+        this(directory, maxBytes, DEFAULT_MINIMUM_SIZE, Duration.ZERO);
+    }
+
+    /**
+     * Creates a cache, loading the entries left in the directory by an earlier run.
+     *
+     * @param directory cache directory, created if missing
+     * @param maxBytes disk budget for the segment files
+     * @param minimumSize smallest body, in bytes, that is stored
+     * @param defaultTtl freshness of responses without {@code max-age}; zero caches only responses that declare it
+     * @param varyHeaders request headers whose values become part of the cache key
+     * @throws IOException if the directory or its segments cannot be read
+     * @throws IllegalArgumentException if {@code maxBytes} is too small for two segments, or {@code minimumSize} or
+     *                                  {@code defaultTtl} is negative
+     */
+    public MappedResponseCacheMiddleware(
+            Path directory, long maxBytes, int minimumSize, Duration defaultTtl, String... varyHeaders)
+            throws IOException {
+        this(directory, maxBytes, minimumSize, defaultTtl, System::currentTimeMillis, varyHeaders);
+    }
+
+    MappedResponseCacheMiddleware(
+            Path directory,
+            long maxBytes,
+            int minimumSize,
+            Duration defaultTtl,
+            LongSupplier clock,
+            String... varyHeaders) throws IOException {
+        if (maxBytes < 2L * MIN_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("maxBytes must be at least " + 2 * MIN_SEGMENT_SIZE);
+        }
+        if (minimumSize < 0 || defaultTtl.isNegative()) {
+            throw new IllegalArgumentException("minimumSize and defaultTtl must not be negative");
+        }
+        this.directory = Objects.requireNonNull(directory, "directory");
+        this.segmentSize = (int) Math.min(Integer.MAX_VALUE, Math.max(MIN_SEGMENT_SIZE, maxBytes / 4));
+        this.maxSegments = (int) Math.max(2, maxBytes / segmentSize);
+        this.minimumSize = minimumSize;
+        this.defaultTtl = defaultTtl.toMillis();
+        this.varyHeaders = varyHeaders.clone();
+        this.clock = clock;
+        Files.createDirectories(directory);
+        load();
+    }
+
+    @Override
+    public Response handle(Request request, RequestHandler next) {
+        HttpMethod method = request.method();
+        if (method != HttpMethod.GET && method != HttpMethod.HEAD) {
+            return next.handle(request);
+        }
+        String cacheControl = request.header("Cache-Control");
+        if (request.header("Authorization") != null
+                || ResponseCacheMiddleware.hasDirective(cacheControl, "no-store")) {
+            return next.handle(request);
+        }
+        String key = ResponseCacheMiddleware.key(request, varyHeaders);
+        long now = clock.getAsLong();
+        if (!ResponseCacheMiddleware.hasDirective(cacheControl, "no-cache")) {
+            Entry entry = index.get(key);
+            if (entry != null && now < entry.expiresAt) {
+                if (!entry.accessed) {
+                    entry.accessed = true;
+                }
+                hits.increment();
+                return entry.response;
+            }
+        }
+        misses.increment();
+        Response response = next.handle(request);
+        return method == HttpMethod.GET ? store(key, response, now) : response;
+    }
+
+    /**
+     * Returns a snapshot of the cache statistics.
+     *
+     * @return statistics
+     */
+    public Stats stats() {
+        synchronized (this) {
+            long bytes = 0;
+            for (Segment segment : segments) {
+                bytes += segment.position;
+            }
+            return new Stats(hits.sum(), misses.sum(), evictions.sum(), index.size(), bytes);
+        }
+    }
+
+    /**
+     * Flushes the segments to disk and closes them once the responses being written from them have finished.
+     * Responses handed out earlier are still sent correctly afterwards, from the mapping instead of the file.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        index.clear();
+        for (Segment segment : segments) {
+            segment.close();
+        }
+        segments.clear();
+    }
+
+    private Response store(String key, Response response, long now) {
+        if (response == null
+                || response.bodyRegion() != null
+                || response.bodyLength() < minimumSize
+                || !ResponseCacheMiddleware.isCacheable(response, varyHeaders)) {
+            return response;
+        }
+        long maxAge = ResponseCacheMiddleware.lifetimeSeconds(response.header("Cache-Control"));
+        long ttl = maxAge < 0 ? defaultTtl : Math.min(maxAge, Long.MAX_VALUE / 2000) * 1000;
+        if (ttl <= 0) {
+            return response;
+        }
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] metadata = metadata(response);
+        ByteBuffer body = ByteBuffer.wrap(response.body());
+        // Half a segment at most, so that a fresh segment always has room after the rescued entries.
+        if (recordSize(keyBytes, metadata, body) > segmentSize / 2) {
+            return response;
+        }
+        synchronized (this) {
+            if (closed) {
+                return response;
+            }
+            Segment active = segments.peekLast();
+            if (active == null || active.remaining() < recordSize(keyBytes, metadata, body)) {
+                try {
+                    active = roll();
+                } catch (IOException e) {
+                    return response;
+                }
+            }
+            Entry entry = append(active, key, keyBytes, response.status(), response.headers(), metadata, body,
+                    now + ttl);
+            index.put(key, entry);
+            return entry.response;
+        }
+    }
+
+    private Entry append(
+            Segment segment,
+            String key,
+            byte[] keyBytes,
+            HttpStatus status,
+            Map<String, String> headers,
+            byte[] metadata,
+            ByteBuffer body,
+            long expiresAt) {
+        int start = segment.position;
+        ByteBuffer out = segment.buffer.duplicate();
+        out.position(start + 4);
+        out.putInt(keyBytes.length).putInt(metadata.length).putInt(body.remaining()).putLong(expiresAt);
+        out.put(keyBytes).put(metadata);
+        int bodyStart = out.position();
+        out.put(body.duplicate());
+        int end = out.position();
+        if (end + 4 <= segment.buffer.capacity()) {
+            // Clear what an interrupted earlier run may have left behind, so loading stops here.
+            segment.buffer.putInt(end, 0);
+        }
+        // The magic is written last, so a record cut short by a crash is not loaded.
+        segment.buffer.putInt(start, MAGIC);
+        segment.position = end;
+        return segment.add(key, status, headers, bodyStart, end - bodyStart, expiresAt);
+    }
+
+    private Segment roll() throws IOException {
+        Segment segment = Segment.open(
+                directory.resolve(SEGMENT_PREFIX + nextSegmentId + SEGMENT_SUFFIX), segmentSize);
+        nextSegmentId++;
+        segments.addLast(segment);
+        while (segments.size() > maxSegments) {
+            dropOldest(segment);
+        }
+        return segment;
+    }
+
+    private void dropOldest(Segment active) {
+        Segment oldest = segments.pollFirst();
+        long now = clock.getAsLong();
+        for (Entry entry : oldest.entries) {
+            if (index.get(entry.key) != entry) {
+                continue;
+            }
+            BodyRegion region = entry.response.bodyRegion();
+            byte[] keyBytes = entry.key.getBytes(StandardCharsets.UTF_8);
+            byte[] metadata = metadata(entry.response);
+            ByteBuffer body = region.buffer();
+            if (entry.accessed
+                    && now < entry.expiresAt
+                    && active.position + recordSize(keyBytes, metadata, body) <= active.buffer.capacity() / 2) {
+                index.put(entry.key, append(active, entry.key, keyBytes, entry.response.status(),
+                        entry.response.headers(), metadata, body, entry.expiresAt));
+            } else if (index.remove(entry.key, entry)) {
+                evictions.increment();
+            }
+        }
+        oldest.delete();
+    }
+
+    private void load() throws IOException {
+        List<Long> ids = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                String name = file.getFileName().toString();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        ids.add(Long.parseLong(
+                                name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException ignored) {
+                        // Not one of ours.
+                    }
+                }
+            });
+        }
+        ids.sort(null);
+        long now = clock.getAsLong();
+        for (long id : ids) {
+            Path file = directory.resolve(SEGMENT_PREFIX + id + SEGMENT_SUFFIX);
+            Segment segment = Segment.open(file, (int) Math.min(Integer.MAX_VALUE, Files.size(file)));
+            segments.addLast(segment);
+            nextSegmentId = id + 1;
+            scan(segment, now);
+        }
+        Segment active = segments.peekLast();
+        while (segments.size() > maxSegments) {
+            dropOldest(active);
+        }
+    }
+
+    private void scan(Segment segment, long now) {
+        ByteBuffer buffer = segment.buffer;
+        int position = 0;
+        while (position + RECORD_HEADER <= buffer.capacity() && buffer.getInt(position) == MAGIC) {
+            int keyLength = buffer.getInt(position + 4);
+            int metadataLength = buffer.getInt(position + 8);
+            int bodyLength = buffer.getInt(position + 12);
+            long expiresAt = buffer.getLong(position + 16);
+            long end = (long) position + RECORD_HEADER + keyLength + metadataLength + bodyLength;
+            if (keyLength < 0 || metadataLength < 0 || bodyLength < 0 || end > buffer.capacity()) {
+                break;
+            }
+            int keyStart = position + RECORD_HEADER;
+            String key = decode(buffer, keyStart, keyLength);
+            String[] metadata = decode(buffer, keyStart + keyLength, metadataLength).split("\n");
+            HttpStatus status = HttpStatus.fromCode(parseStatus(metadata[0]));
+            if (status != null && now < expiresAt) {
+                Map<String, String> headers = new LinkedHashMap<>();
+                for (int i = 1; i < metadata.length; i++) {
+                    int colon = metadata[i].indexOf(": ");
+                    if (colon > 0) {
+                        headers.put(metadata[i].substring(0, colon), metadata[i].substring(colon + 2));
+                    }
+                }
+                index.put(key, segment.add(key, status, headers, (int) end - bodyLength, bodyLength, expiresAt));
+            } else {
+                index.remove(key);
+            }
+            position = (int) end;
+        }
+        segment.position = position;
+    }
+
+    private static int parseStatus(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException invalid) {
+            return -1;
+        }
+    }
+
+    private static String decode(ByteBuffer buffer, int start, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] metadata(Response response) {
+        StringBuilder metadata = new StringBuilder().append(response.statusCode());
+        response.headers().forEach((name, value) -> metadata.append('\n').append(name).append(": ").append(value));
+        return metadata.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long recordSize(byte[] key, byte[] metadata, ByteBuffer body) {
+        return (long) RECORD_HEADER + key.length + metadata.length + body.remaining();
+    }
+
+    /**
+     * Cache statistics.
+     *
+     * @param hits requests answered from disk
+     * @param misses requests passed to the downstream handler
+     * @param evictions entries dropped together with their segment
+     * @param entries number of indexed responses
+     * @param diskBytes bytes written to the live segments, including superseded records
+     */
+    public record Stats(long hits, long misses, long evictions, int entries, long diskBytes) {
+    }
+
+    /**
+     * Indexed response and the segment holding it.
+     */
+    private static final class Entry {
+        final String key;
+        final Response response;
+        final long expiresAt;
+        volatile boolean accessed;
+
+        Entry(String key, Response response, long expiresAt) {
+            this.key = key;
+            this.response = response;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Memory-mapped, append-only segment file.
+     */
+    private static final class Segment {
+        final Path path;
+        final SharedFileChannel channel;
+        final MappedByteBuffer buffer;
+        final List<Entry> entries = new ArrayList<>();
+        int position;
+
+        private Segment(Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.path = path;
+            this.channel = new SharedFileChannel(channel);
+            this.buffer = buffer;
+        }
+
+        static Segment open(Path path, int size) throws IOException {
+            FileChannel channel = FileChannel.open(
+                    path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                return new Segment(path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        int remaining() {
+            return buffer.capacity() - position;
+        }
+
+        Entry add(String key, HttpStatus status, Map<String, String> headers, int bodyStart, int bodyLength,
+                  long expiresAt) {
+            BodyRegion region = new BodyRegion(channel, bodyStart, buffer.slice(bodyStart, bodyLength));
+            Entry entry = new Entry(key, Response.file(status, headers, region).prepare(), expiresAt);
+            entries.add(entry);
+            return entry;
+        }
+
+        void delete() {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException ignored) {
+                // Left behind and dropped again on the next start.
+            }
+            // Responses still being sent hold their own references; the last of them closes the channel.
+            channel.release();
+        }
+
+        void close() {
+            buffer.force();
+            channel.release();
+        }
+    }
+}
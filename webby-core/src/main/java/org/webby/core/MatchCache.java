@@ -0,0 +1,167 @@
+package org.webby.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of {@link Router} matches keyed by HTTP method and request path.
+ *
+ * <p>Lookups are plain {@link ConcurrentHashMap} reads and never lock. Every hit bumps an approximate use counter on
+ * the entry. Once the cache grows past its bound, one thread evicts the least frequently used entries until a quarter
+ * of the capacity is free again. After ten times the capacity has been evicted, the counters of the survivors are
+ * halved so that popularity that is no longer earned fades away. Concurrent inserts never wait for an eviction in
+ * progress.
+ */
+final class MatchCache {
+    private final int maxEntries;
+    private final Counters counters;
+    private final Map<String, Match>[] byMethod;
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private int evictedSinceAging;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param maxEntries maximum number of cached matches across all methods
+     * @param counters statistics shared by the caches of successive route tables
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    MatchCache(int maxEntries, Counters counters) {
+        this.maxEntries = maxEntries;
+        this.counters = counters;
+        this.byMethod = new Map[HttpMethod.values().length];
+        for (int i = 0; i < byMethod.length; i++) {
+            byMethod[i] = new ConcurrentHashMap<>();
+        }
+    }
+
+    /**
+     * Returns the cached match for the method and path, recording a hit or a miss.
+     *
+     * @param method request method
+     * @param path path portion of the request target
+     * @return cached match or {@code null}
+     */
+    Match get(HttpMethod method, String path) {
+        Match match = byMethod[method.ordinal()].get(path);
+        if (match == null) {
+            counters.misses.increment();
+            return null;
+        }
+        counters.hits.increment();
+        match.touch();
+        return match;
+    }
+
+    /**
+     * Caches a match, evicting rarely used entries when the cache is full.
+     *
+     * @param method request method
+     * @param path path portion of the request target
+     * @param match resolved match
+     */
+    void put(HttpMethod method, String path, Match match) {
+        if (byMethod[method.ordinal()].putIfAbsent(path, match) == null && size.incrementAndGet() > maxEntries) {
+            evict();
+        }
+    }
+
+    /**
+     * Returns the number of cached matches.
+     *
+     * @return current size
+     */
+    int size() {
+        return size.get();
+    }
+
+    private void evict() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            int excess = size.get() - (maxEntries - maxEntries / 4);
+            if (excess <= 0) {
+                return;
+            }
+            List<Match> matches = new ArrayList<>(size.get());
+            for (Map<String, Match> matchesByPath : byMethod) {
+                matches.addAll(matchesByPath.values());
+            }
+            int[] frequencies = new int[matches.size()];
+            for (int i = 0; i < frequencies.length; i++) {
+                frequencies[i] = matches.get(i).frequency;
+            }
+            Arrays.sort(frequencies);
+            int threshold = frequencies[Math.min(excess, frequencies.length) - 1];
+            int remaining = excess;
+            for (Map<String, Match> matchesByPath : byMethod) {
+                for (Map.Entry<String, Match> entry : matchesByPath.entrySet()) {
+                    if (remaining > 0
+                            && entry.getValue().frequency <= threshold
+                            && matchesByPath.remove(entry.getKey(), entry.getValue())) {
+                        remaining--;
+                    }
+                }
+            }
+            int evicted = excess - remaining;
+            size.addAndGet(-evicted);
+            counters.evictions.add(evicted);
+            evictedSinceAging += evicted;
+            if (evictedSinceAging >= 10L * maxEntries) {
+                evictedSinceAging = 0;
+                for (Map<String, Match> matchesByPath : byMethod) {
+                    for (Match match : matchesByPath.values()) {
+                        match.frequency >>>= 1;
+                    }
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    /**
+     * Resolved route for a cached path. The captured ranges are offsets into the path and are shared by every request
+     * that hits the entry, so they must never be modified.
+     */
+    static final class Match {
+        final String route;
+        final RequestHandler handler;
+        final String[] variableNames;
+        final int[] ranges;
+        final long maxBodySize;
+        // Updated without synchronization: lost increments only make the eviction order slightly less precise.
+        int frequency;
+
+        Match(String route, RequestHandler handler, String[] variableNames, int[] ranges, long maxBodySize) {
+            this.route = route;
+            this.handler = handler;
+            this.variableNames = variableNames;
+            this.ranges = ranges;
+            this.maxBodySize = maxBodySize;
+        }
+
+        void touch() {
+            if (frequency < Integer.MAX_VALUE) {
+                frequency++;
+            }
+        }
+    }
+
+    /**
+     * Hit, miss and eviction counts. They outlive the cache itself, which is rebuilt whenever routes change.
+     */
+    static final class Counters {
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder evictions = new LongAdder();
+    }
+}
@@ -0,0 +1,235 @@
+package org.webby.core;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Middleware that records request counts, bytes received and sent, and latency histograms per route template, method
+ * and status, and serves them in the Prometheus text exposition format.
+ *
+ * <p>Requests are labelled with {@link Request#route()}, so {@code /users/42} and {@code /users/7} are both counted
+ * under {@code /users/{id}} and the number of series stays bounded by the number of routes. Attach the middleware to
+ * the {@link Router} with {@link Router#use(RequestMiddleware)} to instrument every route, or to the server to also
+ * count requests that match no route; those carry an empty {@code route} label. Mount {@link #handler()} to expose the
+ * metrics:
+ *
+ * <pre>{@code
+ * MetricsMiddleware metrics = new MetricsMiddleware();
+ * router.use(metrics).get("/metrics", metrics.handler());
+ * }</pre>
+ *
+ * <p>Recording takes no lock and allocates nothing once a series exists: series are found by route template and
+ * indexed by method and status, and each one holds a {@link LatencyHistogram} and two byte counters. Requests whose
+ * handler throws are recorded as {@code 500}, and handlers that return {@code null} as {@code 204}.
+ */
+public final class MetricsMiddleware implements RequestMiddleware {
+    private static final String[] BUCKET_LABELS = {
+        "0.0005", "0.001", "0.0025", "0.005", "0.01", "0.025", "0.05", "0.1", "0.25", "0.5", "1", "2.5", "5", "10"
+    };
+    private static final long[] BUCKET_NANOS = Prometheus.bucketNanos(BUCKET_LABELS);
+    private static final HttpMethod[] METHODS = HttpMethod.values();
+    private static final HttpStatus[] STATUSES = HttpStatus.values();
+
+    private final LongSupplier ticker;
+    private final Map<String, RouteSeries> routes = new ConcurrentHashMap<>();
+    private final RouteSeries unmatched = new RouteSeries("");
+    private final LongAdder inFlight = new LongAdder();
+
+    /**
+     * Creates middleware with no recorded requests.
+     */
+    public MetricsMiddleware() {
+        this(System::nanoTime);
+    }
+
+    MetricsMiddleware(LongSupplier ticker) {
+        this.ticker = ticker;
+    }
+
+    @Override
+    public Response handle(Request request, RequestHandler next) {
+        long start = ticker.getAsLong();
+        inFlight.increment();
+        Response response = null;
+        boolean completed = false;
+        try {
+            response = next.handle(request);
+            completed = true;
+            return response;
+        } finally {
+            inFlight.decrement();
+            long elapsed = ticker.getAsLong() - start;
+            HttpMethod method = request.method();
+            HttpStatus status;
+            if (!completed) {
+                status = HttpStatus.INTERNAL_SERVER_ERROR;
+            } else {
+                // Engines answer a null response with 204.
+                status = response == null ? HttpStatus.NO_CONTENT : response.status();
+            }
+            Series series = routeSeries(request.route()).series(method, status);
+            series.latency.record(elapsed);
+            series.bytesIn.add(request.bodyLength());
+            if (response != null && method != HttpMethod.HEAD) {
+                series.bytesOut.add(response.bodyLength());
+            }
+        }
+    }
+
+    /**
+     * Returns a handler that answers with all metrics in the Prometheus text format.
+     *
+     * @return metrics handler
+     */
+    public RequestHandler handler() {
+        return Prometheus.handler(this::scrape);
+    }
+
+    /**
+     * Returns the number of requests currently being handled.
+     *
+     * @return in-flight requests
+     */
+    public long inFlight() {
+        return inFlight.sum();
+    }
+
+    /**
+     * Returns the latency histogram of one series.
+     *
+     * @param method request method
+     * @param route route template, as returned by {@link Request#route()}, or {@code null} for unmatched requests
+     * @param status response status
+     * @return histogram, or {@code null} if no such request was recorded
+     */
+    public LatencyHistogram latency(HttpMethod method, String route, HttpStatus status) {
+        RouteSeries routeSeries = route == null ? unmatched : routes.get(route);
+        if (routeSeries == null) {
+            return null;
+        }
+        Series series = routeSeries.series.get(RouteSeries.index(method, status));
+        return series == null ? null : series.latency;
+    }
+
+    /**
+     * Renders the metrics in the Prometheus text exposition format, version 0.0.4.
+     */
+    String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        out.append("# HELP webby_http_requests_in_flight Requests currently being handled.\n")
+                .append("# TYPE webby_http_requests_in_flight gauge\n")
+                .append("webby_http_requests_in_flight ").append(inFlight.sum()).append('\n');
+        Map<String, Series> labelled = new TreeMap<>();
+        unmatched.collect(labelled);
+        for (RouteSeries routeSeries : routes.values()) {
+            routeSeries.collect(labelled);
+        }
+        counter(out, "webby_http_requests_total", "Requests handled.", labelled, Metric.REQUESTS);
+        counter(out, "webby_http_request_bytes_total", "Request body bytes received.", labelled, Metric.BYTES_IN);
+        counter(out, "webby_http_response_bytes_total", "Response body bytes sent.", labelled, Metric.BYTES_OUT);
+        out.append("# HELP webby_http_request_duration_seconds Time spent handling requests.\n")
+                .append("# TYPE webby_http_request_duration_seconds histogram\n");
+        for (Map.Entry<String, Series> entry : labelled.entrySet()) {
+            Prometheus.histogram(out, "webby_http_request_duration_seconds", entry.getKey(), BUCKET_LABELS,
+                    entry.getValue().latency);
+        }
+        return out.toString();
+    }
+
+    private RouteSeries routeSeries(String route) {
+        if (route == null) {
+            return unmatched;
+        }
+        RouteSeries series = routes.get(route);
+        return series != null ? series : routes.computeIfAbsent(route, RouteSeries::new);
+    }
+
+    private static void counter(
+            StringBuilder out, String name, String help, Map<String, Series> labelled, Metric metric) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(" counter\n");
+        for (Map.Entry<String, Series> entry : labelled.entrySet()) {
+            Series series = entry.getValue();
+            long value = switch (metric) {
+                case REQUESTS -> series.latency.count();
+                case BYTES_IN -> series.bytesIn.sum();
+                case BYTES_OUT -> series.bytesOut.sum();
+            };
+            out.append(name).append('{').append(entry.getKey()).append("} ").append(value).append('\n');
+        }
+    }
+
+    private static void escape(StringBuilder out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> out.append("\\\\");
+                case '"' -> out.append("\\\"");
+                case '\n' -> out.append("\\n");
+                default -> out.append(c);
+            }
+        }
+    }
+
+    private enum Metric {
+        REQUESTS, BYTES_IN, BYTES_OUT
+    }
+
+    /**
+     * Series of one route template, indexed by method (with a trailing slot for requests without a known method) and
+     * status. Series are created on first use.
+     */
+    private static final class RouteSeries {
+        private final String route;
+        private final AtomicReferenceArray<Series> series =
+                new AtomicReferenceArray<>((METHODS.length + 1) * STATUSES.length);
+
+        RouteSeries(String route) {
+            this.route = route;
+        }
+
+        static int index(HttpMethod method, HttpStatus status) {
+            int methodIndex = method == null ? METHODS.length : method.ordinal();
+            return methodIndex * STATUSES.length + status.ordinal();
+        }
+
+        Series series(HttpMethod method, HttpStatus status) {
+            int index = index(method, status);
+            Series existing = series.get(index);
+            if (existing != null) {
+                return existing;
+            }
+            Series created = new Series();
+            return series.compareAndSet(index, null, created) ? created : series.get(index);
+        }
+
+        /**
+         * Adds the recorded series under their rendered label sets.
+         */
+        void collect(Map<String, Series> labelled) {
+            for (int i = 0; i < series.length(); i++) {
+                Series recorded = series.get(i);
+                if (recorded == null) {
+                    continue;
+                }
+                int methodIndex = i / STATUSES.length;
+                StringBuilder labels = new StringBuilder("route=\"");
+                escape(labels, route);
+                labels.append("\",method=\"")
+                        .append(methodIndex == METHODS.length ? "UNKNOWN" : METHODS[methodIndex].name())
+                        .append("\",status=\"").append(STATUSES[i % STATUSES.length].code()).append('"');
+                labelled.put(labels.toString(), recorded);
+            }
+        }
+    }
+
+    private static final class Series {
+        final LatencyHistogram latency = new LatencyHistogram(BUCKET_NANOS);
+        final LongAdder bytesIn = new LongAdder();
+        final LongAdder bytesOut = new LongAdder();
+    }
+}
@@ -1,26 +1,93 @@
 package org.webby.core;
 
-final class MiddlewareChain {
-    private final RequestMiddleware head;
-    private final MiddlewareChain tail;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
 
-    private MiddlewareChain(RequestMiddleware head, MiddlewareChain tail) {
-        this.head = head;
-        this.tail = tail;
+/**
+ * Ordered middleware that compiles into a flat, array-backed {@link RequestHandler}. Engines use it for server-wide
+ * middleware and {@link Router} uses it for per-route pipelines.
+ */
+public final class MiddlewareChain {
+    private final RequestMiddleware[] middlewares;
+
+    private MiddlewareChain(RequestMiddleware[] middlewares) {
+        this.middlewares = middlewares;
     }
 
-    static MiddlewareChain append(MiddlewareChain chain, RequestMiddleware middleware) {
+    /**
+     * Returns a chain with middleware appended. Middlewares are invoked in the order they are appended. Chains are
+     * immutable: the chain passed in is left unchanged, so it can be extended in different ways. Each append copies
+     * the chain; to build one from many middlewares, collect them in a list and use
+     * {@link #compile(List, RequestHandler)}.
+     *
+     * @param chain chain to extend, or {@code null} to start a new one
+     * @param middleware middleware to append
+     * @return new chain ending with the middleware
+     */
+    public static MiddlewareChain append(MiddlewareChain chain, RequestMiddleware middleware) {
+        Objects.requireNonNull(middleware, "middleware");
         if (chain == null) {
-            return new MiddlewareChain(middleware, null);
+            return new MiddlewareChain(new RequestMiddleware[] {middleware});
         }
-        return new MiddlewareChain(chain.head, append(chain.tail, middleware));
+        RequestMiddleware[] extended = Arrays.copyOf(chain.middlewares, chain.middlewares.length + 1);
+        extended[chain.middlewares.length] = middleware;
+        return new MiddlewareChain(extended);
+    }
+
+    /**
+     * Compiles the chain's middlewares around the terminal handler.
+     *
+     * @param terminal handler invoked after the last middleware
+     * @return handler running the whole chain
+     */
+    public RequestHandler wrap(RequestHandler terminal) {
+        return compile(middlewares, terminal);
     }
 
-    RequestHandler wrap(RequestHandler terminal) {
-        if (head == null) {
+    /**
+     * Compiles middlewares around a terminal handler in a single pass. The list is copied, so later changes to it do
+     * not affect the returned handler.
+     *
+     * @param middlewares middlewares in invocation order
+     * @param terminal handler invoked after the last middleware
+     * @return handler running the middlewares, or {@code terminal} itself if there are none
+     */
+    public static RequestHandler compile(List<RequestMiddleware> middlewares, RequestHandler terminal) {
+        return compile(middlewares.toArray(new RequestMiddleware[0]), terminal);
+    }
+
+    private static RequestHandler compile(RequestMiddleware[] middlewares, RequestHandler terminal) {
+        Objects.requireNonNull(terminal, "terminal");
+        if (middlewares.length == 0) {
             return terminal;
         }
-        RequestHandler next = tail == null ? terminal : tail.wrap(terminal);
-        return request -> head.handle(request, next);
+        RequestHandler[] steps = new RequestHandler[middlewares.length + 1];
+        steps[middlewares.length] = terminal;
+        for (int i = 0; i < middlewares.length; i++) {
+            steps[i] = new Step(middlewares, steps, i);
+        }
+        return steps[0];
+    }
+
+    /**
+     * Invokes the middleware at {@code index}, handing it the next step as its continuation. All steps of a chain
+     * share the same arrays, so dispatch never allocates.
+     */
+    private static final class Step implements RequestHandler {
+        private final RequestMiddleware[] middlewares;
+        private final RequestHandler[] steps;
+        private final int index;
+
+        Step(RequestMiddleware[] middlewares, RequestHandler[] steps, int index) {
+            this.middlewares = middlewares;
+            this.steps = steps;
+            this.index = index;
+        }
+
+        @Override
+        public Response handle(Request request) {
+            return middlewares[index].handle(request, steps[index + 1]);
+        }
     }
 }
@@ -0,0 +1,473 @@
+package org.webby.core;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Streaming decoder for {@code multipart/form-data} bodies.
+ *
+ * <p>Parts are read one after another from the body stream; each exposes its headers and a stream over its content,
+ * which ends at the next boundary. Only a fixed window of the body is held in memory at a time, so together with a
+ * body that the engine {@linkplain BodyLimits spilled to disk} an upload of any size is handled in constant memory, and
+ * {@link Part#transferTo(Path)} writes a file part straight from that window to its destination:
+ *
+ * <pre>{@code
+ * try (MultipartReader multipart = MultipartReader.of(request)) {
+ *     for (MultipartReader.Part part; (part = multipart.next()) != null; ) {
+ *         if (part.filename() != null) {
+ *             part.transferTo(uploads.resolve(UUID.randomUUID().toString()));
+ *         } else {
+ *             fields.put(part.name(), part.text());
+ *         }
+ *     }
+ * }
+ * }</pre>
+ *
+ * <p>Boundaries are found with the Boyer-Moore-Horspool algorithm, which skips ahead by up to the length of the
+ * delimiter for every byte it inspects, so scanning a part costs a fraction of a comparison per byte. Moving to the
+ * next part skips whatever is left of the current one. A reader is not thread-safe.
+ */
+public final class MultipartReader implements Closeable {
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_HEADER_BYTES = 16 * 1024;
+    private static final String MULTIPART = "multipart/";
+
+    private final InputStream input;
+    private final byte[] delimiter;
+    private final int[] shift = new int[256];
+    private final byte[] buffer;
+    private int position;
+    private int limit;
+    private int match;
+    private boolean matchKnown;
+    private Part current;
+    private boolean started;
+    private boolean finished;
+
+    /**
+     * Creates a reader over a multipart body.
+     *
+     * @param input body stream, positioned at the start of the body
+     * @param boundary boundary parameter of the {@code Content-Type} header, without the leading dashes
+     * @throws IllegalArgumentException if the boundary is empty or longer than 70 characters
+     */
+    public MultipartReader(InputStream input, String boundary) {
+        this.input = Objects.requireNonNull(input, "input");
+        Objects.requireNonNull(boundary, "boundary");
+        if (boundary.isEmpty() || boundary.length() > 70) {
+            throw new IllegalArgumentException("boundary must be 1 to 70 characters long");
+        }
+        // Every delimiter but the first is preceded by CRLF; the buffer starts with a CRLF so the first one is too.
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        Arrays.fill(shift, delimiter.length);
+        for (int i = 0; i < delimiter.length - 1; i++) {
+            shift[delimiter[i] & 0xff] = delimiter.length - 1 - i;
+        }
+        this.buffer = new byte[BUFFER_SIZE];
+        buffer[0] = '\r';
+        buffer[1] = '\n';
+        this.limit = 2;
+    }
+
+    /**
+     * Creates a reader over the body of a {@code multipart/form-data} request.
+     *
+     * @param request request whose body is read through {@link Request#bodyStream()}
+     * @return reader
+     * @throws IllegalArgumentException if the request is not a multipart request with a boundary
+     */
+    public static MultipartReader of(Request request) {
+        String contentType = request.header("Content-Type");
+        String boundary = contentType == null || !contentType.regionMatches(true, 0, MULTIPART, 0, MULTIPART.length())
+                ? null
+                : parameter(contentType, "boundary");
+        if (boundary == null) {
+            throw new IllegalArgumentException("Request is not multipart with a boundary: " + contentType);
+        }
+        return new MultipartReader(request.bodyStream(), boundary);
+    }
+
+    /**
+     * Advances to the next part, skipping the unread content of the current one.
+     *
+     * @return next part, or {@code null} after the last one
+     * @throws EOFException if the body ends before the closing delimiter
+     * @throws IOException if the body is malformed or cannot be read
+     */
+    public Part next() throws IOException {
+        if (finished) {
+            return null;
+        }
+        if (current != null) {
+            current.content.skipRemaining();
+        } else if (!started) {
+            // Skip the preamble up to the first delimiter.
+            new PartStream().skipRemaining();
+        }
+        started = true;
+        ensure(2);
+        if (buffer[position] == '-' && buffer[position + 1] == '-') {
+            // Closing delimiter; whatever follows is an epilogue to ignore.
+            finished = true;
+            current = null;
+            return null;
+        }
+        while (true) {
+            ensure(1);
+            byte next = buffer[position];
+            if (next != ' ' && next != '\t') {
+                break;
+            }
+            position++;
+        }
+        ensure(2);
+        if (buffer[position] != '\r' || buffer[position + 1] != '\n') {
+            throw new IOException("Malformed multipart delimiter");
+        }
+        position += 2;
+        current = new Part(readHeaders(), new PartStream());
+        return current;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    private Map<String, String> readHeaders() throws IOException {
+        Map<String, String> headers = new LinkedHashMap<>();
+        int consumed = 0;
+        while (true) {
+            int end = lineEnd();
+            consumed += end - position + 2;
+            if (consumed > MAX_HEADER_BYTES) {
+                throw new IOException("Multipart headers exceed " + MAX_HEADER_BYTES + " bytes");
+            }
+            if (end == position) {
+                position += 2;
+                return HeaderView.wrap(headers);
+            }
+            String line = new String(buffer, position, end - position, StandardCharsets.UTF_8);
+            position = end + 2;
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the CRLF ending the line at the current position, reading more of the body as needed.
+     */
+    private int lineEnd() throws IOException {
+        int scanned = 0;
+        while (true) {
+            for (int i = position + scanned; i + 1 < limit; i++) {
+                if (buffer[i] == '\r' && buffer[i + 1] == '\n') {
+                    return i;
+                }
+            }
+            // The last buffered byte may be the CR of a CRLF that has not arrived yet.
+            scanned = Math.max(0, limit - position - 1);
+            if (limit - position == buffer.length) {
+                throw new IOException("Multipart header line exceeds " + buffer.length + " bytes");
+            }
+            if (!fill()) {
+                throw new EOFException("Multipart body ended inside part headers");
+            }
+        }
+    }
+
+    /**
+     * Finds the next delimiter at or after the current position with Boyer-Moore-Horspool. The result stays valid
+     * until the buffer is refilled.
+     *
+     * @return index of the delimiter, or {@code -1} if the buffered bytes hold no complete delimiter
+     */
+    private int findDelimiter() {
+        if (!matchKnown) {
+            match = -1;
+            int last = delimiter.length - 1;
+            for (int i = position; i + last < limit; i += shift[buffer[i + last] & 0xff]) {
+                int j = last;
+                while (buffer[i + j] == delimiter[j]) {
+                    if (j == 0) {
+                        match = i;
+                        break;
+                    }
+                    j--;
+                }
+                if (match >= 0) {
+                    break;
+                }
+            }
+            matchKnown = true;
+        }
+        return match;
+    }
+
+    private void ensure(int count) throws IOException {
+        while (limit - position < count) {
+            if (!fill()) {
+                throw new EOFException("Multipart body ended before the closing delimiter");
+            }
+        }
+    }
+
+    /**
+     * Moves the unread bytes to the front of the buffer and reads more behind them.
+     *
+     * @return {@code false} if the body has ended
+     */
+    private boolean fill() throws IOException {
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        matchKnown = false;
+        int read = input.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            return false;
+        }
+        limit += read;
+        return true;
+    }
+
+    /**
+     * Returns a parameter of a header value such as {@code form-data; name="file"; filename="a.txt"}.
+     */
+    static String parameter(String header, String name) {
+        int length = header.length();
+        int separator = header.indexOf(';');
+        while (separator >= 0) {
+            int start = separator + 1;
+            int equals = header.indexOf('=', start);
+            if (equals < 0) {
+                return null;
+            }
+            String key = header.substring(start, equals).trim();
+            int valueStart = equals + 1;
+            while (valueStart < length && header.charAt(valueStart) == ' ') {
+                valueStart++;
+            }
+            String value;
+            if (valueStart < length && header.charAt(valueStart) == '"') {
+                // Browsers percent-encode quotes in names and keep backslashes literally, so there are no escapes.
+                int close = header.indexOf('"', valueStart + 1);
+                int valueEnd = close < 0 ? length : close;
+                value = header.substring(valueStart + 1, valueEnd);
+                separator = header.indexOf(';', valueEnd);
+            } else {
+                separator = header.indexOf(';', valueStart);
+                value = header.substring(valueStart, separator < 0 ? length : separator).trim();
+            }
+            if (key.equalsIgnoreCase(name)) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * One part of the body. Its content can be read until the reader advances to the next part.
+     */
+    public final class Part {
+        private final Map<String, String> headers;
+        private final PartStream content;
+
+        private Part(Map<String, String> headers, PartStream content) {
+            this.headers = headers;
+            this.content = content;
+        }
+
+        /**
+         * Returns the part headers.
+         *
+         * @return read-only headers; lookups ignore case
+         */
+        public Map<String, String> headers() {
+            return headers;
+        }
+
+        /**
+         * Returns a part header.
+         *
+         * @param name header name
+         * @return header value, or {@code null} if absent
+         */
+        public String header(String name) {
+            return headers.get(name);
+        }
+
+        /**
+         * Returns the form field name from {@code Content-Disposition}.
+         *
+         * @return field name, or {@code null} if absent
+         */
+        public String name() {
+            String disposition = headers.get("Content-Disposition");
+            return disposition == null ? null : parameter(disposition, "name");
+        }
+
+        /**
+         * Returns the file name the client supplied for a file part. It is chosen by the client and must not be used
+         * as a path without validation.
+         *
+         * @return file name, or {@code null} for a plain field
+         */
+        public String filename() {
+            String disposition = headers.get("Content-Disposition");
+            return disposition == null ? null : parameter(disposition, "filename");
+        }
+
+        /**
+         * Returns the content type of the part.
+         *
+         * @return content type, {@code text/plain} if the part declares none
+         */
+        public String contentType() {
+            return headers.getOrDefault("Content-Type", "text/plain");
+        }
+
+        /**
+         * Returns the stream over the part content. The stream ends at the next boundary; closing it skips the rest of
+         * the part.
+         *
+         * @return content stream
+         */
+        public InputStream content() {
+            return content;
+        }
+
+        /**
+         * Reads the remaining content as UTF-8 text. Meant for plain fields; stream file parts instead.
+         *
+         * @return text content
+         * @throws IOException if the body cannot be read
+         */
+        public String text() throws IOException {
+            return new String(content.readAllBytes(), StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Writes the remaining content to a file, replacing it if it exists, directly from the reader's buffer.
+         *
+         * @param file destination
+         * @return number of bytes written
+         * @throws IOException if the body cannot be read or the file cannot be written
+         */
+        public long transferTo(Path file) throws IOException {
+            try (OutputStream out = Files.newOutputStream(file)) {
+                return content.transferTo(out);
+            }
+        }
+    }
+
+    /**
+     * Content of one part, or of the preamble: the bytes before the next delimiter. After the delimiter is reached
+     * the reader is positioned right behind it.
+     */
+    private final class PartStream extends InputStream {
+        private boolean ended;
+
+        @Override
+        public int read() throws IOException {
+            int available = available(1);
+            return available <= 0 ? -1 : buffer[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) throws IOException {
+            Objects.checkFromIndexSize(offset, length, target.length);
+            if (length == 0) {
+                return 0;
+            }
+            int available = available(length);
+            if (available <= 0) {
+                return -1;
+            }
+            System.arraycopy(buffer, position, target, offset, available);
+            position += available;
+            return available;
+        }
+
+        @Override
+        public long transferTo(OutputStream out) throws IOException {
+            long transferred = 0;
+            int available;
+            while ((available = available(Integer.MAX_VALUE)) > 0) {
+                out.write(buffer, position, available);
+                position += available;
+                transferred += available;
+            }
+            return transferred;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = 0;
+            int available;
+            while (skipped < count && (available = available((int) Math.min(count - skipped, buffer.length))) > 0) {
+                position += available;
+                skipped += available;
+            }
+            return skipped;
+        }
+
+        @Override
+        public void close() throws IOException {
+            skipRemaining();
+        }
+
+        void skipRemaining() throws IOException {
+            int available;
+            while ((available = available(Integer.MAX_VALUE)) > 0) {
+                position += available;
+            }
+        }
+
+        /**
+         * Returns how many content bytes, at most {@code wanted}, can be consumed from the buffer at the current
+         * position, reading more of the body if none can. Bytes that could begin a delimiter are held back until the
+         * buffer shows whether they do.
+         *
+         * @return available bytes, or {@code -1} once the delimiter has been reached and consumed
+         */
+        private int available(int wanted) throws IOException {
+            if (ended) {
+                return -1;
+            }
+            while (true) {
+                int found = findDelimiter();
+                int end = found >= 0 ? found : safeEnd();
+                if (end > position) {
+                    return Math.min(wanted, end - position);
+                }
+                if (found == position) {
+                    position += delimiter.length;
+                    matchKnown = false;
+                    ended = true;
+                    return -1;
+                }
+                if (!fill()) {
+                    throw new EOFException("Multipart body ended before the closing delimiter");
+                }
+            }
+        }
+
+        private int safeEnd() {
+            return limit - (delimiter.length - 1);
+        }
+    }
+}
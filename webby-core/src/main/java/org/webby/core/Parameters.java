@@ -0,0 +1,233 @@
+package org.webby.core;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Read-only, multi-valued parameters in {@code application/x-www-form-urlencoded} form, as found in query strings and
+ * form bodies.
+ *
+ * <p>Parsing only records where each name and value starts and ends in the source; names and values are
+ * percent-decoded ({@code +} meaning a space) when they are read. Malformed escapes are kept literally instead of
+ * failing the request.
+ */
+public final class Parameters {
+    private static final Parameters EMPTY = new Parameters("", new int[0]);
+
+    private final String source;
+    // Three offsets per parameter: name start, name end (the '=' or the value end), value end.
+    private final int[] bounds;
+
+    private Parameters(String source, int[] bounds) {
+        this.source = source;
+        this.bounds = bounds;
+    }
+
+    /**
+     * Returns an instance without parameters.
+     *
+     * @return empty parameters
+     */
+    public static Parameters empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Parses {@code name=value} pairs separated by {@code &}. Empty pairs are skipped, and a pair without {@code =}
+     * has an empty value.
+     *
+     * @param encoded encoded parameters without the leading {@code ?}
+     * @return parsed parameters
+     */
+    public static Parameters parse(String encoded) {
+        return parse(encoded, 0, encoded.length());
+    }
+
+    static Parameters parse(String source, int start, int end) {
+        if (start >= end) {
+            return EMPTY;
+        }
+        int separators = 0;
+        for (int i = start; i < end; i++) {
+            if (source.charAt(i) == '&') {
+                separators++;
+            }
+        }
+        int[] bounds = new int[(separators + 1) * 3];
+        int count = 0;
+        int pairStart = start;
+        int equals = -1;
+        for (int i = start; i <= end; i++) {
+            char c = i == end ? '&' : source.charAt(i);
+            if (c == '=' && equals < 0) {
+                equals = i;
+            } else if (c == '&') {
+                if (i > pairStart) {
+                    bounds[count++] = pairStart;
+                    bounds[count++] = equals < 0 ? i : equals;
+                    bounds[count++] = i;
+                }
+                pairStart = i + 1;
+                equals = -1;
+            }
+        }
+        if (count == 0) {
+            return EMPTY;
+        }
+        return new Parameters(source, count == bounds.length ? bounds : Arrays.copyOf(bounds, count));
+    }
+
+    /**
+     * Returns the first value of the named parameter.
+     *
+     * @param name decoded parameter name
+     * @return decoded value, empty when the parameter has no {@code =}, or {@code null} when absent
+     */
+    public String first(String name) {
+        for (int i = 0; i < bounds.length; i += 3) {
+            if (nameMatches(i, name)) {
+                return value(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns every value of the named parameter in the order they appear.
+     *
+     * @param name decoded parameter name
+     * @return decoded values, empty when the parameter is absent
+     */
+    public List<String> all(String name) {
+        List<String> values = null;
+        for (int i = 0; i < bounds.length; i += 3) {
+            if (nameMatches(i, name)) {
+                if (values == null) {
+                    values = new ArrayList<>(2);
+                }
+                values.add(value(i));
+            }
+        }
+        return values == null ? List.of() : Collections.unmodifiableList(values);
+    }
+
+    /**
+     * Returns whether the named parameter is present.
+     *
+     * @param name decoded parameter name
+     * @return {@code true} if at least one value exists
+     */
+    public boolean contains(String name) {
+        for (int i = 0; i < bounds.length; i += 3) {
+            if (nameMatches(i, name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the distinct parameter names in the order they first appear.
+     *
+     * @return decoded names
+     */
+    public Set<String> names() {
+        Set<String> names = new LinkedHashSet<>();
+        for (int i = 0; i < bounds.length; i += 3) {
+            names.add(decode(source, bounds[i], bounds[i + 1]));
+        }
+        return Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * Returns the number of parameters, counting every value of a repeated name.
+     *
+     * @return parameter count
+     */
+    public int size() {
+        return bounds.length / 3;
+    }
+
+    /**
+     * Returns whether there are no parameters.
+     *
+     * @return {@code true} when empty
+     */
+    public boolean isEmpty() {
+        return bounds.length == 0;
+    }
+
+    private boolean nameMatches(int index, String name) {
+        int start = bounds[index];
+        int end = bounds[index + 1];
+        if (!needsDecoding(source, start, end)) {
+            return end - start == name.length() && source.regionMatches(start, name, 0, name.length());
+        }
+        return decode(source, start, end).equals(name);
+    }
+
+    private String value(int index) {
+        int start = bounds[index + 1];
+        int end = bounds[index + 2];
+        return start == end ? "" : decode(source, start + 1, end);
+    }
+
+    private static boolean needsDecoding(String source, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = source.charAt(i);
+            if (c == '%' || c == '+') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String decode(String source, int start, int end) {
+        if (!needsDecoding(source, start, end)) {
+            return source.substring(start, end);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(end - start);
+        StringBuilder decoded = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = source.charAt(i);
+            if (c == '%' && i + 2 < end && hex(source, i + 1) >= 0 && hex(source, i + 2) >= 0) {
+                bytes.write(hex(source, i + 1) << 4 | hex(source, i + 2));
+                i += 2;
+                continue;
+            }
+            flush(bytes, decoded);
+            decoded.append(c == '+' ? ' ' : c);
+        }
+        flush(bytes, decoded);
+        return decoded.toString();
+    }
+
+    private static void flush(ByteArrayOutputStream bytes, StringBuilder decoded) {
+        if (bytes.size() > 0) {
+            decoded.append(bytes.toString(StandardCharsets.UTF_8));
+            bytes.reset();
+        }
+    }
+
+    private static int hex(String source, int index) {
+        return Character.digit(source.charAt(index), 16);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("Parameters[");
+        for (int i = 0; i < bounds.length; i += 3) {
+            if (i > 0) {
+                text.append(", ");
+            }
+            text.append(decode(source, bounds[i], bounds[i + 1])).append('=').append(value(i));
+        }
+        return text.append(']').toString();
+    }
+}
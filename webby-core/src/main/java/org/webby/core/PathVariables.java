@@ -0,0 +1,70 @@
+package org.webby.core;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read-only view of the path variables captured by the {@link Router}. Captured values are stored as index ranges into
+ * the request target and only turned into strings when they are read.
+ */
+final class PathVariables extends AbstractMap<String, String> {
+    private final String target;
+    private final String[] names;
+    private final int[] ranges;
+    private Map<String, String> snapshot;
+
+    /**
+     * Creates a view over captured ranges.
+     *
+     * @param target raw request target the ranges point into
+     * @param names variable names in capture order
+     * @param ranges start (inclusive) and end (exclusive) offset pairs, one pair per name
+     */
+    PathVariables(String target, String[] names, int[] ranges) {
+        this.target = target;
+        this.names = names;
+        this.ranges = ranges;
+    }
+
+    @Override
+    public String get(Object key) {
+        for (int i = names.length - 1; i >= 0; i--) {
+            if (names[i].equals(key)) {
+                return target.substring(ranges[2 * i], ranges[2 * i + 1]);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return names.length == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        for (String name : names) {
+            if (name.equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        Map<String, String> current = snapshot;
+        if (current == null) {
+            Map<String, String> values = new LinkedHashMap<>();
+            for (int i = 0; i < names.length; i++) {
+                values.put(names[i], target.substring(ranges[2 * i], ranges[2 * i + 1]));
+            }
+            current = Collections.unmodifiableMap(values);
+            snapshot = current;
+        }
+        return current.entrySet();
+    }
+}
@@ -0,0 +1,32 @@
+package org.webby.core;
+
+import java.io.IOException;
+
+/**
+ * Signals that a request body is longer than the limit that applies to it. Engines answer it with
+ * {@code 413 Payload Too Large}.
+ */
+public final class PayloadTooLargeException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final long limit;
+
+    /**
+     * Creates an exception for the exceeded limit.
+     *
+     * @param limit maximum body length in bytes
+     */
+    public PayloadTooLargeException(long limit) {
+        super("Request body exceeds " + limit + " bytes");
+        this.limit = limit;
+    }
+
+    /**
+     * Returns the limit the body exceeded.
+     *
+     * @return maximum body length in bytes
+     */
+    public long limit() {
+        return limit;
+    }
+}
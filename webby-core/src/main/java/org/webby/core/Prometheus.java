@@ -0,0 +1,58 @@
+package org.webby.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Pieces of the Prometheus text exposition format, version 0.0.4, shared by the metrics classes.
+ */
+final class Prometheus {
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private Prometheus() {
+    }
+
+    /**
+     * Returns a handler that answers every request with a fresh scrape.
+     */
+    static RequestHandler handler(Supplier<String> scrape) {
+        return request -> new Response(
+                HttpStatus.OK, Map.of("Content-Type", CONTENT_TYPE), scrape.get().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Converts histogram bounds, written in seconds as they appear in {@code le} labels, to nanoseconds.
+     */
+    static long[] bucketNanos(String[] labels) {
+        long[] nanos = new long[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            nanos[i] = (long) (Double.parseDouble(labels[i]) * NANOS_PER_SECOND);
+        }
+        return nanos;
+    }
+
+    /**
+     * Appends the {@code _bucket}, {@code _sum} and {@code _count} samples of a histogram in seconds.
+     *
+     * @param labels labels shared by the samples, e.g. {@code route="/users"}, or an empty string
+     * @param bucketLabels bounds as written in the {@code le} labels
+     * @param histogram histogram created with the same bounds, converted by {@link #bucketNanos(String[])}
+     */
+    static void histogram(
+            StringBuilder out, String name, String labels, String[] bucketLabels, LatencyHistogram histogram) {
+        String prefix = labels.isEmpty() ? "{le=\"" : "{" + labels + ",le=\"";
+        String suffix = labels.isEmpty() ? " " : "{" + labels + "} ";
+        long[] cumulative = histogram.cumulativeCounts();
+        for (int i = 0; i <= bucketLabels.length; i++) {
+            out.append(name).append("_bucket").append(prefix)
+                    .append(i < bucketLabels.length ? bucketLabels[i] : "+Inf").append("\"} ")
+                    .append(cumulative[i]).append('\n');
+        }
+        out.append(name).append("_sum").append(suffix).append(histogram.sumNanos() / NANOS_PER_SECOND).append('\n');
+        out.append(name).append("_count").append(suffix).append(cumulative[bucketLabels.length]).append('\n');
+    }
+}
@@ -0,0 +1,243 @@
+package org.webby.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Middleware that limits the request rate per key, such as the client address, and answers requests over the limit
+ * with {@code 429 Too Many Requests} and a {@code Retry-After} header.
+ *
+ * <p>Limits follow the generic cell rate algorithm: each key may send {@code permitsPerSecond} requests per second on
+ * average, with bursts of up to {@code burst} requests. A key's whole state is one timestamp, its theoretical arrival
+ * time, so a key whose timestamp lies in the past behaves exactly like a key that was never seen and can be forgotten
+ * without loss.
+ *
+ * <p>State lives in a fixed-size, open-addressed table of {@code long} pairs (key hash, timestamp) updated with
+ * compare-and-set, so the request path takes no lock and allocates nothing besides the key itself. Keys are probed in
+ * a short window of slots; slots of idle keys are reclaimed in place. When every slot in the window belongs to an
+ * active key the request is let through and counted as untracked, so size the table for the number of keys that can
+ * be active at the same time (32 bytes per key). Two keys whose 64-bit hashes collide share a limit.
+ */
+public final class RateLimitMiddleware implements RequestMiddleware {
+    /** Number of simultaneously limited keys the table is sized for unless configured otherwise. */
+    public static final int DEFAULT_MAX_KEYS = 1 << 16;
+
+    private static final int PROBES = 8;
+    private static final long EMPTY = 0;
+    private static final byte[] BODY = "Too Many Requests".getBytes(StandardCharsets.UTF_8);
+
+    private final long interval;
+    private final long tolerance;
+    private final Function<Request, String> keyFunction;
+    private final LongSupplier ticker;
+    private final long origin;
+    // Slot i occupies index 2i (key hash) and 2i + 1 (theoretical arrival time).
+    private final AtomicLongArray slots;
+    private final int mask;
+    private final Response[] rejections = new Response[61];
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder limited = new LongAdder();
+    private final LongAdder untracked = new LongAdder();
+
+    /**
+     * Creates a limiter sized for {@link #DEFAULT_MAX_KEYS} active keys.
+     *
+     * @param permitsPerSecond sustained rate allowed per key
+     * @param burst number of requests a key may send at once after being idle
+     * @param keyFunction extracts the key of a request; requests whose key is {@code null} are not limited
+     */
+    public RateLimitMiddleware(double permitsPerSecond, int burst, Function<Request, String> keyFunction) {
+        this(permitsPerSecond, burst, keyFunction, DEFAULT_MAX_KEYS);
+    }
+
+    /**
+     * Creates a limiter.
+     *
+     * @param permitsPerSecond sustained rate allowed per key
+     * @param burst number of requests a key may send at once after being idle
+     * @param keyFunction extracts the key of a request; requests whose key is {@code null} are not limited
+     * @param maxKeys number of keys that may be limited at the same time
+     * @throws IllegalArgumentException if the rate is not positive and finite, or {@code burst} or {@code maxKeys} is
+     *                                  not positive
+     */
+    public RateLimitMiddleware(
+            double permitsPerSecond, int burst, Function<Request, String> keyFunction, int maxKeys) {
+        this(permitsPerSecond, burst, keyFunction, maxKeys, System::nanoTime);
+    }
+
+    RateLimitMiddleware(
+            double permitsPerSecond,
+            int burst,
+            Function<Request, String> keyFunction,
+            int maxKeys,
+            LongSupplier ticker) {
+        if (!(permitsPerSecond > 0) || Double.isInfinite(permitsPerSecond) || burst <= 0 || maxKeys <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond, burst and maxKeys must be positive");
+        }
+        this.interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.tolerance = interval * (burst - 1L);
+        this.keyFunction = Objects.requireNonNull(keyFunction, "keyFunction");
+        this.ticker = ticker;
+        // Measure time from just before construction so that it is always after the zero stored in unused slots.
+        this.origin = ticker.getAsLong() - 1;
+        // Twice as many slots as keys keeps the probe windows short.
+        int capacity = Integer.highestOneBit(Math.min(maxKeys, 1 << 28) - 1) << 2;
+        this.slots = new AtomicLongArray(Math.max(2 * PROBES, capacity) * 2);
+        this.mask = slots.length() / 2 - 1;
+    }
+
+    /**
+     * Keys requests by the IP address of the client connection.
+     *
+     * @return key function
+     */
+    public static Function<Request, String> byClientAddress() {
+        return Request::remoteIp;
+    }
+
+    /**
+     * Keys requests by a header value, such as an API key. Requests without the header are not limited.
+     *
+     * @param name header name
+     * @return key function
+     */
+    public static Function<Request, String> byHeader(String name) {
+        Objects.requireNonNull(name, "name");
+        return request -> request.header(name);
+    }
+
+    /**
+     * Keys requests by method and path, so each route shares one limit across all clients.
+     *
+     * @return key function
+     */
+    public static Function<Request, String> byRoute() {
+        return request -> {
+            String target = Objects.toString(request.target(), "");
+            int query = target.indexOf('?');
+            return request.method() + " " + (query < 0 ? target : target.substring(0, query));
+        };
+    }
+
+    @Override
+    public Response handle(Request request, RequestHandler next) {
+        String key = keyFunction.apply(request);
+        if (key == null) {
+            return next.handle(request);
+        }
+        long wait = acquire(hash(key), ticker.getAsLong() - origin);
+        if (wait > 0) {
+            limited.increment();
+            return rejection(wait);
+        }
+        allowed.increment();
+        return next.handle(request);
+    }
+
+    /**
+     * Returns a snapshot of the limiter statistics.
+     *
+     * @return statistics
+     */
+    public Stats stats() {
+        return new Stats(allowed.sum(), limited.sum(), untracked.sum());
+    }
+
+    /**
+     * Takes a permit for the key.
+     *
+     * @return {@code 0} if the request may proceed, otherwise nanoseconds until it would be allowed
+     */
+    long acquire(long hash, long now) {
+        int start = (int) (hash ^ (hash >>> 32)) & mask;
+        int free = -1;
+        for (int probe = 0; probe < PROBES; probe++) {
+            int slot = (start + probe) & mask;
+            long owner = slots.get(2 * slot);
+            if (owner == hash) {
+                return update(slot, now);
+            }
+            if (free < 0 && (owner == EMPTY || slots.get(2 * slot + 1) - now <= 0)) {
+                free = slot;
+            }
+        }
+        if (free < 0) {
+            untracked.increment();
+            return 0;
+        }
+        // Claim the empty or idle slot. If another key got there first, let this request through rather than
+        // charging it to someone else's limit.
+        long owner = slots.get(2 * free);
+        boolean claimable = owner == EMPTY || slots.get(2 * free + 1) - now <= 0;
+        if (!(claimable && slots.compareAndSet(2 * free, owner, hash)) && slots.get(2 * free) != hash) {
+            untracked.increment();
+            return 0;
+        }
+        return update(free, now);
+    }
+
+    private long update(int slot, long now) {
+        int index = 2 * slot + 1;
+        while (true) {
+            long arrival = slots.get(index);
+            long base = arrival - now > 0 ? arrival : now;
+            long next = base + interval;
+            long excess = next - now - interval - tolerance;
+            if (excess > 0) {
+                return excess;
+            }
+            if (slots.compareAndSet(index, arrival, next)) {
+                return 0;
+            }
+        }
+    }
+
+    private Response rejection(long waitNanos) {
+        long seconds = Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+        if (seconds >= rejections.length) {
+            return newRejection(seconds);
+        }
+        int index = (int) seconds;
+        Response response = rejections[index];
+        if (response == null) {
+            response = newRejection(seconds);
+            rejections[index] = response;
+        }
+        return response;
+    }
+
+    private static Response newRejection(long seconds) {
+        return new Response(HttpStatus.TOO_MANY_REQUESTS, Map.of("Retry-After", Long.toString(seconds)), BODY)
+                .prepare();
+    }
+
+    /**
+     * 64-bit FNV-1a hash with a final avalanche step; never returns the empty marker.
+     */
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash == EMPTY ? 1 : hash;
+    }
+
+    /**
+     * Limiter statistics.
+     *
+     * @param allowed requests let through within their limit
+     * @param limited requests answered with {@code 429}
+     * @param untracked requests let through because no slot was free for their key
+     */
+    public record Stats(long allowed, long limited, long untracked) {
+    }
+}
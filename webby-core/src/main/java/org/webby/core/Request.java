@@ -1,39 +1,149 @@
 package org.webby.core;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Objects;
 
 /**
- * Immutable representation of an HTTP request.
+ * HTTP request as received by an engine.
  *
- * @param method HTTP method
- * @param target requested path (e.g. {@code /health})
- * @param version protocol identifier (e.g. {@code HTTP/1.1})
- * @param headers collection of request headers; keys are treated case-insensitively
- * @param body raw payload bytes, if present
- * @param pathVariables variables captured from templated route segments
+ * <p>A request is not immutable. The {@link Router} binds the template of the matched route and the variables captured
+ * for it to the request it dispatches instead of building a new request, and query and form parameters are parsed on
+ * first access and cached on the request. These are plain fields: the router binds them once, on the thread that
+ * dispatches the request and before any route middleware or handler runs, and a request is meant to stay confined to
+ * the thread handling it. Handing it to another thread through an executor or a concurrent collection makes the bound
+ * state visible there; sharing it through a plain field, or dispatching one request through two routers at once, does
+ * not. Because {@link #equals(Object)} includes the path variables, a request compared before and after routing is not
+ * equal to itself; {@link #withPathVariables(Map)} returns an independent copy.
+ *
+ * <p>Bodies longer than the engine's {@linkplain BodyLimits#memoryThreshold() memory threshold} are kept in a
+ * temporary file rather than in memory. Read them with {@link #bodyStream()} or {@link #bodyBuffer()}; {@link #body()}
+ * only serves bodies held in memory.
  */
-public record Request(
-        HttpMethod method,
-        String target,
-        String version,
-        Map<String, String> headers,
-        byte[] body,
-        Map<String, String> pathVariables) {
+public final class Request {
+    private static final byte[] EMPTY_BODY = new byte[0];
+    private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+
+    private final HttpMethod method;
+    private final String target;
+    private final String version;
+    private final Map<String, String> headers;
+    private final byte[] body;
+    private final Path bodyFile;
+    private final long bodyLength;
+    private final SocketAddress remoteAddress;
+    private Map<String, String> pathVariables;
+    private String route;
+    private Parameters queryParameters;
+    private Parameters formParameters;
+
     /**
-     * Canonical constructor that defensively copies mutable input.
+     * Creates a request, defensively copying mutable input. Header views are already read-only and are kept without
+     * copying.
      *
+     * @param method HTTP method
+     * @param target requested path (e.g. {@code /health})
+     * @param version protocol identifier (e.g. {@code HTTP/1.1})
+     * @param headers collection of request headers; keys are treated case-insensitively. {@link HeaderView}
+     *                instances are kept as-is so engines can expose their native headers without copying them
+     * @param body raw payload bytes, if present
+     * @param pathVariables variables captured from templated route segments
      * @throws NullPointerException if {@code headers} is {@code null}
      */
-    public Request {
-        headers = Collections.unmodifiableMap(new LinkedHashMap<>(Objects.requireNonNull(headers, "headers")));
-        body = body == null ? new byte[0] : body;
+    public Request(
+            HttpMethod method,
+            String target,
+            String version,
+            Map<String, String> headers,
+            byte[] body,
+            Map<String, String> pathVariables) {
+        this(method, target, version, headers, body, pathVariables, null);
+    }
+
+    /**
+     * Creates a request received from a known peer, defensively copying mutable input.
+     *
+     * @param method HTTP method
+     * @param target requested path (e.g. {@code /health})
+     * @param version protocol identifier (e.g. {@code HTTP/1.1})
+     * @param headers collection of request headers, see
+     *                {@link #Request(HttpMethod, String, String, Map, byte[], Map)}
+     * @param body raw payload bytes, if present
+     * @param pathVariables variables captured from templated route segments, may be {@code null}
+     * @param remoteAddress address of the connected client, may be {@code null}
+     * @throws NullPointerException if {@code headers} is {@code null}
+     */
+    public Request(
+            HttpMethod method,
+            String target,
+            String version,
+            Map<String, String> headers,
+            byte[] body,
+            Map<String, String> pathVariables,
+            SocketAddress remoteAddress) {
+        this(method, target, version, headers, body, null, 0, pathVariables, remoteAddress);
+    }
+
+    /**
+     * Creates a request whose body was spilled to a file by a {@link BodyBuffer}.
+     */
+    Request(
+            HttpMethod method,
+            String target,
+            String version,
+            Map<String, String> headers,
+            Path bodyFile,
+            long bodyLength,
+            SocketAddress remoteAddress) {
+        this(method, target, version, headers, null, bodyFile, bodyLength, null, remoteAddress);
+    }
+
+    /**
+     * Creates a copy of a routed request under another method, keeping the bound route, the path variables and the
+     * peer address. Headers are copied so the copy outlives engine header views that are recycled with the request.
+     */
+    Request(Request request, HttpMethod method) {
+        this(method, request.target, request.version, new LinkedHashMap<>(request.headers), request.body,
+                request.bodyFile, request.bodyLength, null, request.remoteAddress);
+        this.pathVariables = request.pathVariables;
+        this.route = request.route;
+    }
+
+    private Request(
+            HttpMethod method,
+            String target,
+            String version,
+            Map<String, String> headers,
+            byte[] body,
+            Path bodyFile,
+            long bodyLength,
+            Map<String, String> pathVariables,
+            SocketAddress remoteAddress) {
+        Objects.requireNonNull(headers, "headers");
+        this.method = method;
+        this.target = target;
+        this.version = version;
+        this.headers = headers instanceof HeaderView ? headers : HeaderView.wrap(new LinkedHashMap<>(headers));
+        this.body = body == null ? EMPTY_BODY : body;
+        this.bodyFile = bodyFile;
+        this.bodyLength = bodyFile == null ? this.body.length : bodyLength;
+        this.remoteAddress = remoteAddress;
         if (pathVariables == null || pathVariables.isEmpty()) {
-            pathVariables = Collections.emptyMap();
+            this.pathVariables = Collections.emptyMap();
         } else {
-            pathVariables = Collections.unmodifiableMap(new LinkedHashMap<>(pathVariables));
+            this.pathVariables = Collections.unmodifiableMap(new LinkedHashMap<>(pathVariables));
         }
     }
 
@@ -50,6 +160,130 @@ public record Request(
         this(method, target, version, headers, body, Collections.emptyMap());
     }
 
+    /**
+     * Returns the HTTP method.
+     *
+     * @return HTTP method
+     */
+    public HttpMethod method() {
+        return method;
+    }
+
+    /**
+     * Returns the raw request target, including any query string.
+     *
+     * @return requested path (e.g. {@code /health})
+     */
+    public String target() {
+        return target;
+    }
+
+    /**
+     * Returns the protocol identifier.
+     *
+     * @return protocol identifier (e.g. {@code HTTP/1.1})
+     */
+    public String version() {
+        return version;
+    }
+
+    /**
+     * Returns the request headers.
+     *
+     * @return read-only headers; lookups through {@link Map#get(Object)} ignore case
+     */
+    public Map<String, String> headers() {
+        return headers;
+    }
+
+    /**
+     * Returns the raw payload bytes of a body held in memory.
+     *
+     * @return body bytes, never {@code null}
+     * @throws IllegalStateException if the body was spilled to a file; use {@link #bodyStream()} or
+     *                               {@link #bodyBuffer()} instead
+     */
+    public byte[] body() {
+        if (bodyFile != null) {
+            throw new IllegalStateException(
+                    "Body of " + bodyLength + " bytes was spilled to disk; read it with bodyStream() or bodyBuffer()");
+        }
+        return body;
+    }
+
+    /**
+     * Returns the length of the body, wherever it is held.
+     *
+     * @return body length in bytes
+     */
+    public long bodyLength() {
+        return bodyLength;
+    }
+
+    /**
+     * Opens a stream over the body. Each call returns a new stream starting at the first byte.
+     *
+     * @return body stream; the caller closes it
+     * @throws UncheckedIOException if a spilled body cannot be opened
+     */
+    public InputStream bodyStream() {
+        if (bodyFile == null) {
+            return new ByteArrayInputStream(body);
+        }
+        try {
+            return Files.newInputStream(bodyFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns a read-only view of the body. A spilled body is memory-mapped, so its pages are read on access and
+     * never copied onto the heap.
+     *
+     * @return read-only buffer positioned at the first byte
+     * @throws UncheckedIOException if a spilled body cannot be mapped
+     */
+    public ByteBuffer bodyBuffer() {
+        if (bodyFile == null) {
+            return ByteBuffer.wrap(body).asReadOnlyBuffer();
+        }
+        try (FileChannel channel = FileChannel.open(bodyFile)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, bodyLength);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the temporary file holding a spilled body. The engine deletes it once the response has been produced;
+     * a handler that wants to keep the upload moves the file elsewhere.
+     *
+     * @return body file, or {@code null} if the body is held in memory
+     */
+    public Path bodyFile() {
+        return bodyFile;
+    }
+
+    /**
+     * Returns the template of the route the {@link Router} dispatched this request to, such as {@code /users/{id}}.
+     * Unlike the target, the template has a bounded set of values, which makes it suitable as a metrics label.
+     *
+     * @return route template, or {@code null} if the request has not been matched to a route
+     */
+    public String route() {
+        return route;
+    }
+
+    /**
+     * Returns the variables captured from templated route segments.
+     *
+     * @return read-only variables, empty when none were captured
+     */
+    public Map<String, String> pathVariables() {
+        return pathVariables;
+    }
+
     /**
      * Returns the first header value matching the supplied name, ignoring case.
      *
@@ -57,11 +291,28 @@ public record Request(
      * @return header value or {@code null} when absent
      */
     public String header(String name) {
-        return headers.entrySet().stream()
-                .filter(entry -> entry.getKey().equalsIgnoreCase(name))
-                .map(Map.Entry::getValue)
-                .findFirst()
-                .orElse(null);
+        return headers.get(name);
+    }
+
+    /**
+     * Returns the address of the client connection the request arrived on. Behind a proxy this is the proxy's
+     * address.
+     *
+     * @return peer address or {@code null} if the engine did not supply one
+     */
+    public SocketAddress remoteAddress() {
+        return remoteAddress;
+    }
+
+    /**
+     * Returns the IP address of the client connection as text.
+     *
+     * @return peer IP address or {@code null} if it is unknown or not an IP address
+     */
+    public String remoteIp() {
+        return remoteAddress instanceof InetSocketAddress inet && inet.getAddress() != null
+                ? inet.getAddress().getHostAddress()
+                : null;
     }
 
     /**
@@ -77,6 +328,64 @@ public record Request(
         return pathVariables.get(name);
     }
 
+    /**
+     * Returns the parameters of the query string, parsing them on first use.
+     *
+     * @return query parameters, empty when the target has no query
+     */
+    public Parameters queryParameters() {
+        Parameters parameters = queryParameters;
+        if (parameters == null) {
+            int query = target == null ? -1 : target.indexOf('?');
+            parameters = query < 0 ? Parameters.empty() : Parameters.parse(target, query + 1, target.length());
+            queryParameters = parameters;
+        }
+        return parameters;
+    }
+
+    /**
+     * Returns the first value of a query parameter.
+     *
+     * @param name decoded parameter name
+     * @return decoded value or {@code null} if absent
+     */
+    public String queryParameter(String name) {
+        return queryParameters().first(name);
+    }
+
+    /**
+     * Returns the parameters of an {@code application/x-www-form-urlencoded} body, parsing them on first use.
+     *
+     * @return form parameters, empty when the body has a different content type
+     */
+    public Parameters formParameters() {
+        Parameters parameters = formParameters;
+        if (parameters == null) {
+            String contentType = headers.get("Content-Type");
+            if (contentType != null
+                    && contentType.regionMatches(true, 0, FORM_CONTENT_TYPE, 0, FORM_CONTENT_TYPE.length())) {
+                // Encoded forms are ASCII, so Latin-1 maps every byte to one char without decoding work.
+                parameters = Parameters.parse(bodyFile == null
+                        ? new String(body, StandardCharsets.ISO_8859_1)
+                        : StandardCharsets.ISO_8859_1.decode(bodyBuffer()).toString());
+            } else {
+                parameters = Parameters.empty();
+            }
+            formParameters = parameters;
+        }
+        return parameters;
+    }
+
+    /**
+     * Returns the first value of a form parameter.
+     *
+     * @param name decoded parameter name
+     * @return decoded value or {@code null} if absent
+     */
+    public String formParameter(String name) {
+        return formParameters().first(name);
+    }
+
     /**
      * Returns a copy of this request with the supplied path variables.
      *
@@ -87,6 +396,54 @@ public record Request(
         if (variables == null || variables.isEmpty()) {
             return this;
         }
-        return new Request(method, target, version, headers, body, variables);
+        return new Request(method, target, version, headers, body, bodyFile, bodyLength, variables, remoteAddress);
+    }
+
+    /**
+     * Attaches variables captured by the router. The map must already be read-only.
+     *
+     * @param variables captured variables
+     */
+    void bindPathVariables(Map<String, String> variables) {
+        this.pathVariables = variables;
+    }
+
+    /**
+     * Records the template of the route the router matched.
+     *
+     * @param template route template
+     */
+    void bindRoute(String template) {
+        this.route = template;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        return other instanceof Request that
+                && method == that.method
+                && Objects.equals(target, that.target)
+                && Objects.equals(version, that.version)
+                && headers.equals(that.headers)
+                && body == that.body
+                && Objects.equals(bodyFile, that.bodyFile)
+                && pathVariables.equals(that.pathVariables);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(method, target, version, headers, body, bodyFile, pathVariables);
+    }
+
+    @Override
+    public String toString() {
+        return "Request[method=" + method
+                + ", target=" + target
+                + ", version=" + version
+                + ", headers=" + headers
+                + ", body=" + (bodyFile == null ? body : bodyFile)
+                + ", pathVariables=" + pathVariables + "]";
     }
 }
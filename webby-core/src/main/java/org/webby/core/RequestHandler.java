@@ -12,4 +12,16 @@ public interface RequestHandler {
      * @return response to send back to the client, or {@code null} for no content
      */
     Response handle(Request request);
+
+    /**
+     * Returns the longest request body this handler accepts for a request line, so that engines can reject longer
+     * bodies before reading them. The {@link Router} answers with the limit of the matching route.
+     *
+     * @param method request method
+     * @param target raw request target
+     * @return maximum body length in bytes, or {@code -1} to apply the server's {@link BodyLimits}
+     */
+    default long maxBodySize(HttpMethod method, String target) {
+        return -1;
+    }
 }
@@ -0,0 +1,27 @@
+package org.webby.core;
+
+/**
+ * Timestamps, from {@link System#nanoTime()}, of the phases one request went through inside a server engine. The
+ * timestamps never decrease; an engine that cannot tell two phases apart reports the same timestamp for both.
+ *
+ * @param method request method, or {@code null} if it was not recognised
+ * @param route template of the matched route (see {@link Request#route()}), or {@code null}
+ * @param status numeric status of the response
+ * @param received the engine saw the request: the connection was accepted or its first bytes arrived
+ * @param started a worker began processing it; later than {@code received} when connections queue for a worker
+ * @param headersParsed the request line and headers were parsed
+ * @param bodyRead the body was read and the request was handed to the handler
+ * @param handled the handler, including all middleware, returned
+ * @param written the response was written to the connection
+ */
+public record RequestTimings(
+        HttpMethod method,
+        String route,
+        int status,
+        long received,
+        long started,
+        long headersParsed,
+        long bodyRead,
+        long handled,
+        long written) {
+}
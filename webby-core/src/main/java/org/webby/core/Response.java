@@ -9,19 +9,94 @@ import java.util.Objects;
 /**
  * Immutable HTTP response payload.
  *
- * @param status HTTP status code and reason phrase
- * @param headers headers to emit with the response
- * @param body raw response payload
+ * <p>Responses that are returned over and over again (health checks, fixed error pages, cached payloads) can be
+ * {@linkplain #prepare() prepared} once. A prepared response carries an {@link EncodedResponse} with its wire form
+ * already encoded, which engines write directly instead of re-encoding the status line and headers per request.
+ *
+ * <p>A body can also be a {@link BodyRegion} of a file, which engines send without loading it onto the heap.
+ *
+ * <p>A {@linkplain #webSocket(WebSocketHandler) WebSocket upgrade} is a response too, so middleware on the route sees
+ * and can refuse the handshake; the engine then switches the connection over to the handler. An
+ * {@linkplain #eventStream(EventStreamHandler) event stream} works the same way, except that the connection stays on
+ * HTTP and the engine keeps the response open for the events the handler sends.
  */
-public record Response(HttpStatus status, Map<String, String> headers, byte[] body) {
+public final class Response {
+    private static final byte[] EMPTY_BODY = new byte[0];
+    private static final Map<String, String> EVENT_STREAM_HEADERS =
+            Map.of("Content-Type", "text/event-stream", "Cache-Control", "no-cache");
+
+    private final HttpStatus status;
+    private final Map<String, String> headers;
+    private final byte[] body;
+    private final BodyRegion region;
+    private final EncodedResponse encoded;
+    private final WebSocketHandler webSocket;
+    private final EventStreamHandler eventStream;
+
     /**
-     * Canonical constructor defensively copying the headers and body arrays.
+     * Creates a response, defensively copying the headers.
      *
+     * @param status HTTP status code and reason phrase
+     * @param headers headers to emit with the response
+     * @param body raw response payload
      * @throws NullPointerException if {@code status} or {@code headers} is {@code null}
      */
-    public Response {
-        headers = Collections.unmodifiableMap(new LinkedHashMap<>(Objects.requireNonNull(headers, "headers")));
-        body = body == null ? new byte[0] : body;
+    public Response(HttpStatus status, Map<String, String> headers, byte[] body) {
+        this.status = Objects.requireNonNull(status, "status");
+        Objects.requireNonNull(headers, "headers");
+        this.headers = headers.isEmpty() ? Collections.emptyMap() : Collections.unmodifiableMap(new LinkedHashMap<>(headers));
+        this.body = body == null ? EMPTY_BODY : body;
+        this.region = null;
+        this.encoded = null;
+        this.webSocket = null;
+        this.eventStream = null;
+    }
+
+    private Response(HttpStatus status, Map<String, String> headers, BodyRegion region) {
+        this.status = Objects.requireNonNull(status, "status");
+        Objects.requireNonNull(headers, "headers");
+        this.headers = headers.isEmpty() ? Collections.emptyMap() : Collections.unmodifiableMap(new LinkedHashMap<>(headers));
+        this.body = EMPTY_BODY;
+        this.region = Objects.requireNonNull(region, "body");
+        this.encoded = null;
+        this.webSocket = null;
+        this.eventStream = null;
+    }
+
+    private Response(
+            HttpStatus status, Map<String, String> headers, WebSocketHandler webSocket, EventStreamHandler eventStream) {
+        this.status = status;
+        this.headers = headers.isEmpty() ? Collections.emptyMap() : Collections.unmodifiableMap(new LinkedHashMap<>(headers));
+        this.body = EMPTY_BODY;
+        this.region = null;
+        this.encoded = null;
+        this.webSocket = webSocket;
+        this.eventStream = eventStream;
+    }
+
+    private Response(Response source) {
+        this.status = source.status;
+        this.headers = source.headers;
+        this.region = source.region;
+        this.webSocket = source.webSocket;
+        this.eventStream = source.eventStream;
+        if (region != null) {
+            this.body = EMPTY_BODY;
+            this.encoded = EncodedResponse.encode(status, headers, region);
+        } else {
+            this.body = source.body.length == 0 ? EMPTY_BODY : source.body.clone();
+            this.encoded = EncodedResponse.encode(status, headers, body);
+        }
+    }
+
+    /**
+     * Returns a response with the same status and body but different headers.
+     */
+    Response withHeaders(Map<String, String> headers) {
+        if (webSocket != null || eventStream != null) {
+            return new Response(status, headers, webSocket, eventStream);
+        }
+        return region != null ? new Response(status, headers, region) : new Response(status, headers, body);
     }
 
     /**
@@ -32,10 +107,159 @@ public record Response(HttpStatus status, Map<String, String> headers, byte[] bo
      * @return response containing the supplied text
      */
     public static Response text(HttpStatus status, String body) {
-        byte[] payload = body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8);
+        byte[] payload = body == null ? EMPTY_BODY : body.getBytes(StandardCharsets.UTF_8);
         return new Response(status, Collections.emptyMap(), payload);
     }
 
+    /**
+     * Creates a response whose body is a region of a file, defensively copying the headers.
+     *
+     * @param status HTTP status code and reason phrase
+     * @param headers headers to emit with the response
+     * @param body file region holding the payload
+     * @return response backed by the file region
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static Response file(HttpStatus status, Map<String, String> headers, BodyRegion body) {
+        return new Response(status, headers, body);
+    }
+
+    /**
+     * Creates a response that accepts a WebSocket upgrade. The engine answers {@code 101 Switching Protocols} with
+     * the handshake headers, adding any headers set on this response, and passes the connection's events to
+     * {@code handler}. Routes registered with {@link Router#webSocket(String, WebSocketHandler, RequestMiddleware...)}
+     * return it for requests that ask for an upgrade.
+     *
+     * @param handler handler for the connection
+     * @return upgrade response
+     * @throws NullPointerException if {@code handler} is {@code null}
+     */
+    public static Response webSocket(WebSocketHandler handler) {
+        return new Response(HttpStatus.SWITCHING_PROTOCOLS, Collections.emptyMap(),
+                Objects.requireNonNull(handler, "handler"), null);
+    }
+
+    /**
+     * Creates a {@code text/event-stream} response for Server-Sent Events. The engine writes the head, keeps the
+     * connection open and passes the {@link EventStream} to {@code handler}, through which events can be sent from
+     * any thread until either side closes it. Headers added by middleware are kept; the response is marked
+     * {@code Cache-Control: no-cache} so response caches pass it by.
+     *
+     * @param handler handler for the stream
+     * @return event stream response
+     * @throws NullPointerException if {@code handler} is {@code null}
+     */
+    public static Response eventStream(EventStreamHandler handler) {
+        return new Response(HttpStatus.OK, EVENT_STREAM_HEADERS, null, Objects.requireNonNull(handler, "handler"));
+    }
+
+    /**
+     * Returns a frozen copy of this response whose wire form is encoded once. The body is copied so later changes to
+     * the original array cannot leak into the encoded form; callers must not modify the returned response's body.
+     * {@linkplain #bodyRegion() File-backed} bodies are not copied.
+     *
+     * @return prepared response, or this instance if it is already prepared
+     */
+    public Response prepare() {
+        return encoded != null ? this : new Response(this);
+    }
+
+    /**
+     * Returns the pre-encoded wire form of a {@linkplain #prepare() prepared} response.
+     *
+     * @return encoded form or {@code null} if this response was not prepared
+     */
+    public EncodedResponse encoded() {
+        return encoded;
+    }
+
+    /**
+     * Returns the handler of a {@linkplain #webSocket(WebSocketHandler) WebSocket upgrade}.
+     *
+     * @return handler, or {@code null} if this response does not upgrade the connection
+     */
+    public WebSocketHandler webSocketHandler() {
+        return webSocket;
+    }
+
+    /**
+     * Returns the handler of an {@linkplain #eventStream(EventStreamHandler) event stream}.
+     *
+     * @return handler, or {@code null} if this response is not an event stream
+     */
+    public EventStreamHandler eventStreamHandler() {
+        return eventStream;
+    }
+
+    /**
+     * Returns the HTTP status code and reason phrase.
+     *
+     * @return response status
+     */
+    public HttpStatus status() {
+        return status;
+    }
+
+    /**
+     * Returns the headers to emit with the response.
+     *
+     * @return unmodifiable header map
+     */
+    public Map<String, String> headers() {
+        return headers;
+    }
+
+    /**
+     * Returns the first header value matching the supplied name, ignoring case.
+     *
+     * @param name header name to look up
+     * @return header value or {@code null} when absent
+     */
+    public String header(String name) {
+        return header(headers, name);
+    }
+
+    static String header(Map<String, String> headers, String name) {
+        String value = headers.get(name);
+        if (value != null || headers.isEmpty()) {
+            return value;
+        }
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            if (entry.getKey().equalsIgnoreCase(name)) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the raw response payload. A {@linkplain #bodyRegion() file-backed} body is read into a new array on
+     * every call, so code on the hot path should check {@link #bodyRegion()} first.
+     *
+     * @return body bytes, never {@code null}
+     */
+    public byte[] body() {
+        return region != null ? region.toByteArray() : body;
+    }
+
+    /**
+     * Returns the file region holding the body.
+     *
+     * @return region or {@code null} if the body is held in memory
+     */
+    public BodyRegion bodyRegion() {
+        return region;
+    }
+
+    /**
+     * Returns the body length without materializing a file-backed body.
+     *
+     * @return number of body bytes
+     */
+    public int bodyLength() {
+        return region != null ? region.length() : body.length;
+    }
+
     /**
      * Returns the numeric HTTP status code associated with this response.
      *
@@ -53,4 +277,29 @@ public record Response(HttpStatus status, Map<String, String> headers, byte[] bo
     public String reasonPhrase() {
         return status.reasonPhrase();
     }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        return other instanceof Response that
+                && status == that.status
+                && headers.equals(that.headers)
+                && body == that.body
+                && region == that.region
+                && webSocket == that.webSocket
+                && eventStream == that.eventStream;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(status, headers, body, region, webSocket, eventStream);
+    }
+
+    @Override
+    public String toString() {
+        Object payload = region != null ? region : body;
+        return "Response[status=" + status + ", headers=" + headers + ", body=" + payload + "]";
+    }
 }
@@ -0,0 +1,613 @@
+package org.webby.core;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Middleware that keeps responses to {@code GET} requests in memory and answers repeated requests without invoking
+ * the downstream handler.
+ *
+ * <p>Entries are keyed by the request target plus the values of the request headers the cache was configured to vary
+ * on. A response is stored only when its status is cacheable by default, it sets no cookie, every header named in its
+ * {@code Vary} is one of those configured headers, and it is fresh for some time: {@code s-maxage} or {@code max-age}
+ * from {@code Cache-Control}, or otherwise the default time to live. Responses marked {@code no-store},
+ * {@code no-cache} or {@code private} and requests carrying {@code Authorization} bypass the cache. A request with
+ * {@code Cache-Control: no-cache} skips the lookup and refreshes the entry. {@code HEAD} requests are answered from the
+ * {@code GET} entries but never populate the cache.
+ *
+ * <p>Once an entry expires it may still be served for the {@code stale-while-revalidate} period of the response (or
+ * the configured default). The first stale hit triggers a single refresh on the refresh executor, and all other
+ * requests keep receiving the stale response until the refresh completes.
+ *
+ * <p>The cache is bounded by the combined size of the stored responses and uses the W-TinyLFU policy: new entries
+ * enter a small LRU window, and an entry leaving the window is only admitted to the main segmented LRU if a
+ * {@linkplain FrequencySketch frequency sketch} rates it more popular than the entry it would displace. One-off
+ * requests therefore cannot flush popular responses. Lookups are lock-free map reads. They record the access in
+ * per-thread-striped, lossy buffers that are replayed against the policy in batches by whichever thread holds the
+ * eviction lock, so hits do not contend with each other. Stored responses are {@linkplain Response#prepare()
+ * prepared}, so hits also take the engines' pre-encoded write path.
+ */
+public final class ResponseCacheMiddleware implements RequestMiddleware {
+    private static final long ENTRY_OVERHEAD = 160;
+    private static final long MAX_LIFETIME = TimeUnit.DAYS.toNanos(365 * 100);
+
+    private final long maxWeight;
+    private final long windowMax;
+    private final long protectedMax;
+    private final long defaultTtl;
+    private final long defaultStale;
+    private final Executor refreshExecutor;
+    private final String[] varyHeaders;
+    private final LongSupplier ticker;
+
+    private final ConcurrentHashMap<String, Node> data = new ConcurrentHashMap<>();
+    private final ReadBuffer[] readBuffers;
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // Policy state, guarded by evictionLock.
+    private final FrequencySketch sketch = new FrequencySketch();
+    private final AccessOrder window = new AccessOrder();
+    private final AccessOrder probation = new AccessOrder();
+    private final AccessOrder protectedSegment = new AccessOrder();
+    private long windowWeight;
+    private long protectedWeight;
+    private long totalWeight;
+
+    /**
+     * Creates a cache that only stores responses with explicit freshness information and does not vary on request
+     * headers.
+     *
+     * @param maxBytes upper bound for the combined size of the cached responses
+     */
+    public ResponseCacheMiddleware(long maxBytes) {
+        this(maxBytes, Duration.ZERO, Duration.ZERO, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxBytes upper bound for the combined size of the cached responses
+     * @param defaultTtl freshness of responses without {@code max-age}; zero caches only responses that declare it
+     * @param defaultStaleWhileRevalidate how long an expired response without a {@code stale-while-revalidate}
+     *                                    directive may still be served while it is refreshed
+     * @param refreshExecutor runs background refreshes of stale entries
+     * @param varyHeaders request headers whose values become part of the cache key, such as {@code Accept-Encoding}
+     *                    when the cache sits in front of {@link CompressionMiddleware}
+     * @throws IllegalArgumentException if {@code maxBytes} is not positive or a duration is negative
+     */
+    public ResponseCacheMiddleware(
+            long maxBytes,
+            Duration defaultTtl,
+            Duration defaultStaleWhileRevalidate,
+            Executor refreshExecutor,
+            String... varyHeaders) {
+        this(maxBytes, defaultTtl, defaultStaleWhileRevalidate, refreshExecutor, System::nanoTime, varyHeaders);
+    }
+
+    ResponseCacheMiddleware(
+            long maxBytes,
+            Duration defaultTtl,
+            Duration defaultStaleWhileRevalidate,
+            Executor refreshExecutor,
+            LongSupplier ticker,
+            String... varyHeaders) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        if (defaultTtl.isNegative() || defaultStaleWhileRevalidate.isNegative()) {
+            throw new IllegalArgumentException("Durations must not be negative");
+        }
+        this.maxWeight = maxBytes;
+        this.windowMax = Math.max(1, maxBytes / 100);
+        this.protectedMax = (maxBytes - windowMax) * 4 / 5;
+        this.defaultTtl = Math.min(defaultTtl.toNanos(), MAX_LIFETIME);
+        this.defaultStale = Math.min(defaultStaleWhileRevalidate.toNanos(), MAX_LIFETIME);
+        this.refreshExecutor = Objects.requireNonNull(refreshExecutor, "refreshExecutor");
+        this.ticker = ticker;
+        this.varyHeaders = varyHeaders.clone();
+        int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1;
+        this.readBuffers = new ReadBuffer[stripes];
+        for (int i = 0; i < stripes; i++) {
+            readBuffers[i] = new ReadBuffer();
+        }
+    }
+
+    @Override
+    public Response handle(Request request, RequestHandler next) {
+        HttpMethod method = request.method();
+        if (method != HttpMethod.GET && method != HttpMethod.HEAD) {
+            return next.handle(request);
+        }
+        String cacheControl = request.header("Cache-Control");
+        if (request.header("Authorization") != null || hasDirective(cacheControl, "no-store")) {
+            return next.handle(request);
+        }
+        String key = key(request, varyHeaders);
+        long now = ticker.getAsLong();
+        if (!hasDirective(cacheControl, "no-cache")) {
+            Node node = data.get(key);
+            if (node != null && now - node.staleUntil < 0) {
+                if (now - node.expiresAt < 0) {
+                    hits.increment();
+                } else {
+                    staleHits.increment();
+                    refresh(node, request, next);
+                }
+                afterRead(node);
+                return node.response;
+            }
+        }
+        misses.increment();
+        Response response = next.handle(request);
+        return method == HttpMethod.GET ? store(key, response, now) : response;
+    }
+
+    /**
+     * Returns a snapshot of the cache statistics.
+     *
+     * @return statistics
+     */
+    public Stats stats() {
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+            return new Stats(hits.sum(), staleHits.sum(), misses.sum(), evictions.sum(), totalWeight, data.size());
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the cache key of a request: its target plus the values of the vary headers.
+     */
+    static String key(Request request, String[] varyHeaders) {
+        String target = Objects.toString(request.target(), "");
+        if (varyHeaders.length == 0) {
+            return target;
+        }
+        StringBuilder key = new StringBuilder(target);
+        for (String name : varyHeaders) {
+            String value = request.header(name);
+            key.append('\n').append(value == null ? "" : value);
+        }
+        return key.toString();
+    }
+
+    private Response store(String key, Response response, long now) {
+        if (response == null || !isCacheable(response, varyHeaders)) {
+            return response;
+        }
+        String cacheControl = response.header("Cache-Control");
+        long maxAge = lifetimeSeconds(cacheControl);
+        long ttl = maxAge < 0 ? defaultTtl : Math.min(TimeUnit.SECONDS.toNanos(maxAge), MAX_LIFETIME);
+        if (ttl <= 0) {
+            return response;
+        }
+        long staleSeconds = directiveSeconds(cacheControl, "stale-while-revalidate");
+        long stale = staleSeconds < 0 ? defaultStale : Math.min(TimeUnit.SECONDS.toNanos(staleSeconds), MAX_LIFETIME);
+        Response prepared = response.prepare();
+        long weight = weigh(key, prepared);
+        if (weight > maxWeight - windowMax) {
+            return prepared;
+        }
+        Node node = new Node(key, prepared, weight, now + ttl, now + ttl + stale);
+        Node previous = data.put(key, node);
+        evictionLock.lock();
+        try {
+            if (previous != null) {
+                retire(previous);
+            }
+            drainReadBuffers();
+            add(node);
+            evict();
+        } finally {
+            evictionLock.unlock();
+        }
+        return prepared;
+    }
+
+    /**
+     * Returns whether a shared cache may store the response, given the request headers it varies on.
+     */
+    static boolean isCacheable(Response response, String[] varyHeaders) {
+        if (!isCacheableByDefault(response.statusCode()) || response.header("Set-Cookie") != null) {
+            return false;
+        }
+        String cacheControl = response.header("Cache-Control");
+        if (hasDirective(cacheControl, "no-store")
+                || hasDirective(cacheControl, "no-cache")
+                || hasDirective(cacheControl, "private")) {
+            return false;
+        }
+        String vary = response.header("Vary");
+        if (vary == null) {
+            return true;
+        }
+        for (String name : vary.split(",")) {
+            String trimmed = name.trim();
+            if (!trimmed.isEmpty() && !isVaryHeader(varyHeaders, trimmed)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isVaryHeader(String[] varyHeaders, String name) {
+        for (String varyHeader : varyHeaders) {
+            if (varyHeader.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the freshness lifetime granted to shared caches by {@code s-maxage} or {@code max-age}.
+     *
+     * @return seconds, or {@code -1} if neither directive is present
+     */
+    static long lifetimeSeconds(String cacheControl) {
+        long maxAge = directiveSeconds(cacheControl, "s-maxage");
+        return maxAge < 0 ? directiveSeconds(cacheControl, "max-age") : maxAge;
+    }
+
+    private static boolean isCacheableByDefault(int statusCode) {
+        return switch (statusCode) {
+            case 200, 203, 204, 300, 301, 308, 404, 405, 410, 414, 501 -> true;
+            default -> false;
+        };
+    }
+
+    private static long weigh(String key, Response response) {
+        // File-backed bodies stay off the heap, so only their metadata counts.
+        long weight = ENTRY_OVERHEAD + 2L * key.length() + (response.bodyRegion() != null ? 0 : response.bodyLength());
+        for (var header : response.encoded().headers().entrySet()) {
+            weight += 2L * (header.getKey().length() + header.getValue().length());
+        }
+        return weight;
+    }
+
+    private void refresh(Node node, Request request, RequestHandler next) {
+        if (!node.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        // The original request may be recycled by the engine once it is answered, so refresh with a detached copy.
+        // As route middleware the handler behind us reads the bound path variables, so the copy keeps them.
+        Request copy = new Request(request, HttpMethod.GET);
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    store(node.key, next.handle(copy), ticker.getAsLong());
+                } catch (RuntimeException failed) {
+                    // Keep serving the stale response until it runs out; the next stale hit retries.
+                } finally {
+                    node.refreshing.set(false);
+                }
+            });
+        } catch (RejectedExecutionException rejected) {
+            node.refreshing.set(false);
+        }
+    }
+
+    private void afterRead(Node node) {
+        int hash = System.identityHashCode(Thread.currentThread());
+        ReadBuffer buffer = readBuffers[(hash ^ (hash >>> 16)) & (readBuffers.length - 1)];
+        if (buffer.offer(node) && evictionLock.tryLock()) {
+            try {
+                drainReadBuffers();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    private void drainReadBuffers() {
+        for (ReadBuffer buffer : readBuffers) {
+            buffer.drain(this);
+        }
+    }
+
+    private void onAccess(Node node) {
+        if (node.queue == Node.RETIRED) {
+            return;
+        }
+        sketch.increment(node.key.hashCode());
+        if (node.queue == Node.WINDOW) {
+            window.moveToLast(node);
+        } else if (node.queue == Node.PROBATION) {
+            probation.remove(node);
+            protectedSegment.addLast(node);
+            node.queue = Node.PROTECTED;
+            protectedWeight += node.weight;
+            while (protectedWeight > protectedMax) {
+                Node demoted = protectedSegment.first();
+                protectedSegment.remove(demoted);
+                protectedWeight -= demoted.weight;
+                probation.addLast(demoted);
+                demoted.queue = Node.PROBATION;
+            }
+        } else if (node.queue == Node.PROTECTED) {
+            protectedSegment.moveToLast(node);
+        }
+    }
+
+    private void add(Node node) {
+        if (node.queue == Node.RETIRED || data.get(node.key) != node) {
+            // Replaced by a concurrent store before it could be linked.
+            node.queue = Node.RETIRED;
+            return;
+        }
+        sketch.ensureCapacity(data.size());
+        sketch.increment(node.key.hashCode());
+        window.addLast(node);
+        node.queue = Node.WINDOW;
+        windowWeight += node.weight;
+        totalWeight += node.weight;
+    }
+
+    private void evict() {
+        while (windowWeight > windowMax) {
+            Node candidate = window.first();
+            window.remove(candidate);
+            windowWeight -= candidate.weight;
+            candidate.queue = Node.UNLINKED;
+            admit(candidate);
+        }
+    }
+
+    /**
+     * Moves a candidate from the window into the main space, evicting main entries only while the candidate is more
+     * popular than each of them.
+     */
+    private void admit(Node candidate) {
+        int candidateFrequency = sketch.frequency(candidate.key.hashCode());
+        while (totalWeight - windowWeight > maxWeight - windowMax) {
+            Node victim = probation.first() != null ? probation.first() : protectedSegment.first();
+            if (victim == null || candidateFrequency <= sketch.frequency(victim.key.hashCode())) {
+                remove(candidate);
+                return;
+            }
+            remove(victim);
+        }
+        probation.addLast(candidate);
+        candidate.queue = Node.PROBATION;
+    }
+
+    private void remove(Node node) {
+        if (data.remove(node.key, node)) {
+            evictions.increment();
+        }
+        retire(node);
+    }
+
+    private void retire(Node node) {
+        switch (node.queue) {
+            case Node.WINDOW -> {
+                window.remove(node);
+                windowWeight -= node.weight;
+            }
+            case Node.PROBATION -> probation.remove(node);
+            case Node.PROTECTED -> {
+                protectedSegment.remove(node);
+                protectedWeight -= node.weight;
+            }
+            case Node.NEW -> {
+                // Not linked yet; the pending add will notice the retirement.
+                node.queue = Node.RETIRED;
+                return;
+            }
+            case Node.RETIRED -> {
+                return;
+            }
+            default -> {
+                // Unlinked admission candidate, still counted in the total weight.
+            }
+        }
+        totalWeight -= node.weight;
+        node.queue = Node.RETIRED;
+    }
+
+    static boolean hasDirective(String cacheControl, String name) {
+        return directiveIndex(cacheControl, name) >= 0;
+    }
+
+    /**
+     * Returns the numeric value of a {@code Cache-Control} directive.
+     *
+     * @return seconds, {@code 0} for a directive without a valid value, or {@code -1} if the directive is absent
+     */
+    static long directiveSeconds(String cacheControl, String name) {
+        int index = directiveIndex(cacheControl, name);
+        if (index < 0) {
+            return -1;
+        }
+        int end = cacheControl.indexOf(',', index);
+        String directive = cacheControl.substring(index, end < 0 ? cacheControl.length() : end);
+        int equals = directive.indexOf('=');
+        if (equals < 0) {
+            return 0;
+        }
+        String value = directive.substring(equals + 1).trim();
+        if (value.length() > 1 && value.startsWith("\"") && value.endsWith("\"")) {
+            value = value.substring(1, value.length() - 1);
+        }
+        try {
+            return Math.max(0, Long.parseLong(value));
+        } catch (NumberFormatException invalid) {
+            return 0;
+        }
+    }
+
+    private static int directiveIndex(String cacheControl, String name) {
+        if (cacheControl == null) {
+            return -1;
+        }
+        int start = 0;
+        while (start < cacheControl.length()) {
+            int end = cacheControl.indexOf(',', start);
+            if (end < 0) {
+                end = cacheControl.length();
+            }
+            int equals = cacheControl.indexOf('=', start);
+            int nameEnd = equals < 0 || equals > end ? end : equals;
+            if (cacheControl.substring(start, nameEnd).trim().toLowerCase(Locale.ROOT).equals(name)) {
+                return start;
+            }
+            start = end + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Cache statistics.
+     *
+     * @param hits requests answered with a fresh response
+     * @param staleHits requests answered with a stale response while it was refreshed
+     * @param misses requests passed to the downstream handler
+     * @param evictions entries dropped by the size bound
+     * @param weightedSize combined size of the cached responses, in bytes
+     * @param entries number of cached responses
+     */
+    public record Stats(long hits, long staleHits, long misses, long evictions, long weightedSize, int entries) {
+    }
+
+    /**
+     * Cached response linked into one of the policy's access-ordered queues.
+     */
+    private static final class Node {
+        static final int NEW = 0;
+        static final int WINDOW = 1;
+        static final int PROBATION = 2;
+        static final int PROTECTED = 3;
+        static final int UNLINKED = 4;
+        static final int RETIRED = 5;
+
+        final String key;
+        final Response response;
+        final long weight;
+        final long expiresAt;
+        final long staleUntil;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+        // Guarded by the eviction lock.
+        int queue = NEW;
+        Node prev;
+        Node next;
+
+        Node(String key, Response response, long weight, long expiresAt, long staleUntil) {
+            this.key = key;
+            this.response = response;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+            this.staleUntil = staleUntil;
+        }
+    }
+
+    /**
+     * Intrusive doubly linked list ordered from least to most recently used.
+     */
+    private static final class AccessOrder {
+        private Node head;
+        private Node tail;
+
+        Node first() {
+            return head;
+        }
+
+        void addLast(Node node) {
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+        }
+
+        void remove(Node node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+        }
+
+        void moveToLast(Node node) {
+            if (tail != node) {
+                remove(node);
+                addLast(node);
+            }
+        }
+    }
+
+    /**
+     * Lossy ring buffer of recent reads. Readers claim slots with a compare-and-set and drop the event when the buffer
+     * is full; the buffer is drained under the eviction lock.
+     */
+    private static final class ReadBuffer {
+        private static final int SIZE = 16;
+        private static final int MASK = SIZE - 1;
+
+        private final AtomicReferenceArray<Node> slots = new AtomicReferenceArray<>(SIZE);
+        private final AtomicLong writes = new AtomicLong();
+        private volatile long reads;
+
+        /**
+         * Records a read.
+         *
+         * @return {@code true} when the buffer is at least half full and should be drained
+         */
+        boolean offer(Node node) {
+            long head = reads;
+            long tail = writes.get();
+            long pending = tail - head;
+            if (pending >= SIZE) {
+                return true;
+            }
+            if (writes.compareAndSet(tail, tail + 1)) {
+                slots.lazySet((int) tail & MASK, node);
+                pending++;
+            }
+            return pending >= SIZE / 2;
+        }
+
+        void drain(ResponseCacheMiddleware cache) {
+            long head = reads;
+            long tail = writes.get();
+            for (; head < tail; head++) {
+                int index = (int) head & MASK;
+                Node node = slots.get(index);
+                if (node == null) {
+                    // The writer claimed the slot but has not published the node yet.
+                    break;
+                }
+                slots.lazySet(index, null);
+                cache.onAccess(node);
+            }
+            reads = head;
+        }
+    }
+}
@@ -1,32 +1,75 @@
 package org.webby.core;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Simple router that dispatches requests based on the HTTP method and normalized path.
+ *
+ * <p>Path segments can be literals, variables ({@code /users/{id}}) that capture a single segment, or a trailing
+ * catch-all ({@code /files/{*path}}) that captures the remaining one or more segments. When several routes could match
+ * a request, literals win over variables and variables win over catch-alls; the router backtracks if a preferred branch
+ * leads to no route. {@code HEAD} requests that match no {@code HEAD} route are dispatched to the matching {@code GET}
+ * route.
+ *
+ * <p>Registered routes are compiled into an immutable radix tree the first time a request is handled after a change.
+ * Each edge holds a run of whole segments, so chains of segments without branches collapse into a single node, and
+ * branching nodes find the next edge through a small hash table keyed by the next segment. Dispatch walks the raw
+ * request target in place: no segment strings are created, and variables are captured as index ranges that are only
+ * turned into strings when a handler reads them.
+ *
+ * <p>Middleware can be attached to a router with {@link #use(RequestMiddleware)} or to a single route. Each route's
+ * pipeline (the middleware of the router it was registered through and of that router's parents, outermost first,
+ * followed by the route's own middleware) is compiled together with the radix tree, so dispatch runs a flat chain and
+ * routes without middleware call their handler directly.
+ *
+ * <p>Applications whose traffic concentrates on a limited set of targets can additionally
+ * {@linkplain #enableMatchCache(int) enable a match cache} that remembers the handler and captured variables per method
+ * and path, skipping the tree walk for repeated targets.
  */
 public final class Router implements RequestHandler {
-    private final Map<HttpMethod, RouteNode> routes;
+    private static final Response NOT_FOUND = Response.text(HttpStatus.NOT_FOUND, "Not Found").prepare();
+    private static final Response UPGRADE_REQUIRED = new Response(HttpStatus.UPGRADE_REQUIRED,
+            Map.of("Upgrade", "websocket", "Sec-WebSocket-Version", "13"),
+            "Upgrade Required".getBytes(StandardCharsets.UTF_8)).prepare();
+    private static final String[] NO_NAMES = new String[0];
+    private static final RequestMiddleware[] NO_MIDDLEWARE = new RequestMiddleware[0];
+    private static final String VARIABLE = "?";
+    private static final String CATCH_ALL = "?*";
+
+    private final Map<HttpMethod, Map<String, Route>> routes;
     private final String[] baseSegments;
     private final Router root;
+    private final Router parent;
+    private final List<RequestMiddleware> middleware = new ArrayList<>();
     private volatile RequestHandler notFoundHandler;
+    private volatile Dispatcher dispatcher;
+    private volatile int matchCacheEntries;
+    private final MatchCache.Counters matchCacheCounters;
 
     /**
      * Creates an empty router with a default {@code 404 Not Found} handler.
      */
     public Router() {
-        this(new ConcurrentHashMap<>(), new String[0], null);
+        this(new EnumMap<>(HttpMethod.class), new String[0], null, null);
     }
 
-    private Router(Map<HttpMethod, RouteNode> routes, String[] baseSegments, Router root) {
+    private Router(Map<HttpMethod, Map<String, Route>> routes, String[] baseSegments, Router root, Router parent) {
         this.routes = routes;
         this.baseSegments = baseSegments;
         this.root = root == null ? this : root;
+        this.parent = parent;
         if (root == null) {
-            this.notFoundHandler = request -> Response.text(HttpStatus.NOT_FOUND, "Not Found");
+            this.notFoundHandler = request -> NOT_FOUND;
+            this.matchCacheCounters = new MatchCache.Counters();
+        } else {
+            this.matchCacheCounters = null;
         }
     }
 
@@ -39,16 +82,31 @@ public final class Router implements RequestHandler {
      * @return the current router to enable chaining
      */
     public Router route(HttpMethod method, String path, RequestHandler handler) {
+        return route(method, path, handler, NO_MIDDLEWARE);
+    }
+
+    /**
+     * Registers a handler wrapped in middleware that only applies to this route. The route-specific middleware runs
+     * after any middleware attached to this router and its parents.
+     *
+     * @param method HTTP method such as {@code GET}
+     * @param path path beginning with a slash (e.g. {@code /hello})
+     * @param handler handler that produces a response for the route
+     * @param middleware middleware applied in order, outermost first
+     * @return the current router to enable chaining
+     */
+    public Router route(HttpMethod method, String path, RequestHandler handler, RequestMiddleware... middleware) {
         HttpMethod normalizedMethod = Objects.requireNonNull(method, "method");
         String normalizedPath = normalizePath(Objects.requireNonNull(path, "path"));
-        RouteNode node = routes.computeIfAbsent(normalizedMethod, key -> new RouteNode());
-        for (String segment : baseSegments) {
-            node = node.child(segment);
+        Objects.requireNonNull(handler, "handler");
+        List<RequestMiddleware> routeMiddleware = List.of(Objects.requireNonNull(middleware, "middleware"));
+        String[] segments = combineSegments(baseSegments, split(normalizedPath));
+        String[] variableNames = variableNames(segments);
+        Route route = new Route(template(segments), variableNames, handler, this, routeMiddleware);
+        synchronized (root) {
+            routes.computeIfAbsent(normalizedMethod, key -> new LinkedHashMap<>()).put(shape(segments), route);
+            root.dispatcher = null;
         }
-        for (String segment : split(normalizedPath)) {
-            node = node.child(segment);
-        }
-        node.handler = Objects.requireNonNull(handler, "handler");
         return this;
     }
 
@@ -96,6 +154,23 @@ public final class Router implements RequestHandler {
         return route(HttpMethod.DELETE, path, handler);
     }
 
+    /**
+     * Registers a WebSocket endpoint. {@code GET} requests that ask for a WebSocket upgrade are answered with
+     * {@link Response#webSocket(WebSocketHandler)}, and the engine hands the connection to {@code handler}; other
+     * requests receive {@code 426 Upgrade Required}. The handshake passes through the route's middleware like any
+     * other request, so middleware can authenticate it or refuse it with an ordinary response.
+     *
+     * @param path path to bind
+     * @param handler handler for the connections opened on the route
+     * @param middleware middleware applied to the handshake, outermost first
+     * @return current router
+     */
+    public Router webSocket(String path, WebSocketHandler handler, RequestMiddleware... middleware) {
+        Response upgrade = Response.webSocket(handler);
+        return route(HttpMethod.GET, path,
+                request -> WebSocketProtocol.isUpgrade(request) ? upgrade : UPGRADE_REQUIRED, middleware);
+    }
+
     /**
      * Sets the handler used when no matching route is found.
      *
@@ -107,11 +182,63 @@ public final class Router implements RequestHandler {
         return this;
     }
 
+    /**
+     * Attaches middleware to every route registered through this router or through routers derived from it with
+     * {@link #subRouterAtPath(String)}, including routes registered before this call. Requests that match no route are
+     * passed to the {@linkplain #notFound(RequestHandler) not-found handler} without running router middleware.
+     *
+     * @param middleware middleware to append; router middleware runs in the order it was attached
+     * @return current router
+     */
+    public Router use(RequestMiddleware middleware) {
+        Objects.requireNonNull(middleware, "middleware");
+        synchronized (root) {
+            this.middleware.add(middleware);
+            root.dispatcher = null;
+        }
+        return this;
+    }
+
+    /**
+     * Enables a bounded cache of route matches for the whole router tree. Cached entries map a method and request path
+     * to the resolved handler and captured path variables; they are dropped whenever routes or middleware change.
+     * Requests that match no route are never cached. Size the cache to the set of hot targets: when far more distinct
+     * targets are requested than fit, constant eviction makes dispatch slower than walking the tree.
+     *
+     * @param maxEntries maximum number of cached paths across all methods, or {@code 0} to disable the cache
+     * @return current router
+     * @throws IllegalArgumentException if {@code maxEntries} is negative
+     */
+    public Router enableMatchCache(int maxEntries) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("maxEntries must not be negative");
+        }
+        synchronized (root) {
+            root.matchCacheEntries = maxEntries;
+            root.dispatcher = null;
+        }
+        return this;
+    }
+
+    /**
+     * Returns statistics of the match cache. Hit, miss and eviction counts accumulate across route changes.
+     *
+     * @return snapshot of the cache statistics; all zero while the cache is disabled and unused
+     */
+    public MatchCacheStats matchCacheStats() {
+        MatchCache.Counters counters = root.matchCacheCounters;
+        Dispatcher current = root.dispatcher;
+        int size = current == null || current.cache == null ? 0 : current.cache.size();
+        return new MatchCacheStats(
+                counters.hits.sum(), counters.misses.sum(), counters.evictions.sum(), size);
+    }
+
     /**
      * Creates a nested router that automatically applies the supplied path prefix to all registered routes.
      *
      * @param path prefix where the sub-router should mount (e.g. {@code /api})
-     * @return router scoped to the supplied path
+     * @return router scoped to the supplied path; middleware attached to it only applies to routes registered
+     *         through it
      */
     public Router subRouterAtPath(String path) {
         String normalized = normalizePath(Objects.requireNonNull(path, "path"));
@@ -123,29 +250,140 @@ public final class Router implements RequestHandler {
             return this;
         }
         String[] combined = combineSegments(baseSegments, segments);
-        return new Router(routes, combined, root);
+        return new Router(routes, combined, root, this);
     }
 
     @Override
     public Response handle(Request request) {
-        RouteNode node = routes.get(request.method());
-        if (node == null) {
+        HttpMethod method = request.method();
+        Dispatcher current = root.dispatcher();
+        RadixNode node = method == null ? null : current.roots[method.ordinal()];
+        RadixNode getNode = method == HttpMethod.HEAD ? current.roots[HttpMethod.GET.ordinal()] : null;
+        if (node == null && getNode == null) {
             return root.notFoundHandler.handle(request);
         }
-        Map<String, String> pathVariables = new LinkedHashMap<>();
-        for (String segment : split(normalizePath(request.target()))) {
-            RouteNode nextNode = node.next(segment, pathVariables);
-            if (nextNode == null) {
-                return root.notFoundHandler.handle(request);
+        String target = request.target() == null ? "" : request.target();
+        int position = target.startsWith("/") ? 1 : 0;
+        int end = Math.max(position, pathEnd(target));
+        MatchCache cache = current.cache;
+        String path = null;
+        if (cache != null) {
+            path = end == target.length() ? target : target.substring(0, end);
+            MatchCache.Match cached = cache.get(method, path);
+            if (cached != null) {
+                return dispatch(request, target, cached.route, cached.handler, cached.variableNames, cached.ranges);
             }
-            node = nextNode;
         }
-        RequestHandler handler = node.handler;
-        if (handler == null) {
+        int[] ranges = null;
+        RadixNode terminal = node == null ? null : node.match(target, position, end, null, 0);
+        if (terminal == RadixNode.NEEDS_CAPTURE) {
+            // A variable was reached: walk again, this time recording the captured ranges.
+            ranges = new int[current.maxVariables * 2];
+            terminal = node.match(target, position, end, ranges, 0);
+        }
+        if (terminal == null && getNode != null) {
+            // HEAD requests no HEAD route matches are answered by the GET route; engines drop the body.
+            terminal = getNode.match(target, position, end, null, 0);
+            if (terminal == RadixNode.NEEDS_CAPTURE) {
+                ranges = new int[current.maxVariables * 2];
+                terminal = getNode.match(target, position, end, ranges, 0);
+            }
+        }
+        if (terminal == null) {
             return root.notFoundHandler.handle(request);
         }
-        Request effectiveRequest = pathVariables.isEmpty() ? request : request.withPathVariables(pathVariables);
-        return handler.handle(effectiveRequest);
+        if (cache != null) {
+            cache.put(method, path, new MatchCache.Match(
+                    terminal.route, terminal.handler, terminal.variableNames, ranges, terminal.maxBodySize));
+        }
+        return dispatch(request, target, terminal.route, terminal.handler, terminal.variableNames, ranges);
+    }
+
+    /**
+     * Returns the body limit set with {@link BodyLimitMiddleware} on the route that would handle the request, so that
+     * engines can reject an oversized body before reading it.
+     *
+     * @return maximum body length in bytes, or {@code -1} if no route matches or the route sets no limit
+     */
+    @Override
+    public long maxBodySize(HttpMethod method, String target) {
+        Dispatcher current = root.dispatcher();
+        RadixNode node = method == null ? null : current.roots[method.ordinal()];
+        if (!current.bodyLimits || node == null) {
+            return -1;
+        }
+        String raw = target == null ? "" : target;
+        int position = raw.startsWith("/") ? 1 : 0;
+        int end = Math.max(position, pathEnd(raw));
+        MatchCache cache = current.cache;
+        String path = null;
+        if (cache != null) {
+            path = end == raw.length() ? raw : raw.substring(0, end);
+            MatchCache.Match cached = cache.get(method, path);
+            if (cached != null) {
+                return cached.maxBodySize;
+            }
+        }
+        int[] ranges = null;
+        RadixNode terminal = node.match(raw, position, end, null, 0);
+        if (terminal == RadixNode.NEEDS_CAPTURE) {
+            ranges = new int[current.maxVariables * 2];
+            terminal = node.match(raw, position, end, ranges, 0);
+        }
+        if (terminal == null) {
+            return -1;
+        }
+        if (cache != null) {
+            // The engine dispatches the request next; let it find the match instead of walking the tree again.
+            cache.put(method, path, new MatchCache.Match(
+                    terminal.route, terminal.handler, terminal.variableNames, ranges, terminal.maxBodySize));
+        }
+        return terminal.maxBodySize;
+    }
+
+    private static Response dispatch(
+            Request request,
+            String target,
+            String route,
+            RequestHandler handler,
+            String[] variableNames,
+            int[] ranges) {
+        request.bindRoute(route);
+        if (ranges != null) {
+            request.bindPathVariables(new PathVariables(target, variableNames, ranges));
+        }
+        return handler.handle(request);
+    }
+
+    private Dispatcher dispatcher() {
+        Dispatcher current = dispatcher;
+        if (current == null) {
+            synchronized (this) {
+                current = dispatcher;
+                if (current == null) {
+                    MatchCache cache = matchCacheEntries == 0
+                            ? null
+                            : new MatchCache(matchCacheEntries, matchCacheCounters);
+                    current = Dispatcher.compile(routes, cache);
+                    dispatcher = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Returns the end of the path portion of a raw target, excluding the query string and trailing slashes.
+     */
+    private static int pathEnd(String target) {
+        int end = target.indexOf('?');
+        if (end < 0) {
+            end = target.length();
+        }
+        while (end > 0 && target.charAt(end - 1) == '/') {
+            end--;
+        }
+        return end;
     }
 
     private static String normalizePath(String path) {
@@ -175,38 +413,374 @@ public final class Router implements RequestHandler {
         return combined;
     }
 
-    private static final class RouteNode {
-        private final Map<String, RouteNode> literals = new ConcurrentHashMap<>();
-        private volatile RouteNode variableChild;
-        private volatile String variableName;
-        private volatile RequestHandler handler;
+    private static String template(String[] segments) {
+        return "/" + String.join("/", segments);
+    }
+
+    private static String[] variableNames(String[] segments) {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            if (isCatchAllSegment(segment)) {
+                if (i != segments.length - 1) {
+                    throw new IllegalArgumentException("Catch-all segment must be the last segment: " + segment);
+                }
+                names.add(extractCatchAllName(segment));
+            } else if (isVariableSegment(segment)) {
+                names.add(extractVariableName(segment));
+            }
+        }
+        return names.isEmpty() ? NO_NAMES : names.toArray(new String[0]);
+    }
+
+    /**
+     * Joins the segments with {@code /}, replacing variables with {@value #VARIABLE} and catch-alls with
+     * {@value #CATCH_ALL}. Neither marker can appear in a literal segment because the query string is cut off at the
+     * first {@code ?}.
+     */
+    private static String shape(String[] segments) {
+        StringBuilder shape = new StringBuilder();
+        for (String segment : segments) {
+            if (shape.length() > 0) {
+                shape.append('/');
+            }
+            if (isCatchAllSegment(segment)) {
+                shape.append(CATCH_ALL);
+            } else if (isVariableSegment(segment)) {
+                shape.append(VARIABLE);
+            } else {
+                shape.append(segment);
+            }
+        }
+        return shape.toString();
+    }
+
+    /**
+     * Statistics of the {@linkplain #enableMatchCache(int) match cache}.
+     *
+     * @param hits lookups answered from the cache
+     * @param misses lookups that had to walk the route tree
+     * @param evictions entries dropped to keep the cache within its bound
+     * @param size entries currently cached
+     */
+    public record MatchCacheStats(long hits, long misses, long evictions, int size) {
+    }
+
+    /**
+     * Registered route, stored under its {@linkplain #shape(String[]) shape} so that routes with the same method and
+     * shape replace each other.
+     */
+    private record Route(
+            String template,
+            String[] variableNames,
+            RequestHandler handler,
+            Router scope,
+            List<RequestMiddleware> middleware) {
+
+        /**
+         * Compiles the middleware of the registering router, its parents and the route itself around the handler.
+         */
+        RequestHandler pipeline() {
+            return MiddlewareChain.compile(chain(), handler);
+        }
+
+        /**
+         * Returns the limit of the innermost {@link BodyLimitMiddleware} in the pipeline, or {@code -1} if none.
+         */
+        long maxBodySize() {
+            long maxBodySize = -1;
+            for (RequestMiddleware element : chain()) {
+                if (element instanceof BodyLimitMiddleware limit) {
+                    maxBodySize = limit.maxBytes();
+                }
+            }
+            return maxBodySize;
+        }
+
+        private List<RequestMiddleware> chain() {
+            List<RequestMiddleware> chain = new ArrayList<>(middleware);
+            for (Router router = scope; router != null; router = router.parent) {
+                chain.addAll(0, router.middleware);
+            }
+            return chain;
+        }
+    }
+
+    /**
+     * Immutable snapshot of the registered routes, indexed by {@link HttpMethod#ordinal()}, together with the match
+     * cache that belongs to it.
+     */
+    private static final class Dispatcher {
+        private final RadixNode[] roots;
+        private final int maxVariables;
+        private final boolean bodyLimits;
+        private final MatchCache cache;
+
+        private Dispatcher(RadixNode[] roots, int maxVariables, boolean bodyLimits, MatchCache cache) {
+            this.roots = roots;
+            this.maxVariables = maxVariables;
+            this.bodyLimits = bodyLimits;
+            this.cache = cache;
+        }
+
+        static Dispatcher compile(Map<HttpMethod, Map<String, Route>> routes, MatchCache cache) {
+            RadixNode[] roots = new RadixNode[HttpMethod.values().length];
+            int maxVariables = 0;
+            boolean bodyLimits = false;
+            for (Map.Entry<HttpMethod, Map<String, Route>> entry : routes.entrySet()) {
+                NodeBuilder builder = new NodeBuilder(NO_NAMES);
+                for (Map.Entry<String, Route> route : entry.getValue().entrySet()) {
+                    builder.insert(route.getKey(), route.getValue());
+                    maxVariables = Math.max(maxVariables, route.getValue().variableNames().length);
+                    bodyLimits |= route.getValue().maxBodySize() >= 0;
+                }
+                roots[entry.getKey().ordinal()] = builder.build();
+            }
+            return new Dispatcher(roots, maxVariables, bodyLimits, cache);
+        }
+    }
+
+    /**
+     * Mutable radix node used while compiling; {@link #build()} turns it into an immutable {@link RadixNode}.
+     */
+    private static final class NodeBuilder {
+        private String[] label;
+        private final List<NodeBuilder> children = new ArrayList<>();
+        private NodeBuilder variable;
+        private NodeBuilder catchAll;
+        private Route route;
+
+        NodeBuilder(String[] label) {
+            this.label = label;
+        }
+
+        void insert(String shape, Route route) {
+            String[] segments = shape.isEmpty() ? NO_NAMES : shape.split("/", -1);
+            NodeBuilder node = this;
+            int literalStart = 0;
+            for (int i = 0; i < segments.length; i++) {
+                String segment = segments[i];
+                boolean catchAllSegment = CATCH_ALL.equals(segment);
+                if (catchAllSegment || VARIABLE.equals(segment)) {
+                    node = node.literal(Arrays.copyOfRange(segments, literalStart, i));
+                    literalStart = i + 1;
+                    if (catchAllSegment) {
+                        if (node.catchAll == null) {
+                            node.catchAll = new NodeBuilder(NO_NAMES);
+                        }
+                        node = node.catchAll;
+                    } else {
+                        if (node.variable == null) {
+                            node.variable = new NodeBuilder(NO_NAMES);
+                        }
+                        node = node.variable;
+                    }
+                }
+            }
+            node = node.literal(Arrays.copyOfRange(segments, literalStart, segments.length));
+            node.route = route;
+        }
+
+        private NodeBuilder literal(String[] segments) {
+            NodeBuilder node = this;
+            int offset = 0;
+            while (offset < segments.length) {
+                NodeBuilder match = null;
+                for (NodeBuilder child : node.children) {
+                    if (child.label[0].equals(segments[offset])) {
+                        match = child;
+                        break;
+                    }
+                }
+                if (match == null) {
+                    NodeBuilder created = new NodeBuilder(Arrays.copyOfRange(segments, offset, segments.length));
+                    node.children.add(created);
+                    return created;
+                }
+                int common = 1;
+                while (common < match.label.length
+                        && offset + common < segments.length
+                        && match.label[common].equals(segments[offset + common])) {
+                    common++;
+                }
+                if (common < match.label.length) {
+                    NodeBuilder split = new NodeBuilder(Arrays.copyOfRange(match.label, 0, common));
+                    match.label = Arrays.copyOfRange(match.label, common, match.label.length);
+                    split.children.add(match);
+                    node.children.set(node.children.indexOf(match), split);
+                    match = split;
+                }
+                node = match;
+                offset += common;
+            }
+            return node;
+        }
+
+        RadixNode build() {
+            RadixNode[] built = new RadixNode[children.size()];
+            for (int i = 0; i < built.length; i++) {
+                built[i] = children.get(i).build();
+            }
+            return new RadixNode(
+                    String.join("/", label),
+                    label.length == 0 ? 0 : label[0].length(),
+                    built,
+                    variable == null ? null : variable.build(),
+                    catchAll == null ? null : catchAll.build(),
+                    route == null ? null : route.template(),
+                    route == null ? null : route.pipeline(),
+                    route == null ? NO_NAMES : route.variableNames(),
+                    route == null ? -1 : route.maxBodySize());
+        }
+    }
+
+    /**
+     * Immutable radix tree node. The prefix holds one or more whole segments; literal children are found through an
+     * open-addressing table keyed by the hash of their first segment.
+     */
+    private static final class RadixNode {
+        private static final int[] NO_HASHES = new int[0];
+        private static final RadixNode[] NO_CHILDREN = new RadixNode[0];
+        static final RadixNode NEEDS_CAPTURE =
+                new RadixNode("", 0, NO_CHILDREN, null, null, null, null, NO_NAMES, -1);
+
+        private final String prefix;
+        private final int firstSegmentLength;
+        private final int[] hashes;
+        private final RadixNode[] table;
+        private final RadixNode variable;
+        private final RadixNode catchAll;
+        private final String route;
+        private final RequestHandler handler;
+        private final String[] variableNames;
+        private final long maxBodySize;
 
-        RouteNode child(String token) {
-            if (isVariableSegment(token)) {
-                String name = extractVariableName(token);
-                RouteNode child = variableChild;
-                if (child == null) {
-                    child = new RouteNode();
-                    variableChild = child;
+        private RadixNode(
+                String prefix,
+                int firstSegmentLength,
+                RadixNode[] children,
+                RadixNode variable,
+                RadixNode catchAll,
+                String route,
+                RequestHandler handler,
+                String[] variableNames,
+                long maxBodySize) {
+            this.prefix = prefix;
+            this.firstSegmentLength = firstSegmentLength;
+            this.variable = variable;
+            this.catchAll = catchAll;
+            this.route = route;
+            this.handler = handler;
+            this.variableNames = variableNames;
+            this.maxBodySize = maxBodySize;
+            int capacity = children.length == 0 ? 0 : Integer.highestOneBit(children.length * 2 - 1) << 1;
+            this.hashes = capacity == 0 ? NO_HASHES : new int[capacity];
+            this.table = capacity == 0 ? NO_CHILDREN : new RadixNode[capacity];
+            for (RadixNode child : children) {
+                int hash = hash(child.prefix, 0, child.firstSegmentLength);
+                int slot = hash & (capacity - 1);
+                while (table[slot] != null) {
+                    slot = (slot + 1) & (capacity - 1);
                 }
-                child.variableName = name;
-                return child;
+                hashes[slot] = hash;
+                table[slot] = child;
             }
-            return literals.computeIfAbsent(token, key -> new RouteNode());
         }
 
-        RouteNode next(String token, Map<String, String> variables) {
-            RouteNode literal = literals.get(token);
-            if (literal != null) {
-                return literal;
+        /**
+         * Matches {@code target[position, end)} below this node, whose own prefix has already been consumed.
+         * {@code position} is either {@code end} or the start of the next segment.
+         *
+         * @param ranges receives the captured offsets, or {@code null} to stop at the first variable
+         * @param captured number of offsets captured so far
+         * @return node holding the matched route, {@link #NEEDS_CAPTURE}, or {@code null}
+         */
+        RadixNode match(String target, int position, int end, int[] ranges, int captured) {
+            if (position == end) {
+                return handler == null ? null : this;
+            }
+            int segmentEnd = target.indexOf('/', position);
+            if (segmentEnd < 0 || segmentEnd > end) {
+                segmentEnd = end;
+            }
+            RadixNode child = child(target, position, segmentEnd);
+            if (child != null) {
+                int prefixEnd = position + child.prefix.length();
+                if (prefixEnd <= end
+                        && (prefixEnd == end || target.charAt(prefixEnd) == '/')
+                        && target.regionMatches(segmentEnd, child.prefix, child.firstSegmentLength,
+                        prefixEnd - segmentEnd)) {
+                    RadixNode result = child.match(target, next(prefixEnd, end), end, ranges, captured);
+                    if (result != null) {
+                        return result;
+                    }
+                }
             }
-            RouteNode variable = variableChild;
             if (variable != null) {
-                variables.put(variable.variableName, token);
-                return variable;
+                if (ranges == null) {
+                    return NEEDS_CAPTURE;
+                }
+                ranges[captured] = position;
+                ranges[captured + 1] = segmentEnd;
+                RadixNode result = variable.match(target, next(segmentEnd, end), end, ranges, captured + 2);
+                if (result != null) {
+                    return result;
+                }
+            }
+            if (catchAll != null) {
+                if (ranges == null) {
+                    return NEEDS_CAPTURE;
+                }
+                ranges[captured] = position;
+                ranges[captured + 1] = end;
+                return catchAll.handler == null ? null : catchAll;
             }
             return null;
         }
+
+        private RadixNode child(String target, int start, int end) {
+            int capacity = table.length;
+            if (capacity == 0) {
+                return null;
+            }
+            int hash = hash(target, start, end);
+            int length = end - start;
+            for (int slot = hash & (capacity - 1); ; slot = (slot + 1) & (capacity - 1)) {
+                RadixNode candidate = table[slot];
+                if (candidate == null) {
+                    return null;
+                }
+                if (hashes[slot] == hash
+                        && candidate.firstSegmentLength == length
+                        && target.regionMatches(start, candidate.prefix, 0, length)) {
+                    return candidate;
+                }
+            }
+        }
+
+        private static int next(int position, int end) {
+            return position == end ? end : position + 1;
+        }
+
+        private static int hash(String text, int start, int end) {
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + text.charAt(i);
+            }
+            return hash ^ (hash >>> 16);
+        }
+    }
+
+    private static boolean isCatchAllSegment(String segment) {
+        return segment.startsWith("{*") && segment.endsWith("}") && segment.length() > 3;
+    }
+
+    private static String extractCatchAllName(String segment) {
+        String name = segment.substring(2, segment.length() - 1);
+        if (name.isBlank()) {
+            throw new IllegalArgumentException("Catch-all variable name must not be blank");
+        }
+        return name;
     }
 
     private static boolean isVariableSegment(String segment) {
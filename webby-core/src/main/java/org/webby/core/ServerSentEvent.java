@@ -0,0 +1,101 @@
+package org.webby.core;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * One event of a {@code text/event-stream}, encoded to its wire form when it is created.
+ *
+ * <p>Events are immutable and can be sent to any number of {@link EventStream}s: every stream writes the same encoded
+ * bytes, so broadcasting an event to many subscribers encodes it only once.
+ */
+public final class ServerSentEvent {
+    private final ByteBuffer encoded;
+
+    /**
+     * Creates an event.
+     *
+     * @param id event id, which clients send back as {@code Last-Event-ID} when they reconnect; may be {@code null}
+     * @param event event type; {@code null} for the default {@code message} type
+     * @param data event data; line breaks become separate {@code data} lines and are restored by the client
+     * @throws NullPointerException if {@code data} is {@code null}
+     * @throws IllegalArgumentException if {@code id} or {@code event} contains a line break, or {@code id} a NUL
+     */
+    public ServerSentEvent(String id, String event, String data) {
+        Objects.requireNonNull(data, "data");
+        StringBuilder text = new StringBuilder(data.length() + 32);
+        if (id != null) {
+            if (id.indexOf('\0') >= 0) {
+                throw new IllegalArgumentException("event id must not contain NUL");
+            }
+            field(text, "id", id);
+        }
+        if (event != null) {
+            field(text, "event", event);
+        }
+        int start = 0;
+        for (int i = 0; i < data.length(); i++) {
+            char c = data.charAt(i);
+            if (c == '\r' || c == '\n') {
+                text.append("data: ").append(data, start, i).append('\n');
+                if (c == '\r' && i + 1 < data.length() && data.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                start = i + 1;
+            }
+        }
+        text.append("data: ").append(data, start, data.length()).append("\n\n");
+        this.encoded = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Creates an event of the default {@code message} type.
+     *
+     * @param data event data
+     * @return event
+     */
+    public static ServerSentEvent of(String data) {
+        return new ServerSentEvent(null, null, data);
+    }
+
+    /**
+     * Creates an event of the given type.
+     *
+     * @param event event type
+     * @param data event data
+     * @return event
+     */
+    public static ServerSentEvent of(String event, String data) {
+        return new ServerSentEvent(null, event, data);
+    }
+
+    /**
+     * Returns the length of the encoded event.
+     *
+     * @return bytes written per stream
+     */
+    public int encodedLength() {
+        return encoded.remaining();
+    }
+
+    /**
+     * Returns a view of the encoded event, positioned at its start. The bytes are shared by every stream the event is
+     * sent to and must not be modified; the buffer is not read-only so engines can write its backing array directly.
+     */
+    ByteBuffer encoded() {
+        return encoded.duplicate();
+    }
+
+    private static void field(StringBuilder text, String name, String value) {
+        if (value.indexOf('\r') >= 0 || value.indexOf('\n') >= 0) {
+            throw new IllegalArgumentException("event " + name + " must not contain line breaks");
+        }
+        text.append(name).append(": ").append(value).append('\n');
+    }
+
+    @Override
+    public String toString() {
+        return StandardCharsets.UTF_8.decode(encoded()).toString();
+    }
+}
@@ -0,0 +1,59 @@
+package org.webby.core;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reference-counted file channel behind the {@linkplain BodyRegion body regions} of a cache that retires files while
+ * responses reading from them may still be in flight.
+ *
+ * <p>The cache holds the first reference and {@linkplain #release() releases} it when it retires the file; engines
+ * hold one more for each write from the channel through {@link BodyRegion#retain()}. The channel is closed as soon as
+ * the last reference is gone, rather than whenever the garbage collector gets to it.
+ */
+final class SharedFileChannel {
+    private final FileChannel channel;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    SharedFileChannel(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    FileChannel channel() {
+        return channel;
+    }
+
+    /**
+     * Takes a reference unless the channel was closed already.
+     *
+     * @return {@code true} if the channel stays open until the matching {@link #release()}
+     */
+    boolean retain() {
+        int current;
+        do {
+            current = references.get();
+            if (current == 0) {
+                return false;
+            }
+        } while (!references.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * Drops a reference, closing the channel when it was the last one.
+     */
+    void release() {
+        if (references.decrementAndGet() == 0) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // Nothing left to release.
+            }
+        }
+    }
+
+    int references() {
+        return references.get();
+    }
+}
@@ -0,0 +1,448 @@
+package org.webby.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Request handler that serves files below a root directory, meant to be mounted on a {@link Router} catch-all route:
+ *
+ * <pre>{@code
+ * router.get("/assets/{*path}", new StaticFileHandler(Path.of("public")));
+ * }</pre>
+ *
+ * <p>The requested path is percent-decoded and rejected unless it stays inside the root, also after symbolic links are
+ * resolved. Directories are answered with their {@code index.html}. Responses carry {@code Last-Modified}, an
+ * {@code ETag} derived from size and modification time, and {@code Accept-Ranges}; conditional requests are answered
+ * with {@code 304 Not Modified}, and a single byte range (honouring {@code If-Range}) with {@code 206 Partial Content}.
+ * When the client accepts {@code gzip} and a precompressed {@code .gz} sibling exists, the sibling is sent instead.
+ *
+ * <p>Open channels, mappings, metadata and prepared responses are cached per path and revalidated against the file
+ * system at most once a second, so repeated requests cost a map lookup; range requests are answered with slices of the
+ * cached mapping. Bodies are {@linkplain BodyRegion file regions}, which every engine sends without reading them onto
+ * the heap. The channel of a file that changed or was evicted is closed as soon as the last response being sent from
+ * it has finished. Files larger than 2 GiB are not served.
+ */
+public final class StaticFileHandler implements RequestHandler, Closeable {
+    /** Name of the route variable holding the file path unless configured otherwise. */
+    public static final String DEFAULT_VARIABLE = "path";
+
+    private static final String INDEX_FILE = "index.html";
+    private static final int MAX_ENTRIES = 1024;
+    private static final long REVALIDATE_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+    private static final long[] UNSATISFIABLE = new long[0];
+    private static final Response NOT_FOUND = Response.text(HttpStatus.NOT_FOUND, "Not Found").prepare();
+    private static final Response METHOD_NOT_ALLOWED = new Response(HttpStatus.METHOD_NOT_ALLOWED,
+            Map.of("Allow", "GET, HEAD"), "Method Not Allowed".getBytes(StandardCharsets.UTF_8)).prepare();
+    private static final Map<String, String> CONTENT_TYPES = Map.ofEntries(
+            Map.entry("html", "text/html; charset=UTF-8"),
+            Map.entry("htm", "text/html; charset=UTF-8"),
+            Map.entry("css", "text/css; charset=UTF-8"),
+            Map.entry("js", "text/javascript; charset=UTF-8"),
+            Map.entry("mjs", "text/javascript; charset=UTF-8"),
+            Map.entry("json", "application/json"),
+            Map.entry("map", "application/json"),
+            Map.entry("txt", "text/plain; charset=UTF-8"),
+            Map.entry("csv", "text/csv; charset=UTF-8"),
+            Map.entry("xml", "application/xml"),
+            Map.entry("svg", "image/svg+xml"),
+            Map.entry("png", "image/png"),
+            Map.entry("jpg", "image/jpeg"),
+            Map.entry("jpeg", "image/jpeg"),
+            Map.entry("gif", "image/gif"),
+            Map.entry("webp", "image/webp"),
+            Map.entry("avif", "image/avif"),
+            Map.entry("ico", "image/x-icon"),
+            Map.entry("woff", "font/woff"),
+            Map.entry("woff2", "font/woff2"),
+            Map.entry("wasm", "application/wasm"),
+            Map.entry("pdf", "application/pdf"),
+            Map.entry("gz", "application/gzip"),
+            Map.entry("mp4", "video/mp4"),
+            Map.entry("webm", "video/webm"));
+
+    private final Path root;
+    private final String variable;
+    private final String cacheControl;
+    private final LongSupplier ticker;
+    private final ConcurrentHashMap<String, FileEntry> files = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a handler reading the file path from the {@value #DEFAULT_VARIABLE} route variable, without a
+     * {@code Cache-Control} header.
+     *
+     * @param root directory to serve
+     * @throws IOException if the root does not exist or cannot be resolved
+     */
+    public StaticFileHandler(Path root) throws IOException {
+        this(root, DEFAULT_VARIABLE, null);
+    }
+
+    /**
+     * Creates a handler.
+     *
+     * @param root directory to serve
+     * @param variable name of the route variable holding the file path
+     * @param maxAge freshness announced through {@code Cache-Control: public, max-age}, or {@code null} for none
+     * @throws IOException if the root does not exist or cannot be resolved
+     * @throws IllegalArgumentException if the root is not a directory or {@code maxAge} is negative
+     */
+    public StaticFileHandler(Path root, String variable, Duration maxAge) throws IOException {
+        this(root, variable, maxAge, System::nanoTime);
+    }
+
+    StaticFileHandler(Path root, String variable, Duration maxAge, LongSupplier ticker) throws IOException {
+        this.root = Objects.requireNonNull(root, "root").toRealPath();
+        if (!Files.isDirectory(this.root)) {
+            throw new IllegalArgumentException("Not a directory: " + root);
+        }
+        if (maxAge != null && maxAge.isNegative()) {
+            throw new IllegalArgumentException("maxAge must not be negative");
+        }
+        this.variable = Objects.requireNonNull(variable, "variable");
+        this.cacheControl = maxAge == null ? null : "public, max-age=" + maxAge.toSeconds();
+        this.ticker = ticker;
+    }
+
+    @Override
+    public Response handle(Request request) {
+        HttpMethod method = request.method();
+        if (method != HttpMethod.GET && method != HttpMethod.HEAD) {
+            return METHOD_NOT_ALLOWED;
+        }
+        String relative = decodePath(request.getPathVariable(variable));
+        FileEntry entry = relative == null ? null : lookup(relative);
+        if (entry == null) {
+            return NOT_FOUND;
+        }
+        boolean gzip = entry.gzip != null && CompressionMiddleware.negotiate(request.header("Accept-Encoding"))
+                == CompressionMiddleware.Coding.GZIP;
+        Representation representation = gzip ? entry.gzip : entry.identity;
+        if (ETagMiddleware.isNotModified(request, representation.full.headers())) {
+            return representation.notModified;
+        }
+        String range = request.header("Range");
+        if (range == null || !ifRangeMatches(request.header("If-Range"), representation.full)) {
+            return representation.full;
+        }
+        return representation.range(range);
+    }
+
+    /**
+     * Forgets all cached files and closes their channels once the responses being sent from them have finished.
+     */
+    @Override
+    public void close() {
+        for (Map.Entry<String, FileEntry> entry : files.entrySet()) {
+            evict(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private FileEntry lookup(String relative) {
+        FileEntry entry = files.get(relative);
+        long now = ticker.getAsLong();
+        if (entry != null && now - entry.checkedAt < REVALIDATE_INTERVAL) {
+            return entry;
+        }
+        // Revalidate under the map's lock for this path, so concurrent requests open the file only once.
+        FileEntry current = files.compute(relative, (path, cached) -> {
+            if (cached != null && now - cached.checkedAt < REVALIDATE_INTERVAL) {
+                return cached;
+            }
+            FileEntry loaded;
+            try {
+                loaded = load(path, cached, now);
+            } catch (IOException e) {
+                loaded = null;
+            }
+            if (cached != null && loaded != cached) {
+                cached.release();
+            }
+            return loaded;
+        });
+        if (current != null && current != entry) {
+            trim(relative);
+        }
+        return current;
+    }
+
+    private FileEntry load(String relative, FileEntry cached, long now) throws IOException {
+        Path file = root.resolve(relative).normalize();
+        if (!file.startsWith(root)) {
+            return null;
+        }
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        if (attributes.isDirectory()) {
+            file = file.resolve(INDEX_FILE);
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        }
+        if (!attributes.isRegularFile() || attributes.size() > Integer.MAX_VALUE) {
+            return null;
+        }
+        Path gzipFile = file.resolveSibling(file.getFileName() + ".gz");
+        BasicFileAttributes gzipAttributes = Files.isRegularFile(gzipFile)
+                ? Files.readAttributes(gzipFile, BasicFileAttributes.class)
+                : null;
+        if (cached != null && cached.identity.matches(attributes) && cached.gzipMatches(gzipAttributes)) {
+            cached.checkedAt = now;
+            return cached;
+        }
+        if (!file.toRealPath().startsWith(root)) {
+            // A symbolic link pointing outside the root.
+            return null;
+        }
+        String contentType = contentType(file.getFileName().toString());
+        Representation identity = open(file, attributes, contentType, null, gzipAttributes != null);
+        Representation gzip = null;
+        try {
+            if (gzipAttributes != null && gzipAttributes.size() <= Integer.MAX_VALUE
+                    && gzipFile.toRealPath().startsWith(root)) {
+                gzip = open(gzipFile, gzipAttributes, contentType, CompressionMiddleware.Coding.GZIP, true);
+            }
+        } catch (IOException | RuntimeException e) {
+            identity.channel.release();
+            throw e;
+        }
+        return new FileEntry(identity, gzip, now);
+    }
+
+    private Representation open(
+            Path file,
+            BasicFileAttributes attributes,
+            String contentType,
+            CompressionMiddleware.Coding coding,
+            boolean varies) throws IOException {
+        long size = attributes.size();
+        long modified = attributes.lastModifiedTime().toMillis();
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Content-Type", contentType);
+        if (coding != null) {
+            headers.put("Content-Encoding", coding.token());
+        }
+        if (varies) {
+            headers.put("Vary", "Accept-Encoding");
+        }
+        headers.put("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                Instant.ofEpochMilli(modified).atOffset(ZoneOffset.UTC)));
+        headers.put("ETag", "\"" + Long.toHexString(size) + "-" + Long.toHexString(modified)
+                + (coding == null ? "" : "-" + coding.token()) + "\"");
+        headers.put("Accept-Ranges", "bytes");
+        if (cacheControl != null) {
+            headers.put("Cache-Control", cacheControl);
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        MappedByteBuffer mapping;
+        try {
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return new Representation(new SharedFileChannel(channel), mapping, size, modified, headers);
+    }
+
+    /**
+     * Keeps the cache bounded by dropping arbitrary other entries once it overflows.
+     */
+    private void trim(String keep) {
+        for (Map.Entry<String, FileEntry> entry : files.entrySet()) {
+            if (files.size() <= MAX_ENTRIES) {
+                return;
+            }
+            if (!entry.getKey().equals(keep)) {
+                evict(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void evict(String relative, FileEntry entry) {
+        // Only the thread that removes the entry releases it.
+        if (files.remove(relative, entry)) {
+            entry.release();
+        }
+    }
+
+    private static boolean ifRangeMatches(String ifRange, Response full) {
+        if (ifRange == null) {
+            return true;
+        }
+        String value = ifRange.trim();
+        // If-Range requires a strong match: the exact entity tag, or exactly the last modification date.
+        return value.startsWith("\"") ? value.equals(full.header("ETag")) : value.equals(full.header("Last-Modified"));
+    }
+
+    /**
+     * Percent-decodes the requested path and rejects anything that could leave the root.
+     *
+     * @return relative path, empty for the root itself, or {@code null} if the path is not acceptable
+     */
+    static String decodePath(String raw) {
+        if (raw == null || raw.isEmpty()) {
+            return "";
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(raw.length());
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (c == '%') {
+                int high = i + 2 < raw.length() ? Character.digit(raw.charAt(i + 1), 16) : -1;
+                int low = high < 0 ? -1 : Character.digit(raw.charAt(i + 2), 16);
+                if (low < 0) {
+                    return null;
+                }
+                bytes.write(high << 4 | low);
+                i += 2;
+            } else if (c < 0x80) {
+                bytes.write(c);
+            } else {
+                byte[] encoded = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+                bytes.write(encoded, 0, encoded.length);
+            }
+        }
+        String decoded = bytes.toString(StandardCharsets.UTF_8);
+        if (decoded.indexOf('\0') >= 0 || decoded.indexOf('\\') >= 0 || decoded.indexOf(':') >= 0
+                || decoded.startsWith("/")) {
+            return null;
+        }
+        for (String segment : decoded.split("/")) {
+            if (segment.equals("..") || segment.equals(".")) {
+                return null;
+            }
+        }
+        return decoded;
+    }
+
+    static String contentType(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        String extension = dot < 0 ? "" : fileName.substring(dot + 1).toLowerCase(Locale.ROOT);
+        return CONTENT_TYPES.getOrDefault(extension, "application/octet-stream");
+    }
+
+    /**
+     * Parses a single {@code bytes} range.
+     *
+     * @return inclusive first and last byte, {@link #UNSATISFIABLE}, or {@code null} to ignore the header
+     */
+    static long[] parseRange(String header, long size) {
+        if (header.length() < 6 || !header.regionMatches(true, 0, "bytes=", 0, 6) || header.indexOf(',') >= 0) {
+            // Multiple ranges are answered with the whole file, which the specification allows.
+            return null;
+        }
+        String spec = header.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || size == 0) {
+                    return UNSATISFIABLE;
+                }
+                return new long[] {Math.max(0, size - suffix), size - 1};
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+            if (start < 0 || end < start) {
+                return null;
+            }
+            return start >= size ? UNSATISFIABLE : new long[] {start, Math.min(end, size - 1)};
+        } catch (NumberFormatException invalid) {
+            return null;
+        }
+    }
+
+    /**
+     * Cached state of one requested path: the file and, if present, its precompressed sibling.
+     */
+    private static final class FileEntry {
+        final Representation identity;
+        final Representation gzip;
+        volatile long checkedAt;
+
+        FileEntry(Representation identity, Representation gzip, long checkedAt) {
+            this.identity = identity;
+            this.gzip = gzip;
+            this.checkedAt = checkedAt;
+        }
+
+        boolean gzipMatches(BasicFileAttributes attributes) {
+            return gzip == null ? attributes == null : attributes != null && gzip.matches(attributes);
+        }
+
+        /**
+         * Drops the cache's references to the files; responses still being sent keep theirs.
+         */
+        void release() {
+            identity.channel.release();
+            if (gzip != null) {
+                gzip.channel.release();
+            }
+        }
+    }
+
+    /**
+     * One file on disk with its mapping and its prepared full, {@code 304} and {@code 416} responses.
+     */
+    private static final class Representation {
+        final SharedFileChannel channel;
+        final MappedByteBuffer mapping;
+        final long size;
+        final long modified;
+        final Response full;
+        final Response notModified;
+        final Response unsatisfiable;
+
+        Representation(
+                SharedFileChannel channel, MappedByteBuffer mapping, long size, long modified,
+                Map<String, String> headers) {
+            this.channel = channel;
+            this.mapping = mapping;
+            this.size = size;
+            this.modified = modified;
+            this.full = Response.file(HttpStatus.OK, headers, new BodyRegion(channel, 0, mapping)).prepare();
+            this.notModified = ETagMiddleware.notModified(full).prepare();
+            this.unsatisfiable = new Response(HttpStatus.RANGE_NOT_SATISFIABLE,
+                    Map.of("Content-Range", "bytes */" + size), null).prepare();
+        }
+
+        boolean matches(BasicFileAttributes attributes) {
+            return attributes.size() == size && attributes.lastModifiedTime().toMillis() == modified;
+        }
+
+        Response range(String header) {
+            long[] range = parseRange(header, size);
+            if (range == null) {
+                return full;
+            }
+            if (range == UNSATISFIABLE) {
+                return unsatisfiable;
+            }
+            Map<String, String> headers = new LinkedHashMap<>(full.headers());
+            headers.put("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + size);
+            // A slice of the cached mapping: seeking clients must not map the file again on every request.
+            int start = (int) range[0];
+            BodyRegion region = new BodyRegion(channel, start, mapping.slice(start, (int) (range[1] - start + 1)));
+            return Response.file(HttpStatus.PARTIAL_CONTENT, headers, region);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package org.webby.core;
+
+/**
+ * Fails a WebSocket send that would take the session's buffered bytes past
+ * {@link WebSocketOptions#maxBufferedBytes()}.
+ */
+public final class WebSocketBackpressureException extends IllegalStateException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates an exception for a rejected send.
+     *
+     * @param buffered bytes already buffered
+     * @param limit buffered byte limit
+     */
+    public WebSocketBackpressureException(long buffered, long limit) {
+        super("WebSocket send buffer is full: " + buffered + " of " + limit + " bytes buffered");
+    }
+}
@@ -0,0 +1,60 @@
+package org.webby.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the events of WebSocket connections opened through {@link Router#webSocket(String, WebSocketHandler,
+ * RequestMiddleware...)}. One handler serves every connection on its route; the session identifies the connection.
+ *
+ * <p>Callbacks for one connection never run concurrently, and the engine reads no further frames from a connection
+ * until the previous callback has returned, so a slow handler slows its client down instead of queueing messages.
+ * Callbacks should still return promptly: the Netty engine runs them on the connection's event loop. An exception
+ * thrown by a callback is passed to {@link #onError(WebSocketSession, Throwable)} and closes the connection with
+ * {@link WebSocketSession#INTERNAL_ERROR}.
+ */
+public interface WebSocketHandler {
+    /**
+     * Called once the handshake has completed, before any message is delivered.
+     *
+     * @param session the new connection
+     */
+    default void onOpen(WebSocketSession session) {
+    }
+
+    /**
+     * Called for each complete text message; fragmented messages are reassembled first.
+     *
+     * @param session connection the message arrived on
+     * @param message decoded message
+     */
+    default void onText(WebSocketSession session, String message) {
+    }
+
+    /**
+     * Called for each complete binary message; fragmented messages are reassembled first.
+     *
+     * @param session connection the message arrived on
+     * @param message message bytes, valid only for the duration of the call
+     */
+    default void onBinary(WebSocketSession session, ByteBuffer message) {
+    }
+
+    /**
+     * Called once when the connection is closed, by either side or because it failed. Sends after this call fail.
+     *
+     * @param session the closed connection
+     * @param code close code, or {@link WebSocketSession#ABNORMAL_CLOSURE} if no close frame was received
+     * @param reason close reason, possibly empty
+     */
+    default void onClose(WebSocketSession session, int code, String reason) {
+    }
+
+    /**
+     * Called when a callback throws or the connection fails. {@link #onClose(WebSocketSession, int, String)} follows.
+     *
+     * @param session connection that failed
+     * @param error the failure
+     */
+    default void onError(WebSocketSession session, Throwable error) {
+    }
+}
@@ -0,0 +1,203 @@
+package org.webby.core;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts WebSocket connections and the messages and bytes they carry, and serves the counts in the Prometheus text
+ * exposition format. Wrap each handler whose connections should be counted with {@link #track(WebSocketHandler)}:
+ *
+ * <pre>{@code
+ * WebSocketMetrics sockets = new WebSocketMetrics();
+ * router.webSocket("/chat", sockets.track(chat)).get("/metrics/websockets", sockets.handler());
+ * }</pre>
+ *
+ * <p>Message counters are exported as {@code _total} counters, so dashboards derive message rates with
+ * {@code rate()}; the number of open connections is a gauge. Messages are counted once reassembled, so a fragmented
+ * message counts once and control frames are not counted. Sends refused because the session was closed or its send
+ * buffer was full are counted separately. Recording takes no lock.
+ */
+public final class WebSocketMetrics {
+    private final LongAdder open = new LongAdder();
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder messagesReceived = new LongAdder();
+    private final LongAdder messagesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder sendsRejected = new LongAdder();
+
+    /**
+     * Creates metrics with nothing recorded.
+     */
+    public WebSocketMetrics() {
+    }
+
+    /**
+     * Returns a handler that counts the connections of {@code handler} and the messages they receive and send. The
+     * sessions it passes to {@code handler} count sends; two of them for the same connection are equal.
+     *
+     * @param handler handler to instrument
+     * @return counting handler
+     */
+    public WebSocketHandler track(WebSocketHandler handler) {
+        return new TrackedHandler(handler, this);
+    }
+
+    /**
+     * Returns a handler that answers with all metrics in the Prometheus text format.
+     *
+     * @return metrics handler
+     */
+    public RequestHandler handler() {
+        return Prometheus.handler(this::scrape);
+    }
+
+    /**
+     * Returns the number of connections currently open.
+     *
+     * @return open connections
+     */
+    public long openConnections() {
+        return open.sum();
+    }
+
+    /**
+     * Returns the number of messages received since the metrics were created.
+     *
+     * @return received messages
+     */
+    public long messagesReceived() {
+        return messagesReceived.sum();
+    }
+
+    /**
+     * Returns the number of messages accepted for sending since the metrics were created.
+     *
+     * @return sent messages
+     */
+    public long messagesSent() {
+        return messagesSent.sum();
+    }
+
+    /**
+     * Renders the metrics in the Prometheus text exposition format, version 0.0.4.
+     */
+    String scrape() {
+        StringBuilder out = new StringBuilder(1024);
+        metric(out, "webby_websocket_connections", "gauge", "WebSocket connections currently open.", open);
+        metric(out, "webby_websocket_connections_total", "counter", "WebSocket connections opened.", opened);
+        metric(out, "webby_websocket_messages_received_total", "counter", "WebSocket messages received.",
+                messagesReceived);
+        metric(out, "webby_websocket_messages_sent_total", "counter", "WebSocket messages sent.", messagesSent);
+        metric(out, "webby_websocket_received_bytes_total", "counter", "WebSocket payload bytes received.",
+                bytesReceived);
+        metric(out, "webby_websocket_sent_bytes_total", "counter", "WebSocket payload bytes sent.", bytesSent);
+        metric(out, "webby_websocket_sends_rejected_total", "counter",
+                "WebSocket sends refused because the session was closed or its buffer was full.", sendsRejected);
+        return out.toString();
+    }
+
+    private static void metric(StringBuilder out, String name, String type, String help, LongAdder value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(' ').append(type).append('\n')
+                .append(name).append(' ').append(value.sum()).append('\n');
+    }
+
+    private void received(long bytes) {
+        messagesReceived.increment();
+        bytesReceived.add(bytes);
+    }
+
+    private CompletableFuture<Void> sent(CompletableFuture<Void> future, long bytes) {
+        if (future.isCompletedExceptionally()) {
+            sendsRejected.increment();
+        } else {
+            messagesSent.increment();
+            bytesSent.add(bytes);
+        }
+        return future;
+    }
+
+    /**
+     * Returns the length of a string once encoded as UTF-8, without encoding it.
+     */
+    static long utf8Length(CharSequence text) {
+        long length = text.length();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 0x800) {
+                // Surrogate pairs take four bytes for two chars, everything else from U+0800 up three for one.
+                length += Character.isSurrogate(c) ? 1 : 2;
+            } else if (c >= 0x80) {
+                length++;
+            }
+        }
+        return length;
+    }
+
+    private record TrackedHandler(WebSocketHandler handler, WebSocketMetrics metrics) implements WebSocketHandler {
+        @Override
+        public void onOpen(WebSocketSession session) {
+            metrics.open.increment();
+            metrics.opened.increment();
+            handler.onOpen(new TrackedSession(session, metrics));
+        }
+
+        @Override
+        public void onText(WebSocketSession session, String message) {
+            metrics.received(utf8Length(message));
+            handler.onText(new TrackedSession(session, metrics), message);
+        }
+
+        @Override
+        public void onBinary(WebSocketSession session, ByteBuffer message) {
+            metrics.received(message.remaining());
+            handler.onBinary(new TrackedSession(session, metrics), message);
+        }
+
+        @Override
+        public void onClose(WebSocketSession session, int code, String reason) {
+            metrics.open.decrement();
+            handler.onClose(new TrackedSession(session, metrics), code, reason);
+        }
+
+        @Override
+        public void onError(WebSocketSession session, Throwable error) {
+            handler.onError(new TrackedSession(session, metrics), error);
+        }
+    }
+
+    private record TrackedSession(WebSocketSession session, WebSocketMetrics metrics) implements WebSocketSession {
+        @Override
+        public Request request() {
+            return session.request();
+        }
+
+        @Override
+        public CompletableFuture<Void> sendText(String message) {
+            return metrics.sent(session.sendText(message), utf8Length(message));
+        }
+
+        @Override
+        public CompletableFuture<Void> sendBinary(ByteBuffer message) {
+            int bytes = message.remaining();
+            return metrics.sent(session.sendBinary(message), bytes);
+        }
+
+        @Override
+        public CompletableFuture<Void> close(int code, String reason) {
+            return session.close(code, reason);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return session.isOpen();
+        }
+
+        @Override
+        public long bufferedAmount() {
+            return session.bufferedAmount();
+        }
+    }
+}
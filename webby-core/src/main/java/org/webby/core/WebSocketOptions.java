@@ -0,0 +1,50 @@
+package org.webby.core;
+
+/**
+ * Settings an engine applies to the WebSocket connections it accepts.
+ *
+ * <p>A message longer than {@code maxMessageBytes}, counting all of its fragments and measured after decompression, is
+ * refused by closing the connection with {@link WebSocketSession#MESSAGE_TOO_BIG}. A send that would take a session's
+ * unwritten bytes past {@code maxBufferedBytes} fails with {@link WebSocketBackpressureException}.
+ *
+ * <p>With {@code compression} enabled the engine accepts the {@code permessage-deflate} extension (RFC 7692) when a
+ * client offers it. Compression trades CPU and a few hundred kilobytes of memory per connection for smaller frames,
+ * which pays off for large text messages on slow links and rarely for small or already compressed ones, so it is off
+ * by default.
+ *
+ * @param maxMessageBytes longest message accepted, in bytes
+ * @param maxBufferedBytes most payload bytes a session holds unwritten
+ * @param compression whether to negotiate {@code permessage-deflate}
+ */
+public record WebSocketOptions(int maxMessageBytes, long maxBufferedBytes, boolean compression) {
+    /** Longest message accepted unless configured otherwise: 1 MiB. */
+    public static final int DEFAULT_MAX_MESSAGE_BYTES = 1 << 20;
+
+    /** Most unwritten bytes per session unless configured otherwise: 4 MiB. */
+    public static final long DEFAULT_MAX_BUFFERED_BYTES = 4L << 20;
+
+    /** Options engines apply unless configured otherwise. */
+    public static final WebSocketOptions DEFAULT =
+            new WebSocketOptions(DEFAULT_MAX_MESSAGE_BYTES, DEFAULT_MAX_BUFFERED_BYTES, false);
+
+    /**
+     * Validates the options.
+     *
+     * @throws IllegalArgumentException if {@code maxMessageBytes} or {@code maxBufferedBytes} is not positive
+     */
+    public WebSocketOptions {
+        if (maxMessageBytes <= 0 || maxBufferedBytes <= 0) {
+            throw new IllegalArgumentException("maxMessageBytes and maxBufferedBytes must be positive");
+        }
+    }
+
+    /**
+     * Returns these options with {@code permessage-deflate} enabled or disabled.
+     *
+     * @param enabled whether to negotiate compression
+     * @return updated options
+     */
+    public WebSocketOptions withCompression(boolean enabled) {
+        return new WebSocketOptions(maxMessageBytes, maxBufferedBytes, enabled);
+    }
+}
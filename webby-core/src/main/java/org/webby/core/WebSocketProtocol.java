@@ -0,0 +1,373 @@
+package org.webby.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The parts of RFC 6455 and RFC 7692 that Webby implements itself: recognising an upgrade request, the handshake
+ * digest, {@code permessage-deflate} negotiation and, for the native engine, the frame format. Netty and Jetty bring
+ * their own codecs.
+ */
+final class WebSocketProtocol {
+    static final int CONTINUATION = 0x0;
+    static final int TEXT = 0x1;
+    static final int BINARY = 0x2;
+    static final int CLOSE = 0x8;
+    static final int PING = 0x9;
+    static final int PONG = 0xA;
+
+    /** Extension header of an accepted deflate offer; both sides start each message with an empty window. */
+    static final String DEFLATE_RESPONSE =
+            "permessage-deflate; server_no_context_takeover; client_no_context_takeover";
+
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int MAX_CONTROL_PAYLOAD = 125;
+
+    private WebSocketProtocol() {
+    }
+
+    /**
+     * Indicates whether a request asks for a WebSocket upgrade that this server can accept.
+     */
+    static boolean isUpgrade(Request request) {
+        if (request.method() != HttpMethod.GET
+                || !"websocket".equalsIgnoreCase(request.header("Upgrade"))
+                || !"13".equals(request.header("Sec-WebSocket-Version"))
+                || !hasToken(request.header("Connection"), "upgrade")) {
+            return false;
+        }
+        String key = request.header("Sec-WebSocket-Key");
+        try {
+            return key != null && Base64.getDecoder().decode(key.trim()).length == 16;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Computes the {@code Sec-WebSocket-Accept} value answering a {@code Sec-WebSocket-Key}.
+     */
+    static String acceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((key.trim() + ACCEPT_GUID).getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+
+    /**
+     * Indicates whether a {@code Sec-WebSocket-Extensions} header offers {@code permessage-deflate} with parameters
+     * that can be accepted. {@link java.util.zip.Deflater} always uses a 32 KiB window, so offers that limit the
+     * server's window are declined.
+     */
+    static boolean acceptsDeflate(String extensions) {
+        if (extensions == null) {
+            return false;
+        }
+        for (String offer : extensions.split(",")) {
+            String[] parameters = offer.split(";");
+            if (!parameters[0].trim().equalsIgnoreCase("permessage-deflate")) {
+                continue;
+            }
+            boolean acceptable = true;
+            for (int i = 1; i < parameters.length && acceptable; i++) {
+                String parameter = parameters[i].trim();
+                int equals = parameter.indexOf('=');
+                String name = (equals < 0 ? parameter : parameter.substring(0, equals)).trim().toLowerCase(Locale.ROOT);
+                String value = equals < 0 ? null : parameter.substring(equals + 1).trim().replace("\"", "");
+                acceptable = switch (name) {
+                    case "server_no_context_takeover", "client_no_context_takeover", "client_max_window_bits" -> true;
+                    case "server_max_window_bits" -> "15".equals(value);
+                    default -> false;
+                };
+            }
+            if (acceptable) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasToken(String header, String token) {
+        if (header == null) {
+            return false;
+        }
+        for (String candidate : header.split(",")) {
+            if (candidate.trim().equalsIgnoreCase(token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads one client frame and unmasks its payload.
+     *
+     * @param maxPayload longest data frame payload accepted
+     * @param deflate whether {@code permessage-deflate} was negotiated, which allows the first reserved bit
+     * @return the frame, or {@code null} if the connection ended before a new frame started
+     * @throws FrameException if the frame violates the protocol or exceeds {@code maxPayload}
+     */
+    static Frame readFrame(InputStream in, long maxPayload, boolean deflate) throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return null;
+        }
+        int second = readByte(in);
+        boolean fin = (first & 0x80) != 0;
+        boolean compressed = (first & 0x40) != 0;
+        int opcode = first & 0x0F;
+        if ((first & 0x30) != 0 || (compressed && !deflate)) {
+            throw new FrameException(WebSocketSession.PROTOCOL_ERROR, "reserved bits set");
+        }
+        if ((second & 0x80) == 0) {
+            throw new FrameException(WebSocketSession.PROTOCOL_ERROR, "client frames must be masked");
+        }
+        long length = second & 0x7F;
+        if (length == 126) {
+            length = (readByte(in) << 8) | readByte(in);
+        } else if (length == 127) {
+            length = 0;
+            for (int i = 0; i < 8; i++) {
+                length = (length << 8) | readByte(in);
+            }
+            if (length < 0) {
+                throw new FrameException(WebSocketSession.PROTOCOL_ERROR, "invalid frame length");
+            }
+        }
+        if (opcode >= CLOSE) {
+            if (opcode > PONG || !fin || compressed || length > MAX_CONTROL_PAYLOAD) {
+                throw new FrameException(WebSocketSession.PROTOCOL_ERROR, "invalid control frame");
+            }
+        } else if (opcode > BINARY) {
+            throw new FrameException(WebSocketSession.PROTOCOL_ERROR, "unknown opcode " + opcode);
+        } else if (length > maxPayload) {
+            throw new FrameException(WebSocketSession.MESSAGE_TOO_BIG, "message too big");
+        }
+        byte[] mask = readFully(in, 4);
+        byte[] payload = readFully(in, (int) length);
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] ^= mask[i & 3];
+        }
+        return new Frame(fin, compressed, opcode, payload);
+    }
+
+    /**
+     * Writes one unmasked, unfragmented server frame carrying the payload's remaining bytes.
+     */
+    static void writeFrame(OutputStream out, int opcode, boolean compressed, ByteBuffer payload) throws IOException {
+        int length = payload.remaining();
+        byte[] head = new byte[10];
+        head[0] = (byte) (0x80 | (compressed ? 0x40 : 0) | opcode);
+        int headLength;
+        if (length < 126) {
+            head[1] = (byte) length;
+            headLength = 2;
+        } else if (length <= 0xFFFF) {
+            head[1] = 126;
+            head[2] = (byte) (length >>> 8);
+            head[3] = (byte) length;
+            headLength = 4;
+        } else {
+            head[1] = 127;
+            for (int i = 0; i < 8; i++) {
+                head[2 + i] = (byte) ((long) length >>> (56 - 8 * i));
+            }
+            headLength = 10;
+        }
+        out.write(head, 0, headLength);
+        if (payload.hasArray()) {
+            out.write(payload.array(), payload.arrayOffset() + payload.position(), length);
+        } else {
+            byte[] chunk = new byte[Math.min(length, 8192)];
+            ByteBuffer source = payload.duplicate();
+            while (source.hasRemaining()) {
+                int count = Math.min(chunk.length, source.remaining());
+                source.get(chunk, 0, count);
+                out.write(chunk, 0, count);
+            }
+        }
+    }
+
+    /**
+     * Encodes the payload of a close frame.
+     */
+    static ByteBuffer closePayload(int code, String reason) {
+        byte[] text = reason.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(2 + text.length);
+        payload.putShort((short) code).put(text).flip();
+        return payload;
+    }
+
+    /**
+     * Returns the code of a received close frame, or {@link WebSocketSession#NO_STATUS_RECEIVED} if it has none.
+     *
+     * @throws FrameException if the code is not one a peer may send
+     */
+    static int closeCode(byte[] payload) throws FrameException {
+        if (payload.length == 0) {
+            return WebSocketSession.NO_STATUS_RECEIVED;
+        }
+        int code = payload.length < 2 ? -1 : ((payload[0] & 0xFF) << 8) | (payload[1] & 0xFF);
+        if (!AbstractWebSocketSession.validCloseCode(code)) {
+            throw new FrameException(WebSocketSession.PROTOCOL_ERROR, "invalid close code");
+        }
+        return code;
+    }
+
+    /**
+     * Returns the reason of a received close frame.
+     *
+     * @throws FrameException if the reason is not valid UTF-8
+     */
+    static String closeReason(byte[] payload) throws FrameException {
+        return payload.length <= 2 ? "" : decodeText(payload, 2, payload.length - 2);
+    }
+
+    /**
+     * Decodes a text message, rejecting malformed UTF-8 as RFC 6455 requires.
+     *
+     * @throws FrameException with {@link WebSocketSession#INVALID_PAYLOAD} if the bytes are not valid UTF-8
+     */
+    static String decodeText(byte[] bytes, int offset, int length) throws FrameException {
+        try {
+            CharBuffer chars = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(bytes, offset, length));
+            return chars.toString();
+        } catch (CharacterCodingException e) {
+            throw new FrameException(WebSocketSession.INVALID_PAYLOAD, "text message is not valid UTF-8");
+        }
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int value = in.read();
+        if (value < 0) {
+            throw new EOFException("connection closed inside a frame");
+        }
+        return value;
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] bytes = in.readNBytes(length);
+        if (bytes.length < length) {
+            throw new EOFException("connection closed inside a frame");
+        }
+        return bytes;
+    }
+
+    /**
+     * A decoded client frame.
+     */
+    record Frame(boolean fin, boolean compressed, int opcode, byte[] payload) {
+    }
+
+    /**
+     * A protocol violation, answered with a close frame carrying {@link #code()}.
+     */
+    static final class FrameException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final int code;
+
+        FrameException(int code, String message) {
+            super(message);
+            this.code = code;
+        }
+
+        int code() {
+            return code;
+        }
+    }
+
+    /**
+     * Compression state of one connection that negotiated {@code permessage-deflate}. Both directions reset their
+     * window per message, as {@link #DEFLATE_RESPONSE} announces, so a connection holds no history between messages.
+     * Messages shorter than {@link #MIN_COMPRESSED_BYTES} are sent uncompressed, which the extension allows.
+     */
+    static final class Deflate {
+        static final int MIN_COMPRESSED_BYTES = 64;
+        private static final byte[] TAIL = {0, 0, (byte) 0xFF, (byte) 0xFF};
+
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final Inflater inflater = new Inflater(true);
+        private final byte[] chunk = new byte[8192];
+
+        /**
+         * Compresses an outgoing message. Sends may come from several threads.
+         */
+        synchronized ByteBuffer compress(ByteBuffer message) {
+            deflater.reset();
+            deflater.setInput(message);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, message.remaining() / 2));
+            int count;
+            do {
+                count = deflater.deflate(chunk, 0, chunk.length, Deflater.SYNC_FLUSH);
+                out.write(chunk, 0, count);
+            } while (count == chunk.length);
+            byte[] bytes = out.toByteArray();
+            int length = bytes.length;
+            // A sync flush ends with an empty stored block, which the extension leaves out of the frame.
+            if (length >= TAIL.length && Arrays.equals(bytes, length - TAIL.length, length, TAIL, 0, TAIL.length)) {
+                length -= TAIL.length;
+            }
+            return ByteBuffer.wrap(bytes, 0, length);
+        }
+
+        /**
+         * Decompresses an incoming message. Only the reading thread calls this.
+         *
+         * @throws FrameException if the data is corrupt or inflates to more than {@code maxBytes}
+         */
+        byte[] decompress(byte[] message, int length, int maxBytes) throws FrameException {
+            byte[] input = Arrays.copyOf(message, length + TAIL.length);
+            System.arraycopy(TAIL, 0, input, length, TAIL.length);
+            inflater.reset();
+            inflater.setInput(input);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, length * 2));
+            byte[] buffer = new byte[8192];
+            try {
+                while (!inflater.finished()) {
+                    int count = inflater.inflate(buffer);
+                    if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    if (out.size() + count > maxBytes) {
+                        throw new FrameException(WebSocketSession.MESSAGE_TOO_BIG, "message too big");
+                    }
+                    out.write(buffer, 0, count);
+                }
+            } catch (DataFormatException e) {
+                throw new FrameException(WebSocketSession.PROTOCOL_ERROR, "corrupt compressed message");
+            }
+            return out.toByteArray();
+        }
+
+        /**
+         * Releases the native zlib state.
+         */
+        synchronized void end() {
+            deflater.end();
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package org.webby.core;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An open WebSocket connection. Sessions are safe to use from any thread; messages are sent in the order the send
+ * methods are called.
+ *
+ * <p>Sends are asynchronous and return a future that completes once the frame has been handed to the network. Frames
+ * that have not been written yet count towards {@link #bufferedAmount()}; a send that would take it past
+ * {@link WebSocketOptions#maxBufferedBytes()} fails immediately with {@link WebSocketBackpressureException} instead
+ * of queueing without bound behind a slow client. Producers that can wait should chain their next send on the
+ * returned future.
+ */
+public interface WebSocketSession {
+    /** Close code for a normal closure. */
+    int NORMAL_CLOSURE = 1000;
+    /** Close code sent when the server is shutting down. */
+    int GOING_AWAY = 1001;
+    /** Close code for a protocol violation by the peer. */
+    int PROTOCOL_ERROR = 1002;
+    /** Close code reported when a close frame carried no code. Never sent. */
+    int NO_STATUS_RECEIVED = 1005;
+    /** Close code reported when the connection ended without a close frame. Never sent. */
+    int ABNORMAL_CLOSURE = 1006;
+    /** Close code for a text message that is not valid UTF-8. */
+    int INVALID_PAYLOAD = 1007;
+    /** Close code for a message larger than {@link WebSocketOptions#maxMessageBytes()}. */
+    int MESSAGE_TOO_BIG = 1009;
+    /** Close code sent when a handler callback threw. */
+    int INTERNAL_ERROR = 1011;
+
+    /**
+     * Returns the upgrade request that opened the connection, including its path variables.
+     *
+     * @return handshake request
+     */
+    Request request();
+
+    /**
+     * Sends a text message.
+     *
+     * @param message message to send
+     * @return future completed once the message is written
+     */
+    CompletableFuture<Void> sendText(String message);
+
+    /**
+     * Sends a binary message. The buffer's remaining bytes are sent and must not be modified until the returned future
+     * completes.
+     *
+     * @param message message to send
+     * @return future completed once the message is written
+     */
+    CompletableFuture<Void> sendBinary(ByteBuffer message);
+
+    /**
+     * Starts the closing handshake. {@link WebSocketHandler#onClose(WebSocketSession, int, String)} is called once the
+     * peer answers or the connection drops.
+     *
+     * @param code close code
+     * @param reason close reason; at most 123 bytes once encoded as UTF-8
+     * @return future completed once the close frame is written
+     */
+    CompletableFuture<Void> close(int code, String reason);
+
+    /**
+     * Indicates whether messages can still be sent.
+     *
+     * @return {@code true} until the closing handshake has started
+     */
+    boolean isOpen();
+
+    /**
+     * Returns the number of payload bytes that were sent but have not been written to the network yet.
+     *
+     * @return buffered bytes
+     */
+    long bufferedAmount();
+}
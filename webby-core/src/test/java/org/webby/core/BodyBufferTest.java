@@ -0,0 +1,98 @@
+package org.webby.core;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class BodyBufferTest {
+    @Test
+    void keepsBodiesWithinTheThresholdInMemory() throws Exception {
+        BodyLimits limits = new BodyLimits(100, 16);
+        byte[] payload = "name=webby".getBytes(StandardCharsets.UTF_8);
+        try (BodyBuffer buffer = new BodyBuffer(limits, limits.maxBytes(), payload.length)) {
+            buffer.transferFrom(new ByteArrayInputStream(payload), payload.length);
+            Request request = buffer.toRequest(HttpMethod.POST, "/form", "HTTP/1.1",
+                    Map.of("Content-Type", "application/x-www-form-urlencoded"), null);
+
+            assertFalse(buffer.spilled());
+            assertNull(request.bodyFile());
+            assertArrayEquals(payload, request.body());
+            assertEquals("webby", request.formParameter("name"));
+        }
+    }
+
+    @Test
+    void spillsBodiesAboveTheThresholdToAFile() throws Exception {
+        Path directory = Files.createTempDirectory("webby-body");
+        BodyLimits limits = new BodyLimits(100, 16, directory);
+        String text = "name=" + "w".repeat(35);
+        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        Path file;
+        try (BodyBuffer buffer = new BodyBuffer(limits, limits.maxBytes(), -1)) {
+            buffer.write(payload, 0, 10);
+            assertFalse(buffer.spilled());
+            buffer.write(ByteBuffer.wrap(payload, 10, payload.length - 10));
+            assertTrue(buffer.spilled());
+            Request request = buffer.toRequest(HttpMethod.POST, "/form", "HTTP/1.1",
+                    Map.of("Content-Type", "application/x-www-form-urlencoded"), null);
+
+            file = request.bodyFile();
+            assertEquals(directory, file.getParent());
+            assertEquals(payload.length, request.bodyLength());
+            assertThrows(IllegalStateException.class, request::body);
+            try (InputStream stream = request.bodyStream()) {
+                assertArrayEquals(payload, stream.readAllBytes());
+            }
+            assertEquals(text, StandardCharsets.UTF_8.decode(request.bodyBuffer()).toString());
+            assertEquals("w".repeat(35), request.formParameter("name"));
+        }
+        assertFalse(Files.exists(file));
+        Files.delete(directory);
+    }
+
+    @Test
+    void rejectsBodiesOverTheMaximum() throws Exception {
+        BodyLimits limits = new BodyLimits(20, 8);
+
+        PayloadTooLargeException declared =
+                assertThrows(PayloadTooLargeException.class, () -> new BodyBuffer(limits, 20, 21));
+        assertEquals(20, declared.limit());
+        try (BodyBuffer buffer = new BodyBuffer(limits, 20, -1)) {
+            buffer.transferFrom(new ByteArrayInputStream(new byte[20]), -1);
+            assertThrows(PayloadTooLargeException.class, () -> buffer.write(new byte[1], 0, 1));
+            assertEquals(20, buffer.length());
+        }
+    }
+
+    @Test
+    void routesSetTheirOwnBodyLimits() {
+        RequestHandler handler = request -> Response.text(HttpStatus.OK, Long.toString(request.bodyLength()));
+        Router router = new Router()
+                .post("/notes", handler)
+                .route(HttpMethod.POST, "/videos/{id}", handler, new BodyLimitMiddleware(1000));
+        router.subRouterAtPath("/avatars").use(new BodyLimitMiddleware(10))
+                .route(HttpMethod.POST, "/{user}", handler, new BodyLimitMiddleware(20));
+        BodyLimits limits = new BodyLimits(100, 50);
+
+        assertEquals(1000, limits.maxBytesFor(router, HttpMethod.POST, "/videos/7?part=1"));
+        assertEquals(20, limits.maxBytesFor(router, HttpMethod.POST, "/avatars/ada"));
+        assertEquals(100, limits.maxBytesFor(router, HttpMethod.POST, "/notes"));
+        assertEquals(100, limits.maxBytesFor(router, HttpMethod.PUT, "/videos/7"));
+        assertEquals(100, limits.maxBytesFor(request -> null, HttpMethod.POST, "/videos/7"));
+
+        Request oversized = new Request(HttpMethod.POST, "/avatars/ada", "HTTP/1.1", Map.of(), new byte[21]);
+        assertEquals(HttpStatus.PAYLOAD_TOO_LARGE, router.handle(oversized).status());
+    }
+}
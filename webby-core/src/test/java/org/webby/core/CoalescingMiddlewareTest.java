@@ -0,0 +1,222 @@
+package org.webby.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Test;
+
+class CoalescingMiddlewareTest {
+    private static final Duration LONG = Duration.ofSeconds(10);
+
+    @Test
+    void concurrentIdenticalRequestsShareOneResponse() throws Exception {
+        CoalescingMiddleware coalescing = new CoalescingMiddleware(LONG, CoalescingMiddleware.ErrorPolicy.SHARE);
+        BlockingHandler handler = new BlockingHandler(request -> Response.text(HttpStatus.OK, "fresh"));
+
+        List<Response> responses = run(coalescing, handler, 8, () -> request("/popular", Map.of()));
+
+        assertEquals(1, handler.calls.get());
+        Response first = responses.get(0);
+        assertNotNull(first.encoded());
+        for (Response response : responses) {
+            assertSame(first, response);
+        }
+        CoalescingMiddleware.Stats stats = coalescing.stats();
+        assertEquals(1, stats.executions());
+        assertEquals(7, stats.coalesced());
+        assertEquals(0, stats.inFlight());
+        assertEquals(7 / 8.0, stats.coalescingRatio());
+    }
+
+    @Test
+    void differentKeysAreNotCoalesced() {
+        CoalescingMiddleware coalescing =
+                new CoalescingMiddleware(LONG, CoalescingMiddleware.ErrorPolicy.SHARE, "Accept-Encoding");
+        AtomicInteger calls = new AtomicInteger();
+        // The handler re-enters the middleware while its own flight is running: only an identical key would join it.
+        RequestHandler handler = new RequestHandler() {
+            @Override
+            public Response handle(Request request) {
+                if (calls.incrementAndGet() == 1) {
+                    coalescing.handle(request("/a", Map.of("Accept-Encoding", "gzip")), this);
+                    coalescing.handle(request("/b", Map.of()), this);
+                    coalescing.handle(post("/a"), this);
+                    coalescing.handle(request("/a", Map.of("Authorization", "Bearer t")), this);
+                }
+                return Response.text(HttpStatus.OK, "ok");
+            }
+        };
+
+        coalescing.handle(request("/a", Map.of()), handler);
+
+        assertEquals(5, calls.get());
+        assertEquals(0, coalescing.stats().coalesced());
+        assertEquals(3, coalescing.stats().executions());
+    }
+
+    @Test
+    void sharedFailuresReachEveryWaiter() throws Exception {
+        CoalescingMiddleware coalescing = new CoalescingMiddleware(LONG, CoalescingMiddleware.ErrorPolicy.SHARE);
+        BlockingHandler handler = new BlockingHandler(request -> {
+            throw new IllegalStateException("backend down");
+        });
+
+        List<Throwable> failures = runFailing(coalescing, handler, 4);
+
+        assertEquals(1, handler.calls.get());
+        assertEquals(4, failures.size());
+        for (Throwable failure : failures) {
+            assertEquals("backend down", failure.getMessage());
+        }
+        assertEquals(3, coalescing.stats().coalesced());
+    }
+
+    @Test
+    void retryPolicyLetsWaitersRunTheHandlerAfterAFailure() throws Exception {
+        CoalescingMiddleware coalescing = new CoalescingMiddleware(LONG, CoalescingMiddleware.ErrorPolicy.RETRY);
+        BlockingHandler handler = new BlockingHandler(request -> Response.text(HttpStatus.SERVICE_UNAVAILABLE, "busy"));
+        handler.afterFirst = request -> Response.text(HttpStatus.OK, "ok");
+
+        List<Response> responses = run(coalescing, handler, 4, () -> request("/flaky", Map.of()));
+
+        assertEquals(4, handler.calls.get());
+        assertEquals(1, responses.stream().filter(r -> r.statusCode() == 503).count());
+        CoalescingMiddleware.Stats stats = coalescing.stats();
+        assertEquals(3, stats.retries());
+        assertEquals(0, stats.coalesced());
+    }
+
+    @Test
+    void waitersRunTheHandlerThemselvesWhenTheTimeoutElapses() throws Exception {
+        CoalescingMiddleware coalescing =
+                new CoalescingMiddleware(Duration.ofMillis(20), CoalescingMiddleware.ErrorPolicy.SHARE);
+        BlockingHandler handler = new BlockingHandler(request -> Response.text(HttpStatus.OK, "slow"));
+        handler.afterFirst = request -> Response.text(HttpStatus.OK, "own");
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            Future<Response> leader = executor.submit(() -> coalescing.handle(request("/slow", Map.of()), handler));
+            handler.entered.await(5, TimeUnit.SECONDS);
+            Response follower = coalescing.handle(request("/slow", Map.of()), handler);
+            assertEquals("own", new String(follower.body()));
+            handler.release.countDown();
+            assertEquals("slow", new String(leader.get(5, TimeUnit.SECONDS).body()));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, coalescing.stats().timeouts());
+        assertEquals(0, coalescing.stats().inFlight());
+    }
+
+    @Test
+    void rejectsNonPositiveTimeout() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new CoalescingMiddleware(Duration.ZERO, CoalescingMiddleware.ErrorPolicy.SHARE));
+    }
+
+    private static List<Response> run(CoalescingMiddleware coalescing, BlockingHandler handler, int count,
+            Supplier<Request> requests) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(count);
+        try {
+            List<Future<Response>> futures = new ArrayList<>();
+            futures.add(executor.submit(() -> coalescing.handle(requests.get(), handler)));
+            handler.entered.await(5, TimeUnit.SECONDS);
+            for (int i = 1; i < count; i++) {
+                futures.add(executor.submit(() -> coalescing.handle(requests.get(), handler)));
+            }
+            awaitWaiters(coalescing, handler, count - 1);
+            handler.release.countDown();
+            List<Response> responses = new ArrayList<>();
+            for (Future<Response> future : futures) {
+                responses.add(future.get(5, TimeUnit.SECONDS));
+            }
+            return responses;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<Throwable> runFailing(CoalescingMiddleware coalescing, BlockingHandler handler, int count)
+            throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(count);
+        try {
+            List<Future<Response>> futures = new ArrayList<>();
+            futures.add(executor.submit(() -> coalescing.handle(request("/down", Map.of()), handler)));
+            handler.entered.await(5, TimeUnit.SECONDS);
+            for (int i = 1; i < count; i++) {
+                futures.add(executor.submit(() -> coalescing.handle(request("/down", Map.of()), handler)));
+            }
+            awaitWaiters(coalescing, handler, count - 1);
+            handler.release.countDown();
+            List<Throwable> failures = new ArrayList<>();
+            for (Future<Response> future : futures) {
+                failures.add(assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS)).getCause());
+            }
+            return failures;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void awaitWaiters(CoalescingMiddleware coalescing, BlockingHandler handler, int waiters)
+            throws InterruptedException {
+        // Followers only count once they are parked on the flight; until then the leader must stay blocked.
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (coalescing.waiting() < waiters && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(waiters, coalescing.waiting());
+        assertEquals(1, handler.calls.get());
+    }
+
+    private static Request request(String target, Map<String, String> headers) {
+        return new Request(HttpMethod.GET, target, "HTTP/1.1", headers, null);
+    }
+
+    private static Request post(String target) {
+        return new Request(HttpMethod.POST, target, "HTTP/1.1", Map.of(), null);
+    }
+
+    /**
+     * Handler whose first call blocks until the test releases it.
+     */
+    private static final class BlockingHandler implements RequestHandler {
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        private final RequestHandler first;
+        RequestHandler afterFirst;
+
+        BlockingHandler(RequestHandler first) {
+            this.first = first;
+        }
+
+        @Override
+        public Response handle(Request request) {
+            if (calls.incrementAndGet() > 1) {
+                return afterFirst.handle(request);
+            }
+            entered.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return first.handle(request);
+        }
+    }
+}
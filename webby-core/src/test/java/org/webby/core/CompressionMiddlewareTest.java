@@ -0,0 +1,122 @@
+package org.webby.core;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import org.junit.jupiter.api.Test;
+
+class CompressionMiddlewareTest {
+    private static final byte[] JSON = ("{\"items\":[" + "{\"name\":\"webby\",\"size\":42},".repeat(100) + "{}]}")
+            .getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void compressesNegotiatedCodingAndPreservesBody() throws IOException {
+        CompressionMiddleware middleware = new CompressionMiddleware();
+        RequestHandler handler = request -> new Response(HttpStatus.OK,
+                Map.of("Content-Type", "application/json", "ETag", "\"v1\"", "Content-Length", "999"), JSON);
+
+        Response gzip = middleware.handle(request("deflate;q=0.5, gzip"), handler);
+        Response deflate = middleware.handle(request("gzip;q=0, deflate"), handler);
+
+        assertEquals("gzip", gzip.headers().get("Content-Encoding"));
+        assertEquals("Accept-Encoding", gzip.headers().get("Vary"));
+        assertEquals("\"v1-gzip\"", gzip.headers().get("ETag"));
+        assertNull(gzip.headers().get("Content-Length"));
+        assertArrayEquals(JSON, new GZIPInputStream(new ByteArrayInputStream(gzip.body())).readAllBytes());
+        assertEquals("deflate", deflate.headers().get("Content-Encoding"));
+        assertArrayEquals(JSON, inflate(new InflaterInputStream(new ByteArrayInputStream(deflate.body()))));
+    }
+
+    @Test
+    void leavesIneligibleResponsesUntouched() {
+        CompressionMiddleware middleware = new CompressionMiddleware();
+        Response small = Response.text(HttpStatus.OK, "tiny");
+        Response image = new Response(HttpStatus.OK, Map.of("Content-Type", "image/png"), JSON);
+        Response encoded = new Response(HttpStatus.OK, Map.of("Content-Encoding", "br"), JSON);
+
+        assertSame(small, middleware.handle(request("gzip"), request -> small));
+        assertSame(image, middleware.handle(request("gzip"), request -> image));
+        assertSame(encoded, middleware.handle(request("gzip"), request -> encoded));
+
+        Response identity = middleware.handle(request("identity"), plain(JSON));
+        assertNull(identity.headers().get("Content-Encoding"));
+        assertEquals("Accept-Encoding", identity.headers().get("Vary"));
+        assertSame(JSON, identity.body());
+    }
+
+    @Test
+    void identicalBodiesAreCompressedOnce() {
+        CompressionMiddleware middleware = new CompressionMiddleware();
+
+        Response first = middleware.handle(request("gzip"), plain(JSON.clone()));
+        Response second = middleware.handle(request("gzip"), plain(JSON.clone()));
+
+        assertSame(first.body(), second.body());
+    }
+
+    @Test
+    void bodiesLargerThanTheCacheBudgetAreNotCached() {
+        // Random letters compress to well over the budget of one cache stripe.
+        Random random = new Random(42);
+        byte[] large = new byte[8192];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) ('a' + random.nextInt(26));
+        }
+        CompressionMiddleware bounded = new CompressionMiddleware(0, 16 * 1024);
+        CompressionMiddleware uncached = new CompressionMiddleware(0, 0);
+
+        Response small = bounded.handle(request("gzip"), plain(JSON.clone()));
+        Response big = bounded.handle(request("gzip"), plain(large.clone()));
+
+        assertSame(small.body(), bounded.handle(request("gzip"), plain(JSON.clone())).body());
+        assertNotSame(big.body(), bounded.handle(request("gzip"), plain(large.clone())).body());
+        assertNotSame(uncached.handle(request("gzip"), plain(JSON)).body(),
+                uncached.handle(request("gzip"), plain(JSON)).body());
+    }
+
+    @Test
+    void preparedResponsesKeepPreparedVariants() {
+        CompressionMiddleware middleware = new CompressionMiddleware();
+        Response prepared = new Response(HttpStatus.OK, Map.of("Content-Type", "text/html"), JSON).prepare();
+        AtomicInteger calls = new AtomicInteger();
+        RequestHandler handler = request -> {
+            calls.incrementAndGet();
+            return prepared;
+        };
+
+        Response gzip = middleware.handle(request("gzip"), handler);
+
+        assertSame(gzip, middleware.handle(request("gzip, deflate"), handler));
+        assertEquals(String.valueOf(gzip.body().length), gzip.encoded().headers().get("Content-Length"));
+        assertEquals("gzip", gzip.encoded().headers().get("Content-Encoding"));
+        assertSame(middleware.handle(request(null), handler), middleware.handle(request(null), handler));
+        assertEquals(4, calls.get());
+    }
+
+    private static RequestHandler plain(byte[] body) {
+        return request -> new Response(HttpStatus.OK, Map.of(), body);
+    }
+
+    private static Request request(String acceptEncoding) {
+        Map<String, String> headers = acceptEncoding == null ? Map.of() : Map.of("Accept-Encoding", acceptEncoding);
+        return new Request(HttpMethod.GET, "/", "HTTP/1.1", headers, null);
+    }
+
+    private static byte[] inflate(InputStream in) throws IOException {
+        try (in) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package org.webby.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class ConnectionMetricsTest {
+    @Test
+    void tracksConnectionsThroughTheirStates() {
+        ConnectionMetrics metrics = new ConnectionMetrics();
+        ConnectionMetrics.Connection plain = metrics.open(ConnectionMetrics.State.QUEUED, false);
+        ConnectionMetrics.Connection tls = metrics.open(ConnectionMetrics.State.IDLE, true);
+
+        assertEquals(2, metrics.openConnections());
+        assertEquals(1, metrics.openTlsConnections());
+        assertEquals(1, metrics.connections(ConnectionMetrics.State.QUEUED));
+
+        plain.enter(ConnectionMetrics.State.READING);
+        plain.enter(ConnectionMetrics.State.HANDLING);
+        tls.enter(ConnectionMetrics.State.HANDLING);
+        assertEquals(0, metrics.connections(ConnectionMetrics.State.QUEUED));
+        assertEquals(0, metrics.connections(ConnectionMetrics.State.IDLE));
+        assertEquals(2, metrics.connections(ConnectionMetrics.State.HANDLING));
+        assertEquals(ConnectionMetrics.State.HANDLING, plain.state());
+
+        plain.close();
+        plain.close();
+        plain.enter(ConnectionMetrics.State.WRITING);
+        assertNull(plain.state());
+        assertEquals(1, metrics.openConnections());
+        assertEquals(1, metrics.connections(ConnectionMetrics.State.HANDLING));
+        assertEquals(0, metrics.connections(ConnectionMetrics.State.WRITING));
+        assertEquals(2, metrics.acceptedConnections());
+    }
+
+    @Test
+    void recordsLifetimesAndRendersPrometheusText() {
+        AtomicLong now = new AtomicLong();
+        ConnectionMetrics metrics = new ConnectionMetrics(now::get);
+        ConnectionMetrics.Connection connection = metrics.open(ConnectionMetrics.State.IDLE, false);
+        metrics.open(ConnectionMetrics.State.IDLE, true).enter(ConnectionMetrics.State.WRITING);
+        now.addAndGet(Duration.ofMillis(50).toNanos());
+        connection.close();
+
+        assertEquals(1, metrics.lifetime().count());
+        assertEquals(Duration.ofMillis(50).toNanos(), metrics.lifetime().sumNanos());
+
+        String scrape = metrics.scrape();
+        assertTrue(scrape.contains("webby_connections{state=\"idle\"} 0\n"));
+        assertTrue(scrape.contains("webby_connections{state=\"writing\"} 1\n"));
+        assertTrue(scrape.contains("webby_connections_open{transport=\"plain\"} 0\n"));
+        assertTrue(scrape.contains("webby_connections_open{transport=\"tls\"} 1\n"));
+        assertTrue(scrape.contains("webby_connections_accepted_total{transport=\"plain\"} 1\n"));
+        assertTrue(scrape.contains("webby_connection_duration_seconds_bucket{le=\"0.01\"} 0\n"));
+        assertTrue(scrape.contains("webby_connection_duration_seconds_bucket{le=\"0.1\"} 1\n"));
+        assertTrue(scrape.contains("webby_connection_duration_seconds_sum 0.05\n"));
+        assertTrue(scrape.contains("webby_connection_duration_seconds_count 1\n"));
+    }
+}
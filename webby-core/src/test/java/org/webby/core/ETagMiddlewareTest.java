@@ -0,0 +1,94 @@
+package org.webby.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class ETagMiddlewareTest {
+    private static final byte[] BODY = "{\"status\":\"ok\"}".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void matchingIfNoneMatchYieldsNotModified() {
+        ETagMiddleware middleware = new ETagMiddleware();
+        RequestHandler handler = request -> new Response(HttpStatus.OK, Map.of("Cache-Control", "max-age=60"), BODY);
+
+        Response first = middleware.handle(request(HttpMethod.GET, Map.of()), handler);
+        String etag = first.header("etag");
+        assertNotNull(etag);
+        assertTrue(etag.startsWith("\""));
+
+        Response revalidated = middleware.handle(
+                request(HttpMethod.GET, Map.of("If-None-Match", "\"x\", " + etag)), handler);
+        assertEquals(HttpStatus.NOT_MODIFIED, revalidated.status());
+        assertEquals(0, revalidated.body().length);
+        assertEquals(etag, revalidated.header("ETag"));
+        assertEquals("max-age=60", revalidated.header("Cache-Control"));
+
+        Response changed = middleware.handle(request(HttpMethod.GET, Map.of("If-None-Match", "\"stale\"")), handler);
+        assertEquals(HttpStatus.OK, changed.status());
+    }
+
+    @Test
+    void compressedTagsAndWeakTagsMatch() {
+        RequestHandler handler = request -> new Response(HttpStatus.OK, Map.of("ETag", "\"v7\""), BODY);
+        ETagMiddleware middleware = new ETagMiddleware();
+
+        assertEquals(HttpStatus.NOT_MODIFIED,
+                middleware.handle(request(HttpMethod.GET, Map.of("If-None-Match", "W/\"v7-gzip\"")), handler).status());
+        assertTrue(new ETagMiddleware(true).handle(request(HttpMethod.GET, Map.of()), plain()).header("ETag")
+                .startsWith("W/\""));
+    }
+
+    @Test
+    void ifModifiedSinceUsesLastModified() {
+        RequestHandler handler = request -> new Response(HttpStatus.OK,
+                Map.of("Last-Modified", "Tue, 15 Nov 1994 12:45:26 GMT"), BODY);
+        ETagMiddleware middleware = new ETagMiddleware();
+
+        Response unchanged = middleware.handle(
+                request(HttpMethod.HEAD, Map.of("If-Modified-Since", "Tue, 15 Nov 1994 12:45:26 GMT")), handler);
+        Response modified = middleware.handle(
+                request(HttpMethod.HEAD, Map.of("If-Modified-Since", "Mon, 14 Nov 1994 12:45:26 GMT")), handler);
+
+        assertEquals(HttpStatus.NOT_MODIFIED, unchanged.status());
+        assertEquals(HttpStatus.OK, modified.status());
+    }
+
+    @Test
+    void preparedResponsesReuseTaggedVariants() {
+        ETagMiddleware middleware = new ETagMiddleware();
+        Response prepared = new Response(HttpStatus.OK, Map.of(), BODY).prepare();
+        RequestHandler handler = request -> prepared;
+
+        Response tagged = middleware.handle(request(HttpMethod.GET, Map.of()), handler);
+        Response notModified = middleware.handle(
+                request(HttpMethod.GET, Map.of("If-None-Match", tagged.header("ETag"))), handler);
+
+        assertSame(tagged, middleware.handle(request(HttpMethod.GET, Map.of()), handler));
+        assertNotNull(tagged.encoded());
+        assertSame(notModified, middleware.handle(
+                request(HttpMethod.GET, Map.of("If-None-Match", tagged.header("ETag"))), handler));
+        assertEquals(HttpStatus.NOT_MODIFIED, notModified.status());
+        assertEquals(null, notModified.encoded().headers().get("Content-Length"));
+    }
+
+    @Test
+    void otherMethodsAreNotTagged() {
+        Response response = new ETagMiddleware().handle(request(HttpMethod.POST, Map.of()), plain());
+
+        assertEquals(null, response.header("ETag"));
+    }
+
+    private static RequestHandler plain() {
+        return request -> new Response(HttpStatus.OK, Map.of(), BODY);
+    }
+
+    private static Request request(HttpMethod method, Map<String, String> headers) {
+        return new Request(method, "/status", "HTTP/1.1", headers, null);
+    }
+}
@@ -0,0 +1,256 @@
+package org.webby.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.Test;
+
+class EventStreamTest {
+    private static final EventStreamOptions NO_HEARTBEAT =
+            new EventStreamOptions(2, EventStreamOptions.Overflow.DROP_OLDEST, Duration.ZERO);
+
+    @Test
+    void encodesEventsInTheWireFormat() {
+        assertEquals("data: hello\n\n", ServerSentEvent.of("hello").toString());
+        assertEquals("id: 7\nevent: price\ndata: a\ndata: b\ndata: \ndata: c\n\n",
+                new ServerSentEvent("7", "price", "a\r\nb\n\nc").toString());
+        assertEquals("data: \n\n", ServerSentEvent.of("").toString());
+        assertEquals(13, ServerSentEvent.of("hello").encodedLength());
+        assertThrows(IllegalArgumentException.class, () -> new ServerSentEvent("1\n2", null, "x"));
+        assertThrows(IllegalArgumentException.class, () -> ServerSentEvent.of("a\rb", "x"));
+        assertThrows(NullPointerException.class, () -> ServerSentEvent.of(null));
+    }
+
+    @Test
+    void eventStreamResponsesAreNotCachedOrTagged() {
+        Response response = Response.eventStream(stream -> { });
+        assertEquals(200, response.statusCode());
+        assertEquals("text/event-stream", response.headers().get("Content-Type"));
+        assertEquals("no-cache", response.headers().get("Cache-Control"));
+        assertFalse(ResponseCacheMiddleware.isCacheable(response, new String[0]));
+
+        Request request = new Request(HttpMethod.GET, "/events", "HTTP/1.1", Map.of(), null);
+        Response tagged = new ETagMiddleware().handle(request, ignored -> response);
+        assertSame(response, tagged);
+        assertNull(tagged.header("ETag"));
+    }
+
+    @Test
+    void queuedEventsAreWrittenAsOneBatchAfterTheWriteInFlight() {
+        RecordingStream stream = new RecordingStream(
+                new EventStreamOptions(10, EventStreamOptions.Overflow.DROP_OLDEST, Duration.ZERO));
+        stream.deliverOpenForTest();
+
+        assertTrue(stream.send(ServerSentEvent.of("1")));
+        assertTrue(stream.send(ServerSentEvent.of("2")));
+        assertTrue(stream.send(ServerSentEvent.of("3")));
+        assertEquals(1, stream.writes.size());
+        assertEquals(2, stream.queuedEvents());
+
+        stream.completeNext();
+        assertEquals(2, stream.writes.size());
+        assertEquals("data: 2\n\ndata: 3\n\n", stream.text(1));
+        stream.completeNext();
+        assertEquals(0, stream.queuedEvents());
+    }
+
+    @Test
+    void slowClientsLoseTheOldestEventsUnderDropOldest() {
+        RecordingStream stream = new RecordingStream(NO_HEARTBEAT);
+        stream.deliverOpenForTest();
+
+        for (int i = 1; i <= 5; i++) {
+            assertTrue(stream.send(ServerSentEvent.of(Integer.toString(i))));
+        }
+        assertEquals(2, stream.queuedEvents());
+        assertEquals(2, stream.droppedEvents());
+
+        stream.completeNext();
+        assertEquals("data: 4\n\ndata: 5\n\n", stream.text(1));
+    }
+
+    @Test
+    void slowClientsAreDisconnectedUnderDisconnect() {
+        RecordingStream stream = new RecordingStream(
+                new EventStreamOptions(1, EventStreamOptions.Overflow.DISCONNECT, Duration.ZERO));
+        stream.deliverOpenForTest();
+
+        assertTrue(stream.send(ServerSentEvent.of("1")));
+        assertTrue(stream.send(ServerSentEvent.of("2")));
+        assertFalse(stream.send(ServerSentEvent.of("3")));
+        assertTrue(stream.aborted);
+        assertFalse(stream.finished);
+        assertFalse(stream.isOpen());
+        assertEquals(1, stream.closes);
+
+        // The write that was in flight completing late changes nothing.
+        stream.completeNext();
+        assertEquals(1, stream.writes.size());
+        assertFalse(stream.send(ServerSentEvent.of("4")));
+    }
+
+    @Test
+    void closeFinishesOnceTheQueueHasDrained() {
+        RecordingStream stream = new RecordingStream(NO_HEARTBEAT);
+        stream.deliverOpenForTest();
+        stream.send(ServerSentEvent.of("1"));
+        stream.send(ServerSentEvent.of("2"));
+
+        stream.close();
+        assertFalse(stream.isOpen());
+        assertFalse(stream.send(ServerSentEvent.of("3")));
+        assertFalse(stream.finished);
+
+        stream.completeNext();
+        stream.completeNext();
+        assertTrue(stream.finished);
+        assertEquals(1, stream.closes);
+
+        stream.disconnected();
+        assertFalse(stream.aborted);
+        assertEquals(1, stream.closes);
+    }
+
+    @Test
+    void failedWritesCloseTheStream() {
+        RecordingStream stream = new RecordingStream(NO_HEARTBEAT);
+        stream.deliverOpenForTest();
+        stream.send(ServerSentEvent.of("1"));
+        stream.send(ServerSentEvent.of("2"));
+
+        stream.writes.get(0).done().completeExceptionally(new IOException("Broken pipe"));
+        assertTrue(stream.aborted);
+        assertEquals(1, stream.closes);
+        assertEquals(0, stream.queuedEvents());
+    }
+
+    @Test
+    void idleStreamsReceiveHeartbeats() throws Exception {
+        RecordingStream stream = new RecordingStream(
+                new EventStreamOptions(4, EventStreamOptions.Overflow.DROP_OLDEST, Duration.ofMillis(10)));
+        stream.deliverOpenForTest();
+        try {
+            long deadline = System.nanoTime() + Duration.ofSeconds(2).toNanos();
+            while (stream.writeCount() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(":\n", stream.text(0));
+        } finally {
+            stream.close();
+        }
+    }
+
+    @Test
+    void broadcastersShareOneEncodingAcrossSubscribers() {
+        EventBroadcaster broadcaster = new EventBroadcaster();
+        List<RecordingStream> streams = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            RecordingStream stream = new RecordingStream(broadcaster, NO_HEARTBEAT);
+            stream.deliverOpenForTest();
+            streams.add(stream);
+        }
+        assertEquals(3, broadcaster.subscribers());
+
+        assertEquals(3, broadcaster.publish(ServerSentEvent.of("tick", "1")));
+        byte[] shared = streams.get(0).writes.get(0).data().array();
+        for (RecordingStream stream : streams) {
+            assertSame(shared, stream.writes.get(0).data().array());
+            assertEquals("event: tick\ndata: 1\n\n", stream.text(0));
+        }
+
+        streams.get(1).disconnected();
+        assertEquals(2, broadcaster.subscribers());
+        broadcaster.closeAll();
+        for (RecordingStream stream : streams) {
+            stream.completeNext();
+        }
+        assertEquals(0, broadcaster.subscribers());
+    }
+
+    /**
+     * Stream whose writes stay pending until the test completes them.
+     */
+    private static final class RecordingStream extends AbstractEventStream {
+        final List<Write> writes = new ArrayList<>();
+        boolean finished;
+        boolean aborted;
+        int closes;
+        private int completed;
+
+        RecordingStream(EventStreamOptions options) {
+            this(stream -> { }, options);
+        }
+
+        RecordingStream(EventStreamHandler handler, EventStreamOptions options) {
+            this(new Request(HttpMethod.GET, "/events", "HTTP/1.1", Map.of(), null), handler, options);
+        }
+
+        private RecordingStream(Request request, EventStreamHandler handler, EventStreamOptions options) {
+            super(request, new EventStreamHandler() {
+                @Override
+                public void onOpen(EventStream stream) {
+                    handler.onOpen(stream);
+                }
+
+                @Override
+                public void onClose(EventStream stream) {
+                    ((RecordingStream) stream).closes++;
+                    handler.onClose(stream);
+                }
+            }, options);
+        }
+
+        void deliverOpenForTest() {
+            deliverOpen();
+        }
+
+        synchronized int writeCount() {
+            return writes.size();
+        }
+
+        synchronized String text(int index) {
+            return StandardCharsets.UTF_8.decode(writes.get(index).data().duplicate()).toString();
+        }
+
+        void completeNext() {
+            Write next;
+            synchronized (this) {
+                if (completed >= writes.size()) {
+                    return;
+                }
+                next = writes.get(completed++);
+            }
+            next.done().complete(null);
+        }
+
+        @Override
+        protected synchronized void write(ByteBuffer data, CompletableFuture<Void> done) {
+            writes.add(new Write(data, done));
+        }
+
+        @Override
+        protected void finish() {
+            finished = true;
+        }
+
+        @Override
+        protected void abort() {
+            aborted = true;
+        }
+    }
+
+    private record Write(ByteBuffer data, CompletableFuture<Void> done) {
+    }
+}
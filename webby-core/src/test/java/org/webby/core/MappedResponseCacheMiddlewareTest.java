@@ -0,0 +1,153 @@
+package org.webby.core;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+
+class MappedResponseCacheMiddlewareTest {
+    private static final long MAX_BYTES = 256 * 1024;
+
+    @Test
+    void largeBodiesAreServedFromTheMappedFile() throws IOException {
+        Path directory = Files.createTempDirectory("webby-cache");
+        try (MappedResponseCacheMiddleware cache = cache(directory)) {
+            AtomicInteger calls = new AtomicInteger();
+            byte[] report = body(20_000, 'r');
+            RequestHandler handler = counting(calls, report, Map.of("Cache-Control", "max-age=60"));
+
+            Response first = cache.handle(request(HttpMethod.GET, "/report"), handler);
+            Response second = cache.handle(request(HttpMethod.GET, "/report"), handler);
+            Response small = cache.handle(request(HttpMethod.GET, "/small"),
+                    counting(calls, body(10, 's'), Map.of("Cache-Control", "max-age=60")));
+
+            assertEquals(2, calls.get());
+            assertSame(first, second);
+            assertNotNull(second.bodyRegion());
+            assertNotNull(second.encoded());
+            assertEquals(report.length, second.bodyLength());
+            assertArrayEquals(report, second.body());
+            assertEquals("max-age=60", second.header("Cache-Control"));
+            assertNull(small.bodyRegion());
+            assertEquals(1, cache.stats().hits());
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    void entriesSurviveARestart() throws IOException {
+        Path directory = Files.createTempDirectory("webby-cache");
+        try {
+            byte[] export = body(30_000, 'e');
+            try (MappedResponseCacheMiddleware cache = cache(directory)) {
+                cache.handle(request(HttpMethod.GET, "/export"),
+                        counting(new AtomicInteger(), export, Map.of("Content-Type", "text/csv")));
+            }
+            try (MappedResponseCacheMiddleware cache = cache(directory)) {
+                AtomicInteger calls = new AtomicInteger();
+                Response restored = cache.handle(request(HttpMethod.HEAD, "/export"), counting(calls, null, Map.of()));
+
+                assertEquals(0, calls.get());
+                assertEquals(HttpStatus.OK, restored.status());
+                assertEquals("text/csv", restored.header("Content-Type"));
+                assertArrayEquals(export, restored.body());
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    void requestedEntriesOutliveTheirSegment() throws IOException {
+        Path directory = Files.createTempDirectory("webby-cache");
+        try (MappedResponseCacheMiddleware cache = cache(directory)) {
+            RequestHandler handler = counting(new AtomicInteger(), body(20_000, 'x'), Map.of());
+            for (int i = 0; i < 40; i++) {
+                cache.handle(request(HttpMethod.GET, i % 4 == 0 ? "/hot" : "/cold/" + i), handler);
+            }
+            AtomicInteger calls = new AtomicInteger();
+            Response hot = cache.handle(request(HttpMethod.GET, "/hot"), counting(calls, null, Map.of()));
+
+            assertEquals(0, calls.get());
+            assertEquals(20_000, hot.bodyLength());
+            assertTrue(cache.stats().evictions() > 0);
+            assertTrue(cache.stats().diskBytes() <= MAX_BYTES);
+            try (Stream<Path> files = Files.list(directory)) {
+                assertTrue(files.count() <= 4);
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    void droppedSegmentsCloseTheirChannelOnceTheLastWriteFinishes() throws IOException {
+        Path directory = Files.createTempDirectory("webby-cache");
+        try (MappedResponseCacheMiddleware cache = cache(directory)) {
+            RequestHandler handler = counting(new AtomicInteger(), body(20_000, 'x'), Map.of());
+            BodyRegion idle = cache.handle(request(HttpMethod.GET, "/idle"), handler).bodyRegion();
+            BodyRegion sending = cache.handle(request(HttpMethod.GET, "/sending"), handler).bodyRegion();
+            assertTrue(sending.retain());
+            for (int i = 0; i < 40; i++) {
+                cache.handle(request(HttpMethod.GET, "/cold/" + i), handler);
+            }
+
+            // Both entries lived in the first segment, which is gone; one write from it is still in flight.
+            assertTrue(sending.channel().isOpen());
+            sending.release();
+            assertFalse(idle.channel().isOpen());
+            assertFalse(idle.retain());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            idle.transferTo(Channels.newChannel(out));
+            assertArrayEquals(body(20_000, 'x'), out.toByteArray());
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static MappedResponseCacheMiddleware cache(Path directory) throws IOException {
+        return new MappedResponseCacheMiddleware(directory, MAX_BYTES, 1024, Duration.ofMinutes(5));
+    }
+
+    private static RequestHandler counting(AtomicInteger calls, byte[] body, Map<String, String> headers) {
+        return request -> {
+            calls.incrementAndGet();
+            return new Response(HttpStatus.OK, headers, body);
+        };
+    }
+
+    private static byte[] body(int length, char fill) {
+        byte[] body = new byte[length];
+        Arrays.fill(body, (byte) fill);
+        return body;
+    }
+
+    private static Request request(HttpMethod method, String target) {
+        return new Request(method, target, "HTTP/1.1", Map.of(), null);
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
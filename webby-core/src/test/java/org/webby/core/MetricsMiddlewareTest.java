@@ -0,0 +1,109 @@
+package org.webby.core;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class MetricsMiddlewareTest {
+    @Test
+    void recordsRequestsByRouteTemplate() {
+        AtomicLong now = new AtomicLong();
+        MetricsMiddleware metrics = new MetricsMiddleware(now::get);
+        Router router = new Router().use(metrics)
+                .get("/users/{id}", request -> {
+                    now.addAndGet(Duration.ofMillis(3).toNanos());
+                    return Response.text(HttpStatus.OK, "user " + request.getPathVariable("id"));
+                })
+                .post("/users", request -> Response.text(HttpStatus.CREATED, ""));
+
+        router.handle(request(HttpMethod.GET, "/users/42", null));
+        router.handle(request(HttpMethod.GET, "/users/7", null));
+        router.handle(request(HttpMethod.POST, "/users", "{}".getBytes(StandardCharsets.UTF_8)));
+
+        LatencyHistogram users = metrics.latency(HttpMethod.GET, "/users/{id}", HttpStatus.OK);
+        assertNotNull(users);
+        assertEquals(2, users.count());
+        assertEquals(Duration.ofMillis(6).toNanos(), users.sumNanos());
+        assertNull(metrics.latency(HttpMethod.GET, "/users/42", HttpStatus.OK));
+
+        String scrape = metrics.scrape();
+        String labels = "{route=\"/users/{id}\",method=\"GET\",status=\"200\"";
+        assertTrue(scrape.contains("webby_http_requests_total" + labels + "} 2\n"));
+        assertTrue(scrape.contains("webby_http_response_bytes_total" + labels + "} 13\n"));
+        assertTrue(scrape.contains(
+                "webby_http_request_bytes_total{route=\"/users\",method=\"POST\",status=\"201\"} 2\n"));
+        assertTrue(scrape.contains("webby_http_request_duration_seconds_bucket" + labels + ",le=\"0.0025\"} 0\n"));
+        assertTrue(scrape.contains("webby_http_request_duration_seconds_bucket" + labels + ",le=\"0.005\"} 2\n"));
+        assertTrue(scrape.contains("webby_http_request_duration_seconds_bucket" + labels + ",le=\"+Inf\"} 2\n"));
+        assertTrue(scrape.contains("webby_http_request_duration_seconds_sum" + labels + "} 0.006\n"));
+        assertTrue(scrape.contains("webby_http_requests_in_flight 0\n"));
+    }
+
+    @Test
+    void failuresAndUnmatchedRequestsAreRecorded() {
+        MetricsMiddleware metrics = new MetricsMiddleware();
+        Router router = new Router()
+                .get("/boom", request -> {
+                    throw new IllegalStateException("boom");
+                })
+                .delete("/users/{id}", request -> null);
+        RequestHandler server = request -> metrics.handle(request, router);
+
+        assertThrows(IllegalStateException.class, () -> server.handle(request(HttpMethod.GET, "/boom", null)));
+        server.handle(request(HttpMethod.GET, "/missing", null));
+        server.handle(request(HttpMethod.DELETE, "/users/7", null));
+
+        assertEquals(1, metrics.latency(HttpMethod.GET, "/boom", HttpStatus.INTERNAL_SERVER_ERROR).count());
+        assertEquals(1, metrics.latency(HttpMethod.DELETE, "/users/{id}", HttpStatus.NO_CONTENT).count());
+        assertNull(metrics.latency(HttpMethod.DELETE, "/users/{id}", HttpStatus.INTERNAL_SERVER_ERROR));
+        assertEquals(1, metrics.latency(HttpMethod.GET, null, HttpStatus.NOT_FOUND).count());
+        assertEquals(0, metrics.inFlight());
+        Response exposition = metrics.handler().handle(request(HttpMethod.GET, "/metrics", null));
+        assertEquals("text/plain; version=0.0.4; charset=utf-8", exposition.header("Content-Type"));
+        assertTrue(new String(exposition.body(), StandardCharsets.UTF_8)
+                .contains("webby_http_requests_total{route=\"\",method=\"GET\",status=\"404\"} 1\n"));
+    }
+
+    @Test
+    void histogramQuantilesAreWithinOneBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(Duration.ofMillis(i).toNanos());
+        }
+
+        long p99 = histogram.valueAtQuantile(0.99);
+        long exact = Duration.ofMillis(990).toNanos();
+        assertTrue(p99 >= exact && p99 <= exact * 9 / 8, "p99 " + p99);
+        assertEquals(1000, histogram.count());
+        for (long value = 0; value < 1L << 20; value += 997) {
+            int index = LatencyHistogram.index(value);
+            assertTrue(value < LatencyHistogram.upperBound(index));
+            assertTrue(index == 0 || value >= LatencyHistogram.upperBound(index - 1));
+        }
+    }
+
+    @Test
+    void boundsInsideABucketSplitIt() {
+        LatencyHistogram histogram = new LatencyHistogram(new long[] {490_000, 500_000, 1_000_000});
+        // The first three fall in the bucket [491520, 524288), which holds the 0.5 ms bound.
+        histogram.record(495_000);
+        histogram.record(500_000);
+        histogram.record(520_000);
+        histogram.record(600_000);
+
+        assertArrayEquals(new long[] {0, 2, 4, 4}, histogram.cumulativeCounts());
+    }
+
+    private static Request request(HttpMethod method, String target, byte[] body) {
+        return new Request(method, target, "HTTP/1.1", Map.of(), body);
+    }
+}
@@ -39,6 +39,52 @@ class MiddlewareChainTest {
         assertEquals(HttpStatus.FORBIDDEN.code(), response.statusCode());
     }
 
+    @Test
+    void wrappedChainsAreNotAffectedByLaterAppends() {
+        StringBuilder trace = new StringBuilder();
+        MiddlewareChain chain = null;
+        for (int i = 0; i < 100; i++) {
+            String marker = Integer.toString(i % 10);
+            chain = MiddlewareChain.append(chain, (request, next) -> {
+                trace.append(marker);
+                return next.handle(request);
+            });
+        }
+        RequestHandler handler = chain.wrap(request -> Response.text(HttpStatus.OK, "done"));
+        MiddlewareChain.append(chain, (request, next) -> Response.text(HttpStatus.FORBIDDEN, "blocked"));
+
+        Response response = handler.handle(dummyRequest());
+
+        assertEquals("0123456789".repeat(10), trace.toString());
+        assertEquals(HttpStatus.OK.code(), response.statusCode());
+    }
+
+    @Test
+    void appendLeavesTheExtendedChainUnchanged() {
+        StringBuilder trace = new StringBuilder();
+        MiddlewareChain base = MiddlewareChain.append(null, (request, next) -> {
+            trace.append('a');
+            return next.handle(request);
+        });
+        MiddlewareChain withB = MiddlewareChain.append(base, (request, next) -> {
+            trace.append('b');
+            return next.handle(request);
+        });
+        MiddlewareChain withC = MiddlewareChain.append(base, (request, next) -> {
+            trace.append('c');
+            return next.handle(request);
+        });
+        RequestHandler terminal = request -> Response.text(HttpStatus.OK, "done");
+
+        base.wrap(terminal).handle(dummyRequest());
+        trace.append('|');
+        withB.wrap(terminal).handle(dummyRequest());
+        trace.append('|');
+        withC.wrap(terminal).handle(dummyRequest());
+
+        assertEquals("a|ab|ac", trace.toString());
+    }
+
     private static Request dummyRequest() {
         return new Request(HttpMethod.GET, "/", "HTTP/1.1", Map.of(), null);
     }
@@ -0,0 +1,125 @@
+package org.webby.core;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class MultipartReaderTest {
+    private static final String BOUNDARY = "----webby42";
+
+    @Test
+    void readsFieldsAndFileParts() throws Exception {
+        String body = "preamble\r\n"
+                + "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"title\"\r\n"
+                + "\r\n"
+                + "Holiday\r\n"
+                + "--" + BOUNDARY + "  \r\n"
+                + "content-disposition: form-data; name=\"photo\"; filename=\"beach;1.txt\"\r\n"
+                + "Content-Type: text/plain\r\n"
+                + "\r\n"
+                + "sand\r\n--and sea\r\n"
+                + "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"skipped\"\r\n"
+                + "\r\n"
+                + "never read\r\n"
+                + "--" + BOUNDARY + "--\r\n"
+                + "epilogue";
+        Request request = new Request(HttpMethod.POST, "/albums", "HTTP/1.1",
+                Map.of("Content-Type", "multipart/form-data; boundary=\"" + BOUNDARY + "\""),
+                body.getBytes(StandardCharsets.UTF_8));
+        Path file = Files.createTempFile("webby-part", ".txt");
+
+        try (MultipartReader multipart = MultipartReader.of(request)) {
+            MultipartReader.Part title = multipart.next();
+            assertEquals("title", title.name());
+            assertNull(title.filename());
+            assertEquals("text/plain", title.contentType());
+            assertEquals("Holiday", title.text());
+
+            MultipartReader.Part photo = multipart.next();
+            assertEquals("photo", photo.name());
+            assertEquals("beach;1.txt", photo.filename());
+            assertEquals("text/plain", photo.header("content-type"));
+            assertEquals(15, photo.transferTo(file));
+            assertEquals("sand\r\n--and sea", Files.readString(file));
+
+            assertEquals("skipped", multipart.next().name());
+            assertNull(multipart.next());
+            assertNull(multipart.next());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void findsBoundariesAcrossBufferRefills() throws Exception {
+        byte[] first = new byte[100_000];
+        for (int i = 0; i < first.length; i++) {
+            // Near-misses of the delimiter keep the search busy without ending the part.
+            first[i] = (byte) "\r\n------webby4".charAt(i % 13);
+        }
+        byte[] second = new byte[40_000];
+        Arrays.fill(second, (byte) 'b');
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"a\"\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        body.write(first);
+        body.write(("\r\n--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"b\"\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        body.write(second);
+        body.write(("\r\n--" + BOUNDARY + "--").getBytes(StandardCharsets.US_ASCII));
+
+        try (MultipartReader multipart = new MultipartReader(trickle(body.toByteArray()), BOUNDARY)) {
+            MultipartReader.Part a = multipart.next();
+            ByteArrayOutputStream read = new ByteArrayOutputStream();
+            InputStream content = a.content();
+            for (int i = 0; i < 5; i++) {
+                read.write(content.read());
+            }
+            read.write(content.readAllBytes());
+            assertArrayEquals(first, read.toByteArray());
+
+            MultipartReader.Part b = multipart.next();
+            assertEquals("b", b.name());
+            assertArrayEquals(second, b.content().readAllBytes());
+            assertNull(multipart.next());
+        }
+    }
+
+    @Test
+    void rejectsTruncatedAndNonMultipartBodies() throws Exception {
+        String truncated = "--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"a\"\r\n\r\npartial";
+        try (MultipartReader multipart = new MultipartReader(
+                new ByteArrayInputStream(truncated.getBytes(StandardCharsets.US_ASCII)), BOUNDARY)) {
+            MultipartReader.Part part = multipart.next();
+            assertThrows(EOFException.class, part::text);
+        }
+        Request json = new Request(HttpMethod.POST, "/", "HTTP/1.1", Map.of("Content-Type", "application/json"), null);
+        assertThrows(IllegalArgumentException.class, () -> MultipartReader.of(json));
+    }
+
+    /**
+     * Returns a stream that hands out at most 7 bytes per read, so delimiters straddle buffer refills.
+     */
+    private static InputStream trickle(byte[] bytes) {
+        return new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(byte[] target, int offset, int length) {
+                return super.read(target, offset, Math.min(length, 7));
+            }
+        };
+    }
+}
@@ -0,0 +1,73 @@
+package org.webby.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class RateLimitMiddlewareTest {
+    private static final RequestHandler OK = request -> Response.text(HttpStatus.OK, "ok");
+
+    @Test
+    void allowsBurstThenSustainedRate() {
+        AtomicLong now = new AtomicLong(-Duration.ofDays(1).toNanos());
+        RateLimitMiddleware limiter = new RateLimitMiddleware(
+                2, 3, RateLimitMiddleware.byClientAddress(), 16, now::get);
+        Request client = request("10.0.0.1", Map.of());
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(HttpStatus.OK, limiter.handle(client, OK).status());
+        }
+        Response rejected = limiter.handle(client, OK);
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, rejected.status());
+        assertEquals("1", rejected.header("Retry-After"));
+        assertEquals(HttpStatus.OK, limiter.handle(request("10.0.0.2", Map.of()), OK).status());
+
+        now.addAndGet(Duration.ofMillis(500).toNanos());
+        assertEquals(HttpStatus.OK, limiter.handle(client, OK).status());
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, limiter.handle(client, OK).status());
+
+        RateLimitMiddleware.Stats stats = limiter.stats();
+        assertEquals(5, stats.allowed());
+        assertEquals(2, stats.limited());
+    }
+
+    @Test
+    void requestsWithoutKeyAreNotLimited() {
+        RateLimitMiddleware limiter = new RateLimitMiddleware(1, 1, RateLimitMiddleware.byHeader("X-Api-Key"));
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(HttpStatus.OK, limiter.handle(request("10.0.0.1", Map.of()), OK).status());
+        }
+        limiter.handle(request("10.0.0.1", Map.of("X-Api-Key", "k")), OK);
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS,
+                limiter.handle(request("10.0.0.2", Map.of("x-api-key", "k")), OK).status());
+    }
+
+    @Test
+    void idleSlotsAreReusedAndOverflowIsLetThrough() {
+        AtomicLong now = new AtomicLong();
+        RateLimitMiddleware limiter = new RateLimitMiddleware(
+                1, 1, RateLimitMiddleware.byClientAddress(), 1, now::get);
+
+        for (int i = 0; i < 100; i++) {
+            limiter.handle(request("10.0.1." + i, Map.of()), OK);
+        }
+        assertEquals(true, limiter.stats().untracked() > 0);
+
+        now.addAndGet(Duration.ofSeconds(2).toNanos());
+        long untracked = limiter.stats().untracked();
+        for (int i = 0; i < 8; i++) {
+            limiter.handle(request("10.0.2." + i, Map.of()), OK);
+        }
+        assertEquals(untracked, limiter.stats().untracked());
+    }
+
+    private static Request request(String ip, Map<String, String> headers) {
+        return new Request(HttpMethod.GET, "/expensive", "HTTP/1.1", headers, null, null,
+                new InetSocketAddress(ip, 40000));
+    }
+}
@@ -3,10 +3,17 @@ package org.webby.core;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.jupiter.api.Test;
 
 class RequestTest {
@@ -42,4 +49,68 @@ class RequestTest {
         assertEquals("7", request.getPathVariable("userId"));
         assertNull(request.getPathVariable("missing"));
     }
+
+    @Test
+    void headerViewsAreKeptWithoutCopying() {
+        Map<String, String> backing = new LinkedHashMap<>();
+        backing.put("Content-Type", "text/plain");
+        AtomicInteger copies = new AtomicInteger();
+        HeaderView view = new HeaderView() {
+            @Override
+            protected String lookup(String name) {
+                return backing.entrySet().stream()
+                        .filter(entry -> entry.getKey().equalsIgnoreCase(name))
+                        .map(Map.Entry::getValue)
+                        .findFirst()
+                        .orElse(null);
+            }
+
+            @Override
+            protected void copyTo(Map<String, String> target) {
+                copies.incrementAndGet();
+                target.putAll(backing);
+            }
+        };
+
+        Request request = new Request(HttpMethod.GET, "/users/7", "HTTP/1.1", view, null);
+        Request routed = request.withPathVariables(Map.of("userId", "7"));
+
+        assertSame(view, request.headers());
+        assertSame(view, routed.headers());
+        assertEquals("text/plain", routed.header("content-type"));
+        assertEquals(0, copies.get());
+        assertEquals(Map.of("Content-Type", "text/plain"), request.headers());
+        assertEquals(1, copies.get());
+    }
+
+    @Test
+    void queryParametersAreParsedOnceAndDecodedOnRead() {
+        Request request = new Request(
+                HttpMethod.GET, "/search?q=caf%C3%A9+au+lait&tag=a&&tag=b&flag&broken=%zz", "HTTP/1.1", Map.of(), null);
+
+        Parameters parameters = request.queryParameters();
+
+        assertSame(parameters, request.queryParameters());
+        assertEquals("caf\u00e9 au lait", request.queryParameter("q"));
+        assertEquals(List.of("a", "b"), parameters.all("tag"));
+        assertEquals("", parameters.first("flag"));
+        assertEquals("%zz", parameters.first("broken"));
+        assertNull(parameters.first("missing"));
+        assertEquals(5, parameters.size());
+        assertEquals(Set.of("q", "tag", "flag", "broken"), parameters.names());
+    }
+
+    @Test
+    void formParametersRequireFormContentType() {
+        byte[] body = "name=J%C3%B6rg&name=Ann&city=New+York".getBytes(StandardCharsets.US_ASCII);
+        Request form = new Request(HttpMethod.POST, "/submit", "HTTP/1.1",
+                Map.of("content-type", "application/x-www-form-urlencoded; charset=UTF-8"), body);
+        Request json = new Request(HttpMethod.POST, "/submit", "HTTP/1.1",
+                Map.of("Content-Type", "application/json"), body);
+
+        assertEquals(List.of("J\u00f6rg", "Ann"), form.formParameters().all("name"));
+        assertEquals("New York", form.formParameter("city"));
+        assertTrue(json.formParameters().isEmpty());
+        assertTrue(form.queryParameters().isEmpty());
+    }
 }
@@ -0,0 +1,162 @@
+package org.webby.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class ResponseCacheMiddlewareTest {
+    private static final byte[] BODY = "cached".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void freshResponsesAreServedFromTheCache() {
+        ResponseCacheMiddleware cache = new ResponseCacheMiddleware(1 << 20);
+        AtomicInteger calls = new AtomicInteger();
+        RequestHandler handler = counting(calls, Map.of("Cache-Control", "public, max-age=60"));
+
+        Response first = cache.handle(request(HttpMethod.GET, "/a", Map.of()), handler);
+        Response second = cache.handle(request(HttpMethod.GET, "/a", Map.of()), handler);
+        Response head = cache.handle(request(HttpMethod.HEAD, "/a", Map.of()), handler);
+
+        assertEquals(1, calls.get());
+        assertSame(first, second);
+        assertSame(first, head);
+        assertEquals(new String(BODY, StandardCharsets.UTF_8), new String(second.body(), StandardCharsets.UTF_8));
+        ResponseCacheMiddleware.Stats stats = cache.stats();
+        assertEquals(2, stats.hits());
+        assertEquals(1, stats.misses());
+        assertEquals(1, stats.entries());
+    }
+
+    @Test
+    void uncacheableResponsesAndRequestsBypassTheCache() {
+        ResponseCacheMiddleware cache = new ResponseCacheMiddleware(1 << 20);
+        AtomicInteger calls = new AtomicInteger();
+        RequestHandler noStore = counting(calls, Map.of("Cache-Control", "no-store, max-age=60"));
+        RequestHandler cookie = counting(calls, Map.of("Cache-Control", "max-age=60", "Set-Cookie", "id=1"));
+        RequestHandler cacheable = counting(calls, Map.of("Cache-Control", "max-age=60"));
+
+        cache.handle(request(HttpMethod.GET, "/a", Map.of()), noStore);
+        cache.handle(request(HttpMethod.GET, "/a", Map.of()), noStore);
+        cache.handle(request(HttpMethod.GET, "/b", Map.of()), cookie);
+        cache.handle(request(HttpMethod.GET, "/b", Map.of()), cookie);
+        cache.handle(request(HttpMethod.GET, "/c", Map.of("Authorization", "Bearer x")), cacheable);
+        cache.handle(request(HttpMethod.GET, "/c", Map.of("Authorization", "Bearer x")), cacheable);
+        cache.handle(request(HttpMethod.POST, "/c", Map.of()), cacheable);
+
+        assertEquals(7, calls.get());
+        assertEquals(0, cache.stats().entries());
+    }
+
+    @Test
+    void configuredVaryHeadersArePartOfTheKey() {
+        ResponseCacheMiddleware cache = new ResponseCacheMiddleware(
+                1 << 20, Duration.ofMinutes(1), Duration.ZERO, Runnable::run, "Accept-Encoding");
+        AtomicInteger calls = new AtomicInteger();
+        RequestHandler handler = counting(calls, Map.of("Vary", "Accept-Encoding"));
+        RequestHandler varyOnOther = counting(calls, Map.of("Vary", "Accept-Language"));
+
+        cache.handle(request(HttpMethod.GET, "/a", Map.of("Accept-Encoding", "gzip")), handler);
+        cache.handle(request(HttpMethod.GET, "/a", Map.of("Accept-Encoding", "gzip")), handler);
+        cache.handle(request(HttpMethod.GET, "/a", Map.of()), handler);
+        cache.handle(request(HttpMethod.GET, "/b", Map.of()), varyOnOther);
+        cache.handle(request(HttpMethod.GET, "/b", Map.of()), varyOnOther);
+
+        assertEquals(4, calls.get());
+        assertEquals(2, cache.stats().entries());
+    }
+
+    @Test
+    void staleEntriesAreServedWhileOneRefreshRuns() {
+        AtomicLong now = new AtomicLong();
+        AtomicInteger refreshes = new AtomicInteger();
+        Runnable[] pending = new Runnable[1];
+        ResponseCacheMiddleware cache = new ResponseCacheMiddleware(1 << 20, Duration.ZERO, Duration.ZERO,
+                task -> {
+                    refreshes.incrementAndGet();
+                    pending[0] = task;
+                },
+                now::get);
+        AtomicInteger calls = new AtomicInteger();
+        RequestHandler handler = counting(calls, Map.of("Cache-Control", "max-age=10, stale-while-revalidate=30"));
+
+        Response original = cache.handle(request(HttpMethod.GET, "/a", Map.of()), handler);
+        now.set(Duration.ofSeconds(15).toNanos());
+        assertSame(original, cache.handle(request(HttpMethod.GET, "/a", Map.of()), handler));
+        assertSame(original, cache.handle(request(HttpMethod.GET, "/a", Map.of()), handler));
+        assertEquals(1, refreshes.get());
+        assertEquals(1, calls.get());
+
+        pending[0].run();
+        Response refreshed = cache.handle(request(HttpMethod.GET, "/a", Map.of()), handler);
+        assertEquals(2, calls.get());
+        assertNotSame(original, refreshed);
+
+        now.set(Duration.ofSeconds(100).toNanos());
+        cache.handle(request(HttpMethod.GET, "/a", Map.of()), handler);
+        assertEquals(3, calls.get());
+        assertEquals(2, cache.stats().staleHits());
+    }
+
+    @Test
+    void refreshesOfARouteMiddlewareSeeThePathVariables() {
+        AtomicLong now = new AtomicLong();
+        Runnable[] pending = new Runnable[1];
+        ResponseCacheMiddleware cache = new ResponseCacheMiddleware(
+                1 << 20, Duration.ZERO, Duration.ZERO, task -> pending[0] = task, now::get);
+        AtomicInteger calls = new AtomicInteger();
+        Router router = new Router().route(HttpMethod.GET, "/users/{id}", request -> {
+            calls.incrementAndGet();
+            return new Response(HttpStatus.OK, Map.of("Cache-Control", "max-age=10, stale-while-revalidate=30"),
+                    ("user " + request.pathVariables().get("id") + " via " + request.route())
+                            .getBytes(StandardCharsets.UTF_8));
+        }, cache);
+
+        router.handle(request(HttpMethod.GET, "/users/7", Map.of()));
+        now.set(Duration.ofSeconds(15).toNanos());
+        router.handle(request(HttpMethod.GET, "/users/7", Map.of()));
+        pending[0].run();
+        Response refreshed = router.handle(request(HttpMethod.GET, "/users/7", Map.of()));
+
+        assertEquals(2, calls.get());
+        assertEquals("user 7 via /users/{id}", new String(refreshed.body(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void popularEntriesSurviveAScan() {
+        ResponseCacheMiddleware cache = new ResponseCacheMiddleware(40 * 1024);
+        AtomicInteger calls = new AtomicInteger();
+        RequestHandler handler = counting(calls, Map.of("Cache-Control", "max-age=60"));
+
+        for (int i = 0; i < 20; i++) {
+            cache.handle(request(HttpMethod.GET, "/hot", Map.of()), handler);
+        }
+        for (int i = 0; i < 2000; i++) {
+            cache.handle(request(HttpMethod.GET, "/scan/" + i, Map.of()), handler);
+        }
+        int before = calls.get();
+        cache.handle(request(HttpMethod.GET, "/hot", Map.of()), handler);
+
+        assertEquals(before, calls.get());
+        ResponseCacheMiddleware.Stats stats = cache.stats();
+        assertEquals(true, stats.weightedSize() <= 40 * 1024);
+        assertEquals(true, stats.evictions() > 0);
+    }
+
+    private static RequestHandler counting(AtomicInteger calls, Map<String, String> headers) {
+        return request -> {
+            calls.incrementAndGet();
+            return new Response(HttpStatus.OK, headers, BODY);
+        };
+    }
+
+    private static Request request(HttpMethod method, String target, Map<String, String> headers) {
+        return new Request(method, target, "HTTP/1.1", headers, null);
+    }
+}
@@ -2,10 +2,15 @@ package org.webby.core;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.jupiter.api.Test;
 
 class ResponseTest {
@@ -28,4 +33,59 @@ class ResponseTest {
         assertThrows(UnsupportedOperationException.class, () -> response.headers().put("New", "value"));
         assertEquals(0, response.body().length);
     }
+
+    @Test
+    void preparedResponsesCarryEncodedWireForm() {
+        byte[] payload = "OK".getBytes(StandardCharsets.UTF_8);
+        Response plain = new Response(HttpStatus.OK, Map.of("X-Test", "yes"), payload);
+        Response prepared = plain.prepare();
+        payload[0] = 'N';
+
+        assertNull(plain.encoded());
+        assertNotNull(prepared.encoded());
+        assertSame(prepared, prepared.prepare());
+        assertEquals("OK", new String(prepared.body(), StandardCharsets.UTF_8));
+        assertEquals(Map.of("X-Test", "yes"), prepared.headers());
+
+        EncodedResponse encoded = prepared.encoded();
+        byte[] head = new byte[encoded.head().remaining()];
+        encoded.head().get(head);
+        assertEquals("HTTP/1.1 200 OK\r\n"
+                + "X-Test: yes\r\n"
+                + "Content-Type: text/plain; charset=UTF-8\r\n"
+                + "Content-Length: 2\r\n"
+                + "Connection: close\r\n\r\n", new String(head, StandardCharsets.UTF_8));
+        assertEquals(2, encoded.body().remaining());
+    }
+
+    @Test
+    void handlerConnectionAndLengthHeadersAreReplacedInAnyCase() {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("content-type", "application/json");
+        headers.put("content-length", "99");
+        headers.put("connection", "keep-alive");
+        EncodedResponse encoded = new Response(HttpStatus.OK, headers, "{}".getBytes(StandardCharsets.UTF_8))
+                .prepare().encoded();
+
+        byte[] head = new byte[encoded.head().remaining()];
+        encoded.head().get(head);
+        assertEquals("HTTP/1.1 200 OK\r\n"
+                + "content-type: application/json\r\n"
+                + "Content-Length: 2\r\n"
+                + "Connection: close\r\n\r\n", new String(head, StandardCharsets.UTF_8));
+        assertEquals(Map.of("content-type", "application/json", "Content-Length", "2"), encoded.headers());
+    }
+
+    @Test
+    void engineFormsAreBuiltOnce() {
+        EncodedResponse encoded = Response.text(HttpStatus.NOT_FOUND, "Not Found").prepare().encoded();
+        AtomicInteger builds = new AtomicInteger();
+
+        String first = encoded.engineForm(String.class, form -> "form-" + builds.incrementAndGet());
+        String second = encoded.engineForm(String.class, form -> "form-" + builds.incrementAndGet());
+
+        assertEquals("form-1", first);
+        assertSame(first, second);
+        assertEquals(1, builds.get());
+    }
 }
@@ -4,8 +4,15 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 import org.junit.jupiter.api.Test;
 
 class RouterTest {
@@ -85,9 +92,215 @@ class RouterTest {
         assertEquals("stats", new String(adminResponse.body()));
         assertEquals(200, adminResponse.statusCode());
         assertEquals(404, missResponse.statusCode());
+        Request matched = new Request(HttpMethod.GET, "/api/v1/users/3", "HTTP/1.1", Map.of(), null);
+        router.handle(matched);
+        assertEquals("/api/v1/users/{id}", matched.route());
 
         // Sub-router can also act as the handler directly.
         Response directResponse = api.handle(new Request(HttpMethod.GET, "/api/v1/users/9", "HTTP/1.1", Map.of(), null));
         assertEquals("9", new String(directResponse.body()));
     }
+
+    @Test
+    void variablesAreAttachedToTheDispatchedRequest() {
+        AtomicReference<Request> seen = new AtomicReference<>();
+        Router router = new Router()
+                .get("/users/{id}", request -> {
+                    seen.set(request);
+                    return Response.text(HttpStatus.OK, request.getPathVariable("id"));
+                })
+                .get("/users/{userId}/posts", request -> Response.text(HttpStatus.OK, request.getPathVariable("userId")));
+
+        Request request = new Request(HttpMethod.GET, "/users/42/?expand=true", "HTTP/1.1", Map.of(), null);
+        Response response = router.handle(request);
+        Response postsResponse = router.handle(new Request(HttpMethod.GET, "/users/7/posts", "HTTP/1.1", Map.of(), null));
+
+        assertSame(request, seen.get());
+        assertEquals("42", new String(response.body()));
+        assertEquals(Map.of("id", "42"), request.pathVariables());
+        assertEquals("7", new String(postsResponse.body()));
+    }
+
+    @Test
+    void routesRegisteredAfterDispatchAreVisible() {
+        Router router = new Router().get("/a", request -> Response.text(HttpStatus.OK, "a"));
+        Request request = new Request(HttpMethod.GET, "/b", "HTTP/1.1", Map.of(), null);
+        assertEquals(404, router.handle(request).statusCode());
+
+        router.get("/b", r -> Response.text(HttpStatus.OK, "b"));
+
+        assertEquals("b", new String(router.handle(request).body()));
+    }
+
+    @Test
+    void literalsWinOverVariablesAndVariablesOverCatchAll() {
+        Router router = new Router()
+                .get("/files/readme", request -> Response.text(HttpStatus.OK, "literal"))
+                .get("/files/{name}", request -> Response.text(HttpStatus.OK, "variable " + request.getPathVariable("name")))
+                .get("/files/{name}/raw", request -> Response.text(HttpStatus.OK, "raw " + request.getPathVariable("name")))
+                .get("/files/{*path}", request -> Response.text(HttpStatus.OK, "catch-all " + request.getPathVariable("path")))
+                .get("/users", request -> Response.text(HttpStatus.OK, "users"))
+                .get("/user/{id}", request -> Response.text(HttpStatus.OK, "user " + request.getPathVariable("id")));
+
+        assertEquals("literal", body(router, "/files/readme"));
+        assertEquals("variable notes", body(router, "/files/notes"));
+        assertEquals("raw readme", body(router, "/files/readme/raw"));
+        assertEquals("catch-all readme/history", body(router, "/files/readme/history"));
+        assertEquals("catch-all a/b/c", body(router, "/files/a/b/c?download=1"));
+        assertEquals("users", body(router, "/users"));
+        assertEquals("user 5", body(router, "/user/5"));
+        assertEquals("Not Found", body(router, "/files"));
+        assertEquals("Not Found", body(router, "/use"));
+    }
+
+    @Test
+    void catchAllMustBeLastSegment() {
+        Router router = new Router();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> router.get("/static/{*path}/more", request -> Response.text(HttpStatus.OK, "")));
+    }
+
+    @Test
+    void literalDispatchDoesNotAllocate() {
+        Response ok = Response.text(HttpStatus.OK, "OK").prepare();
+        Router router = new Router()
+                .get("/api/v1/health", request -> ok)
+                .get("/api/v1/users/{id}", request -> ok);
+        Request request = new Request(HttpMethod.GET, "/api/v1/health", "HTTP/1.1", Map.of(), null);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for (int i = 0; i < 20_000; i++) {
+            router.handle(request);
+        }
+
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < 10_000; i++) {
+            router.handle(request);
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+        assertTrue(allocated < 10_000, "allocated " + allocated + " bytes for 10000 dispatches");
+    }
+
+    @Test
+    void headFallsBackToGetRoutes() {
+        Router router = new Router()
+                .get("/items/{id}", request -> Response.text(HttpStatus.OK, "get " + request.getPathVariable("id")))
+                .route(HttpMethod.HEAD, "/special", request -> Response.text(HttpStatus.OK, "head"));
+
+        Request head = new Request(HttpMethod.HEAD, "/items/3", "HTTP/1.1", Map.of(), null);
+
+        assertEquals("get 3", new String(router.handle(head).body()));
+        assertEquals(HttpStatus.NOT_FOUND,
+                router.handle(new Request(HttpMethod.POST, "/items/3", "HTTP/1.1", Map.of(), null)).status());
+    }
+
+    @Test
+    void headFallsBackToGetRoutesWhenAVariableHeadRouteDoesNotMatch() {
+        Router router = new Router()
+                .route(HttpMethod.HEAD, "/items/{id}", request -> Response.text(HttpStatus.OK, "head"))
+                .get("/items/{id}/extra", request -> Response.text(HttpStatus.OK,
+                        "extra " + request.getPathVariable("id")));
+
+        Request head = new Request(HttpMethod.HEAD, "/items/1/extra", "HTTP/1.1", Map.of(), null);
+
+        assertEquals("extra 1", new String(router.handle(head).body()));
+        assertEquals("head",
+                new String(router.handle(new Request(HttpMethod.HEAD, "/items/1", "HTTP/1.1", Map.of(), null)).body()));
+    }
+
+    @Test
+    void middlewareIsScopedToRoutesAndSubRouters() {
+        List<String> invocations = new ArrayList<>();
+        Router router = new Router().get("/public", request -> Response.text(HttpStatus.OK, "public"));
+        Router api = router.subRouterAtPath("/api").get("/users", request -> Response.text(HttpStatus.OK, "users"));
+        router.use(tag(invocations, "root"));
+        api.use(tag(invocations, "api"));
+        api.route(HttpMethod.GET, "/admin", request -> Response.text(HttpStatus.OK, "admin"), tag(invocations, "auth"));
+
+        assertEquals("users", body(router, "/api/users"));
+        assertEquals(List.of("root", "api"), invocations);
+
+        invocations.clear();
+        assertEquals("admin", body(router, "/api/admin"));
+        assertEquals(List.of("root", "api", "auth"), invocations);
+
+        invocations.clear();
+        assertEquals("public", body(router, "/public"));
+        assertEquals(List.of("root"), invocations);
+
+        invocations.clear();
+        assertEquals("Not Found", body(router, "/missing"));
+        assertEquals(List.of(), invocations);
+    }
+
+    @Test
+    void matchCacheServesRepeatedTargetsAndIsInvalidatedByNewRoutes() {
+        Router router = new Router()
+                .enableMatchCache(16)
+                .get("/users/{id}", request -> Response.text(HttpStatus.OK, "user " + request.getPathVariable("id")));
+
+        assertEquals("user 7", body(router, "/users/7?verbose"));
+        assertEquals("user 7", body(router, "/users/7"));
+        assertEquals("user 8", body(router, "/users/8"));
+        assertEquals(new Router.MatchCacheStats(1, 2, 0, 2), router.matchCacheStats());
+
+        router.get("/users/7", request -> Response.text(HttpStatus.OK, "literal"));
+
+        assertEquals("literal", body(router, "/users/7"));
+        assertEquals(0, router.matchCacheStats().evictions());
+        assertEquals(1, router.matchCacheStats().size());
+    }
+
+    @Test
+    void bodyLimitLookupsFillTheMatchCacheForDispatch() {
+        Router router = new Router()
+                .enableMatchCache(16)
+                .post("/notes", request -> Response.text(HttpStatus.OK, "note"))
+                .route(HttpMethod.POST, "/videos/{id}",
+                        request -> Response.text(HttpStatus.OK, "video " + request.getPathVariable("id")),
+                        new BodyLimitMiddleware(1000));
+
+        assertEquals(1000, router.maxBodySize(HttpMethod.POST, "/videos/7?part=1"));
+        assertEquals(-1, router.maxBodySize(HttpMethod.POST, "/notes"));
+        assertEquals(-1, router.maxBodySize(HttpMethod.POST, "/missing"));
+        assertEquals(new Router.MatchCacheStats(0, 3, 0, 2), router.matchCacheStats());
+
+        Response video = router.handle(new Request(HttpMethod.POST, "/videos/7?part=1", "HTTP/1.1", Map.of(), null));
+        assertEquals("video 7", new String(video.body(), StandardCharsets.UTF_8));
+        assertEquals(1000, router.maxBodySize(HttpMethod.POST, "/videos/7"));
+        assertEquals(new Router.MatchCacheStats(2, 3, 0, 2), router.matchCacheStats());
+    }
+
+    @Test
+    void matchCacheEvictsRarelyUsedTargets() {
+        Router router = new Router()
+                .enableMatchCache(8)
+                .get("/items/{id}", request -> Response.text(HttpStatus.OK, request.getPathVariable("id")));
+        for (int i = 0; i < 5; i++) {
+            assertEquals("hot", body(router, "/items/hot"));
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.toString(i), body(router, "/items/" + i));
+        }
+
+        Router.MatchCacheStats stats = router.matchCacheStats();
+        assertTrue(stats.size() <= 8, "size " + stats.size());
+        assertTrue(stats.evictions() > 0);
+
+        long hits = stats.hits();
+        assertEquals("hot", body(router, "/items/hot"));
+        assertEquals(hits + 1, router.matchCacheStats().hits());
+    }
+
+    private static RequestMiddleware tag(List<String> invocations, String name) {
+        return (request, next) -> {
+            invocations.add(name);
+            return next.handle(request);
+        };
+    }
+
+    private static String body(Router router, String target) {
+        return new String(router.handle(new Request(HttpMethod.GET, target, "HTTP/1.1", Map.of(), null)).body());
+    }
 }
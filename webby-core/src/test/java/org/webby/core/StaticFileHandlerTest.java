@@ -0,0 +1,169 @@
+package org.webby.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+
+class StaticFileHandlerTest {
+    @Test
+    void servesFilesFromTheRootWithValidators() throws IOException {
+        Path root = site();
+        try (StaticFileHandler handler = new StaticFileHandler(root)) {
+            Router router = new Router().get("/assets/{*path}", handler).get("/assets", handler);
+
+            Response script = router.handle(request("/assets/js/app.js", Map.of()));
+            Response index = router.handle(request("/assets", Map.of()));
+
+            assertEquals(HttpStatus.OK, script.status());
+            assertEquals("console.log('hi');", text(script));
+            assertEquals("text/javascript; charset=UTF-8", script.header("Content-Type"));
+            assertEquals("bytes", script.header("Accept-Ranges"));
+            assertNotNull(script.header("Last-Modified"));
+            assertNotNull(script.bodyRegion());
+            assertSame(script, router.handle(request("/assets/js/app.js", Map.of())));
+            assertEquals("<h1>home</h1>", text(index));
+
+            Response revalidated = router.handle(
+                    request("/assets/js/app.js", Map.of("If-None-Match", script.header("ETag"))));
+            assertEquals(HttpStatus.NOT_MODIFIED, revalidated.status());
+        } finally {
+            delete(root);
+        }
+    }
+
+    @Test
+    void answersByteRanges() throws IOException {
+        Path root = site();
+        try (StaticFileHandler handler = new StaticFileHandler(root)) {
+            Router router = new Router().get("/{*path}", handler);
+
+            Response middle = router.handle(request("/digits.txt", Map.of("Range", "bytes=2-4")));
+            Response suffix = router.handle(request("/digits.txt", Map.of("Range", "bytes=-3")));
+            Response beyond = router.handle(request("/digits.txt", Map.of("Range", "bytes=20-")));
+            Response stale = router.handle(
+                    request("/digits.txt", Map.of("Range", "bytes=2-4", "If-Range", "\"other\"")));
+
+            assertEquals(HttpStatus.PARTIAL_CONTENT, middle.status());
+            assertEquals("234", text(middle));
+            assertEquals("bytes 2-4/10", middle.header("Content-Range"));
+            assertEquals("789", text(suffix));
+            assertEquals(HttpStatus.RANGE_NOT_SATISFIABLE, beyond.status());
+            assertEquals("bytes */10", beyond.header("Content-Range"));
+            assertEquals(HttpStatus.OK, stale.status());
+        } finally {
+            delete(root);
+        }
+    }
+
+    @Test
+    void replacedFilesCloseTheirChannelOnceTheLastWriteFinishes() throws IOException {
+        Path root = site();
+        AtomicLong now = new AtomicLong();
+        try (StaticFileHandler handler = new StaticFileHandler(root, "path", null, now::get)) {
+            Router router = new Router().get("/{*path}", handler);
+            BodyRegion sending = router.handle(request("/digits.txt", Map.of())).bodyRegion();
+            BodyRegion range = router.handle(request("/digits.txt", Map.of("Range", "bytes=2-4"))).bodyRegion();
+            BodyRegion idle = router.handle(request("/index.html", Map.of())).bodyRegion();
+            assertTrue(sending.retain());
+
+            Files.writeString(root.resolve("digits.txt"), "9876543210!");
+            now.addAndGet(TimeUnit.SECONDS.toNanos(2));
+            Response changed = router.handle(request("/digits.txt", Map.of()));
+
+            assertEquals("9876543210!", text(changed));
+            assertNotSame(sending.channel(), changed.bodyRegion().channel());
+            assertSame(sending.channel(), range.channel());
+            assertTrue(sending.channel().isOpen());
+            sending.release();
+            assertFalse(sending.channel().isOpen());
+            handler.close();
+            assertFalse(idle.channel().isOpen());
+            assertFalse(changed.bodyRegion().channel().isOpen());
+        } finally {
+            delete(root);
+        }
+    }
+
+    @Test
+    void prefersPrecompressedSiblings() throws IOException {
+        Path root = site();
+        try (StaticFileHandler handler = new StaticFileHandler(root)) {
+            Router router = new Router().get("/{*path}", handler);
+
+            Response gzip = router.handle(request("/js/app.js", Map.of("Accept-Encoding", "gzip, br")));
+            Response identity = router.handle(request("/js/app.js", Map.of("Accept-Encoding", "br")));
+
+            assertEquals("gzip", gzip.header("Content-Encoding"));
+            assertEquals("compressed", text(gzip));
+            assertEquals("text/javascript; charset=UTF-8", gzip.header("Content-Type"));
+            assertEquals("Accept-Encoding", identity.header("Vary"));
+            assertNull(identity.header("Content-Encoding"));
+        } finally {
+            delete(root);
+        }
+    }
+
+    @Test
+    void rejectsPathsOutsideTheRoot() throws IOException {
+        Path root = site();
+        Path secret = root.resolveSibling(root.getFileName() + "-secret.txt");
+        Files.writeString(secret, "secret");
+        try (StaticFileHandler handler = new StaticFileHandler(root)) {
+            Router router = new Router().get("/{*path}", handler);
+            String escape = "../" + secret.getFileName();
+
+            assertEquals(HttpStatus.NOT_FOUND, router.handle(request("/" + escape, Map.of())).status());
+            assertEquals(HttpStatus.NOT_FOUND,
+                    router.handle(request("/%2e%2e%2f" + secret.getFileName(), Map.of())).status());
+            assertEquals(HttpStatus.NOT_FOUND, router.handle(request("/js/..%5c..%5csecret", Map.of())).status());
+            assertEquals(HttpStatus.NOT_FOUND, router.handle(request("/missing.txt", Map.of())).status());
+            assertNull(StaticFileHandler.decodePath("a/%zz"));
+            assertEquals("dir/a b.txt", StaticFileHandler.decodePath("dir/a%20b.txt"));
+        } finally {
+            Files.delete(secret);
+            delete(root);
+        }
+    }
+
+    private static Path site() throws IOException {
+        Path root = Files.createTempDirectory("webby-static");
+        Files.createDirectories(root.resolve("js"));
+        Files.writeString(root.resolve("js/app.js"), "console.log('hi');");
+        Files.writeString(root.resolve("js/app.js.gz"), "compressed");
+        Files.writeString(root.resolve("digits.txt"), "0123456789");
+        Files.writeString(root.resolve("index.html"), "<h1>home</h1>");
+        return root;
+    }
+
+    private static String text(Response response) {
+        return new String(response.body(), StandardCharsets.UTF_8);
+    }
+
+    private static Request request(String target, Map<String, String> headers) {
+        return new Request(HttpMethod.GET, target, "HTTP/1.1", new HashMap<>(headers), null);
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package org.webby.core;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.junit.jupiter.api.Test;
+
+class WebSocketTest {
+    private static final Map<String, String> UPGRADE_HEADERS = Map.of(
+            "Upgrade", "websocket",
+            "Connection", "keep-alive, Upgrade",
+            "Sec-WebSocket-Version", "13",
+            "Sec-WebSocket-Key", "dGhlIHNhbXBsZSBub25jZQ==");
+
+    @Test
+    void acceptKeyMatchesTheRfcExample() {
+        assertEquals("s3pPLMBiTxaQ9kYGzzhZRbK+xOo=", WebSocketProtocol.acceptKey("dGhlIHNhbXBsZSBub25jZQ=="));
+    }
+
+    @Test
+    void recognisesUpgradeRequests() {
+        assertTrue(WebSocketProtocol.isUpgrade(
+                new Request(HttpMethod.GET, "/chat", "HTTP/1.1", UPGRADE_HEADERS, null)));
+        assertFalse(WebSocketProtocol.isUpgrade(
+                new Request(HttpMethod.POST, "/chat", "HTTP/1.1", UPGRADE_HEADERS, null)));
+        assertFalse(WebSocketProtocol.isUpgrade(new Request(HttpMethod.GET, "/chat", "HTTP/1.1",
+                Map.of("Upgrade", "websocket", "Connection", "Upgrade", "Sec-WebSocket-Version", "8",
+                        "Sec-WebSocket-Key", "dGhlIHNhbXBsZSBub25jZQ=="), null)));
+        assertFalse(WebSocketProtocol.isUpgrade(new Request(HttpMethod.GET, "/chat", "HTTP/1.1",
+                Map.of("Upgrade", "websocket", "Connection", "Upgrade", "Sec-WebSocket-Version", "13",
+                        "Sec-WebSocket-Key", "c2hvcnQ="), null)));
+    }
+
+    @Test
+    void routerAnswersPlainRequestsWithUpgradeRequired() throws Exception {
+        WebSocketHandler echo = new WebSocketHandler() {
+        };
+        Router router = new Router().webSocket("/rooms/{room}", echo);
+
+        Response plain = router.handle(new Request(HttpMethod.GET, "/rooms/lobby", "HTTP/1.1", Map.of(), null));
+        assertEquals(426, plain.statusCode());
+        assertEquals("websocket", plain.headers().get("Upgrade"));
+        assertNull(plain.webSocketHandler());
+
+        Response upgrade =
+                router.handle(new Request(HttpMethod.GET, "/rooms/lobby", "HTTP/1.1", UPGRADE_HEADERS, null));
+        assertEquals(101, upgrade.statusCode());
+        assertEquals(echo, upgrade.webSocketHandler());
+    }
+
+    @Test
+    void framesRoundTripWithClientMasking() throws Exception {
+        byte[] message = "hello, socket".repeat(20).getBytes(StandardCharsets.UTF_8);
+        byte[] wire = clientFrame(true, WebSocketProtocol.TEXT, message);
+
+        WebSocketProtocol.Frame frame =
+                WebSocketProtocol.readFrame(new ByteArrayInputStream(wire), 1024, false);
+        assertTrue(frame.fin());
+        assertEquals(WebSocketProtocol.TEXT, frame.opcode());
+        assertArrayEquals(message, frame.payload());
+        assertNull(WebSocketProtocol.readFrame(new ByteArrayInputStream(new byte[0]), 1024, false));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WebSocketProtocol.writeFrame(out, WebSocketProtocol.BINARY, false, ByteBuffer.wrap(message));
+        byte[] written = out.toByteArray();
+        assertEquals(0x82, written[0] & 0xFF);
+        assertEquals(126, written[1]);
+        assertEquals(message.length, ((written[2] & 0xFF) << 8) | (written[3] & 0xFF));
+        assertEquals(4 + message.length, written.length);
+    }
+
+    @Test
+    void rejectsOversizedUnmaskedAndInvalidFrames() {
+        byte[] big = clientFrame(true, WebSocketProtocol.BINARY, new byte[200]);
+        WebSocketProtocol.FrameException tooBig = assertThrows(WebSocketProtocol.FrameException.class,
+                () -> WebSocketProtocol.readFrame(new ByteArrayInputStream(big), 100, false));
+        assertEquals(WebSocketSession.MESSAGE_TOO_BIG, tooBig.code());
+
+        byte[] unmasked = {(byte) 0x81, 0x01, 'a'};
+        WebSocketProtocol.FrameException notMasked = assertThrows(WebSocketProtocol.FrameException.class,
+                () -> WebSocketProtocol.readFrame(new ByteArrayInputStream(unmasked), 100, false));
+        assertEquals(WebSocketSession.PROTOCOL_ERROR, notMasked.code());
+
+        WebSocketProtocol.FrameException invalid = assertThrows(WebSocketProtocol.FrameException.class,
+                () -> WebSocketProtocol.decodeText(new byte[] {(byte) 0xC3, 0x28}, 0, 2));
+        assertEquals(WebSocketSession.INVALID_PAYLOAD, invalid.code());
+    }
+
+    @Test
+    void deflateRoundTripsMessages() throws Exception {
+        WebSocketProtocol.Deflate deflate = new WebSocketProtocol.Deflate();
+        try {
+            byte[] message = "compress me please ".repeat(50).getBytes(StandardCharsets.UTF_8);
+            ByteBuffer compressed = deflate.compress(ByteBuffer.wrap(message));
+            assertTrue(compressed.remaining() < message.length);
+            byte[] bytes = new byte[compressed.remaining()];
+            compressed.get(bytes);
+
+            assertArrayEquals(message, deflate.decompress(bytes, bytes.length, message.length));
+            WebSocketProtocol.FrameException tooBig = assertThrows(WebSocketProtocol.FrameException.class,
+                    () -> deflate.decompress(bytes, bytes.length, message.length - 1));
+            assertEquals(WebSocketSession.MESSAGE_TOO_BIG, tooBig.code());
+        } finally {
+            deflate.end();
+        }
+    }
+
+    @Test
+    void negotiatesDeflateOnlyWithAFullWindow() {
+        assertTrue(WebSocketProtocol.acceptsDeflate("permessage-deflate; client_max_window_bits"));
+        assertTrue(WebSocketProtocol.acceptsDeflate(
+                "permessage-deflate; server_max_window_bits=10, permessage-deflate"));
+        assertFalse(WebSocketProtocol.acceptsDeflate("permessage-deflate; server_max_window_bits=10"));
+        assertFalse(WebSocketProtocol.acceptsDeflate("x-webkit-deflate-frame"));
+        assertFalse(WebSocketProtocol.acceptsDeflate(null));
+    }
+
+    @Test
+    void sendsBeyondTheBufferLimitFailFast() {
+        RecordingSession session = new RecordingSession(new WebSocketOptions(1024, 100, false));
+
+        CompletableFuture<Void> first = session.sendBinary(ByteBuffer.allocate(60));
+        assertEquals(60, session.bufferedAmount());
+        CompletableFuture<Void> second = session.sendBinary(ByteBuffer.allocate(60));
+        ExecutionException rejected = assertThrows(ExecutionException.class, second::get);
+        assertTrue(rejected.getCause() instanceof WebSocketBackpressureException);
+        assertEquals(60, session.bufferedAmount());
+
+        session.pending.get(0).complete(null);
+        assertTrue(first.isDone());
+        assertEquals(0, session.bufferedAmount());
+        // A single message larger than the limit still goes out once nothing else is buffered.
+        session.sendBinary(ByteBuffer.allocate(500));
+        assertEquals(500, session.bufferedAmount());
+    }
+
+    @Test
+    void metricsCountTrackedSessions() {
+        WebSocketMetrics metrics = new WebSocketMetrics();
+        WebSocketHandler echo = metrics.track(new WebSocketHandler() {
+            @Override
+            public void onText(WebSocketSession session, String message) {
+                session.sendText(message);
+            }
+        });
+        RecordingSession session = new RecordingSession(echo, WebSocketOptions.DEFAULT);
+
+        session.open();
+        session.receive("h\u00e9");
+        session.receive("there");
+        assertEquals(1, metrics.openConnections());
+        assertEquals(2, metrics.messagesReceived());
+        assertEquals(2, metrics.messagesSent());
+
+        session.remoteClose();
+        String scrape = metrics.scrape();
+        assertTrue(scrape.contains("webby_websocket_connections 0\n"), scrape);
+        assertTrue(scrape.contains("webby_websocket_connections_total 1\n"), scrape);
+        assertTrue(scrape.contains("webby_websocket_received_bytes_total 8\n"), scrape);
+        assertTrue(scrape.contains("webby_websocket_sent_bytes_total 8\n"), scrape);
+        assertEquals(3, WebSocketMetrics.utf8Length("h\u00e9"));
+    }
+
+    private static byte[] clientFrame(boolean fin, int opcode, byte[] payload) {
+        byte[] mask = {0x37, (byte) 0xFA, 0x21, 0x3D};
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write((fin ? 0x80 : 0) | opcode);
+        if (payload.length < 126) {
+            out.write(0x80 | payload.length);
+        } else {
+            out.write(0x80 | 126);
+            out.write(payload.length >>> 8);
+            out.write(payload.length & 0xFF);
+        }
+        out.writeBytes(mask);
+        for (int i = 0; i < payload.length; i++) {
+            out.write(payload[i] ^ mask[i % 4]);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Session whose writes stay pending until the test completes them.
+     */
+    private static final class RecordingSession extends AbstractWebSocketSession {
+        final List<CompletableFuture<Void>> pending = new ArrayList<>();
+
+        RecordingSession(WebSocketOptions options) {
+            this(new WebSocketHandler() {
+            }, options);
+        }
+
+        RecordingSession(WebSocketHandler handler, WebSocketOptions options) {
+            super(new Request(HttpMethod.GET, "/socket", "HTTP/1.1", UPGRADE_HEADERS, null), handler, options);
+        }
+
+        void open() {
+            deliverOpen();
+        }
+
+        void receive(String message) {
+            deliverText(message);
+        }
+
+        void remoteClose() {
+            startClosing();
+            deliverClose(NORMAL_CLOSURE, "");
+        }
+
+        @Override
+        protected void write(boolean text, ByteBuffer payload, CompletableFuture<Void> done) {
+            pending.add(done);
+        }
+
+        @Override
+        protected void writeClose(int code, String reason, CompletableFuture<Void> done) {
+            done.complete(null);
+        }
+    }
+}
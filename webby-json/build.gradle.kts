@@ -0,0 +1,4 @@
+dependencies {
+    api(project(":webby-core"))
+    testImplementation(libs.bundles.testing)
+}
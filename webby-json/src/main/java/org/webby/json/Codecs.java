@@ -0,0 +1,563 @@
+package org.webby.json;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
+/**
+ * Built-in codecs and the factory that picks one for a type.
+ */
+final class Codecs {
+    static final JsonCodec<CharSequence> STRING = new JsonCodec<>() {
+        @Override
+        public String read(JsonReader reader) {
+            return reader.nextNull() ? null : reader.nextString();
+        }
+
+        @Override
+        public void write(JsonWriter writer, CharSequence value) {
+            writer.writeString(value);
+        }
+    };
+
+    static final JsonCodec<Boolean> BOOLEAN = new JsonCodec<>() {
+        @Override
+        public Boolean read(JsonReader reader) {
+            return reader.nextNull() ? null : reader.nextBoolean();
+        }
+
+        @Override
+        public void write(JsonWriter writer, Boolean value) {
+            writer.writeBoolean(value);
+        }
+    };
+
+    static final JsonCodec<Long> LONG = new JsonCodec<>() {
+        @Override
+        public Long read(JsonReader reader) {
+            return reader.nextNull() ? null : reader.nextLong();
+        }
+
+        @Override
+        public void write(JsonWriter writer, Long value) {
+            writer.writeLong(value);
+        }
+    };
+
+    static final JsonCodec<Integer> INTEGER = new JsonCodec<>() {
+        @Override
+        public Integer read(JsonReader reader) {
+            return reader.nextNull() ? null : reader.nextInt();
+        }
+
+        @Override
+        public void write(JsonWriter writer, Integer value) {
+            writer.writeLong(value);
+        }
+    };
+
+    static final JsonCodec<Short> SHORT = new JsonCodec<>() {
+        @Override
+        public Short read(JsonReader reader) {
+            return reader.nextNull() ? null : narrow(reader, Short.MIN_VALUE, Short.MAX_VALUE).shortValue();
+        }
+
+        @Override
+        public void write(JsonWriter writer, Short value) {
+            writer.writeLong(value);
+        }
+    };
+
+    static final JsonCodec<Byte> BYTE = new JsonCodec<>() {
+        @Override
+        public Byte read(JsonReader reader) {
+            return reader.nextNull() ? null : narrow(reader, Byte.MIN_VALUE, Byte.MAX_VALUE).byteValue();
+        }
+
+        @Override
+        public void write(JsonWriter writer, Byte value) {
+            writer.writeLong(value);
+        }
+    };
+
+    static final JsonCodec<Double> DOUBLE = new JsonCodec<>() {
+        @Override
+        public Double read(JsonReader reader) {
+            return reader.nextNull() ? null : reader.nextDouble();
+        }
+
+        @Override
+        public void write(JsonWriter writer, Double value) {
+            writer.writeDouble(value);
+        }
+    };
+
+    static final JsonCodec<Float> FLOAT = new JsonCodec<>() {
+        @Override
+        public Float read(JsonReader reader) {
+            return reader.nextNull() ? null : (float) reader.nextDouble();
+        }
+
+        @Override
+        public void write(JsonWriter writer, Float value) {
+            if (!Float.isFinite(value) || value == (long) (float) value && Math.abs(value) < 1e15f) {
+                writer.writeDouble(value);
+            } else {
+                // Float.toString keeps the short decimal form; widening first would print the binary noise.
+                writer.writeAscii(Float.toString(value));
+            }
+        }
+    };
+
+    static final JsonCodec<Character> CHARACTER = new JsonCodec<>() {
+        @Override
+        public Character read(JsonReader reader) {
+            if (reader.nextNull()) {
+                return null;
+            }
+            String value = reader.nextString();
+            if (value.length() != 1) {
+                throw new JsonException("expected a single character, got \"" + value + "\"");
+            }
+            return value.charAt(0);
+        }
+
+        @Override
+        public void write(JsonWriter writer, Character value) {
+            writer.writeString(String.valueOf(value));
+        }
+    };
+
+    static final JsonCodec<BigDecimal> BIG_DECIMAL = new JsonCodec<>() {
+        @Override
+        public BigDecimal read(JsonReader reader) {
+            return reader.nextNull() ? null : reader.nextBigDecimal();
+        }
+
+        @Override
+        public void write(JsonWriter writer, BigDecimal value) {
+            writer.writeAscii(value.toString());
+        }
+    };
+
+    static final JsonCodec<BigInteger> BIG_INTEGER = new JsonCodec<>() {
+        @Override
+        public BigInteger read(JsonReader reader) {
+            if (reader.nextNull()) {
+                return null;
+            }
+            try {
+                return reader.nextBigDecimal().toBigIntegerExact();
+            } catch (ArithmeticException e) {
+                throw new JsonException("expected an integer", e);
+            }
+        }
+
+        @Override
+        public void write(JsonWriter writer, BigInteger value) {
+            writer.writeAscii(value.toString());
+        }
+    };
+
+    /**
+     * Reads any value as plain Java objects and writes values by their runtime type.
+     */
+    static final JsonCodec<Object> DYNAMIC = new JsonCodec<>() {
+        @Override
+        public Object read(JsonReader reader) {
+            return reader.nextValue();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void write(JsonWriter writer, Object value) {
+            JsonCodec<Object> codec = (JsonCodec<Object>) Json.codec(value.getClass());
+            if (codec == this) {
+                throw new JsonException("no JSON representation for " + value.getClass().getName());
+            }
+            codec.write(writer, value);
+        }
+    };
+
+    private static final Map<Class<?>, JsonCodec<?>> BUILT_IN = new HashMap<>();
+
+    static {
+        BUILT_IN.put(String.class, STRING);
+        BUILT_IN.put(CharSequence.class, STRING);
+        BUILT_IN.put(boolean.class, BOOLEAN);
+        BUILT_IN.put(Boolean.class, BOOLEAN);
+        BUILT_IN.put(long.class, LONG);
+        BUILT_IN.put(Long.class, LONG);
+        BUILT_IN.put(int.class, INTEGER);
+        BUILT_IN.put(Integer.class, INTEGER);
+        BUILT_IN.put(short.class, SHORT);
+        BUILT_IN.put(Short.class, SHORT);
+        BUILT_IN.put(byte.class, BYTE);
+        BUILT_IN.put(Byte.class, BYTE);
+        BUILT_IN.put(double.class, DOUBLE);
+        BUILT_IN.put(Double.class, DOUBLE);
+        BUILT_IN.put(float.class, FLOAT);
+        BUILT_IN.put(Float.class, FLOAT);
+        BUILT_IN.put(char.class, CHARACTER);
+        BUILT_IN.put(Character.class, CHARACTER);
+        BUILT_IN.put(BigDecimal.class, BIG_DECIMAL);
+        BUILT_IN.put(BigInteger.class, BIG_INTEGER);
+        BUILT_IN.put(Object.class, DYNAMIC);
+    }
+
+    private Codecs() {
+    }
+
+    /**
+     * Creates the codec for a type. Codecs for nested types are looked up through {@link Json#codec(Type)}, so they
+     * are shared and recursive types resolve to the codec being built.
+     */
+    static JsonCodec<?> create(Type type) {
+        if (type instanceof Class<?> raw) {
+            JsonCodec<?> builtIn = BUILT_IN.get(raw);
+            if (builtIn != null) {
+                return builtIn;
+            }
+            if (raw.isEnum() || raw.getSuperclass() != null && raw.getSuperclass().isEnum()) {
+                return enumCodec(raw.isEnum() ? raw : raw.getSuperclass());
+            }
+            if (raw.isRecord()) {
+                return new RecordCodec(raw);
+            }
+            if (raw.isArray()) {
+                return arrayCodec(raw.getComponentType(), raw.getComponentType());
+            }
+            if (Map.class.isAssignableFrom(raw) || Iterable.class.isAssignableFrom(raw)) {
+                return container(raw, Object.class, Object.class);
+            }
+        } else if (type instanceof ParameterizedType parameterized
+                && parameterized.getRawType() instanceof Class<?> raw) {
+            Type[] arguments = parameterized.getActualTypeArguments();
+            if (Map.class.isAssignableFrom(raw) && arguments.length == 2) {
+                return container(raw, arguments[0], arguments[1]);
+            }
+            if (Iterable.class.isAssignableFrom(raw) && arguments.length == 1) {
+                return container(raw, null, arguments[0]);
+            }
+            return Json.codec(raw);
+        } else if (type instanceof GenericArrayType array) {
+            Type component = array.getGenericComponentType();
+            return arrayCodec(erase(component), component);
+        } else if (type instanceof WildcardType wildcard) {
+            return Json.codec(wildcard.getUpperBounds()[0]);
+        } else if (type instanceof TypeVariable<?> variable) {
+            return Json.codec(variable.getBounds()[0]);
+        }
+        throw new JsonException("no JSON codec for " + type.getTypeName());
+    }
+
+    static Class<?> erase(Type type) {
+        if (type instanceof Class<?> raw) {
+            return raw;
+        }
+        if (type instanceof ParameterizedType parameterized) {
+            return erase(parameterized.getRawType());
+        }
+        if (type instanceof GenericArrayType array) {
+            return Array.newInstance(erase(array.getGenericComponentType()), 0).getClass();
+        }
+        if (type instanceof WildcardType wildcard) {
+            return erase(wildcard.getUpperBounds()[0]);
+        }
+        if (type instanceof TypeVariable<?> variable) {
+            return erase(variable.getBounds()[0]);
+        }
+        return Object.class;
+    }
+
+    private static Long narrow(JsonReader reader, long min, long max) {
+        long value = reader.nextLong();
+        if (value < min || value > max) {
+            throw new JsonException("number " + value + " out of range");
+        }
+        return value;
+    }
+
+    private static JsonCodec<?> container(Class<?> raw, Type keyType, Type valueType) {
+        if (Map.class.isAssignableFrom(raw)) {
+            if (erase(keyType) != String.class && erase(keyType) != Object.class) {
+                throw new JsonException("JSON object keys must be strings, not " + keyType.getTypeName());
+            }
+            return new MapCodec(mapFactory(raw), Json.codec(valueType));
+        }
+        return new CollectionCodec(collectionFactory(raw), Json.codec(valueType));
+    }
+
+    /**
+     * Returns the constructor used to read a map type, or {@code null} for map types that can only be written, such as
+     * concrete classes other than the standard ones.
+     */
+    private static Supplier<Map<String, Object>> mapFactory(Class<?> raw) {
+        if (raw.isAssignableFrom(LinkedHashMap.class)) {
+            return LinkedHashMap::new;
+        }
+        if (raw.isAssignableFrom(TreeMap.class)) {
+            return TreeMap::new;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the constructor used to read a collection type, or {@code null} for collection types that can only be
+     * written.
+     */
+    private static Supplier<Collection<Object>> collectionFactory(Class<?> raw) {
+        if (raw.isAssignableFrom(ArrayList.class)) {
+            return ArrayList::new;
+        }
+        if (raw.isAssignableFrom(LinkedHashSet.class)) {
+            return LinkedHashSet::new;
+        }
+        if (raw.isAssignableFrom(TreeSet.class)) {
+            return TreeSet::new;
+        }
+        return null;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static JsonCodec<?> enumCodec(Class<?> type) {
+        Class<? extends Enum> enumType = (Class<? extends Enum>) type;
+        Enum<?>[] constants = enumType.getEnumConstants();
+        Map<String, Enum<?>> byName = new HashMap<>();
+        for (Enum<?> constant : constants) {
+            byName.put(constant.name(), constant);
+        }
+        return new JsonCodec<Enum<?>>() {
+            @Override
+            public Enum<?> read(JsonReader reader) {
+                if (reader.nextNull()) {
+                    return null;
+                }
+                String name = reader.nextString();
+                Enum<?> constant = byName.get(name);
+                if (constant == null) {
+                    throw new JsonException("unknown " + enumType.getSimpleName() + " constant \"" + name + "\"");
+                }
+                return constant;
+            }
+
+            @Override
+            public void write(JsonWriter writer, Enum<?> value) {
+                writer.writeString(value.name());
+            }
+        };
+    }
+
+    private static JsonCodec<?> arrayCodec(Class<?> componentClass, Type componentType) {
+        if (componentClass.isPrimitive()) {
+            return new PrimitiveArrayCodec(componentClass);
+        }
+        return new ArrayCodec(componentClass, Json.codec(componentType));
+    }
+
+    private static final class CollectionCodec implements JsonCodec<Iterable<Object>> {
+        private final Supplier<Collection<Object>> factory;
+        private final JsonCodec<Object> elements;
+
+        @SuppressWarnings("unchecked")
+        CollectionCodec(Supplier<Collection<Object>> factory, JsonCodec<?> elements) {
+            this.factory = factory;
+            this.elements = (JsonCodec<Object>) elements;
+        }
+
+        @Override
+        public Collection<Object> read(JsonReader reader) {
+            if (reader.nextNull()) {
+                return null;
+            }
+            if (factory == null) {
+                throw new JsonException(
+                        "cannot create this collection type from JSON; declare List, Set or Collection");
+            }
+            Collection<Object> values = factory.get();
+            reader.beginArray();
+            while (reader.hasNextElement()) {
+                values.add(elements.read(reader));
+            }
+            return values;
+        }
+
+        @Override
+        public void write(JsonWriter writer, Iterable<Object> value) {
+            writer.writeRaw((byte) '[');
+            boolean first = true;
+            for (Object element : value) {
+                if (!first) {
+                    writer.writeRaw((byte) ',');
+                }
+                first = false;
+                Json.write(writer, elements, element);
+            }
+            writer.writeRaw((byte) ']');
+        }
+    }
+
+    private static final class MapCodec implements JsonCodec<Map<Object, Object>> {
+        private final Supplier<Map<String, Object>> factory;
+        private final JsonCodec<Object> values;
+
+        @SuppressWarnings("unchecked")
+        MapCodec(Supplier<Map<String, Object>> factory, JsonCodec<?> values) {
+            this.factory = factory;
+            this.values = (JsonCodec<Object>) values;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Map<Object, Object> read(JsonReader reader) {
+            if (reader.nextNull()) {
+                return null;
+            }
+            if (factory == null) {
+                throw new JsonException("cannot create this map type from JSON; declare Map");
+            }
+            Map<String, Object> map = factory.get();
+            reader.beginObject();
+            while (reader.hasNextField()) {
+                String name = reader.nextName();
+                map.put(name, values.read(reader));
+            }
+            return (Map<Object, Object>) (Map<?, ?>) map;
+        }
+
+        @Override
+        public void write(JsonWriter writer, Map<Object, Object> value) {
+            writer.writeRaw((byte) '{');
+            boolean first = true;
+            for (Map.Entry<Object, Object> entry : value.entrySet()) {
+                if (!first) {
+                    writer.writeRaw((byte) ',');
+                }
+                first = false;
+                writer.writeString(String.valueOf(entry.getKey()));
+                writer.writeRaw((byte) ':');
+                Json.write(writer, values, entry.getValue());
+            }
+            writer.writeRaw((byte) '}');
+        }
+    }
+
+    private static final class ArrayCodec implements JsonCodec<Object[]> {
+        private final Class<?> componentType;
+        private final JsonCodec<Object> elements;
+
+        @SuppressWarnings("unchecked")
+        ArrayCodec(Class<?> componentType, JsonCodec<?> elements) {
+            this.componentType = componentType;
+            this.elements = (JsonCodec<Object>) elements;
+        }
+
+        @Override
+        public Object[] read(JsonReader reader) {
+            if (reader.nextNull()) {
+                return null;
+            }
+            List<Object> values = new ArrayList<>();
+            reader.beginArray();
+            while (reader.hasNextElement()) {
+                values.add(elements.read(reader));
+            }
+            return values.toArray((Object[]) Array.newInstance(componentType, values.size()));
+        }
+
+        @Override
+        public void write(JsonWriter writer, Object[] value) {
+            writer.writeRaw((byte) '[');
+            for (int i = 0; i < value.length; i++) {
+                if (i > 0) {
+                    writer.writeRaw((byte) ',');
+                }
+                Json.write(writer, elements, value[i]);
+            }
+            writer.writeRaw((byte) ']');
+        }
+    }
+
+    /**
+     * Arrays of primitives, read and written element by element without boxing the common numeric types.
+     */
+    private static final class PrimitiveArrayCodec implements JsonCodec<Object> {
+        private final Class<?> componentType;
+        private final JsonCodec<Object> elements;
+
+        @SuppressWarnings("unchecked")
+        PrimitiveArrayCodec(Class<?> componentType) {
+            this.componentType = componentType;
+            this.elements = (JsonCodec<Object>) BUILT_IN.get(componentType);
+        }
+
+        @Override
+        public Object read(JsonReader reader) {
+            if (reader.nextNull()) {
+                return null;
+            }
+            Object values = Array.newInstance(componentType, 16);
+            int size = 0;
+            reader.beginArray();
+            while (reader.hasNextElement()) {
+                if (size == Array.getLength(values)) {
+                    Object grown = Array.newInstance(componentType, size * 2);
+                    System.arraycopy(values, 0, grown, 0, size);
+                    values = grown;
+                }
+                if (componentType == int.class) {
+                    ((int[]) values)[size++] = reader.nextInt();
+                } else if (componentType == long.class) {
+                    ((long[]) values)[size++] = reader.nextLong();
+                } else if (componentType == double.class) {
+                    ((double[]) values)[size++] = reader.nextDouble();
+                } else {
+                    Object element = elements.read(reader);
+                    if (element == null) {
+                        throw new JsonException("null element in " + componentType + " array");
+                    }
+                    Array.set(values, size++, element);
+                }
+            }
+            Object exact = Array.newInstance(componentType, size);
+            System.arraycopy(values, 0, exact, 0, size);
+            return exact;
+        }
+
+        @Override
+        public void write(JsonWriter writer, Object value) {
+            writer.writeRaw((byte) '[');
+            int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                if (i > 0) {
+                    writer.writeRaw((byte) ',');
+                }
+                if (value instanceof int[] ints) {
+                    writer.writeLong(ints[i]);
+                } else if (value instanceof long[] longs) {
+                    writer.writeLong(longs[i]);
+                } else if (value instanceof double[] doubles) {
+                    writer.writeDouble(doubles[i]);
+                } else {
+                    elements.write(writer, Array.get(value, i));
+                }
+            }
+            writer.writeRaw((byte) ']');
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package org.webby.json;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import org.webby.core.HttpStatus;
+import org.webby.core.Request;
+import org.webby.core.Response;
+
+/**
+ * Reads and writes JSON request and response bodies.
+ *
+ * <pre>{@code
+ * record Greeting(String name, int count) {}
+ *
+ * router.post("/greetings", request -> {
+ *     Greeting greeting = Json.decode(request, Greeting.class);
+ *     return Json.response(HttpStatus.CREATED, greeting);
+ * });
+ * }</pre>
+ *
+ * <p>Bodies are parsed straight from their bytes and written as UTF-8 into a per-thread buffer, so neither direction
+ * goes through an intermediate {@link String}. Records, enums, strings, numbers, booleans, arrays, {@link Iterable}s,
+ * maps with string keys and {@link Object} (read as maps, lists, strings, longs, doubles and booleans) are supported
+ * out of the box. The codec for each type is built once, using reflection only to obtain method handles, and cached;
+ * nothing is discovered per request.
+ *
+ * <p>Malformed input and values of the wrong shape raise {@link JsonException}, which handlers can answer with
+ * {@code 400 Bad Request}.
+ */
+public final class Json {
+    /** Media type of JSON bodies. */
+    public static final String CONTENT_TYPE = "application/json";
+
+    private static final Map<String, String> HEADERS = Map.of("Content-Type", CONTENT_TYPE);
+    private static final Map<Type, JsonCodec<?>> CODECS = new ConcurrentHashMap<>();
+    private static final Map<Type, Deferred> PENDING = new HashMap<>();
+    private static final ThreadLocal<JsonWriter> WRITERS = new ThreadLocal<>();
+
+    private Json() {
+    }
+
+    /**
+     * Returns the codec for a class, creating and caching it on first use.
+     *
+     * @param type value class
+     * @param <T> value type
+     * @return codec
+     * @throws JsonException if the class cannot be represented in JSON
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> JsonCodec<T> codec(Class<T> type) {
+        return (JsonCodec<T>) codec((Type) type);
+    }
+
+    /**
+     * Returns the codec for a generic type such as {@code List<Greeting>}, creating and caching it on first use.
+     *
+     * @param type value type
+     * @return codec
+     * @throws JsonException if the type cannot be represented in JSON
+     */
+    public static JsonCodec<?> codec(Type type) {
+        Objects.requireNonNull(type, "type");
+        JsonCodec<?> codec = CODECS.get(type);
+        if (codec != null) {
+            return codec;
+        }
+        // Codecs are created under one lock; a recursive type finds its own placeholder in PENDING instead of
+        // recursing, and other threads never see a placeholder.
+        synchronized (PENDING) {
+            codec = CODECS.get(type);
+            if (codec == null) {
+                codec = PENDING.get(type);
+            }
+            if (codec != null) {
+                return codec;
+            }
+            Deferred deferred = new Deferred();
+            PENDING.put(type, deferred);
+            try {
+                codec = Codecs.create(type);
+            } finally {
+                PENDING.remove(type);
+            }
+            deferred.target = codec;
+            CODECS.put(type, codec);
+            return codec;
+        }
+    }
+
+    /**
+     * Parses a JSON document.
+     *
+     * @param json UTF-8 encoded document
+     * @param type value class
+     * @param <T> value type
+     * @return decoded value, or {@code null} for a JSON {@code null}
+     * @throws JsonException if the document is malformed or does not match the type
+     */
+    public static <T> T decode(byte[] json, Class<T> type) {
+        return decode(json, codec(type));
+    }
+
+    /**
+     * Parses a JSON document with a codec, for instance one for a generic type.
+     *
+     * @param json UTF-8 encoded document
+     * @param codec codec of the value
+     * @param <T> value type
+     * @return decoded value, or {@code null} for a JSON {@code null}
+     * @throws JsonException if the document is malformed or does not match the codec
+     */
+    public static <T> T decode(byte[] json, JsonCodec<T> codec) {
+        JsonReader reader = new JsonReader(json);
+        T value = codec.read(reader);
+        reader.endDocument();
+        return value;
+    }
+
+    /**
+     * Parses the body of a request. A body that was spilled to disk is read back into memory first.
+     *
+     * @param request request carrying a JSON body
+     * @param type value class
+     * @param <T> value type
+     * @return decoded value, or {@code null} for a JSON {@code null}
+     * @throws JsonException if the body is malformed or does not match the type
+     * @throws UncheckedIOException if a spilled body cannot be read
+     */
+    public static <T> T decode(Request request, Class<T> type) {
+        byte[] body;
+        if (request.bodyFile() == null) {
+            body = request.body();
+        } else {
+            try {
+                body = Files.readAllBytes(request.bodyFile());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return decode(body, type);
+    }
+
+    /**
+     * Serializes a value using the codec of its runtime class.
+     *
+     * @param value value to write, may be {@code null}
+     * @return UTF-8 encoded document
+     * @throws JsonException if the value cannot be represented in JSON
+     */
+    public static byte[] encode(Object value) {
+        return encode(value, Codecs.DYNAMIC);
+    }
+
+    /**
+     * Serializes a value with a codec.
+     *
+     * @param value value to write, may be {@code null}
+     * @param codec codec of the value
+     * @param <T> value type
+     * @return UTF-8 encoded document
+     * @throws JsonException if the value cannot be represented in JSON
+     */
+    public static <T> byte[] encode(T value, JsonCodec<? super T> codec) {
+        // Take the thread's writer for the duration, so a codec that encodes recursively gets a fresh one.
+        JsonWriter writer = WRITERS.get();
+        if (writer == null) {
+            writer = new JsonWriter();
+        } else {
+            WRITERS.set(null);
+        }
+        try {
+            write(writer, codec, value);
+            return writer.toByteArray();
+        } finally {
+            writer.reset();
+            WRITERS.set(writer);
+        }
+    }
+
+    /**
+     * Creates a response with a JSON body and a {@code Content-Type} of {@value #CONTENT_TYPE}.
+     *
+     * @param status response status
+     * @param value value to write, may be {@code null}
+     * @return response
+     * @throws JsonException if the value cannot be represented in JSON
+     */
+    public static Response response(HttpStatus status, Object value) {
+        return new Response(status, HEADERS, encode(value));
+    }
+
+    /**
+     * Writes a value that may be {@code null}; codecs themselves only see values.
+     */
+    static <T> void write(JsonWriter writer, JsonCodec<? super T> codec, T value) {
+        if (value == null) {
+            writer.writeNull();
+        } else {
+            codec.write(writer, value);
+        }
+    }
+
+    /**
+     * Stands in for a codec while it is being created, so components of a recursive type can refer to it.
+     */
+    private static final class Deferred implements JsonCodec<Object> {
+        private volatile JsonCodec<?> target;
+
+        @Override
+        public Object read(JsonReader reader) {
+            return codec().read(reader);
+        }
+
+        @Override
+        public void write(JsonWriter writer, Object value) {
+            codec().write(writer, value);
+        }
+
+        @SuppressWarnings("unchecked")
+        private JsonCodec<Object> codec() {
+            JsonCodec<?> codec = target;
+            if (codec == null) {
+                throw new JsonException("codec used before it was created");
+            }
+            return (JsonCodec<Object>) codec;
+        }
+    }
+}
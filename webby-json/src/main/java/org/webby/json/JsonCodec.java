@@ -0,0 +1,29 @@
+package org.webby.json;
+
+/**
+ * Converts values of one type to and from JSON.
+ *
+ * <p>Codecs for records, enums, collections, maps, arrays, strings, numbers and booleans are created on demand by
+ * {@link Json#codec(Class)}; implement this interface to handle other types.
+ *
+ * @param <T> value type
+ */
+public interface JsonCodec<T> {
+    /**
+     * Reads one value.
+     *
+     * @param reader reader positioned before the value
+     * @return decoded value, which may be {@code null} for a JSON {@code null}
+     * @throws JsonException if the input does not hold a value of this type
+     */
+    T read(JsonReader reader);
+
+    /**
+     * Writes one value.
+     *
+     * @param writer destination
+     * @param value value to write, never {@code null}; {@link JsonWriter} writes {@code null} values itself
+     * @throws JsonException if the value cannot be represented in JSON
+     */
+    void write(JsonWriter writer, T value);
+}
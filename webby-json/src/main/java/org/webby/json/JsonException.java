@@ -0,0 +1,30 @@
+package org.webby.json;
+
+/**
+ * Signals malformed JSON input, or a value that cannot be converted to or from JSON.
+ *
+ * <p>It is an {@link IllegalArgumentException} because it is usually caused by the request: handlers that decode a
+ * body can answer it with {@code 400 Bad Request}.
+ */
+public final class JsonException extends IllegalArgumentException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates an exception with a message.
+     *
+     * @param message description of the problem
+     */
+    public JsonException(String message) {
+        super(message);
+    }
+
+    /**
+     * Creates an exception with a message and a cause.
+     *
+     * @param message description of the problem
+     * @param cause underlying failure
+     */
+    public JsonException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,617 @@
+package org.webby.json;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Pull parser reading JSON directly from UTF-8 bytes.
+ *
+ * <p>The reader walks the input array in place: strings without escapes are created from their bytes in one step,
+ * integers are accumulated from their digits, and record field names are matched against pre-encoded names without
+ * creating strings at all. Objects and arrays are read with a begin call followed by a loop:
+ *
+ * <pre>{@code
+ * reader.beginObject();
+ * while (reader.hasNextField()) {
+ *     String name = reader.nextName();
+ *     ...
+ * }
+ * }</pre>
+ *
+ * <p>The input must be a single JSON value, optionally surrounded by whitespace; nesting is limited to 512 levels so
+ * hostile input cannot exhaust the stack. A reader is not thread-safe.
+ */
+public final class JsonReader {
+    static final int MAX_DEPTH = 512;
+
+    private final byte[] input;
+    private final int offset;
+    private final int end;
+    private int position;
+    private int depth;
+    private boolean expectComma;
+    private boolean integral;
+
+    /**
+     * Creates a reader over a whole array.
+     *
+     * @param input UTF-8 encoded JSON
+     */
+    public JsonReader(byte[] input) {
+        this(input, 0, input.length);
+    }
+
+    /**
+     * Creates a reader over part of an array.
+     *
+     * @param input UTF-8 encoded JSON
+     * @param offset index of the first byte
+     * @param length number of bytes
+     * @throws IndexOutOfBoundsException if the range is outside the array
+     */
+    public JsonReader(byte[] input, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, input.length);
+        this.input = input;
+        this.offset = offset;
+        this.end = offset + length;
+        this.position = offset;
+    }
+
+    /**
+     * Consumes the start of an object.
+     *
+     * @throws JsonException if the next value is not an object
+     */
+    public void beginObject() {
+        begin('{', "object");
+    }
+
+    /**
+     * Advances to the next field of the current object, or consumes the end of the object.
+     *
+     * @return {@code true} if a field follows and {@link #nextName()} should be called
+     * @throws JsonException if the object is malformed
+     */
+    public boolean hasNextField() {
+        return hasNext('}');
+    }
+
+    /**
+     * Reads a field name and the colon after it.
+     *
+     * @return field name
+     * @throws JsonException if no field name follows
+     */
+    public String nextName() {
+        String name = nextString();
+        expect(':');
+        return name;
+    }
+
+    /**
+     * Consumes the start of an array.
+     *
+     * @throws JsonException if the next value is not an array
+     */
+    public void beginArray() {
+        begin('[', "array");
+    }
+
+    /**
+     * Advances to the next element of the current array, or consumes the end of the array.
+     *
+     * @return {@code true} if an element follows
+     * @throws JsonException if the array is malformed
+     */
+    public boolean hasNextElement() {
+        return hasNext(']');
+    }
+
+    /**
+     * Consumes a {@code null} if one is next.
+     *
+     * @return {@code true} if a {@code null} was consumed, {@code false} if another value follows
+     */
+    public boolean nextNull() {
+        if (peek() == 'n') {
+            literal("null");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reads a boolean.
+     *
+     * @return value
+     * @throws JsonException if the next value is not {@code true} or {@code false}
+     */
+    public boolean nextBoolean() {
+        byte b = peek();
+        if (b == 't') {
+            literal("true");
+            return true;
+        }
+        if (b == 'f') {
+            literal("false");
+            return false;
+        }
+        throw error("expected a boolean");
+    }
+
+    /**
+     * Reads a string.
+     *
+     * @return value
+     * @throws JsonException if the next value is not a string
+     */
+    public String nextString() {
+        expect('"');
+        int start = position;
+        boolean ascii = true;
+        for (int p = start; p < end; p++) {
+            byte b = input[p];
+            if (b == '"') {
+                position = p + 1;
+                // Latin-1 copies ASCII bytes straight into a compact string without decoding.
+                return new String(
+                        input, start, p - start, ascii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+            }
+            if (b == '\\') {
+                return escapedString(start, p);
+            }
+            if (b < 0) {
+                ascii = false;
+            } else if (b < 0x20) {
+                position = p;
+                throw error("control character in string");
+            }
+        }
+        position = end;
+        throw error("unterminated string");
+    }
+
+    /**
+     * Reads an integer. Numbers with a fraction or exponent are accepted if their value is a {@code long}, so
+     * {@code 1e3} reads as {@code 1000}.
+     *
+     * @return value
+     * @throws JsonException if the next value is not a number or does not fit a {@code long}
+     */
+    public long nextLong() {
+        peek();
+        int start = position;
+        int p = start;
+        boolean negative = p < end && input[p] == '-';
+        if (negative) {
+            p++;
+        }
+        int digits = p;
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long value = 0;
+        // Accumulate negatively so Long.MIN_VALUE is representable.
+        while (p < end) {
+            int digit = input[p] - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            if (value < limit / 10 || value * 10 < limit + digit) {
+                return exactLong(start);
+            }
+            value = value * 10 - digit;
+            p++;
+        }
+        if (p == digits) {
+            throw error("expected a number");
+        }
+        if (p < end && (input[p] == '.' || input[p] == 'e' || input[p] == 'E')) {
+            return exactLong(start);
+        }
+        position = p;
+        return negative ? value : -value;
+    }
+
+    /**
+     * Reads an integer that fits an {@code int}.
+     *
+     * @return value
+     * @throws JsonException if the next value is not a number or does not fit an {@code int}
+     */
+    public int nextInt() {
+        int start = position;
+        long value = nextLong();
+        if (value != (int) value) {
+            position = start;
+            throw error("number out of int range");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Reads a number as a double.
+     *
+     * @return value
+     * @throws JsonException if the next value is not a number
+     */
+    public double nextDouble() {
+        peek();
+        int start = position;
+        int stop = scanNumber();
+        int length = stop - start;
+        if (integral && length <= 15) {
+            // Up to 15 digits every integer is exactly representable.
+            position = start;
+            return nextLong();
+        }
+        position = stop;
+        return Double.parseDouble(new String(input, start, length, StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Reads a number without loss of precision.
+     *
+     * @return value
+     * @throws JsonException if the next value is not a number
+     */
+    public BigDecimal nextBigDecimal() {
+        peek();
+        int start = position;
+        position = scanNumber();
+        return new BigDecimal(new String(input, start, position - start, StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Reads any value as plain Java objects: objects become insertion-ordered {@link Map}s, arrays become
+     * {@link List}s, integers that fit become {@link Long}s and other numbers {@link Double}s.
+     *
+     * @return value, or {@code null}
+     * @throws JsonException if the input is malformed
+     */
+    public Object nextValue() {
+        switch (peek()) {
+            case '{' -> {
+                Map<String, Object> map = new LinkedHashMap<>();
+                beginObject();
+                while (hasNextField()) {
+                    String name = nextName();
+                    map.put(name, nextValue());
+                }
+                return map;
+            }
+            case '[' -> {
+                List<Object> list = new ArrayList<>();
+                beginArray();
+                while (hasNextElement()) {
+                    list.add(nextValue());
+                }
+                return list;
+            }
+            case '"' -> {
+                return nextString();
+            }
+            case 't', 'f' -> {
+                return nextBoolean();
+            }
+            case 'n' -> {
+                nextNull();
+                return null;
+            }
+            default -> {
+                int start = position;
+                int length = scanNumber() - start;
+                if (integral) {
+                    if (length <= 18) {
+                        return nextLong();
+                    }
+                    BigDecimal value = nextBigDecimal();
+                    if (value.compareTo(BigDecimal.valueOf(Long.MIN_VALUE)) >= 0
+                            && value.compareTo(BigDecimal.valueOf(Long.MAX_VALUE)) <= 0) {
+                        return value.longValue();
+                    }
+                    return value.doubleValue();
+                }
+                return nextDouble();
+            }
+        }
+    }
+
+    /**
+     * Skips the next value, including everything nested in it.
+     *
+     * @throws JsonException if the input is malformed
+     */
+    public void skipValue() {
+        switch (peek()) {
+            case '{' -> {
+                beginObject();
+                while (hasNextField()) {
+                    skipString();
+                    expect(':');
+                    skipValue();
+                }
+            }
+            case '[' -> {
+                beginArray();
+                while (hasNextElement()) {
+                    skipValue();
+                }
+            }
+            case '"' -> skipString();
+            case 't', 'f' -> nextBoolean();
+            case 'n' -> nextNull();
+            default -> position = scanNumber();
+        }
+    }
+
+    /**
+     * Checks that nothing but whitespace follows the value that was read.
+     *
+     * @throws JsonException if more input follows
+     */
+    public void endDocument() {
+        skipWhitespace();
+        if (position < end) {
+            throw error("unexpected data after the document");
+        }
+    }
+
+    /**
+     * Reads a field name and its colon, returning the index of the matching name without creating a string when the
+     * name has no escapes. The name at {@code hint} is tried first since fields usually arrive in declaration order.
+     *
+     * @param names field names encoded as UTF-8, without quotes
+     * @param hint index to try first
+     * @return index of the name, or {@code -1} for an unknown field
+     */
+    int nextName(byte[][] names, int hint) {
+        expect('"');
+        int start = position;
+        int p = start;
+        while (p < end && input[p] != '"' && input[p] != '\\') {
+            p++;
+        }
+        if (p >= end || input[p] == '\\') {
+            position = start - 1;
+            byte[] name = nextName().getBytes(StandardCharsets.UTF_8);
+            return indexOf(names, hint, name, 0, name.length);
+        }
+        position = p + 1;
+        expect(':');
+        return indexOf(names, hint, input, start, p);
+    }
+
+    /**
+     * Returns the next significant byte without consuming it.
+     *
+     * @throws JsonException if the input ends
+     */
+    byte peek() {
+        skipWhitespace();
+        if (position >= end) {
+            throw error("unexpected end of input");
+        }
+        return input[position];
+    }
+
+    private static int indexOf(byte[][] names, int hint, byte[] source, int from, int to) {
+        if (hint < names.length && Arrays.equals(names[hint], 0, names[hint].length, source, from, to)) {
+            return hint;
+        }
+        for (int i = 0; i < names.length; i++) {
+            if (Arrays.equals(names[i], 0, names[i].length, source, from, to)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void begin(char open, String kind) {
+        if (peek() != open) {
+            throw error("expected an " + kind);
+        }
+        if (++depth > MAX_DEPTH) {
+            throw error("nesting deeper than " + MAX_DEPTH + " levels");
+        }
+        position++;
+        expectComma = false;
+    }
+
+    private boolean hasNext(char close) {
+        byte b = peek();
+        if (b == close) {
+            position++;
+            depth--;
+            // The container just closed was itself a value of its parent.
+            expectComma = true;
+            return false;
+        }
+        if (expectComma) {
+            if (b != ',') {
+                throw error("expected ',' or '" + close + "'");
+            }
+            position++;
+        }
+        expectComma = true;
+        return true;
+    }
+
+    private void expect(char c) {
+        if (peek() != c) {
+            throw error("expected '" + c + "'");
+        }
+        position++;
+    }
+
+    private void literal(String word) {
+        int length = word.length();
+        if (end - position < length) {
+            throw error("expected " + word);
+        }
+        for (int i = 0; i < length; i++) {
+            if (input[position + i] != word.charAt(i)) {
+                throw error("expected " + word);
+            }
+        }
+        position += length;
+    }
+
+    private void skipWhitespace() {
+        int p = position;
+        while (p < end) {
+            byte b = input[p];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                break;
+            }
+            p++;
+        }
+        position = p;
+    }
+
+    private void skipString() {
+        expect('"');
+        for (int p = position; p < end; p++) {
+            byte b = input[p];
+            if (b == '"') {
+                position = p + 1;
+                return;
+            }
+            if (b == '\\') {
+                p++;
+            }
+        }
+        position = end;
+        throw error("unterminated string");
+    }
+
+    /**
+     * Validates the number at the current position and returns the index after it, recording in {@link #integral}
+     * whether it has neither fraction nor exponent. The position is left unchanged.
+     */
+    private int scanNumber() {
+        int p = position;
+        if (p < end && input[p] == '-') {
+            p++;
+        }
+        int stop = digits(p);
+        if (stop == p) {
+            throw error("expected a value");
+        }
+        integral = true;
+        p = stop;
+        if (p < end && input[p] == '.') {
+            stop = digits(++p);
+            if (stop == p) {
+                throw error("expected digits after '.'");
+            }
+            integral = false;
+            p = stop;
+        }
+        if (p < end && (input[p] == 'e' || input[p] == 'E')) {
+            p++;
+            if (p < end && (input[p] == '+' || input[p] == '-')) {
+                p++;
+            }
+            stop = digits(p);
+            if (stop == p) {
+                throw error("expected digits in exponent");
+            }
+            integral = false;
+            p = stop;
+        }
+        return p;
+    }
+
+    private int digits(int p) {
+        while (p < end && input[p] >= '0' && input[p] <= '9') {
+            p++;
+        }
+        return p;
+    }
+
+    private long exactLong(int start) {
+        position = start;
+        BigDecimal value = nextBigDecimal();
+        try {
+            return value.longValueExact();
+        } catch (ArithmeticException e) {
+            position = start;
+            throw error("expected an integer that fits a long");
+        }
+    }
+
+    private String escapedString(int start, int escape) {
+        StringBuilder out = new StringBuilder(escape - start + 16);
+        out.append(new String(input, start, escape - start, StandardCharsets.UTF_8));
+        int p = escape;
+        while (p < end) {
+            byte b = input[p];
+            if (b == '"') {
+                position = p + 1;
+                return out.toString();
+            }
+            if (b == '\\') {
+                if (++p >= end) {
+                    break;
+                }
+                switch (input[p]) {
+                    case '"' -> out.append('"');
+                    case '\\' -> out.append('\\');
+                    case '/' -> out.append('/');
+                    case 'b' -> out.append('\b');
+                    case 'f' -> out.append('\f');
+                    case 'n' -> out.append('\n');
+                    case 'r' -> out.append('\r');
+                    case 't' -> out.append('\t');
+                    case 'u' -> {
+                        out.append(hex(p + 1));
+                        p += 4;
+                    }
+                    default -> {
+                        position = p;
+                        throw error("invalid escape");
+                    }
+                }
+                p++;
+                continue;
+            }
+            int run = p;
+            while (p < end && input[p] != '"' && input[p] != '\\') {
+                if (input[p] >= 0 && input[p] < 0x20) {
+                    position = p;
+                    throw error("control character in string");
+                }
+                p++;
+            }
+            out.append(new String(input, run, p - run, StandardCharsets.UTF_8));
+        }
+        position = end;
+        throw error("unterminated string");
+    }
+
+    private char hex(int p) {
+        if (end - p < 4) {
+            position = end;
+            throw error("unterminated string");
+        }
+        int value = 0;
+        for (int i = p; i < p + 4; i++) {
+            int digit = Character.digit(input[i], 16);
+            if (digit < 0) {
+                position = i;
+                throw error("invalid unicode escape");
+            }
+            value = value << 4 | digit;
+        }
+        return (char) value;
+    }
+
+    private JsonException error(String message) {
+        return new JsonException(message + " at offset " + (position - offset));
+    }
+}
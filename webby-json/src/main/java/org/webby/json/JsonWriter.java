@@ -0,0 +1,262 @@
+package org.webby.json;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes JSON as UTF-8 into a growable byte array.
+ *
+ * <p>The writer is deliberately low level: it produces exactly the tokens it is asked for, and codecs place the
+ * separators themselves, which lets record codecs write each field name with its quotes and colon as one pre-encoded
+ * array. Strings are escaped and encoded in a single pass over their characters and numbers are formatted without
+ * intermediate strings where possible.
+ *
+ * <p>{@link Json} keeps one writer per thread and resets it between values, so after warming up encoding allocates
+ * only the final array. A writer is not thread-safe.
+ */
+public final class JsonWriter {
+    /**
+     * Largest buffer kept by {@link #reset()}; bigger ones are dropped so one large document does not pin its buffer to
+     * a pooled writer forever.
+     */
+    static final int RETAINED_CAPACITY = 64 * 1024;
+
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+    private static final boolean[] ESCAPE = new boolean[128];
+
+    static {
+        for (int c = 0; c < 0x20; c++) {
+            ESCAPE[c] = true;
+        }
+        ESCAPE['"'] = true;
+        ESCAPE['\\'] = true;
+    }
+
+    private final int initialCapacity;
+    private byte[] buffer;
+    private int size;
+
+    /**
+     * Creates a writer with a 256 byte buffer.
+     */
+    public JsonWriter() {
+        this(256);
+    }
+
+    /**
+     * Creates a writer.
+     *
+     * @param initialCapacity initial buffer size in bytes
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    public JsonWriter(int initialCapacity) {
+        if (initialCapacity <= 0) {
+            throw new IllegalArgumentException("initialCapacity must be positive");
+        }
+        this.initialCapacity = initialCapacity;
+        this.buffer = new byte[initialCapacity];
+    }
+
+    /**
+     * Writes one structural byte, such as <code>'{'</code>, {@code ','} or {@code ':'}.
+     *
+     * @param b ASCII byte
+     */
+    public void writeRaw(byte b) {
+        ensureCapacity(1);
+        buffer[size++] = b;
+    }
+
+    /**
+     * Writes bytes that are already valid JSON, such as a pre-encoded field name.
+     *
+     * @param bytes UTF-8 JSON fragment
+     */
+    public void writeRaw(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    /**
+     * Writes a quoted, escaped string, or {@code null}.
+     *
+     * @param value string to write
+     */
+    public void writeString(CharSequence value) {
+        if (value == null) {
+            writeNull();
+            return;
+        }
+        int length = value.length();
+        // Worst case: three bytes per char, or six for an escaped control character, plus the quotes.
+        ensureCapacity((int) Math.min(length * 6L + 2, Integer.MAX_VALUE));
+        byte[] out = buffer;
+        int position = size;
+        out[position++] = '"';
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (!ESCAPE[c]) {
+                    out[position++] = (byte) c;
+                    continue;
+                }
+                out[position++] = '\\';
+                switch (c) {
+                    case '"' -> out[position++] = '"';
+                    case '\\' -> out[position++] = '\\';
+                    case '\n' -> out[position++] = 'n';
+                    case '\r' -> out[position++] = 'r';
+                    case '\t' -> out[position++] = 't';
+                    case '\b' -> out[position++] = 'b';
+                    case '\f' -> out[position++] = 'f';
+                    default -> {
+                        out[position++] = 'u';
+                        out[position++] = '0';
+                        out[position++] = '0';
+                        out[position++] = HEX[c >> 4];
+                        out[position++] = HEX[c & 0xF];
+                    }
+                }
+            } else if (c < 0x800) {
+                out[position++] = (byte) (0xC0 | c >> 6);
+                out[position++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                int codePoint = Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(value.charAt(i + 1))
+                        ? Character.toCodePoint(c, value.charAt(++i))
+                        : -1;
+                if (codePoint < 0) {
+                    // Unpaired surrogates have no UTF-8 encoding; replace them like String.getBytes does.
+                    out[position++] = '?';
+                } else {
+                    out[position++] = (byte) (0xF0 | codePoint >> 18);
+                    out[position++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                    out[position++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                    out[position++] = (byte) (0x80 | codePoint & 0x3F);
+                }
+            } else {
+                out[position++] = (byte) (0xE0 | c >> 12);
+                out[position++] = (byte) (0x80 | c >> 6 & 0x3F);
+                out[position++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        out[position++] = '"';
+        size = position;
+    }
+
+    /**
+     * Writes an integer.
+     *
+     * @param value number to write
+     */
+    public void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeRaw(MIN_LONG);
+            return;
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            buffer[size++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long bound = 10; digits < 19 && value >= bound; bound *= 10) {
+            digits++;
+        }
+        int position = size + digits;
+        size = position;
+        do {
+            buffer[--position] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+    }
+
+    /**
+     * Writes a floating point number. Integral values below 10<sup>15</sup> are written without a fraction, as
+     * JavaScript does; others use {@link Double#toString(double)}, which reads back as the same value.
+     *
+     * @param value finite number to write
+     * @throws JsonException if the value is infinite or NaN, which JSON cannot represent
+     */
+    public void writeDouble(double value) {
+        if (!Double.isFinite(value)) {
+            throw new JsonException("JSON cannot represent " + value);
+        }
+        if (value == (long) value && Math.abs(value) < 1e15 && (value != 0 || 1 / value > 0)) {
+            writeLong((long) value);
+            return;
+        }
+        writeAscii(Double.toString(value));
+    }
+
+    /**
+     * Writes {@code true} or {@code false}.
+     *
+     * @param value boolean to write
+     */
+    public void writeBoolean(boolean value) {
+        writeRaw(value ? TRUE : FALSE);
+    }
+
+    /**
+     * Writes {@code null}.
+     */
+    public void writeNull() {
+        writeRaw(NULL);
+    }
+
+    /**
+     * Returns the number of bytes written since the last reset.
+     *
+     * @return size in bytes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns a copy of the bytes written since the last reset, sized exactly.
+     *
+     * @return JSON document
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    /**
+     * Discards the written bytes so the writer can be reused, dropping a buffer that grew past 64 KiB.
+     */
+    public void reset() {
+        size = 0;
+        if (buffer.length > RETAINED_CAPACITY) {
+            buffer = new byte[initialCapacity];
+        }
+    }
+
+    /**
+     * Writes a string that is known to be ASCII and to need no escaping, such as a formatted number.
+     */
+    void writeAscii(String value) {
+        int length = value.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            buffer[size++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (extra > buffer.length - size) {
+            long required = (long) size + extra;
+            if (required > Integer.MAX_VALUE - 8) {
+                throw new JsonException("JSON document too large");
+            }
+            long doubled = Math.min(buffer.length * 2L, Integer.MAX_VALUE - 8);
+            buffer = Arrays.copyOf(buffer, (int) Math.max(required, doubled));
+        }
+    }
+}
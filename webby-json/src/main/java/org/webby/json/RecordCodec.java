@@ -0,0 +1,167 @@
+package org.webby.json;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.RecordComponent;
+import java.util.Arrays;
+
+/**
+ * Codec for a record class, mapping each component to a field of the same name.
+ *
+ * <p>Reflection is used once, when the codec is built: component accessors and the canonical constructor are turned
+ * into method handles, accessors of {@code int}, {@code long}, {@code double} and {@code boolean} components are typed
+ * so writing them does not box, and each field name is encoded with its quotes, colon and leading separator. Reading
+ * matches field names against their encoded bytes, skips unknown fields and leaves missing ones at {@code null}, or
+ * zero for primitives. An exception thrown by the record's constructor is reported as a {@link JsonException}.
+ */
+final class RecordCodec implements JsonCodec<Record> {
+    private static final MethodType ACCESSOR = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType CONSTRUCTOR = MethodType.methodType(Object.class, Object[].class);
+
+    private final Class<?> type;
+    private final Component[] components;
+    private final byte[][] names;
+    private final Object[] defaults;
+    private final MethodHandle constructor;
+
+    RecordCodec(Class<?> type) {
+        this.type = type;
+        RecordComponent[] recordComponents = type.getRecordComponents();
+        int count = recordComponents.length;
+        components = new Component[count];
+        names = new byte[count][];
+        defaults = new Object[count];
+        Class<?>[] parameterTypes = new Class<?>[count];
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            for (int i = 0; i < count; i++) {
+                RecordComponent recordComponent = recordComponents[i];
+                Class<?> componentType = recordComponent.getType();
+                parameterTypes[i] = componentType;
+                Method accessor = recordComponent.getAccessor();
+                accessor.setAccessible(true);
+                JsonWriter prefix = new JsonWriter(32);
+                prefix.writeRaw((byte) (i == 0 ? '{' : ','));
+                prefix.writeString(recordComponent.getName());
+                prefix.writeRaw((byte) ':');
+                components[i] = new Component(
+                        prefix.toByteArray(),
+                        Kind.of(componentType),
+                        lookup.unreflect(accessor),
+                        Json.codec(recordComponent.getGenericType()));
+                names[i] = Arrays.copyOfRange(prefix.toByteArray(), 2, prefix.size() - 2);
+                if (componentType.isPrimitive()) {
+                    defaults[i] = Array.get(Array.newInstance(componentType, 1), 0);
+                }
+            }
+            Constructor<?> canonical = type.getDeclaredConstructor(parameterTypes);
+            canonical.setAccessible(true);
+            constructor = lookup.unreflectConstructor(canonical).asSpreader(Object[].class, count).asType(CONSTRUCTOR);
+        } catch (JsonException e) {
+            throw e;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            throw new JsonException("cannot access record " + type.getName()
+                    + "; its package must be open to org.webby.json", e);
+        }
+    }
+
+    @Override
+    public Record read(JsonReader reader) {
+        if (reader.nextNull()) {
+            return null;
+        }
+        Object[] arguments = defaults.clone();
+        int next = 0;
+        reader.beginObject();
+        while (reader.hasNextField()) {
+            int index = reader.nextName(names, next);
+            if (index < 0) {
+                reader.skipValue();
+                continue;
+            }
+            Component component = components[index];
+            Object value = component.codec.read(reader);
+            if (value != null || component.kind == Kind.REFERENCE) {
+                arguments[index] = value;
+            }
+            next = index + 1;
+        }
+        try {
+            return (Record) (Object) constructor.invokeExact(arguments);
+        } catch (JsonException e) {
+            throw e;
+        } catch (Throwable e) {
+            if (e instanceof Error error) {
+                throw error;
+            }
+            throw new JsonException("invalid " + type.getSimpleName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void write(JsonWriter writer, Record value) {
+        if (components.length == 0) {
+            writer.writeRaw((byte) '{');
+        }
+        Object record = value;
+        try {
+            for (Component component : components) {
+                writer.writeRaw(component.prefix);
+                MethodHandle accessor = component.accessor;
+                switch (component.kind) {
+                    case INT -> writer.writeLong((int) accessor.invokeExact(record));
+                    case LONG -> writer.writeLong((long) accessor.invokeExact(record));
+                    case DOUBLE -> writer.writeDouble((double) accessor.invokeExact(record));
+                    case BOOLEAN -> writer.writeBoolean((boolean) accessor.invokeExact(record));
+                    case REFERENCE -> Json.write(writer, component.codec, (Object) accessor.invokeExact(record));
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new JsonException("cannot read " + type.getSimpleName() + ": " + e.getMessage(), e);
+        }
+        writer.writeRaw((byte) '}');
+    }
+
+    /**
+     * How a component is written; the primitive kinds have accessors returning the primitive itself.
+     */
+    private enum Kind {
+        INT(int.class), LONG(long.class), DOUBLE(double.class), BOOLEAN(boolean.class), REFERENCE(Object.class);
+
+        private final Class<?> returnType;
+
+        Kind(Class<?> returnType) {
+            this.returnType = returnType;
+        }
+
+        static Kind of(Class<?> type) {
+            for (Kind kind : values()) {
+                if (kind.returnType == type) {
+                    return kind;
+                }
+            }
+            return REFERENCE;
+        }
+    }
+
+    private static final class Component {
+        final byte[] prefix;
+        final Kind kind;
+        final MethodHandle accessor;
+        final JsonCodec<Object> codec;
+
+        @SuppressWarnings("unchecked")
+        Component(byte[] prefix, Kind kind, MethodHandle accessor, JsonCodec<?> codec) {
+            this.prefix = prefix;
+            this.kind = kind;
+            this.accessor = accessor.asType(ACCESSOR.changeReturnType(kind.returnType));
+            this.codec = (JsonCodec<Object>) codec;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.webby.json;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.webby.core.HttpMethod;
+import org.webby.core.HttpStatus;
+import org.webby.core.Request;
+import org.webby.core.Response;
+
+class JsonTest {
+    enum Status {
+        ACTIVE, SUSPENDED
+    }
+
+    record Address(String city, String zip) {
+    }
+
+    record User(long id, String name, boolean admin, double score, Status status, List<String> tags,
+            Map<String, Integer> quotas, Address address, int[] lucky) {
+    }
+
+    record Tree(String name, List<Tree> children) {
+    }
+
+    record Positive(int value) {
+        Positive {
+            if (value <= 0) {
+                throw new IllegalArgumentException("value must be positive");
+            }
+        }
+    }
+
+    @Test
+    void recordsRoundTrip() {
+        User user = new User(42, "Zo\u00eb \"Z\"\n", true, 1.5, Status.ACTIVE, List.of("a", "b"),
+                Map.of("cpu", 4), null, new int[] {7, -13});
+
+        String json = utf8(Json.encode(user));
+
+        assertEquals("{\"id\":42,\"name\":\"Zo\u00eb \\\"Z\\\"\\n\",\"admin\":true,\"score\":1.5,\"status\":\"ACTIVE\","
+                + "\"tags\":[\"a\",\"b\"],\"quotas\":{\"cpu\":4},\"address\":null,\"lucky\":[7,-13]}", json);
+        User decoded = Json.decode(json.getBytes(StandardCharsets.UTF_8), User.class);
+        assertEquals(user.name(), decoded.name());
+        assertEquals(user.tags(), decoded.tags());
+        assertEquals(user.quotas(), decoded.quotas());
+        assertArrayEquals(user.lucky(), decoded.lucky());
+        assertEquals(Status.ACTIVE, decoded.status());
+        assertEquals(1.5, decoded.score());
+
+        Tree tree = new Tree("root", List.of(new Tree("leaf", List.of())));
+        assertEquals("{\"name\":\"root\",\"children\":[{\"name\":\"leaf\",\"children\":[]}]}", utf8(Json.encode(tree)));
+        assertEquals(tree, Json.decode(Json.encode(tree), Tree.class));
+        assertEquals("[1,2.5,\"?\",null,\"\ud83d\ude00\"]",
+                utf8(Json.encode(Arrays.asList(1L, 2.5, "\ud83d", null, "\ud83d\ude00"))));
+    }
+
+    @Test
+    void readsEscapesNumbersAndUnknownFields() {
+        String json = " { \"extra\" : {\"nested\": [1, {\"x\": \"}\"}], \"n\": null},"
+                + " \"name\": \"caf\\u00e9 \\ud83d\\ude00\", \"id\": 1e3,"
+                + " \"status\": \"SUSPENDED\", \"address\": {\"zip\": \"02139\"} } ";
+
+        User user = Json.decode(json.getBytes(StandardCharsets.UTF_8), User.class);
+
+        assertEquals(1000, user.id());
+        assertEquals("caf\u00e9 \ud83d\ude00", user.name());
+        assertEquals(Status.SUSPENDED, user.status());
+        assertEquals(new Address(null, "02139"), user.address());
+        assertEquals(0.0, user.score());
+        assertNull(user.tags());
+
+        Object dynamic = Json.decode(
+                "{\"a\":[true,null,-9223372036854775808,0.25,12345678901234567890]}".getBytes(StandardCharsets.UTF_8),
+                Object.class);
+        List<?> values = (List<?>) ((Map<?, ?>) dynamic).get("a");
+        assertEquals(Arrays.asList(true, null, Long.MIN_VALUE, 0.25, 1.2345678901234567e19), values);
+    }
+
+    @Test
+    void malformedInputIsRejected() {
+        for (String json : List.of("{\"id\":1,}", "{\"id\":1} x", "{\"id\":1 \"name\":\"a\"}", "{\"name\":\"a",
+                "{\"id\":99999999999999999999}", "{\"id\":1.5}", "{\"status\":\"GONE\"}", "[1]", "")) {
+            byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+            assertThrows(JsonException.class, () -> Json.decode(bytes, User.class), json);
+        }
+        String deep = "[".repeat(JsonReader.MAX_DEPTH + 1);
+        assertThrows(JsonException.class, () -> Json.decode(deep.getBytes(StandardCharsets.US_ASCII), Object.class));
+        JsonException invalid = assertThrows(JsonException.class,
+                () -> Json.decode("{\"value\":0}".getBytes(StandardCharsets.US_ASCII), Positive.class));
+        assertTrue(invalid.getMessage().contains("value must be positive"), invalid.getMessage());
+        assertThrows(JsonException.class, () -> Json.encode(Double.NaN));
+    }
+
+    @Test
+    void requestAndResponseBodies() {
+        Request request = new Request(HttpMethod.POST, "/addresses", "HTTP/1.1",
+                Map.of("Content-Type", Json.CONTENT_TYPE), "{\"city\":\"Oslo\"}".getBytes(StandardCharsets.UTF_8));
+
+        Address address = Json.decode(request, Address.class);
+        Response response = Json.response(HttpStatus.CREATED, address);
+
+        assertEquals(new Address("Oslo", null), address);
+        assertEquals(HttpStatus.CREATED, response.status());
+        assertEquals(Json.CONTENT_TYPE, response.header("Content-Type"));
+        assertEquals("{\"city\":\"Oslo\",\"zip\":null}", utf8(response.body()));
+        assertEquals("null", utf8(Json.encode(null)));
+        assertSame(Json.codec(Address.class), Json.codec(Address.class));
+    }
+
+    private static String utf8(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
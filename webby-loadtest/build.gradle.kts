@@ -0,0 +1,17 @@
+plugins {
+    application
+}
+
+dependencies {
+    implementation(project(":webby-core"))
+    implementation(project(":webby-server"))
+    implementation(project(":webby-server-jetty"))
+    implementation(project(":webby-server-netty"))
+}
+
+// ./gradlew :webby-loadtest:run --args="--engines=server,netty --scenarios=plaintext,tls --rate=2000"
+application {
+    mainClass = "org.webby.loadtest.LoadTest"
+    // A fixed heap keeps GC time comparable between engines.
+    applicationDefaultJvmArgs = listOf("-Xms1g", "-Xmx1g")
+}
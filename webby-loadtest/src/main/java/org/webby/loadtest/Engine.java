@@ -0,0 +1,83 @@
+package org.webby.loadtest;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import javax.net.ssl.SSLContext;
+import org.webby.core.AbstractServer;
+import org.webby.core.HttpStatus;
+import org.webby.core.Response;
+import org.webby.core.Router;
+import org.webby.core.Server;
+import org.webby.server.jetty.JettyServer;
+import org.webby.server.netty.NettyServer;
+
+/**
+ * Server engines under test, all serving the same routes.
+ */
+enum Engine {
+    SERVER(Server::new),
+    JETTY(JettyServer::new),
+    NETTY(NettyServer::new);
+
+    private static final Duration STARTUP_TIMEOUT = Duration.ofSeconds(10);
+
+    private final IntFunction<AbstractServer> factory;
+
+    Engine(IntFunction<AbstractServer> factory) {
+        this.factory = factory;
+    }
+
+    static Engine parse(String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+
+    String displayName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Starts the engine on an ephemeral port and waits until it accepts connections.
+     *
+     * @param tls server context, or {@code null} for plain HTTP
+     * @return running server
+     */
+    AbstractServer start(SSLContext tls) throws Exception {
+        AbstractServer server = factory.apply(0);
+        server.setRequestHandler(routes());
+        if (tls != null) {
+            server.enableTls(tls);
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, "webby-loadtest-" + displayName());
+        thread.setDaemon(true);
+        thread.start();
+        long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+        while (!server.isRunning() || server.port() == 0) {
+            if (!thread.isAlive() || System.nanoTime() > deadline) {
+                server.close();
+                throw new IllegalStateException(displayName() + " did not start");
+            }
+            Thread.sleep(10);
+        }
+        return server;
+    }
+
+    private static Router routes() {
+        AtomicLong ids = new AtomicLong();
+        return new Router()
+                .get("/plaintext", request -> Response.text(HttpStatus.OK, "Hello, World!"))
+                .get("/json", request -> new Response(HttpStatus.OK, Map.of("Content-Type", "application/json"),
+                        ("{\"message\":\"Hello, World!\",\"id\":" + ids.incrementAndGet() + "}")
+                                .getBytes(StandardCharsets.UTF_8)))
+                .post("/upload", request -> Response.text(HttpStatus.OK, Long.toString(request.bodyLength())));
+    }
+}
@@ -0,0 +1,139 @@
+package org.webby.loadtest;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Locale;
+import javax.net.ssl.SSLContext;
+
+/**
+ * Minimal blocking HTTP/1.1 client connection. It writes pre-encoded requests and reads responses framed by
+ * {@code Content-Length} or by the end of the connection, discarding the body.
+ */
+final class HttpConnection implements Closeable {
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private final StringBuilder line = new StringBuilder();
+    private final byte[] discard = new byte[16 * 1024];
+    private boolean reusable;
+
+    private HttpConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new BufferedInputStream(socket.getInputStream(), 16 * 1024);
+        this.out = socket.getOutputStream();
+    }
+
+    static HttpConnection open(InetSocketAddress address, SSLContext tls) throws IOException {
+        Socket socket = tls == null
+                ? new Socket()
+                : tls.getSocketFactory().createSocket();
+        socket.setTcpNoDelay(true);
+        socket.connect(address, 5_000);
+        socket.setSoTimeout(30_000);
+        return new HttpConnection(socket);
+    }
+
+    /**
+     * Sends a request and reads the complete response.
+     *
+     * @return response status code
+     */
+    int exchange(byte[] request) throws IOException {
+        out.write(request);
+        out.flush();
+        return readResponse();
+    }
+
+    /**
+     * Sends a request a few bytes at a time, pausing between writes, then reads the response.
+     *
+     * @return response status code
+     */
+    int trickle(byte[] request, int chunk, long pauseMillis) throws IOException, InterruptedException {
+        for (int offset = 0; offset < request.length; offset += chunk) {
+            out.write(request, offset, Math.min(chunk, request.length - offset));
+            out.flush();
+            Thread.sleep(pauseMillis);
+        }
+        return readResponse();
+    }
+
+    /**
+     * Indicates whether the last response left the connection open for another request.
+     */
+    boolean reusable() {
+        return reusable;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private int readResponse() throws IOException {
+        String statusLine = readLine();
+        if (statusLine == null || statusLine.length() < 12) {
+            throw new EOFException("Connection closed before a response arrived");
+        }
+        int status = Integer.parseInt(statusLine.substring(9, 12));
+        long contentLength = -1;
+        boolean close = statusLine.startsWith("HTTP/1.0");
+        String header;
+        while ((header = readLine()) != null && !header.isEmpty()) {
+            int colon = header.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = header.substring(0, colon).trim();
+            String value = header.substring(colon + 1).trim();
+            if (name.equalsIgnoreCase("Content-Length")) {
+                contentLength = Long.parseLong(value);
+            } else if (name.equalsIgnoreCase("Connection")) {
+                close = value.toLowerCase(Locale.ROOT).contains("close");
+            }
+        }
+        if (contentLength >= 0) {
+            skip(contentLength);
+        } else {
+            while (in.read(discard) >= 0) {
+                // Unframed body: read until the server closes the connection.
+            }
+            close = true;
+        }
+        reusable = !close;
+        return status;
+    }
+
+    private void skip(long length) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            int read = in.read(discard, 0, (int) Math.min(discard.length, remaining));
+            if (read < 0) {
+                throw new EOFException("Connection closed inside a response body");
+            }
+            remaining -= read;
+        }
+    }
+
+    private String readLine() throws IOException {
+        line.setLength(0);
+        int read;
+        while ((read = in.read()) >= 0) {
+            if (read == '\n') {
+                int end = line.length();
+                if (end > 0 && line.charAt(end - 1) == '\r') {
+                    line.setLength(end - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) read);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+}
@@ -0,0 +1,42 @@
+package org.webby.loadtest;
+
+/**
+ * Outcome of one measured run.
+ *
+ * @param engine engine under test
+ * @param scenario scenario that was run
+ * @param targetRate requests per second the generator scheduled
+ * @param completed requests that received a response
+ * @param errors requests that failed or did not complete before the drain timeout
+ * @param elapsedNanos time from the first scheduled request to the last completion
+ * @param p50Nanos median latency, measured from the scheduled start
+ * @param p99Nanos 99th percentile latency
+ * @param p999Nanos 99.9th percentile latency
+ * @param maxNanos highest latency
+ * @param serverCpuNanos CPU time of all threads except the load generator's, which includes JIT and GC threads
+ * @param clientCpuNanos CPU time of the load generator's threads
+ * @param gcMillis time the collectors reported spending during the run
+ */
+record LoadResult(
+        Engine engine,
+        Scenario scenario,
+        int targetRate,
+        long completed,
+        long errors,
+        long elapsedNanos,
+        long p50Nanos,
+        long p99Nanos,
+        long p999Nanos,
+        long maxNanos,
+        long serverCpuNanos,
+        long clientCpuNanos,
+        long gcMillis) {
+
+    double throughput() {
+        return elapsedNanos == 0 ? 0 : completed * 1e9 / elapsedNanos;
+    }
+
+    double perRequestMicros(long nanos) {
+        return completed == 0 ? 0 : nanos / 1e3 / completed;
+    }
+}
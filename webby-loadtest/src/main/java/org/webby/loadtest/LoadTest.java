@@ -0,0 +1,141 @@
+package org.webby.loadtest;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import javax.net.ssl.SSLContext;
+import org.webby.core.AbstractServer;
+
+/**
+ * Runs the same open-model load against each server engine and prints one comparable row per engine and scenario.
+ *
+ * <p>Every run starts a fresh server in this JVM, applies the load for the warmup period, then measures for the
+ * configured duration. Requests are scheduled at a fixed rate and latencies are counted from the scheduled start, so
+ * an engine that falls behind shows it in its percentiles and error count rather than by quietly sending less load.
+ * The report lists throughput, latency percentiles, CPU time per request split between the server and the generator,
+ * and collector pause time per request.
+ *
+ * <p>Options, all optional:
+ *
+ * <ul>
+ *   <li>{@code --engines=server,jetty,netty} engines to compare</li>
+ *   <li>{@code --scenarios=plaintext,json,keep-alive,tls,upload,slow-clients} scenarios to run</li>
+ *   <li>{@code --rate=1000} scheduled requests per second</li>
+ *   <li>{@code --duration=10} measured seconds per run</li>
+ *   <li>{@code --warmup=5} unmeasured seconds before each run</li>
+ *   <li>{@code --concurrency=200} connections available to the scheduled requests</li>
+ *   <li>{@code --slow-clients=64} background connections in the {@code slow-clients} scenario</li>
+ * </ul>
+ */
+public final class LoadTest {
+    private static final Set<String> OPTIONS =
+            Set.of("engines", "scenarios", "rate", "duration", "warmup", "concurrency", "slow-clients");
+    private static final String HEADER = String.format(
+            "%-8s %-14s %8s %10s %9s %9s %9s %9s %8s %10s %10s %9s",
+            "engine", "scenario", "rate", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "errors",
+            "srv us/req", "cli us/req", "gc us/req");
+
+    private LoadTest() {
+    }
+
+    /**
+     * Runs the comparison.
+     *
+     * @param args options as described in the class documentation
+     * @throws Exception if a server cannot be started
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        List<Engine> engines = list(options.getOrDefault("engines", "server,jetty,netty"), Engine::parse);
+        List<Scenario> scenarios =
+                list(options.getOrDefault("scenarios", "plaintext,json,keep-alive,tls,upload,slow-clients"),
+                        Scenario::parse);
+        int rate = positive(options, "rate", 1000);
+        Duration duration = Duration.ofSeconds(positive(options, "duration", 10));
+        Duration warmup = Duration.ofSeconds(Integer.parseInt(options.getOrDefault("warmup", "5")));
+        int concurrency = positive(options, "concurrency", 200);
+        int slowClients = positive(options, "slow-clients", 64);
+
+        SSLContext serverTls = null;
+        SSLContext clientTls = null;
+        if (scenarios.stream().anyMatch(Scenario::tls)) {
+            serverTls = Tls.serverContext();
+            clientTls = Tls.trustingClientContext();
+        }
+
+        System.out.println(HEADER);
+        for (Engine engine : engines) {
+            for (Scenario scenario : scenarios) {
+                try (AbstractServer server = engine.start(scenario.tls() ? serverTls : null)) {
+                    OpenModelLoad load = new OpenModelLoad(
+                            new InetSocketAddress("localhost", server.port()),
+                            scenario.tls() ? clientTls : null,
+                            concurrency,
+                            slowClients);
+                    if (!warmup.isZero()) {
+                        load.run(engine, scenario, rate, warmup);
+                    }
+                    // Start every measurement from a collected heap so earlier runs are not billed for their garbage.
+                    System.gc();
+                    System.out.println(format(load.run(engine, scenario, rate, duration)));
+                }
+            }
+        }
+    }
+
+    static String format(LoadResult result) {
+        return String.format(
+                "%-8s %-14s %8d %10.0f %9.2f %9.2f %9.2f %9.2f %8d %10.1f %10.1f %9.2f",
+                result.engine().displayName(),
+                result.scenario().displayName(),
+                result.targetRate(),
+                result.throughput(),
+                result.p50Nanos() / 1e6,
+                result.p99Nanos() / 1e6,
+                result.p999Nanos() / 1e6,
+                result.maxNanos() / 1e6,
+                result.errors(),
+                result.perRequestMicros(result.serverCpuNanos()),
+                result.perRequestMicros(result.clientCpuNanos()),
+                result.perRequestMicros(result.gcMillis() * 1_000_000));
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            String name = arg.startsWith("--") && equals > 2 ? arg.substring(2, equals) : null;
+            if (name == null || !OPTIONS.contains(name)) {
+                throw new IllegalArgumentException("unknown option " + arg + ", expected --name=value with one of "
+                        + OPTIONS);
+            }
+            options.put(name, arg.substring(equals + 1));
+        }
+        return options;
+    }
+
+    private static <T> List<T> list(String value, Function<String, T> parser) {
+        List<T> values = new ArrayList<>();
+        for (String name : Arrays.asList(value.split(","))) {
+            if (!name.isBlank()) {
+                values.add(parser.apply(name));
+            }
+        }
+        return values;
+    }
+
+    private static int positive(Map<String, String> options, String name, int defaultValue) {
+        String value = options.get(name);
+        int parsed = value == null ? defaultValue : Integer.parseInt(value);
+        if (parsed <= 0) {
+            throw new IllegalArgumentException("--" + name + " must be positive");
+        }
+        return parsed;
+    }
+}
@@ -0,0 +1,215 @@
+package org.webby.loadtest;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import javax.net.ssl.SSLContext;
+import org.webby.core.LatencyHistogram;
+
+/**
+ * Open-model load generator: requests are scheduled at a constant arrival rate regardless of how fast the server
+ * answers, and each latency is measured from the moment the request was <em>scheduled</em> rather than the moment it
+ * was sent. When the server stalls, requests queue up in the generator and their waiting time is counted, so the
+ * percentiles are corrected for coordinated omission instead of hiding the stall.
+ */
+final class OpenModelLoad {
+    private static final Duration DRAIN_TIMEOUT = Duration.ofSeconds(30);
+    private static final int SLOW_CHUNK_BYTES = 8;
+    private static final long SLOW_PAUSE_MILLIS = 50;
+
+    private final InetSocketAddress address;
+    private final SSLContext tls;
+    private final int concurrency;
+    private final int slowClients;
+
+    /**
+     * Creates a generator.
+     *
+     * @param tls client context for TLS scenarios, or {@code null}
+     * @param concurrency number of connections, and sending threads, available to the scheduled requests
+     * @param slowClients number of background clients in {@link Scenario#SLOW_CLIENTS}
+     */
+    OpenModelLoad(InetSocketAddress address, SSLContext tls, int concurrency, int slowClients) {
+        this.address = address;
+        this.tls = tls;
+        this.concurrency = concurrency;
+        this.slowClients = slowClients;
+    }
+
+    LoadResult run(Engine engine, Scenario scenario, int rate, Duration duration) throws InterruptedException {
+        byte[] request = scenario.request();
+        ClientThreads threads = new ClientThreads();
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(
+                concurrency, concurrency, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threads);
+        workers.prestartAllCoreThreads();
+        Set<HttpConnection> connections = ConcurrentHashMap.newKeySet();
+        ThreadLocal<HttpConnection> owned = new ThreadLocal<>();
+        LatencyHistogram latencies = new LatencyHistogram();
+        LongAdder errors = new LongAdder();
+        AtomicLong lastCompletion = new AtomicLong();
+        List<Thread> trickling = scenario.slowClients() ? startSlowClients(threads, request) : List.of();
+
+        Usage before = Usage.sample(threads);
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1);
+        long end = start + duration.toNanos();
+        long scheduled = 0;
+        for (long intended = start; intended - end < 0; intended = start + (long) (++scheduled * 1e9 / rate)) {
+            long wait;
+            while ((wait = intended - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            long scheduledAt = intended;
+            workers.execute(() -> send(request, scheduledAt, owned, connections, latencies, errors, lastCompletion));
+        }
+        long drainDeadline = System.nanoTime() + DRAIN_TIMEOUT.toNanos();
+        while (latencies.count() + errors.sum() < scheduled && System.nanoTime() < drainDeadline) {
+            Thread.sleep(5);
+        }
+        // Sample while the generator's threads are still alive, since a dead thread's CPU time cannot be read.
+        Usage after = Usage.sample(threads);
+        long completed = latencies.count();
+        long failed = scheduled - completed;
+
+        workers.shutdownNow();
+        trickling.forEach(Thread::interrupt);
+        for (Thread thread : trickling) {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        workers.awaitTermination(5, TimeUnit.SECONDS);
+        connections.forEach(OpenModelLoad::closeQuietly);
+
+        long clientCpu = after.clientCpuNanos - before.clientCpuNanos;
+        return new LoadResult(
+                engine,
+                scenario,
+                rate,
+                completed,
+                failed,
+                Math.max(0, lastCompletion.get() - start),
+                latencies.valueAtQuantile(0.5),
+                latencies.valueAtQuantile(0.99),
+                latencies.valueAtQuantile(0.999),
+                latencies.valueAtQuantile(1.0),
+                Math.max(0, after.processCpuNanos - before.processCpuNanos - clientCpu),
+                clientCpu,
+                after.gcMillis - before.gcMillis);
+    }
+
+    private void send(
+            byte[] request,
+            long scheduledAt,
+            ThreadLocal<HttpConnection> owned,
+            Set<HttpConnection> connections,
+            LatencyHistogram latencies,
+            LongAdder errors,
+            AtomicLong lastCompletion) {
+        HttpConnection connection = owned.get();
+        try {
+            if (connection == null) {
+                connection = HttpConnection.open(address, tls);
+                connections.add(connection);
+            }
+            int status = connection.exchange(request);
+            long done = System.nanoTime();
+            if (status / 100 == 2) {
+                latencies.record(done - scheduledAt);
+                lastCompletion.accumulateAndGet(done, Math::max);
+            } else {
+                errors.increment();
+            }
+            if (!connection.reusable()) {
+                connections.remove(connection);
+                closeQuietly(connection);
+                connection = null;
+            }
+        } catch (IOException | RuntimeException e) {
+            errors.increment();
+            if (connection != null) {
+                connections.remove(connection);
+                closeQuietly(connection);
+                connection = null;
+            }
+        }
+        owned.set(connection);
+    }
+
+    private List<Thread> startSlowClients(ClientThreads threads, byte[] request) {
+        List<Thread> started = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < slowClients; i++) {
+            Thread thread = threads.newThread(() -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                    try (HttpConnection connection = HttpConnection.open(address, tls)) {
+                        connection.trickle(request, SLOW_CHUNK_BYTES, SLOW_PAUSE_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (IOException e) {
+                        // The server may drop slow connections; open another one.
+                    }
+                }
+            });
+            thread.start();
+            started.add(thread);
+        }
+        return started;
+    }
+
+    private static void closeQuietly(HttpConnection connection) {
+        try {
+            connection.close();
+        } catch (IOException ignored) {
+            // ignored
+        }
+    }
+
+    /**
+     * Thread factory that remembers its threads so that their CPU time can be told apart from the server's.
+     */
+    private static final class ClientThreads implements ThreadFactory {
+        private final List<Thread> threads = new CopyOnWriteArrayList<>();
+
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "webby-loadtest-client-" + threads.size());
+            thread.setDaemon(true);
+            threads.add(thread);
+            return thread;
+        }
+    }
+
+    /**
+     * CPU and GC counters at one point in time.
+     */
+    private record Usage(long processCpuNanos, long clientCpuNanos, long gcMillis) {
+        static Usage sample(ClientThreads clients) {
+            ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+            long clientCpu = threadBean.getCurrentThreadCpuTime();
+            for (Thread thread : clients.threads) {
+                clientCpu += Math.max(0, threadBean.getThreadCpuTime(thread.getId()));
+            }
+            OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+            long processCpu = os instanceof com.sun.management.OperatingSystemMXBean hotspot
+                    ? hotspot.getProcessCpuTime()
+                    : 0;
+            long gc = 0;
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                gc += Math.max(0, collector.getCollectionTime());
+            }
+            return new Usage(processCpu, clientCpu, gc);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package org.webby.loadtest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Load scenarios. Each one fixes the request every simulated client sends and how it talks to the server.
+ */
+enum Scenario {
+    /** Small text response on a fresh connection per request. */
+    PLAINTEXT("GET", "/plaintext", 0, false, false, false),
+    /** Small JSON document serialized per request. */
+    JSON("GET", "/json", 0, false, false, false),
+    /** Plaintext over connections reused for as long as the server keeps them open. */
+    KEEP_ALIVE("GET", "/plaintext", 0, true, false, false),
+    /** Plaintext over TLS, including one handshake per connection. */
+    TLS("GET", "/plaintext", 0, false, true, false),
+    /** One-megabyte request bodies. */
+    UPLOAD("POST", "/upload", 1_000_000, false, false, false),
+    /** Plaintext while background clients trickle their requests a few bytes at a time. */
+    SLOW_CLIENTS("GET", "/plaintext", 0, false, false, true);
+
+    private final String method;
+    private final String path;
+    private final int bodySize;
+    private final boolean keepAlive;
+    private final boolean tls;
+    private final boolean slowClients;
+
+    Scenario(String method, String path, int bodySize, boolean keepAlive, boolean tls, boolean slowClients) {
+        this.method = method;
+        this.path = path;
+        this.bodySize = bodySize;
+        this.keepAlive = keepAlive;
+        this.tls = tls;
+        this.slowClients = slowClients;
+    }
+
+    static Scenario parse(String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+
+    boolean keepAlive() {
+        return keepAlive;
+    }
+
+    boolean tls() {
+        return tls;
+    }
+
+    boolean slowClients() {
+        return slowClients;
+    }
+
+    /**
+     * Encodes the complete request, head and body, once so that the load generator only writes bytes.
+     */
+    byte[] request() {
+        String head = method + " " + path + " HTTP/1.1\r\n"
+                + "Host: localhost\r\n"
+                + "User-Agent: webby-loadtest\r\n"
+                + (keepAlive ? "" : "Connection: close\r\n")
+                + (bodySize > 0 ? "Content-Type: application/octet-stream\r\nContent-Length: " + bodySize + "\r\n" : "")
+                + "\r\n";
+        byte[] headBytes = head.getBytes(StandardCharsets.US_ASCII);
+        byte[] request = Arrays.copyOf(headBytes, headBytes.length + bodySize);
+        Arrays.fill(request, headBytes.length, request.length, (byte) 'x');
+        return request;
+    }
+
+    String displayName() {
+        return name().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+}
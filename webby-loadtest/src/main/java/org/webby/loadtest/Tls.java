@@ -0,0 +1,81 @@
+package org.webby.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * TLS contexts for the {@link Scenario#TLS} scenario: a throwaway self-signed certificate for the servers and a client
+ * context that trusts it. Both are only suitable for load testing on localhost.
+ */
+final class Tls {
+    private static final char[] PASSWORD = "webby-loadtest".toCharArray();
+
+    private Tls() {
+    }
+
+    /**
+     * Creates a server context with a fresh self-signed EC certificate generated by the JDK's {@code keytool}.
+     */
+    static SSLContext serverContext() throws IOException, InterruptedException, GeneralSecurityException {
+        Path directory = Files.createTempDirectory("webby-loadtest");
+        Path keystore = directory.resolve("server.p12");
+        try {
+            Process keytool = new ProcessBuilder(
+                    Path.of(System.getProperty("java.home"), "bin", "keytool").toString(),
+                    "-genkeypair", "-alias", "webby", "-keyalg", "EC", "-groupname", "secp256r1",
+                    "-dname", "CN=localhost", "-validity", "2", "-storetype", "PKCS12",
+                    "-keystore", keystore.toString(),
+                    "-storepass", new String(PASSWORD), "-keypass", new String(PASSWORD))
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            if (keytool.waitFor() != 0) {
+                throw new IOException("keytool failed with exit code " + keytool.exitValue());
+            }
+            KeyStore store = KeyStore.getInstance("PKCS12");
+            try (InputStream input = Files.newInputStream(keystore)) {
+                store.load(input, PASSWORD);
+            }
+            KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagers.init(store, PASSWORD);
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(keyManagers.getKeyManagers(), null, null);
+            return context;
+        } finally {
+            Files.deleteIfExists(keystore);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    /**
+     * Creates a client context that accepts any server certificate.
+     */
+    static SSLContext trustingClientContext() throws GeneralSecurityException {
+        TrustManager trustAll = new X509TrustManager() {
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        };
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, new TrustManager[]{trustAll}, null);
+        return context;
+    }
+}
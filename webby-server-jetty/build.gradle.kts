@@ -1,6 +1,7 @@
 dependencies {
     implementation(project(":webby-core"))
     implementation(libs.jetty.server)
+    implementation(libs.jetty.websocket.core.server)
     implementation(libs.jakarta.servlet)
     testImplementation(libs.bundles.testing)
 }
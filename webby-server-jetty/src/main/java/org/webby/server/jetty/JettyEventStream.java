@@ -0,0 +1,75 @@
+package org.webby.server.jetty;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.Callback;
+import org.webby.core.AbstractEventStream;
+import org.webby.core.EventStreamHandler;
+import org.webby.core.EventStreamOptions;
+
+/**
+ * Event stream of the {@link JettyServer}.
+ *
+ * <p>The stream holds on to the request's callback: events are non-final writes to the Jetty response, finishing the
+ * stream writes its last chunk and completes the callback, and aborting it fails the callback. Jetty reports a client
+ * that went away by failing a write or the request.
+ */
+final class JettyEventStream extends AbstractEventStream {
+    private final Response jettyResponse;
+    private final Callback callback;
+    private final Set<JettyEventStream> open;
+
+    private JettyEventStream(Response jettyResponse, Callback callback, org.webby.core.Request request,
+            EventStreamHandler handler, EventStreamOptions options, Set<JettyEventStream> open) {
+        super(request, handler, options);
+        this.jettyResponse = jettyResponse;
+        this.callback = callback;
+        this.open = open;
+    }
+
+    /**
+     * Commits the head of an event stream response and opens the stream once it is written.
+     *
+     * @param callback the request's callback, completed when the stream ends
+     * @param request request that returned the response
+     * @param response the handler's {@linkplain org.webby.core.Response#eventStream(EventStreamHandler) event stream
+     *                 response}
+     * @param open streams of the server, which the new stream joins until it ends
+     */
+    static void open(Request jettyRequest, Response jettyResponse, Callback callback, org.webby.core.Request request,
+            org.webby.core.Response response, EventStreamOptions options, Set<JettyEventStream> open) {
+        jettyResponse.setStatus(response.statusCode());
+        HttpFields.Mutable headers = jettyResponse.getHeaders();
+        response.headers().forEach(headers::put);
+        JettyEventStream stream = new JettyEventStream(
+                jettyResponse, callback, request, response.eventStreamHandler(), options, open);
+        open.add(stream);
+        jettyRequest.addFailureListener(failure -> stream.disconnected());
+        // An empty write commits the head, so the client sees the stream open before the first event.
+        jettyResponse.write(false, BufferUtil.EMPTY_BUFFER,
+                Callback.from(stream::deliverOpen, failure -> stream.disconnected()));
+    }
+
+    @Override
+    protected void write(ByteBuffer data, CompletableFuture<Void> done) {
+        jettyResponse.write(false, data, Callback.from(() -> done.complete(null), done::completeExceptionally));
+    }
+
+    @Override
+    protected void finish() {
+        open.remove(this);
+        jettyResponse.write(true, BufferUtil.EMPTY_BUFFER, callback);
+    }
+
+    @Override
+    protected void abort() {
+        open.remove(this);
+        callback.failed(new ClosedChannelException());
+    }
+}
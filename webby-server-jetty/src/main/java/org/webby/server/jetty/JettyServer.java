@@ -4,10 +4,16 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.net.ssl.SSLContext;
+import org.eclipse.jetty.io.Connection;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.io.ssl.SslConnection;
 import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.HttpConfiguration;
@@ -18,9 +24,12 @@ import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.websocket.core.WebSocketComponents;
+import org.eclipse.jetty.websocket.core.server.Handshaker;
 import org.webby.core.*;
 import org.eclipse.jetty.http.HttpField;
 import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.PreEncodedHttpField;
 
 /**
  * Alternative server implementation backed by Jetty that still operates on Webby's {@link org.webby.core.Request} and
@@ -29,10 +38,18 @@ import org.eclipse.jetty.http.HttpFields;
 public final class JettyServer implements AbstractServer {
     private final int port;
     private RequestHandler requestHandler;
-    private MiddlewareNode middlewareChain;
+    private final List<RequestMiddleware> middlewares = new ArrayList<>();
     private volatile Server jetty;
     private volatile ServerConnector connector;
     private SSLContext sslContext;
+    private LifecycleListener lifecycleListener;
+    private BodyLimits bodyLimits = BodyLimits.DEFAULT;
+    private WebSocketOptions webSocketOptions = WebSocketOptions.DEFAULT;
+    private final Set<JettyWebSocket> webSockets = ConcurrentHashMap.newKeySet();
+    private EventStreamOptions eventStreamOptions = EventStreamOptions.DEFAULT;
+    private final Set<JettyEventStream> eventStreams = ConcurrentHashMap.newKeySet();
+    private final ConnectionMetrics connectionMetrics = new ConnectionMetrics();
+    private final Map<EndPoint, ConnectionMetrics.Connection> connections = new ConcurrentHashMap<>();
 
     /**
      * Creates a Jetty-backed server bound to the given port.
@@ -67,7 +84,7 @@ public final class JettyServer implements AbstractServer {
     public void addMiddleware(RequestMiddleware middleware) {
         throwIfRunning();
         Objects.requireNonNull(middleware, "middleware");
-        middlewareChain = MiddlewareNode.append(middlewareChain, middleware);
+        middlewares.add(middleware);
     }
 
     /**
@@ -80,6 +97,60 @@ public final class JettyServer implements AbstractServer {
         this.sslContext = Objects.requireNonNull(sslContext, "sslContext");
     }
 
+    /**
+     * Installs a listener for connection events and request phase timestamps. Jetty parses the headers before it
+     * dispatches a request to a handler thread, so requests report no separate queueing phase; the wait for a thread
+     * is included in the body phase.
+     *
+     * @param listener lifecycle listener, or {@code null} to take no timestamps
+     */
+    public void setLifecycleListener(LifecycleListener listener) {
+        throwIfRunning();
+        this.lifecycleListener = listener;
+    }
+
+    /**
+     * Sets the limits applied while reading request bodies. A request whose {@code Content-Length} exceeds the limit
+     * is answered with {@code 413} without reading its body; a chunked body is rejected once it grows past it.
+     *
+     * @param limits body limits
+     */
+    public void setBodyLimits(BodyLimits limits) {
+        throwIfRunning();
+        this.bodyLimits = Objects.requireNonNull(limits, "limits");
+    }
+
+    /**
+     * Sets the options applied to WebSocket connections, which run on Jetty's WebSocket core.
+     *
+     * @param options WebSocket options
+     */
+    public void setWebSocketOptions(WebSocketOptions options) {
+        throwIfRunning();
+        this.webSocketOptions = Objects.requireNonNull(options, "options");
+    }
+
+    /**
+     * Sets the options applied to event streams.
+     *
+     * @param options event stream options
+     */
+    public void setEventStreamOptions(EventStreamOptions options) {
+        throwIfRunning();
+        this.eventStreamOptions = Objects.requireNonNull(options, "options");
+    }
+
+    /**
+     * Returns the connection metrics. Jetty reads request heads on its selector threads, so connections are never
+     * {@link ConnectionMetrics.State#QUEUED} and count as {@link ConnectionMetrics.State#IDLE} until a handler thread
+     * starts reading the body; WebSocket connections and event streams count as idle as well.
+     *
+     * @return connection metrics
+     */
+    public ConnectionMetrics connectionMetrics() {
+        return connectionMetrics;
+    }
+
     /**
      * Starts Jetty and blocks until {@link #stop()} is invoked.
      *
@@ -90,11 +161,19 @@ public final class JettyServer implements AbstractServer {
         if (handler == null) {
             throw new IllegalStateException("Request handler must be configured before starting");
         }
-        RequestHandler finalHandler = middlewareChain == null ? handler : middlewareChain.wrap(handler);
+        RequestHandler finalHandler = MiddlewareChain.compile(middlewares, handler);
         Server server = new Server();
         ServerConnector serverConnector = createConnector(server);
+        LifecycleListener listener = lifecycleListener;
+        if (listener != null) {
+            serverConnector.addEventListener(new ConnectionEvents(listener));
+        }
         server.setConnectors(new Connector[]{serverConnector});
-        server.setHandler(new JettyHandler(finalHandler));
+        WebSocketComponents components = new WebSocketComponents();
+        server.addBean(components);
+        server.setHandler(new JettyHandler(finalHandler, handler, bodyLimits, listener, connections,
+                new WebSockets(webSocketOptions, components, webSockets),
+                new EventStreams(eventStreamOptions, eventStreams)));
         this.jetty = server;
         this.connector = serverConnector;
         server.start();
@@ -111,9 +190,9 @@ public final class JettyServer implements AbstractServer {
         if (sslContext != null) {
             SslContextFactory.Server sslFactory = new SslContextFactory.Server();
             sslFactory.setSslContext(sslContext);
-            serverConnector = new ServerConnector(server, sslFactory, new HttpConnectionFactory(configuration));
+            serverConnector = new CountingConnector(server, true, sslFactory, new HttpConnectionFactory(configuration));
         } else {
-            serverConnector = new ServerConnector(server, new HttpConnectionFactory(configuration));
+            serverConnector = new CountingConnector(server, false, null, new HttpConnectionFactory(configuration));
         }
         serverConnector.setPort(port);
         return serverConnector;
@@ -127,6 +206,12 @@ public final class JettyServer implements AbstractServer {
         if (activeServer == null) {
             return;
         }
+        for (JettyWebSocket webSocket : webSockets) {
+            webSocket.close(WebSocketSession.GOING_AWAY, "Server shutting down");
+        }
+        for (JettyEventStream eventStream : eventStreams) {
+            eventStream.close();
+        }
         try {
             activeServer.stop();
         } catch (Exception e) {
@@ -169,82 +254,143 @@ public final class JettyServer implements AbstractServer {
         return localPort <= 0 ? port : localPort;
     }
 
-    private static final class MiddlewareNode {
-        private final RequestMiddleware middleware;
-        private final MiddlewareNode next;
+    /**
+     * Exposes Jetty's immutable request fields to Webby without copying them into a map.
+     */
+    private static final class JettyHeaders extends HeaderView {
+        private final HttpFields fields;
 
-        private MiddlewareNode(RequestMiddleware middleware, MiddlewareNode next) {
-            this.middleware = middleware;
-            this.next = next;
+        JettyHeaders(HttpFields fields) {
+            this.fields = fields;
         }
 
-        static MiddlewareNode append(MiddlewareNode chain, RequestMiddleware middleware) {
-            if (chain == null) {
-                return new MiddlewareNode(middleware, null);
-            }
-            return new MiddlewareNode(chain.middleware, append(chain.next, middleware));
+        @Override
+        protected String lookup(String name) {
+            return fields.get(name);
         }
 
-        RequestHandler wrap(RequestHandler terminal) {
-            RequestHandler nextHandler = next == null ? terminal : next.wrap(terminal);
-            return request -> middleware.handle(request, nextHandler);
+        @Override
+        protected void copyTo(Map<String, String> target) {
+            for (HttpField field : fields) {
+                target.put(field.getName(), field.getValue());
+            }
         }
     }
 
     private static final class JettyHandler extends Handler.Abstract {
+        private static final org.webby.core.Response NO_CONTENT =
+                org.webby.core.Response.text(HttpStatus.NO_CONTENT, "").prepare();
+        private static final org.webby.core.Response INTERNAL_ERROR =
+                org.webby.core.Response.text(HttpStatus.INTERNAL_SERVER_ERROR, "Internal Server Error").prepare();
+        private static final org.webby.core.Response METHOD_NOT_ALLOWED =
+                org.webby.core.Response.text(HttpStatus.METHOD_NOT_ALLOWED, "Method Not Allowed").prepare();
+        private static final org.webby.core.Response PAYLOAD_TOO_LARGE =
+                org.webby.core.Response.text(HttpStatus.PAYLOAD_TOO_LARGE, "Payload Too Large").prepare();
+        private static final org.webby.core.Response BAD_REQUEST =
+                org.webby.core.Response.text(HttpStatus.BAD_REQUEST, "Bad Request").prepare();
+
         private final RequestHandler handler;
+        private final RequestHandler routes;
+        private final BodyLimits limits;
+        private final LifecycleListener listener;
+        private final Map<EndPoint, ConnectionMetrics.Connection> connections;
+        private final WebSockets webSockets;
+        private final EventStreams eventStreams;
 
-        JettyHandler(RequestHandler handler) {
+        JettyHandler(RequestHandler handler, RequestHandler routes, BodyLimits limits, LifecycleListener listener,
+                Map<EndPoint, ConnectionMetrics.Connection> connections, WebSockets webSockets,
+                EventStreams eventStreams) {
             this.handler = handler;
+            this.routes = routes;
+            this.limits = limits;
+            this.listener = listener;
+            this.connections = connections;
+            this.webSockets = webSockets;
+            this.eventStreams = eventStreams;
         }
 
         @Override
         public boolean handle(Request jettyRequest, Response jettyResponse, Callback callback) throws Exception {
+            org.webby.core.Request webbyRequest = null;
             org.webby.core.Response serverResponse;
+            long bodyRead = 0;
+            BodyBuffer body = null;
+            ConnectionMetrics.Connection connection = connections.get(networkEndPoint(jettyRequest));
+            enter(connection, ConnectionMetrics.State.READING);
             try {
-                serverResponse = invokeHandler(jettyRequest);
+                HttpMethod method = HttpMethod.fromToken(jettyRequest.getMethod());
+                if (method == null) {
+                    serverResponse = METHOD_NOT_ALLOWED;
+                } else {
+                    String rawTarget = jettyRequest.getHttpURI().getPathQuery();
+                    long contentLength = jettyRequest.getLength();
+                    body = new BodyBuffer(limits, limits.maxBytesFor(routes, method, rawTarget), contentLength);
+                    try (InputStream input = Request.asInputStream(jettyRequest)) {
+                        body.transferFrom(input, contentLength);
+                    }
+                    webbyRequest = body.toRequest(method, rawTarget, "HTTP/1.1",
+                            new JettyHeaders(jettyRequest.getHeaders()),
+                            jettyRequest.getConnectionMetaData().getRemoteSocketAddress());
+                    if (listener != null) {
+                        bodyRead = System.nanoTime();
+                    }
+                    enter(connection, ConnectionMetrics.State.HANDLING);
+                    serverResponse = Objects.requireNonNullElse(handler.handle(webbyRequest), NO_CONTENT);
+                }
+            } catch (PayloadTooLargeException e) {
+                serverResponse = PAYLOAD_TOO_LARGE;
             } catch (Exception e) {
-                serverResponse = org.webby.core.Response.text(
-                        HttpStatus.INTERNAL_SERVER_ERROR, "Internal Server Error");
+                serverResponse = INTERNAL_ERROR;
+            }
+            boolean upgrade = serverResponse.webSocketHandler() != null;
+            if (upgrade && !webSockets.handshaker().isWebSocketUpgradeRequest(jettyRequest)) {
+                upgrade = false;
+                serverResponse = BAD_REQUEST;
+            }
+            Callback completion = connection == null ? callback : new IdleCallback(callback, connection);
+            if (listener != null) {
+                completion = new TimedCallback(completion, listener, jettyRequest, webbyRequest,
+                        serverResponse.statusCode(), bodyRead, System.nanoTime());
             }
             try {
-                writeResponse(jettyResponse, serverResponse, callback);
+                if (serverResponse.eventStreamHandler() != null && webbyRequest.method() != HttpMethod.HEAD) {
+                    enter(connection, ConnectionMetrics.State.IDLE);
+                    JettyEventStream.open(jettyRequest, jettyResponse, completion, webbyRequest, serverResponse,
+                            eventStreams.options(), eventStreams.open());
+                    return true;
+                }
+                boolean upgraded = upgrade
+                        && webSockets.upgrade(jettyRequest, jettyResponse, completion, webbyRequest, serverResponse);
+                enter(connection, upgraded ? ConnectionMetrics.State.IDLE : ConnectionMetrics.State.WRITING);
+                if (!upgraded) {
+                    writeResponse(jettyResponse, upgrade ? BAD_REQUEST : serverResponse, completion);
+                }
             } catch (Exception failure) {
-                callback.failed(failure);
-                throw failure;
+                // Failing the callback completes the request; rethrowing would make Jetty complete it a second time.
+                completion.failed(failure);
+            } finally {
+                // The response never refers to the request body, so a spilled body can go once writing has begun.
+                if (body != null) {
+                    body.close();
+                }
             }
             return true;
         }
 
-        private org.webby.core.Response invokeHandler(Request request) throws IOException {
-            HttpMethod method = HttpMethod.fromToken(request.getMethod());
-            if (method == null) {
-                return org.webby.core.Response.text(HttpStatus.METHOD_NOT_ALLOWED, "Method Not Allowed");
+        private static void enter(ConnectionMetrics.Connection connection, ConnectionMetrics.State state) {
+            if (connection != null) {
+                connection.enter(state);
             }
-            org.webby.core.Request webbyRequest = adaptRequest(request, method);
-            org.webby.core.Response result = handler.handle(webbyRequest);
-            return Objects.requireNonNullElseGet(result, () -> org.webby.core.Response.text(HttpStatus.NO_CONTENT, ""));
         }
 
-        private static org.webby.core.Request adaptRequest(Request request, HttpMethod method) throws IOException {
-            String rawTarget = request.getHttpURI().getPathQuery();
-            Map<String, String> headers = extractHeaders(request.getHeaders());
-            byte[] body = readBody(request);
-            return new org.webby.core.Request(method, rawTarget, "HTTP/1.1", headers, body);
-        }
-
-        private static Map<String, String> extractHeaders(HttpFields fields) {
-            Map<String, String> headers = new LinkedHashMap<>();
-            for (HttpField field : fields) {
-                headers.put(field.getName(), field.getValue());
-            }
-            return headers;
-        }
-
-        private static byte[] readBody(Request request) throws IOException {
-            try (InputStream input = Request.asInputStream(request)) {
-                return input.readAllBytes();
-            }
+        /**
+         * Returns the endpoint of the socket a request arrived on; with TLS, requests see the decrypted endpoint.
+         */
+        private static EndPoint networkEndPoint(Request jettyRequest) {
+            EndPoint endPoint = jettyRequest.getConnectionMetaData().getConnection().getEndPoint();
+            return endPoint instanceof SslConnection.SslEndPoint decrypted
+                    ? decrypted.getSslConnection().getEndPoint()
+                    : endPoint;
         }
 
         private static void writeResponse(
@@ -252,15 +398,184 @@ public final class JettyServer implements AbstractServer {
                 org.webby.core.Response payload,
                 Callback callback) {
             jettyResponse.setStatus(payload.statusCode());
+            if (payload.encoded() == null && payload.bodyRegion() != null) {
+                // Preparing a file-backed response only encodes its head; Jetty then writes the mapped body.
+                payload = payload.prepare();
+            }
+            EncodedResponse encoded = payload.encoded();
+            if (encoded != null) {
+                PreparedFields prepared = encoded.engineForm(PreparedFields.class, JettyHandler::encode);
+                jettyResponse.getHeaders().add(prepared.fields());
+                jettyResponse.write(true, prepared.body().slice(), callback);
+                return;
+            }
             HttpFields.Mutable headers = jettyResponse.getHeaders();
             payload.headers().forEach(headers::put);
-            if (!payload.headers().containsKey("Content-Type")) {
-                headers.put("Content-Type", "text/plain; charset=UTF-8");
-            }
             byte[] body = payload.body();
-            headers.put("Content-Length", Integer.toString(body.length));
+            if (EncodedResponse.hasContent(payload.statusCode())) {
+                if (!payload.headers().containsKey("Content-Type")) {
+                    headers.put("Content-Type", "text/plain; charset=UTF-8");
+                }
+                headers.put("Content-Length", Integer.toString(body.length));
+            }
             ByteBuffer buffer = ByteBuffer.wrap(body);
             jettyResponse.write(true, buffer, callback);
         }
+
+        private static PreparedFields encode(EncodedResponse encoded) {
+            HttpFields.Mutable fields = HttpFields.build();
+            encoded.headers().forEach((name, value) -> fields.add(new PreEncodedHttpField(name, value)));
+            return new PreparedFields(fields.asImmutable(), encoded.body());
+        }
+    }
+
+    /**
+     * What the handler needs to accept WebSocket upgrades: the options, Jetty's handshaker and WebSocket components,
+     * and the set of open sessions, which are closed when the server stops.
+     */
+    private record WebSockets(WebSocketOptions options, WebSocketComponents components, Set<JettyWebSocket> open) {
+        private static final Handshaker HANDSHAKER = Handshaker.newInstance();
+
+        Handshaker handshaker() {
+            return HANDSHAKER;
+        }
+
+        /**
+         * Hands the connection to the response's WebSocket handler.
+         *
+         * @return {@code false} if Jetty declined the upgrade and nothing has been written
+         */
+        boolean upgrade(Request jettyRequest, Response jettyResponse, Callback callback,
+                org.webby.core.Request request, org.webby.core.Response response) throws IOException {
+            return HANDSHAKER.upgradeRequest(JettyWebSocket.negotiator(request, response, options, open),
+                    jettyRequest, jettyResponse, callback, components, null);
+        }
+    }
+
+    /**
+     * Options and open streams of the server's event streams, which are closed when the server stops.
+     */
+    private record EventStreams(EventStreamOptions options, Set<JettyEventStream> open) {
+    }
+
+    /**
+     * Connector that registers every accepted socket with the connection metrics. The endpoint hooks run once per
+     * socket, unlike connection listeners, which also fire for the TLS layer and for upgrades.
+     */
+    private final class CountingConnector extends ServerConnector {
+        private final boolean tls;
+
+        CountingConnector(Server server, boolean tls, SslContextFactory.Server sslFactory,
+                HttpConnectionFactory httpFactory) {
+            super(server, sslFactory, httpFactory);
+            this.tls = tls;
+        }
+
+        @Override
+        protected void onEndPointOpened(EndPoint endPoint) {
+            super.onEndPointOpened(endPoint);
+            connections.put(endPoint, connectionMetrics.open(ConnectionMetrics.State.IDLE, tls));
+        }
+
+        @Override
+        protected void onEndPointClosed(EndPoint endPoint) {
+            ConnectionMetrics.Connection connection = connections.remove(endPoint);
+            if (connection != null) {
+                connection.close();
+            }
+            super.onEndPointClosed(endPoint);
+        }
+    }
+
+    /**
+     * Marks the connection idle once the response has been written, so it can wait for the next request.
+     */
+    private static final class IdleCallback extends Callback.Nested {
+        private final ConnectionMetrics.Connection connection;
+
+        IdleCallback(Callback callback, ConnectionMetrics.Connection connection) {
+            super(callback);
+            this.connection = connection;
+        }
+
+        @Override
+        public void succeeded() {
+            connection.enter(ConnectionMetrics.State.IDLE);
+            super.succeeded();
+        }
+
+        @Override
+        public void failed(Throwable failure) {
+            connection.enter(ConnectionMetrics.State.IDLE);
+            super.failed(failure);
+        }
+    }
+
+    /**
+     * Reports a request's phase timestamps once Jetty has written its response.
+     */
+    private static final class TimedCallback extends Callback.Nested {
+        private final LifecycleListener listener;
+        private final Request jettyRequest;
+        private final org.webby.core.Request request;
+        private final int status;
+        private final long bodyRead;
+        private final long handled;
+
+        TimedCallback(
+                Callback callback,
+                LifecycleListener listener,
+                Request jettyRequest,
+                org.webby.core.Request request,
+                int status,
+                long bodyRead,
+                long handled) {
+            super(callback);
+            this.listener = listener;
+            this.jettyRequest = jettyRequest;
+            this.request = request;
+            this.status = status;
+            this.bodyRead = bodyRead;
+            this.handled = handled;
+        }
+
+        @Override
+        public void succeeded() {
+            long written = System.nanoTime();
+            long received = jettyRequest.getBeginNanoTime();
+            long headersParsed = jettyRequest.getHeadersNanoTime();
+            listener.requestCompleted(new RequestTimings(
+                    request == null ? null : request.method(),
+                    request == null ? null : request.route(),
+                    status,
+                    received,
+                    received,
+                    headersParsed,
+                    bodyRead == 0 ? handled : bodyRead,
+                    handled,
+                    written));
+            super.succeeded();
+        }
+    }
+
+    /**
+     * Forwards the connector's connection events to the lifecycle listener.
+     */
+    private record ConnectionEvents(LifecycleListener listener) implements Connection.Listener {
+        @Override
+        public void onOpened(Connection connection) {
+            listener.connectionOpened(connection.getEndPoint().getRemoteSocketAddress(), System.nanoTime());
+        }
+
+        @Override
+        public void onClosed(Connection connection) {
+            listener.connectionClosed(connection.getEndPoint().getRemoteSocketAddress(), System.nanoTime());
+        }
+    }
+
+    /**
+     * Jetty form of a prepared response: pre-encoded header fields plus a read-only body buffer.
+     */
+    private record PreparedFields(HttpFields fields, ByteBuffer body) {
     }
 }
@@ -0,0 +1,202 @@
+package org.webby.server.jetty;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.websocket.core.CloseStatus;
+import org.eclipse.jetty.websocket.core.CoreSession;
+import org.eclipse.jetty.websocket.core.ExtensionConfig;
+import org.eclipse.jetty.websocket.core.Frame;
+import org.eclipse.jetty.websocket.core.FrameHandler;
+import org.eclipse.jetty.websocket.core.OpCode;
+import org.eclipse.jetty.websocket.core.server.ServerUpgradeRequest;
+import org.eclipse.jetty.websocket.core.server.ServerUpgradeResponse;
+import org.eclipse.jetty.websocket.core.server.WebSocketNegotiator;
+import org.webby.core.AbstractWebSocketSession;
+import org.webby.core.Request;
+import org.webby.core.Response;
+import org.webby.core.WebSocketOptions;
+
+/**
+ * WebSocket connection of the {@link JettyServer}, running on Jetty's WebSocket core.
+ *
+ * <p>Jetty performs the handshake and, when {@link WebSocketOptions#compression()} allows it, the
+ * {@code permessage-deflate} extension; this class reassembles fragmented messages and delivers them. It demands
+ * frames itself, one at a time once the handler has returned, so the handler's pace throttles the connection.
+ */
+final class JettyWebSocket extends AbstractWebSocketSession {
+    private static final String DEFLATE = "permessage-deflate";
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final int maxMessageBytes;
+    private final Set<JettyWebSocket> open;
+    private volatile CoreSession coreSession;
+
+    private JettyWebSocket(Request request, Response response, WebSocketOptions options, Set<JettyWebSocket> open) {
+        super(request, response.webSocketHandler(), options);
+        this.maxMessageBytes = options.maxMessageBytes();
+        this.open = open;
+    }
+
+    /**
+     * Creates the negotiator that accepts an upgrade request on behalf of a Webby handler.
+     *
+     * @param request Webby's view of the upgrade request
+     * @param response the handler's {@linkplain Response#webSocket(org.webby.core.WebSocketHandler) upgrade response}
+     * @param open sessions of the server, which the new session joins until it closes
+     * @return negotiator for Jetty's handshaker
+     */
+    static WebSocketNegotiator negotiator(
+            Request request, Response response, WebSocketOptions options, Set<JettyWebSocket> open) {
+        WebSocketNegotiator.AbstractNegotiator negotiator = new WebSocketNegotiator.AbstractNegotiator() {
+            @Override
+            public FrameHandler negotiate(
+                    ServerUpgradeRequest upgradeRequest, ServerUpgradeResponse upgradeResponse, Callback callback) {
+                List<ExtensionConfig> accepted = options.compression()
+                        ? upgradeRequest.getExtensions().stream()
+                                .filter(offer -> DEFLATE.equalsIgnoreCase(offer.getName()))
+                                .limit(1)
+                                .toList()
+                        : List.of();
+                upgradeResponse.setExtensions(accepted);
+                response.headers().forEach(upgradeResponse.getHeaders()::put);
+                return new JettyWebSocket(request, response, options, open).new Frames();
+            }
+        };
+        negotiator.setMaxFrameSize(options.maxMessageBytes());
+        negotiator.setMaxTextMessageSize(options.maxMessageBytes());
+        negotiator.setMaxBinaryMessageSize(options.maxMessageBytes());
+        return negotiator;
+    }
+
+    @Override
+    protected void write(boolean text, ByteBuffer payload, CompletableFuture<Void> done) {
+        Frame frame = new Frame(text ? OpCode.TEXT : OpCode.BINARY, payload);
+        coreSession.sendFrame(frame, Callback.from(() -> done.complete(null), done::completeExceptionally), false);
+    }
+
+    @Override
+    protected void writeClose(int code, String reason, CompletableFuture<Void> done) {
+        coreSession.close(code, reason, Callback.from(() -> done.complete(null), done::completeExceptionally));
+    }
+
+    /**
+     * Receives the connection's frames from Jetty.
+     */
+    private final class Frames implements FrameHandler {
+        private byte type = -1;
+        private ByteArrayOutputStream fragments;
+
+        @Override
+        public void onOpen(CoreSession session, Callback callback) {
+            coreSession = session;
+            open.add(JettyWebSocket.this);
+            callback.succeeded();
+            deliverOpen();
+            session.demand();
+        }
+
+        @Override
+        public void onFrame(Frame frame, Callback callback) {
+            byte opcode = frame.getOpCode();
+            ByteBuffer payload = frame.hasPayload() ? frame.getPayload() : EMPTY;
+            try {
+                switch (opcode) {
+                    case OpCode.PING -> coreSession.sendFrame(
+                            new Frame(OpCode.PONG, copy(payload)), Callback.NOOP, false);
+                    case OpCode.TEXT, OpCode.BINARY -> {
+                        type = opcode;
+                        if (!frame.isFin()) {
+                            fragments = new ByteArrayOutputStream();
+                            append(payload);
+                        } else if (opcode == OpCode.TEXT) {
+                            deliverText(decode(payload));
+                        } else {
+                            // The payload is only valid until the callback completes, which is after delivery.
+                            deliverBinary(payload);
+                        }
+                    }
+                    case OpCode.CONTINUATION -> {
+                        if (fragments == null) {
+                            // The message was refused already; drop the rest of it.
+                            break;
+                        }
+                        append(payload);
+                        if (frame.isFin()) {
+                            ByteBuffer message = ByteBuffer.wrap(fragments.toByteArray());
+                            fragments = null;
+                            if (type == OpCode.TEXT) {
+                                deliverText(decode(message));
+                            } else {
+                                deliverBinary(message);
+                            }
+                        }
+                    }
+                    default -> {
+                        // Jetty answers close frames itself and reports them through onClosed.
+                    }
+                }
+            } catch (CharacterCodingException e) {
+                fragments = null;
+                close(INVALID_PAYLOAD, "text message is not valid UTF-8");
+            } catch (MessageTooBigException e) {
+                fragments = null;
+                close(MESSAGE_TOO_BIG, "message too big");
+            }
+            callback.succeeded();
+            if (opcode != OpCode.CLOSE) {
+                coreSession.demand();
+            }
+        }
+
+        @Override
+        public void onError(Throwable cause, Callback callback) {
+            deliverError(cause);
+            callback.succeeded();
+        }
+
+        @Override
+        public void onClosed(CloseStatus closeStatus, Callback callback) {
+            if (open.remove(JettyWebSocket.this)) {
+                deliverClose(closeStatus.getCode(), closeStatus.getReason());
+            }
+            callback.succeeded();
+        }
+
+        private void append(ByteBuffer payload) throws MessageTooBigException {
+            if (fragments.size() + payload.remaining() > maxMessageBytes) {
+                throw new MessageTooBigException();
+            }
+            byte[] bytes = new byte[payload.remaining()];
+            payload.slice().get(bytes);
+            fragments.writeBytes(bytes);
+        }
+
+        private String decode(ByteBuffer payload) throws CharacterCodingException {
+            return StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(payload.slice())
+                    .toString();
+        }
+
+        private ByteBuffer copy(ByteBuffer payload) {
+            ByteBuffer copy = ByteBuffer.allocate(payload.remaining());
+            copy.put(payload.slice()).flip();
+            return copy;
+        }
+    }
+
+    /**
+     * A fragmented message grew past {@link WebSocketOptions#maxMessageBytes()}.
+     */
+    private static final class MessageTooBigException extends Exception {
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,87 @@
+package org.webby.server.netty;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import org.webby.core.AbstractEventStream;
+import org.webby.core.EventStreamHandler;
+import org.webby.core.EventStreamOptions;
+import org.webby.core.Request;
+import org.webby.core.Response;
+
+/**
+ * Event stream of the {@link NettyServer}.
+ *
+ * <p>Like every response of the server, the body is delimited by closing the connection. Events are written as
+ * {@link DefaultHttpContent}s wrapping the shared encoded bytes, and the channel's close future reports a client that
+ * hung up.
+ */
+final class NettyEventStream extends AbstractEventStream {
+    private final Channel channel;
+
+    private NettyEventStream(Channel channel, Request request, EventStreamHandler handler, EventStreamOptions options) {
+        super(request, handler, options);
+        this.channel = channel;
+    }
+
+    /**
+     * Writes the head of an event stream response and opens the stream.
+     *
+     * @param ctx context of the request handler
+     * @param request request that returned the response
+     * @param response the handler's {@linkplain Response#eventStream(EventStreamHandler) event stream response}
+     * @param open streams of the server, which the new stream joins until its channel closes
+     * @return future of the response head
+     */
+    static ChannelFuture open(ChannelHandlerContext ctx, Request request, Response response, EventStreamOptions options,
+            Set<NettyEventStream> open) {
+        HttpResponse head = new DefaultHttpResponse(
+                HttpVersion.HTTP_1_1, HttpResponseStatus.valueOf(response.statusCode()));
+        response.headers().forEach(head.headers()::set);
+        head.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+        NettyEventStream stream =
+                new NettyEventStream(ctx.channel(), request, response.eventStreamHandler(), options);
+        ChannelFuture written = ctx.writeAndFlush(head);
+        open.add(stream);
+        ctx.channel().closeFuture().addListener(future -> {
+            open.remove(stream);
+            stream.disconnected();
+        });
+        stream.deliverOpen();
+        return written;
+    }
+
+    @Override
+    protected void write(ByteBuffer data, CompletableFuture<Void> done) {
+        channel.writeAndFlush(new DefaultHttpContent(Unpooled.wrappedBuffer(data))).addListener(future -> {
+            if (future.isSuccess()) {
+                done.complete(null);
+            } else {
+                done.completeExceptionally(future.cause());
+            }
+        });
+    }
+
+    @Override
+    protected void finish() {
+        channel.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT).addListener(ChannelFutureListener.CLOSE);
+    }
+
+    @Override
+    protected void abort() {
+        channel.close();
+    }
+}
@@ -1,30 +1,45 @@
 package org.webby.server.netty;
 
 import io.netty.bootstrap.ServerBootstrap;
-import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.epoll.EpollIoHandler;
+import io.netty.channel.epoll.EpollServerDomainSocketChannel;
 import io.netty.channel.nio.NioIoHandler;
-import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
-import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpHeaderValues;
-import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpUtil;
 import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http.websocketx.extensions.compression.WebSocketServerCompressionHandler;
 import io.netty.handler.ssl.*;
 import io.netty.handler.ssl.util.SelfSignedCertificate;
 import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
 
 import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.net.ssl.SSLContext;
 
 import io.netty.util.concurrent.ThreadAwareExecutor;
@@ -34,13 +49,25 @@ import org.webby.core.*;
  * Netty-based server that speaks the same {@link org.webby.core.Request}/ {@link Response} protocol as {@code webby-core}.
  */
 public final class NettyServer implements AbstractServer {
+    static final String BODY_HANDLER = "webby-body";
+    static final String REQUEST_HANDLER = "webby-request";
+    static final String WEBSOCKET_HANDLER = "webby-websocket";
+
     private final int port;
+    private final UnixDomainSocketAddress unixAddress;
     private RequestHandler requestHandler;
-    private MiddlewareNode middlewareChain;
+    private final List<RequestMiddleware> middlewares = new ArrayList<>();
     private EventLoopGroup bossGroup;
     private EventLoopGroup workerGroup;
     private Channel serverChannel;
     private SslContext sslContext;
+    private LifecycleListener lifecycleListener;
+    private BodyLimits bodyLimits = BodyLimits.DEFAULT;
+    private WebSocketOptions webSocketOptions = WebSocketOptions.DEFAULT;
+    private final Set<NettyWebSocket> webSockets = ConcurrentHashMap.newKeySet();
+    private EventStreamOptions eventStreamOptions = EventStreamOptions.DEFAULT;
+    private final Set<NettyEventStream> eventStreams = ConcurrentHashMap.newKeySet();
+    private final ConnectionMetrics connectionMetrics = new ConnectionMetrics();
 
     /**
      * Creates a new Netty server bound to the supplied port.
@@ -49,6 +76,19 @@ public final class NettyServer implements AbstractServer {
      */
     public NettyServer(int port) {
         this.port = port;
+        this.unixAddress = null;
+    }
+
+    /**
+     * Creates a Netty server that listens on a Unix domain socket, for clients on the same host such as a local proxy.
+     * Domain sockets use Netty's native epoll transport and therefore require Linux. The socket file is created when
+     * the server starts and deleted when it stops.
+     *
+     * @param address path of the socket file
+     */
+    public NettyServer(UnixDomainSocketAddress address) {
+        this.port = -1;
+        this.unixAddress = Objects.requireNonNull(address, "address");
     }
 
     /**
@@ -65,7 +105,7 @@ public final class NettyServer implements AbstractServer {
     public void addMiddleware(RequestMiddleware middleware) {
         throwIfRunning();
         Objects.requireNonNull(middleware, "middleware");
-        middlewareChain = MiddlewareNode.append(middlewareChain, middleware);
+        middlewares.add(middleware);
     }
 
     /**
@@ -78,6 +118,50 @@ public final class NettyServer implements AbstractServer {
                 null, ClientAuth.NONE, null, false);
     }
 
+    /**
+     * Installs a listener for connection events and request phase timestamps. Netty reads and decodes on the same
+     * event loop, so requests report no accept queueing.
+     */
+    public void setLifecycleListener(LifecycleListener listener) {
+        throwIfRunning();
+        this.lifecycleListener = listener;
+    }
+
+    /**
+     * Sets the limits applied while reading request bodies. A request whose {@code Content-Length} exceeds the limit
+     * is answered with {@code 413} without reading its body; a chunked body is rejected once it grows past it.
+     */
+    public void setBodyLimits(BodyLimits limits) {
+        throwIfRunning();
+        this.bodyLimits = Objects.requireNonNull(limits, "limits");
+    }
+
+    /**
+     * Sets the options applied to WebSocket connections. With compression enabled every channel carries Netty's
+     * {@code permessage-deflate} extension handler, which only acts on upgrade requests.
+     */
+    public void setWebSocketOptions(WebSocketOptions options) {
+        throwIfRunning();
+        this.webSocketOptions = Objects.requireNonNull(options, "options");
+    }
+
+    /**
+     * Sets the options applied to event streams.
+     */
+    public void setEventStreamOptions(EventStreamOptions options) {
+        throwIfRunning();
+        this.eventStreamOptions = Objects.requireNonNull(options, "options");
+    }
+
+    /**
+     * Returns the connection metrics. Netty reads on the event loop that accepted the connection, so connections are
+     * never {@link ConnectionMetrics.State#QUEUED}; they are idle until their first bytes arrive, and WebSocket
+     * connections and event streams count as {@link ConnectionMetrics.State#IDLE}.
+     */
+    public ConnectionMetrics connectionMetrics() {
+        return connectionMetrics;
+    }
+
     /**
      * Starts the Netty event loop and blocks until {@link #stop()} is invoked.
      */
@@ -86,26 +170,54 @@ public final class NettyServer implements AbstractServer {
         if (handler == null) {
             throw new IllegalStateException("Request handler must be configured before starting");
         }
-        RequestHandler finalHandler = middlewareChain == null ? handler : middlewareChain.wrap(handler);
-        bossGroup = new NioEventLoopGroup(1);
-        workerGroup = new NioEventLoopGroup();
+        RequestHandler finalHandler = MiddlewareChain.compile(middlewares, handler);
+        LifecycleListener listener = lifecycleListener;
+        BodyLimits limits = bodyLimits;
+        WebSocketOptions options = webSocketOptions;
+        EventStreamOptions streamOptions = eventStreamOptions;
+        ConnectionMetrics metrics = connectionMetrics;
+        boolean unix = unixAddress != null;
+        IoHandlerFactory ioHandlers = unix ? EpollIoHandler.newFactory() : NioIoHandler.newFactory();
+        bossGroup = new MultiThreadIoEventLoopGroup(1, ioHandlers);
+        workerGroup = new MultiThreadIoEventLoopGroup(ioHandlers);
         try {
             ServerBootstrap bootstrap = new ServerBootstrap()
                     .group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)
-                    .childOption(ChannelOption.SO_KEEPALIVE, true)
-                    .childHandler(new ChannelInitializer<SocketChannel>() {
+                    .channel(unix ? EpollServerDomainSocketChannel.class : NioServerSocketChannel.class)
+                    .childHandler(new ChannelInitializer<Channel>() {
                         @Override
-                        protected void initChannel(SocketChannel ch) {
+                        protected void initChannel(Channel ch) {
+                            ConnectionMetrics.Connection connection =
+                                    metrics.open(ConnectionMetrics.State.IDLE, sslContext != null);
+                            ch.closeFuture().addListener(future -> connection.close());
+                            ch.pipeline().addLast(new FirstReadHandler(connection));
                             if (sslContext != null) {
                                 ch.pipeline().addLast(sslContext.newHandler(ch.alloc()));
                             }
+                            LifecycleTimeline timeline = listener == null ? null : new LifecycleTimeline(listener);
+                            if (timeline != null) {
+                                ch.pipeline().addLast(timeline.connectionHandler());
+                            }
                             ch.pipeline().addLast(new HttpServerCodec());
-                            ch.pipeline().addLast(new HttpObjectAggregator(1_048_576));
-                            ch.pipeline().addLast(new NettyRequestHandler(finalHandler));
+                            if (options.compression()) {
+                                // Inflated messages are bounded like aggregated ones.
+                                ch.pipeline().addLast(new WebSocketServerCompressionHandler(options.maxMessageBytes()));
+                            }
+                            if (timeline != null) {
+                                ch.pipeline().addLast(timeline.messageHandler());
+                            }
+                            ch.pipeline().addLast(BODY_HANDLER, new BodyAggregator(handler, limits));
+                            ch.pipeline().addLast(REQUEST_HANDLER, new NettyRequestHandler(finalHandler, timeline,
+                                    connection, options, webSockets, streamOptions, eventStreams));
                         }
                     });
-            ChannelFuture future = bootstrap.bind(port).sync();
+            if (!unix) {
+                bootstrap.childOption(ChannelOption.SO_KEEPALIVE, true);
+            }
+            SocketAddress local = unix
+                    ? new DomainSocketAddress(unixAddress.getPath().toString())
+                    : new InetSocketAddress(port);
+            ChannelFuture future = bootstrap.bind(local).sync();
             serverChannel = future.channel();
             serverChannel.closeFuture().sync();
         } finally {
@@ -117,6 +229,12 @@ public final class NettyServer implements AbstractServer {
      * Stops the server shutting down all event loops.
      */
     public synchronized void stop() {
+        for (NettyWebSocket webSocket : webSockets) {
+            webSocket.close(WebSocketSession.GOING_AWAY, "Server shutting down");
+        }
+        for (NettyEventStream eventStream : eventStreams) {
+            eventStream.close();
+        }
         if (serverChannel != null) {
             serverChannel.close();
             serverChannel = null;
@@ -145,14 +263,14 @@ public final class NettyServer implements AbstractServer {
     }
 
     /**
-     * Exposes the bound port (useful when {@code 0} was provided).
+     * Exposes the bound port (useful when {@code 0} was provided), or {@code -1} for a server on a Unix domain socket.
      */
     public int port() {
         Channel channel = serverChannel;
-        if (channel == null || channel.localAddress() == null) {
+        if (channel == null || !(channel.localAddress() instanceof InetSocketAddress local)) {
             return port;
         }
-        return ((java.net.InetSocketAddress) channel.localAddress()).getPort();
+        return local.getPort();
     }
 
     private void throwIfRunning() {
@@ -161,80 +279,385 @@ public final class NettyServer implements AbstractServer {
         }
     }
 
-    private static final class MiddlewareNode {
-        private final RequestMiddleware middleware;
-        private final MiddlewareNode next;
+    /**
+     * Returns the peer of a connection as the core engine reports it: Netty's domain socket addresses become
+     * {@link UnixDomainSocketAddress}es, so handlers see the same type on either engine.
+     */
+    private static SocketAddress remoteAddress(Channel channel) {
+        SocketAddress address = channel.remoteAddress();
+        return address instanceof DomainSocketAddress domain ? UnixDomainSocketAddress.of(domain.path()) : address;
+    }
+
+    /**
+     * Exposes Netty's decoded request headers to Webby without copying them into a map.
+     */
+    private static final class NettyHeaders extends HeaderView {
+        private final HttpHeaders headers;
+
+        NettyHeaders(HttpHeaders headers) {
+            this.headers = headers;
+        }
+
+        @Override
+        protected String lookup(String name) {
+            return headers.get(name);
+        }
+
+        @Override
+        protected void copyTo(Map<String, String> target) {
+            headers.forEach(entry -> target.put(entry.getKey(), entry.getValue()));
+        }
+    }
+
+    /**
+     * File region over a {@link BodyRegion} whose channel is shared with other responses and therefore stays open when
+     * the region is released. It is created for a {@linkplain BodyRegion#retain() retained} body region and releases
+     * it when Netty is done with the transfer.
+     */
+    private static final class SharedFileRegion extends DefaultFileRegion {
+        private final BodyRegion region;
+
+        SharedFileRegion(BodyRegion region) {
+            super(region.channel(), region.position(), region.length());
+            this.region = region;
+        }
+
+        @Override
+        protected void deallocate() {
+            // The channel belongs to whoever created the body region.
+            region.release();
+        }
+    }
+
+    /**
+     * Marks a connection as reading once its first bytes arrive, then leaves the pipeline. It sits in front of the
+     * TLS handler, so the handshake counts as reading.
+     */
+    private static final class FirstReadHandler extends ChannelInboundHandlerAdapter {
+        private final ConnectionMetrics.Connection connection;
+
+        FirstReadHandler(ConnectionMetrics.Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            connection.enter(ConnectionMetrics.State.READING);
+            ctx.pipeline().remove(this);
+            ctx.fireChannelRead(msg);
+        }
+    }
+
+    /**
+     * Request head together with its complete body.
+     */
+    private record BufferedRequest(HttpRequest head, BodyBuffer body) {
+    }
+
+    /**
+     * Takes the place of Netty's aggregator: collects each request body into a {@link BodyBuffer}, which enforces the
+     * body limits and spills long bodies to a temporary file, and passes the request on once its body is complete.
+     * Spilling writes the file on the event loop, which only happens for bodies above the memory threshold.
+     */
+    private static final class BodyAggregator extends ChannelInboundHandlerAdapter {
+        private final RequestHandler routes;
+        private final BodyLimits limits;
+        private HttpRequest head;
+        private BodyBuffer body;
 
-        private MiddlewareNode(RequestMiddleware middleware, MiddlewareNode next) {
-            this.middleware = middleware;
-            this.next = next;
+        BodyAggregator(RequestHandler routes, BodyLimits limits) {
+            this.routes = routes;
+            this.limits = limits;
         }
 
-        static MiddlewareNode append(MiddlewareNode chain, RequestMiddleware middleware) {
-            if (chain == null) {
-                return new MiddlewareNode(middleware, null);
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws IOException {
+            try {
+                if (msg instanceof HttpRequest request) {
+                    begin(ctx, request);
+                }
+                if (msg instanceof HttpContent content && body != null) {
+                    ByteBuf bytes = content.content();
+                    if (bytes.isReadable()) {
+                        body.write(bytes.nioBuffer());
+                    }
+                    if (content instanceof LastHttpContent) {
+                        BufferedRequest complete = new BufferedRequest(head, body);
+                        head = null;
+                        body = null;
+                        ctx.fireChannelRead(complete);
+                    }
+                }
+            } catch (PayloadTooLargeException tooLarge) {
+                reject(ctx);
+            } finally {
+                ReferenceCountUtil.release(msg);
             }
-            return new MiddlewareNode(chain.middleware, append(chain.next, middleware));
         }
 
-        RequestHandler wrap(RequestHandler terminal) {
-            RequestHandler nextHandler = next == null ? terminal : next.wrap(terminal);
-            return request -> middleware.handle(request, nextHandler);
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            discard();
+            ctx.fireChannelInactive();
+        }
+
+        private void begin(ChannelHandlerContext ctx, HttpRequest request) throws PayloadTooLargeException {
+            discard();
+            HttpMethod method = HttpMethod.fromToken(request.method().name());
+            long maxBytes = limits.maxBytesFor(routes, method, request.uri());
+            body = new BodyBuffer(limits, maxBytes, HttpUtil.getContentLength(request, -1L));
+            head = request;
+            if (HttpUtil.is100ContinueExpected(request)) {
+                ctx.writeAndFlush(new DefaultFullHttpResponse(
+                        HttpVersion.HTTP_1_1, HttpResponseStatus.CONTINUE, Unpooled.EMPTY_BUFFER));
+            }
+        }
+
+        /**
+         * Answers {@code 413} and closes the connection, since the rest of the body is never read.
+         */
+        private void reject(ChannelHandlerContext ctx) {
+            discard();
+            FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
+                    HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE,
+                    Unpooled.copiedBuffer("Payload Too Large", CharsetUtil.UTF_8));
+            response.headers()
+                    .set(HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=UTF-8")
+                    .set(HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes())
+                    .set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+            ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+        }
+
+        private void discard() {
+            if (body != null) {
+                body.close();
+                body = null;
+            }
+            head = null;
         }
     }
 
-    private static final class NettyRequestHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+    private static final class NettyRequestHandler extends SimpleChannelInboundHandler<BufferedRequest> {
+        private static final Response NO_CONTENT = Response.text(HttpStatus.NO_CONTENT, "").prepare();
+        private static final Response INTERNAL_ERROR =
+                Response.text(HttpStatus.INTERNAL_SERVER_ERROR, "Internal Server Error").prepare();
+        private static final Response METHOD_NOT_ALLOWED =
+                Response.text(HttpStatus.METHOD_NOT_ALLOWED, "Method Not Allowed").prepare();
+        private static final Response BAD_REQUEST = Response.text(HttpStatus.BAD_REQUEST, "Bad Request").prepare();
+
         private final RequestHandler handler;
+        private final LifecycleTimeline timeline;
+        private final ConnectionMetrics.Connection connection;
+        private final WebSocketOptions webSocketOptions;
+        private final Set<NettyWebSocket> webSockets;
+        private final EventStreamOptions eventStreamOptions;
+        private final Set<NettyEventStream> eventStreams;
 
-        NettyRequestHandler(RequestHandler handler) {
+        NettyRequestHandler(RequestHandler handler, LifecycleTimeline timeline, ConnectionMetrics.Connection connection,
+                WebSocketOptions webSocketOptions, Set<NettyWebSocket> webSockets,
+                EventStreamOptions eventStreamOptions, Set<NettyEventStream> eventStreams) {
             this.handler = handler;
+            this.timeline = timeline;
+            this.connection = connection;
+            this.webSocketOptions = webSocketOptions;
+            this.webSockets = webSockets;
+            this.eventStreamOptions = eventStreamOptions;
+            this.eventStreams = eventStreams;
         }
 
         @Override
-        protected void channelRead0(io.netty.channel.ChannelHandlerContext ctx, FullHttpRequest msg) {
-            Response response;
-            try {
-                response = handleRequest(msg);
-            } catch (Exception ex) {
-                response = Response.text(HttpStatus.INTERNAL_SERVER_ERROR, "Internal Server Error");
+        protected void channelRead0(io.netty.channel.ChannelHandlerContext ctx, BufferedRequest msg) {
+            // The response never refers to the request body, so a spilled body can go once writing has begun.
+            try (BodyBuffer body = msg.body()) {
+                connection.enter(ConnectionMetrics.State.HANDLING);
+                org.webby.core.Request request = null;
+                Response response;
+                try {
+                    request = adaptRequest(msg.head(), body, remoteAddress(ctx.channel()));
+                    response = request == null
+                            ? METHOD_NOT_ALLOWED
+                            : Objects.requireNonNullElse(handler.handle(request), NO_CONTENT);
+                } catch (Exception ex) {
+                    response = INTERNAL_ERROR;
+                }
+                ChannelFuture written;
+                if (response.webSocketHandler() != null) {
+                    written = upgrade(ctx, msg.head(), request, response);
+                } else if (response.eventStreamHandler() != null && request.method() != HttpMethod.HEAD) {
+                    connection.enter(ConnectionMetrics.State.IDLE);
+                    written = NettyEventStream.open(ctx, request, response, eventStreamOptions, eventStreams);
+                } else {
+                    connection.enter(ConnectionMetrics.State.WRITING);
+                    written = writeResponse(ctx, response, msg.head());
+                }
+                if (timeline == null) {
+                    return;
+                }
+                long handled = System.nanoTime();
+                org.webby.core.Request completed = request;
+                int status = response.statusCode();
+                written.addListener(
+                        future -> timeline.completed(completed, status, handled, System.nanoTime()));
+            }
+        }
+
+        /**
+         * Hands the connection to the response's WebSocket handler, or answers {@code 400} if the request is not a
+         * valid upgrade.
+         */
+        private ChannelFuture upgrade(
+                ChannelHandlerContext ctx, HttpRequest head, org.webby.core.Request request, Response response) {
+            ChannelFuture upgraded = NettyWebSocket.upgrade(ctx, head, request, response, webSocketOptions, webSockets);
+            if (upgraded != null) {
+                connection.enter(ConnectionMetrics.State.IDLE);
+                return upgraded;
             }
-            writeResponse(ctx, response, msg);
+            connection.enter(ConnectionMetrics.State.WRITING);
+            return writeResponse(ctx, BAD_REQUEST, head);
         }
 
-        private Response handleRequest(FullHttpRequest httpRequest) {
+        private static org.webby.core.Request adaptRequest(
+                HttpRequest httpRequest, BodyBuffer body, java.net.SocketAddress remoteAddress) throws IOException {
             HttpMethod method = HttpMethod.fromToken(httpRequest.method().name());
             if (method == null) {
-                return Response.text(HttpStatus.METHOD_NOT_ALLOWED, "Method Not Allowed");
+                return null;
             }
-            Map<String, String> headers = new LinkedHashMap<>();
-            httpRequest.headers().forEach(entry -> headers.put(entry.getKey(), entry.getValue()));
-            byte[] body = ByteBufUtil.getBytes(httpRequest.content());
-            org.webby.core.Request request = new org.webby.core.Request(
+            return body.toRequest(
                     method,
                     httpRequest.uri(),
                     httpRequest.protocolVersion().text(),
-                    headers,
-                    body);
-            Response result = handler.handle(request);
-            return Objects.requireNonNullElseGet(result, () -> Response.text(HttpStatus.NO_CONTENT, ""));
+                    new NettyHeaders(httpRequest.headers()),
+                    remoteAddress);
         }
 
-        private static void writeResponse(
-                io.netty.channel.ChannelHandlerContext ctx, Response response, FullHttpRequest request) {
+        private static ChannelFuture writeResponse(
+                io.netty.channel.ChannelHandlerContext ctx, Response response, HttpRequest request) {
+            if (response.encoded() == null && response.bodyRegion() != null) {
+                // Preparing a file-backed response only encodes its head; the body stays in the file.
+                response = response.prepare();
+            }
+            EncodedResponse encoded = response.encoded();
+            if (encoded != null) {
+                // The buffer already holds a complete HTTP/1.1 response, so write it below the HTTP encoder.
+                // Bypassing the encoder also bypasses its HEAD handling, so send only the head for HEAD requests.
+                ChannelHandlerContext codec = ctx.pipeline().context(HttpServerCodec.class);
+                boolean head = request.method().equals(io.netty.handler.codec.http.HttpMethod.HEAD);
+                BodyRegion region = encoded.bodyRegion();
+                if (!head && region != null && EncodedResponse.hasContent(response.statusCode())) {
+                    codec.write(Unpooled.wrappedBuffer(encoded.head()));
+                    // TLS needs the bytes in memory, so hand it the mapping; plain sockets get a sendfile transfer
+                    // unless the region's owner has closed the channel in the meantime.
+                    Object body = ctx.pipeline().get(SslHandler.class) == null && region.retain()
+                            ? new SharedFileRegion(region)
+                            : Unpooled.wrappedBuffer(region.buffer());
+                    return codec.writeAndFlush(body).addListener(channelFuture -> ctx.close());
+                }
+                ByteBuf wire = head || region != null
+                        ? Unpooled.wrappedBuffer(encoded.head())
+                        : encoded.engineForm(ByteBuf.class, NettyRequestHandler::encode).duplicate();
+                return codec.writeAndFlush(wire).addListener(channelFuture -> ctx.close());
+            }
             byte[] body = response.body();
             FullHttpResponse nettyResponse = new DefaultFullHttpResponse(
                     HttpVersion.HTTP_1_1, HttpResponseStatus.valueOf(response.statusCode()), ctx.alloc().buffer(body.length));
             nettyResponse.content().writeBytes(body);
             response.headers().forEach(nettyResponse.headers()::set);
-            if (!response.headers().containsKey(HttpHeaderNames.CONTENT_TYPE.toString())) {
-                nettyResponse.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=UTF-8");
+            if (EncodedResponse.hasContent(response.statusCode())) {
+                if (!response.headers().containsKey(HttpHeaderNames.CONTENT_TYPE.toString())) {
+                    nettyResponse.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=UTF-8");
+                }
+                nettyResponse
+                        .headers()
+                        .set(HttpHeaderNames.CONTENT_LENGTH, nettyResponse.content().readableBytes());
             }
-            nettyResponse
-                    .headers()
-                    .set(HttpHeaderNames.CONTENT_LENGTH, nettyResponse.content().readableBytes());
             nettyResponse.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
             io.netty.channel.ChannelFuture future = ctx.writeAndFlush(nettyResponse);
-            future.addListener(channelFuture -> ctx.close());
+            return future.addListener(channelFuture -> ctx.close());
+        }
+
+        private static ByteBuf encode(EncodedResponse encoded) {
+            ByteBuffer head = encoded.head();
+            ByteBuffer body = encoded.body();
+            ByteBuf wire = Unpooled.directBuffer(head.remaining() + body.remaining())
+                    .writeBytes(head)
+                    .writeBytes(body);
+            return Unpooled.unreleasableBuffer(wire.asReadOnly());
+        }
+    }
+
+    /**
+     * Phase timestamps of the request in flight on one channel. All callbacks run on the channel's event loop, so the
+     * state needs no synchronization.
+     */
+    private static final class LifecycleTimeline {
+        private final LifecycleListener listener;
+        private boolean receiving;
+        private long received;
+        private long headersParsed;
+        private long bodyRead;
+
+        LifecycleTimeline(LifecycleListener listener) {
+            this.listener = listener;
+        }
+
+        /**
+         * Handler below the HTTP codec that reports connection events and notes when a request's first bytes arrive.
+         */
+        ChannelInboundHandlerAdapter connectionHandler() {
+            return new ChannelInboundHandlerAdapter() {
+                @Override
+                public void channelActive(ChannelHandlerContext ctx) {
+                    listener.connectionOpened(remoteAddress(ctx.channel()), System.nanoTime());
+                    ctx.fireChannelActive();
+                }
+
+                @Override
+                public void channelInactive(ChannelHandlerContext ctx) {
+                    listener.connectionClosed(remoteAddress(ctx.channel()), System.nanoTime());
+                    ctx.fireChannelInactive();
+                }
+
+                @Override
+                public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                    if (!receiving) {
+                        receiving = true;
+                        received = System.nanoTime();
+                    }
+                    ctx.fireChannelRead(msg);
+                }
+            };
+        }
+
+        /**
+         * Handler above the HTTP codec that notes when the headers and the end of the body have been decoded.
+         */
+        ChannelInboundHandlerAdapter messageHandler() {
+            return new ChannelInboundHandlerAdapter() {
+                @Override
+                public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                    if (msg instanceof HttpRequest) {
+                        headersParsed = System.nanoTime();
+                    }
+                    if (msg instanceof LastHttpContent) {
+                        bodyRead = System.nanoTime();
+                    }
+                    ctx.fireChannelRead(msg);
+                }
+            };
+        }
+
+        void completed(org.webby.core.Request request, int status, long handled, long written) {
+            receiving = false;
+            listener.requestCompleted(new RequestTimings(
+                    request == null ? null : request.method(),
+                    request == null ? null : request.route(),
+                    status,
+                    received,
+                    received,
+                    headersParsed,
+                    bodyRead,
+                    handled,
+                    written));
         }
     }
 }
@@ -0,0 +1,190 @@
+package org.webby.server.netty;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.EmptyHttpHeaders;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.CorruptedWebSocketFrameException;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PongWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrameAggregator;
+import io.netty.handler.codec.http.websocketx.WebSocketServerHandshaker;
+import io.netty.handler.codec.http.websocketx.WebSocketServerHandshakerFactory;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.concurrent.Future;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.webby.core.AbstractWebSocketSession;
+import org.webby.core.Request;
+import org.webby.core.Response;
+import org.webby.core.WebSocketOptions;
+
+/**
+ * WebSocket connection of the {@link NettyServer}.
+ *
+ * <p>The upgrade swaps the HTTP handlers of the channel's pipeline for Netty's frame codec, a frame aggregator that
+ * reassembles fragmented messages up to {@link WebSocketOptions#maxMessageBytes()}, and a handler that delivers them.
+ * Handler callbacks run on the channel's event loop, which reads nothing else from the channel until they return.
+ * With compression enabled, the server's pipeline carries Netty's {@code permessage-deflate} extension handler, which
+ * installs itself on the upgraded channel when the client offers the extension.
+ */
+final class NettyWebSocket extends AbstractWebSocketSession {
+    static final long CLOSE_TIMEOUT_MILLIS = 5_000;
+
+    private final Channel channel;
+    private final Set<NettyWebSocket> open;
+
+    private NettyWebSocket(
+            Channel channel, Request request, Response response, WebSocketOptions options, Set<NettyWebSocket> open) {
+        super(request, response.webSocketHandler(), options);
+        this.channel = channel;
+        this.open = open;
+    }
+
+    /**
+     * Performs the handshake for an upgrade request and switches the channel over to WebSocket frames.
+     *
+     * @param ctx context of the request handler, which the frame handler replaces
+     * @param head the upgrade request
+     * @param request Webby's view of the upgrade request
+     * @param response the handler's {@linkplain Response#webSocket(org.webby.core.WebSocketHandler) upgrade response}
+     * @param open sessions of the server, which the new session joins until it closes
+     * @return future of the handshake response, or {@code null} if the request does not ask for an upgrade
+     */
+    static ChannelFuture upgrade(ChannelHandlerContext ctx, HttpRequest head, Request request, Response response,
+            WebSocketOptions options, Set<NettyWebSocket> open) {
+        HttpHeaders requestHeaders = head.headers();
+        // The handshaker would reject these only after the pipeline has been switched over.
+        if (!requestHeaders.containsValue(HttpHeaderNames.UPGRADE, HttpHeaderValues.WEBSOCKET, true)
+                || !requestHeaders.containsValue(HttpHeaderNames.CONNECTION, HttpHeaderValues.UPGRADE, true)
+                || !requestHeaders.contains(HttpHeaderNames.SEC_WEBSOCKET_KEY)) {
+            return null;
+        }
+        Channel channel = ctx.channel();
+        String scheme = ctx.pipeline().get(SslHandler.class) == null ? "ws://" : "wss://";
+        String location = scheme + requestHeaders.get(HttpHeaderNames.HOST) + head.uri();
+        // The body has been consumed already, so hand the handshaker a complete request with an empty body.
+        FullHttpRequest upgrade = new DefaultFullHttpRequest(head.protocolVersion(), head.method(), head.uri(),
+                Unpooled.EMPTY_BUFFER, requestHeaders, EmptyHttpHeaders.INSTANCE);
+        WebSocketServerHandshaker handshaker = new WebSocketServerHandshakerFactory(
+                location, null, options.compression(), options.maxMessageBytes()).newHandshaker(upgrade);
+        if (handshaker == null) {
+            return WebSocketServerHandshakerFactory.sendUnsupportedVersionResponse(channel)
+                    .addListener(ChannelFutureListener.CLOSE);
+        }
+        NettyWebSocket session = new NettyWebSocket(channel, request, response, options, open);
+        HttpHeaders headers = new DefaultHttpHeaders();
+        response.headers().forEach(headers::set);
+        ChannelPipeline pipeline = ctx.pipeline();
+        pipeline.remove(NettyServer.BODY_HANDLER);
+        pipeline.replace(ctx.name(), NettyServer.WEBSOCKET_HANDLER, session.new Frames());
+        pipeline.addBefore(
+                NettyServer.WEBSOCKET_HANDLER, null, new WebSocketFrameAggregator(options.maxMessageBytes()));
+        return handshaker.handshake(channel, upgrade, headers, channel.newPromise()).addListener(future -> {
+            if (future.isSuccess()) {
+                open.add(session);
+                session.deliverOpen();
+            } else {
+                channel.close();
+            }
+        });
+    }
+
+    @Override
+    protected void write(boolean text, ByteBuffer payload, CompletableFuture<Void> done) {
+        WebSocketFrame frame = text
+                ? new TextWebSocketFrame(Unpooled.wrappedBuffer(payload))
+                : new BinaryWebSocketFrame(Unpooled.wrappedBuffer(payload));
+        channel.writeAndFlush(frame).addListener(future -> complete(done, future));
+    }
+
+    @Override
+    protected void writeClose(int code, String reason, CompletableFuture<Void> done) {
+        channel.writeAndFlush(new CloseWebSocketFrame(code, reason)).addListener(future -> {
+            complete(done, future);
+            // Give the peer time to answer before dropping the connection.
+            channel.eventLoop().schedule(() -> channel.close(), CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    private static void complete(CompletableFuture<Void> done, Future<?> future) {
+        if (future.isSuccess()) {
+            done.complete(null);
+        } else {
+            done.completeExceptionally(future.cause());
+        }
+    }
+
+    /**
+     * Reports the close to the handler, unless the session never opened because the handshake failed.
+     */
+    private void closed(int code, String reason) {
+        if (open.remove(this)) {
+            deliverClose(code, reason);
+        }
+    }
+
+    /**
+     * Delivers the frames of the upgraded channel. Runs on the channel's event loop.
+     */
+    private final class Frames extends SimpleChannelInboundHandler<WebSocketFrame> {
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, WebSocketFrame frame) {
+            if (frame instanceof TextWebSocketFrame text) {
+                deliverText(text.text());
+            } else if (frame instanceof BinaryWebSocketFrame binary) {
+                deliverBinary(binary.content().nioBuffer());
+            } else if (frame instanceof PingWebSocketFrame) {
+                ctx.writeAndFlush(new PongWebSocketFrame(frame.content().retain()));
+            } else if (frame instanceof CloseWebSocketFrame close) {
+                int code = close.statusCode();
+                if (startClosing()) {
+                    // Echo the peer's close, as the closing handshake requires.
+                    ctx.writeAndFlush(new CloseWebSocketFrame(code < 0 ? NORMAL_CLOSURE : code, ""))
+                            .addListener(ChannelFutureListener.CLOSE);
+                } else {
+                    ctx.close();
+                }
+                closed(code < 0 ? NO_STATUS_RECEIVED : code, close.reasonText());
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            closed(ABNORMAL_CLOSURE, "");
+            ctx.fireChannelInactive();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            int code = cause instanceof TooLongFrameException ? MESSAGE_TOO_BIG
+                    : cause instanceof CorruptedWebSocketFrameException ? PROTOCOL_ERROR
+                    : INTERNAL_ERROR;
+            deliverError(cause);
+            if (startClosing() && ctx.channel().isActive()) {
+                ctx.writeAndFlush(new CloseWebSocketFrame(code, "")).addListener(ChannelFutureListener.CLOSE);
+            } else {
+                ctx.close();
+            }
+            closed(code, cause.getMessage());
+        }
+    }
+}
@@ -1,19 +1,54 @@
 package org.webby.server.netty;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import io.netty.util.NettyRuntime;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BooleanSupplier;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
+import org.webby.core.CoalescingMiddleware;
+import org.webby.core.ConnectionMetrics;
+import org.webby.core.EventBroadcaster;
 import org.webby.core.HttpStatus;
 import org.webby.core.Response;
 import org.webby.core.Router;
+import org.webby.core.ServerSentEvent;
+import org.webby.core.WebSocketHandler;
+import org.webby.core.WebSocketSession;
 
 class NettyServerTest {
     private NettyServer server;
@@ -50,6 +85,219 @@ class NettyServerTest {
         assertEquals("Hello Netty", response.body());
     }
 
+    @Test
+    void webSocketsEchoMessagesAndCompleteTheClosingHandshake() throws Exception {
+        CountDownLatch closed = new CountDownLatch(1);
+        AtomicReference<String> room = new AtomicReference<>();
+        server = new NettyServer(0);
+        server.setRequestHandler(new Router().webSocket("/rooms/{room}", new WebSocketHandler() {
+            @Override
+            public void onOpen(WebSocketSession session) {
+                room.set(session.request().getPathVariable("room"));
+            }
+
+            @Override
+            public void onText(WebSocketSession session, String message) {
+                session.sendText("echo: " + message);
+            }
+
+            @Override
+            public void onClose(WebSocketSession session, int code, String reason) {
+                closed.countDown();
+            }
+        }));
+        startServer();
+
+        waitUntil(() -> server.isRunning() && server.port() > 0, Duration.ofSeconds(5));
+
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.port()), 1000);
+            socket.setSoTimeout(2000);
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            out.write(("GET /rooms/lobby HTTP/1.1\r\n"
+                    + "Host: localhost\r\n"
+                    + "Upgrade: websocket\r\n"
+                    + "Connection: Upgrade\r\n"
+                    + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+                    + "Sec-WebSocket-Version: 13\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            String head = readHead(in);
+            assertTrue(head.startsWith("HTTP/1.1 101 Switching Protocols"), head);
+            // Netty writes header names in lower case.
+            assertTrue(head.contains("s3pPLMBiTxaQ9kYGzzhZRbK+xOo="), head);
+
+            out.write(clientFrame(0x1, "hello".getBytes(StandardCharsets.UTF_8)));
+            out.flush();
+            byte[] echo = readServerFrame(in, 0x1);
+            assertEquals("echo: hello", new String(echo, StandardCharsets.UTF_8));
+            assertEquals("lobby", room.get());
+
+            out.write(clientFrame(0x8, new byte[] {0x03, (byte) 0xE8}));
+            out.flush();
+            byte[] close = readServerFrame(in, 0x8);
+            assertEquals(1000, ((close[0] & 0xFF) << 8) | (close[1] & 0xFF));
+            assertEquals(-1, in.read());
+        }
+        assertTrue(closed.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void eventStreamsDeliverPublishedEventsUntilClosed() throws Exception {
+        EventBroadcaster broadcaster = new EventBroadcaster();
+        server = new NettyServer(0);
+        server.setRequestHandler(new Router().get("/events", request -> Response.eventStream(broadcaster)));
+        startServer();
+
+        waitUntil(() -> server.isRunning() && server.port() > 0, Duration.ofSeconds(5));
+
+        // The body is delimited by closing the connection, so the client hands events over as they arrive.
+        HttpClient client = HttpClient.newHttpClient();
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + server.port() + "/events"))
+                .header("Accept", "text/event-stream")
+                .GET()
+                .build();
+        HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream in = response.body()) {
+            assertEquals(200, response.statusCode());
+            assertEquals("text/event-stream", response.headers().firstValue("Content-Type").orElse(""));
+
+            waitUntil(() -> broadcaster.subscribers() > 0, Duration.ofSeconds(2));
+            ServerSentEvent event = new ServerSentEvent("1", "greeting", "hello");
+            assertEquals(1, broadcaster.publish(event));
+            byte[] received = in.readNBytes(event.encodedLength());
+            assertEquals("id: 1\nevent: greeting\ndata: hello\n\n", new String(received, StandardCharsets.UTF_8));
+
+            broadcaster.closeAll();
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    void connectionMetricsFollowConnectionsThroughTheirStates() throws Exception {
+        server = new NettyServer(0);
+        ConnectionMetrics metrics = server.connectionMetrics();
+        AtomicLong handling = new AtomicLong(-1);
+        server.setRequestHandler(request -> {
+            handling.set(metrics.connections(ConnectionMetrics.State.HANDLING));
+            return Response.text(HttpStatus.OK, "ok");
+        });
+        startServer();
+
+        waitUntil(() -> server.isRunning() && server.port() > 0, Duration.ofSeconds(5));
+
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.port()), 1000);
+            socket.setSoTimeout(2000);
+            waitUntil(() -> metrics.connections(ConnectionMetrics.State.IDLE) == 1, Duration.ofSeconds(2));
+            assertEquals(1, metrics.openConnections());
+            assertEquals(1, metrics.acceptedConnections());
+
+            socket.getOutputStream().write(("GET / HTTP/1.1\r\n"
+                    + "Host: localhost\r\n"
+                    + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            socket.getOutputStream().flush();
+            String response = new String(socket.getInputStream().readAllBytes(), StandardCharsets.US_ASCII);
+            assertTrue(response.startsWith("HTTP/1.1 200 OK"), response);
+            assertEquals(1, handling.get());
+        }
+
+        waitUntil(() -> metrics.openConnections() == 0, Duration.ofSeconds(2));
+        for (ConnectionMetrics.State state : ConnectionMetrics.State.values()) {
+            assertEquals(0, metrics.connections(state), state.name());
+        }
+        assertEquals(1, metrics.acceptedConnections());
+        assertEquals(1, metrics.lifetime().count());
+        assertEquals(0, metrics.openTlsConnections());
+    }
+
+    @Test
+    void coalescedWaitersGiveBackTheirEventLoops() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger slowCalls = new AtomicInteger();
+        Router router = new Router()
+                .get("/slow", request -> {
+                    if (slowCalls.getAndIncrement() == 0) {
+                        try {
+                            release.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    return Response.text(HttpStatus.OK, "slow");
+                })
+                .get("/fast", request -> Response.text(HttpStatus.OK, "fast"));
+        CoalescingMiddleware coalescing = new CoalescingMiddleware();
+        server = new NettyServer(0);
+        server.setRequestHandler(router);
+        server.addMiddleware(coalescing);
+        ConnectionMetrics metrics = server.connectionMetrics();
+        startServer();
+
+        waitUntil(() -> server.isRunning() && server.port() > 0, Duration.ofSeconds(5));
+
+        // Connections are spread over the event loops in turn: the leader takes the first loop, and one waiter joins
+        // it on every other loop. The last one queues behind the leader.
+        int eventLoops = NettyRuntime.availableProcessors() * 2;
+        List<CompletableFuture<String>> slow = new ArrayList<>();
+        ExecutorService clients = Executors.newCachedThreadPool();
+        try {
+            slow.add(CompletableFuture.supplyAsync(() -> get("/slow"), clients));
+            waitUntil(() -> coalescing.stats().inFlight() == 1, Duration.ofSeconds(5));
+            for (int i = 0; i < eventLoops; i++) {
+                slow.add(CompletableFuture.supplyAsync(() -> get("/slow"), clients));
+            }
+            waitUntil(() -> metrics.connections(ConnectionMetrics.State.HANDLING) == eventLoops,
+                    Duration.ofSeconds(5));
+
+            long start = System.nanoTime();
+            String fast = get("/fast");
+
+            assertTrue(fast.endsWith("\r\n\r\nfast"), fast);
+            assertTrue(Duration.ofNanos(System.nanoTime() - start).compareTo(Duration.ofSeconds(2)) < 0);
+            assertTrue(coalescing.stats().timeouts() > 0);
+            assertEquals(1, release.getCount());
+            release.countDown();
+            for (CompletableFuture<String> response : slow) {
+                assertTrue(response.get(10, TimeUnit.SECONDS).endsWith("\r\n\r\nslow"));
+            }
+        } finally {
+            release.countDown();
+            clients.shutdownNow();
+        }
+    }
+
+    @Test
+    void servesRequestsOnAUnixDomainSocket() throws Exception {
+        Path directory = Files.createTempDirectory("webby-uds");
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(directory.resolve("webby.sock"));
+        AtomicReference<SocketAddress> remote = new AtomicReference<>();
+        server = new NettyServer(address);
+        server.setRequestHandler(new Router().post("/echo", request -> {
+            remote.set(request.remoteAddress());
+            return Response.text(HttpStatus.OK, new String(request.body(), StandardCharsets.UTF_8));
+        }));
+        startServer();
+
+        waitUntil(() -> server.isRunning() && Files.exists(address.getPath()), Duration.ofSeconds(5));
+
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(address);
+            channel.write(ByteBuffer.wrap(("POST /echo HTTP/1.1\r\nHost: localhost\r\n"
+                    + "Content-Length: 5\r\n\r\nhello").getBytes(StandardCharsets.UTF_8)));
+            String response = new String(Channels.newInputStream(channel).readAllBytes(), StandardCharsets.UTF_8);
+
+            assertTrue(response.startsWith("HTTP/1.1 200 OK"), response);
+            assertTrue(response.endsWith("\r\n\r\nhello"), response);
+            assertTrue(remote.get() instanceof UnixDomainSocketAddress, String.valueOf(remote.get()));
+            assertEquals(-1, server.port());
+        }
+        server.stop();
+        serverThread.join(TimeUnit.SECONDS.toMillis(5));
+        assertFalse(Files.exists(address.getPath()));
+        Files.delete(directory);
+    }
+
     private void startServer() {
         serverThread = new Thread(() -> {
             try {
@@ -62,6 +310,19 @@ class NettyServerTest {
         serverThread.start();
     }
 
+    private String get(String path) {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.port()), 1000);
+            socket.setSoTimeout(10_000);
+            socket.getOutputStream().write(("GET " + path + " HTTP/1.1\r\n"
+                    + "Host: localhost\r\n"
+                    + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            return new String(socket.getInputStream().readAllBytes(), StandardCharsets.US_ASCII);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     private static void waitUntil(BooleanSupplier condition, Duration timeout) throws InterruptedException {
         long deadline = System.nanoTime() + timeout.toNanos();
         while (!condition.getAsBoolean()) {
@@ -71,4 +332,38 @@ class NettyServerTest {
             Thread.sleep(50);
         }
     }
+
+    private static String readHead(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int matched = 0;
+        while (matched < 4) {
+            int next = in.read();
+            if (next == -1) {
+                throw new IOException("Connection closed before the end of the response head");
+            }
+            head.write(next);
+            matched = next == (matched % 2 == 0 ? '\r' : '\n') ? matched + 1 : next == '\r' ? 1 : 0;
+        }
+        return head.toString(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] clientFrame(int opcode, byte[] payload) {
+        byte[] mask = {0x11, 0x22, 0x33, 0x44};
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        frame.write(0x80 | opcode);
+        frame.write(0x80 | payload.length);
+        frame.writeBytes(mask);
+        for (int i = 0; i < payload.length; i++) {
+            frame.write(payload[i] ^ mask[i % 4]);
+        }
+        return frame.toByteArray();
+    }
+
+    private static byte[] readServerFrame(InputStream in, int expectedOpcode) throws IOException {
+        int first = in.read();
+        int length = in.read();
+        assertEquals(0x80 | expectedOpcode, first);
+        assertTrue(length < 126, "short unmasked frame expected");
+        return in.readNBytes(length);
+    }
 }
@@ -10,35 +10,65 @@ import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketAddress;
 import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.time.Duration;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import javax.net.ServerSocketFactory;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
 
 /**
  * Minimal multithreaded HTTP server backed by {@link ServerSocket}.
  */
-public final class Server implements Closeable {
+public final class Server implements AbstractServer {
     private static final Duration SHUTDOWN_TIMEOUT = Duration.ofSeconds(5);
+    private static final Response NO_CONTENT = Response.text(HttpStatus.NO_CONTENT, "").prepare();
+    private static final Response INTERNAL_ERROR =
+            Response.text(HttpStatus.INTERNAL_SERVER_ERROR, "Internal Server Error").prepare();
+    private static final Response PAYLOAD_TOO_LARGE =
+            Response.text(HttpStatus.PAYLOAD_TOO_LARGE, "Payload Too Large").prepare();
+    private static final Response BAD_REQUEST = Response.text(HttpStatus.BAD_REQUEST, "Bad Request").prepare();
 
     private final int port;
+    private final UnixDomainSocketAddress unixAddress;
     private RequestHandler requestHandler;
     private RequestHandler effectiveHandler;
-    private MiddlewareChain middlewareChain;
+    private final List<RequestMiddleware> middlewares = new ArrayList<>();
     private ExecutorService workers;
     private ServerSocketFactory serverSocketFactory = ServerSocketFactory.getDefault();
+    private LifecycleListener lifecycleListener;
+    private BodyLimits bodyLimits = BodyLimits.DEFAULT;
+    private WebSocketOptions webSocketOptions = WebSocketOptions.DEFAULT;
+    private final Set<ServerWebSocket> webSockets = ConcurrentHashMap.newKeySet();
+    private EventStreamOptions eventStreamOptions = EventStreamOptions.DEFAULT;
+    private final Set<ServerEventStream> eventStreams = ConcurrentHashMap.newKeySet();
+    private final ConnectionMetrics connectionMetrics = new ConnectionMetrics();
 
     private volatile boolean running;
     private ServerSocket serverSocket;
+    private ServerSocketChannel serverChannel;
 
     /**
      * Creates a new server bound to the specified port.
@@ -47,6 +77,21 @@ public final class Server implements Closeable {
      */
     public Server(int port) {
         this.port = port;
+        this.unixAddress = null;
+    }
+
+    /**
+     * Creates a new server that listens on a Unix domain socket, for clients on the same host such as a local proxy.
+     * Requests are served exactly as on TCP, without the loopback network stack. The socket file is created when the
+     * server starts and deleted when it stops; a file left behind by a server that did not stop cleanly makes
+     * {@link #start()} fail and must be removed first. TLS and custom socket factories are not available on a domain
+     * socket.
+     *
+     * @param address path of the socket file
+     */
+    public Server(UnixDomainSocketAddress address) {
+        this.port = -1;
+        this.unixAddress = Objects.requireNonNull(address, "address");
     }
 
     private void throwIfRunning() {
@@ -94,6 +139,62 @@ public final class Server implements Closeable {
         setServerSocketFactory(Objects.requireNonNull(sslContext, "sslContext").getServerSocketFactory());
     }
 
+    /**
+     * Installs a listener for connection events and request phase timestamps. The accept queue is measured from the
+     * moment a connection is accepted until a worker picks it up.
+     *
+     * @param listener lifecycle listener, or {@code null} to take no timestamps
+     */
+    public void setLifecycleListener(LifecycleListener listener) {
+        throwIfRunning();
+        this.lifecycleListener = listener;
+    }
+
+    /**
+     * Sets the limits applied while reading request bodies. A request whose {@code Content-Length} exceeds the limit
+     * is answered with {@code 413} without reading its body.
+     *
+     * @param limits body limits
+     */
+    public void setBodyLimits(BodyLimits limits) {
+        throwIfRunning();
+        this.bodyLimits = Objects.requireNonNull(limits, "limits");
+    }
+
+    /**
+     * Sets the options applied to WebSocket connections. Each open connection keeps the worker thread that accepted
+     * it, so a bounded {@linkplain #setExecutorService(ExecutorService) executor} also bounds the number of
+     * connections; the default executor grows with them.
+     *
+     * @param options WebSocket options
+     */
+    public void setWebSocketOptions(WebSocketOptions options) {
+        throwIfRunning();
+        this.webSocketOptions = Objects.requireNonNull(options, "options");
+    }
+
+    /**
+     * Sets the options applied to event streams. Like WebSocket connections, each open stream keeps the worker thread
+     * that wrote its head.
+     *
+     * @param options event stream options
+     */
+    public void setEventStreamOptions(EventStreamOptions options) {
+        throwIfRunning();
+        this.eventStreamOptions = Objects.requireNonNull(options, "options");
+    }
+
+    /**
+     * Returns the connection metrics. Accepted sockets count as {@link ConnectionMetrics.State#QUEUED} until a worker
+     * picks them up, which makes the queue in front of the {@linkplain #setExecutorService(ExecutorService) executor}
+     * visible; WebSocket connections and event streams count as {@link ConnectionMetrics.State#IDLE}.
+     *
+     * @return connection metrics
+     */
+    public ConnectionMetrics connectionMetrics() {
+        return connectionMetrics;
+    }
+
     /**
      * Installs middleware that wraps the final {@link RequestHandler}. Middlewares are invoked in the order
      * they are registered.
@@ -103,7 +204,7 @@ public final class Server implements Closeable {
     public void addMiddleware(RequestMiddleware middleware) {
         throwIfRunning();
         Objects.requireNonNull(middleware, "middleware");
-        middlewareChain = MiddlewareChain.append(middlewareChain, middleware);
+        middlewares.add(middleware);
     }
 
     /**
@@ -119,13 +220,25 @@ public final class Server implements Closeable {
             if (requestHandler == null) {
                 throw new IllegalStateException("Request handler must be configured before starting");
             }
-            RequestHandler finalHandler = middlewareChain == null ? requestHandler : middlewareChain.wrap(requestHandler);
+            RequestHandler finalHandler = MiddlewareChain.compile(middlewares, requestHandler);
             this.effectiveHandler = finalHandler;
+            if (unixAddress != null && serverSocketFactory != ServerSocketFactory.getDefault()) {
+                throw new IllegalStateException("Unix domain sockets support neither TLS nor a ServerSocketFactory");
+            }
             if (workers == null) {
                 workers = Executors.newCachedThreadPool(new WorkerFactory());
             }
-            serverSocket = serverSocketFactory.createServerSocket();
-            serverSocket.bind(new InetSocketAddress(port));
+            if (unixAddress != null) {
+                serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+                serverChannel.bind(unixAddress);
+            } else if (serverSocketFactory == ServerSocketFactory.getDefault()) {
+                // Sockets accepted through a channel have one too, so file bodies can be transferred to it directly.
+                serverSocket = ServerSocketChannel.open().socket();
+                serverSocket.bind(new InetSocketAddress(port));
+            } else {
+                serverSocket = serverSocketFactory.createServerSocket();
+                serverSocket.bind(new InetSocketAddress(port));
+            }
             running = true;
         }
 
@@ -140,13 +253,28 @@ public final class Server implements Closeable {
      * Stops accepting new connections and shuts down worker threads.
      */
     public synchronized void stop() {
-        if (!running && serverSocket == null) {
+        if (!running && serverSocket == null && serverChannel == null) {
             return;
         }
         running = false;
         closeQuietly(serverSocket);
         serverSocket = null;
+        if (serverChannel != null) {
+            closeQuietly(serverChannel);
+            serverChannel = null;
+            try {
+                Files.deleteIfExists(unixAddress.getPath());
+            } catch (IOException ignored) {
+                // ignored
+            }
+        }
         effectiveHandler = null;
+        for (ServerWebSocket webSocket : webSockets) {
+            webSocket.close(WebSocketSession.GOING_AWAY, "Server shutting down");
+        }
+        for (ServerEventStream eventStream : eventStreams) {
+            eventStream.close();
+        }
         ExecutorService executor = workers;
         workers = null;
         if (executor != null) {
@@ -176,13 +304,31 @@ public final class Server implements Closeable {
         return running;
     }
 
+    /**
+     * Returns the bound port, which differs from the configured one when {@code 0} was requested.
+     *
+     * @return bound port, the configured port while the server is not running, or {@code -1} for a server on a
+     *         Unix domain socket
+     */
+    public synchronized int port() {
+        ServerSocket socket = serverSocket;
+        return socket == null || socket.getLocalPort() <= 0 ? port : socket.getLocalPort();
+    }
+
     private void acceptLoop() {
         while (running) {
             try {
-                Socket client = serverSocket.accept();
-                client.setTcpNoDelay(true);
-                workers.submit(() -> handleClient(client));
-            } catch (SocketException socketClosed) {
+                if (serverChannel != null) {
+                    SocketChannel client = serverChannel.accept();
+                    dispatch(client, new ChannelInputStream(client), new ChannelOutputStream(client), client,
+                            client.getRemoteAddress(), false);
+                } else {
+                    Socket client = serverSocket.accept();
+                    client.setTcpNoDelay(true);
+                    dispatch(client, client.getInputStream(), client.getOutputStream(), client.getChannel(),
+                            client.getRemoteSocketAddress(), client instanceof SSLSocket);
+                }
+            } catch (SocketException | ClosedChannelException socketClosed) {
                 if (running) {
                     socketClosed.printStackTrace();
                 }
@@ -195,28 +341,121 @@ public final class Server implements Closeable {
         }
     }
 
-    private void handleClient(Socket socket) {
-        try (Socket client = socket;
-             InputStream in = new BufferedInputStream(client.getInputStream());
-             OutputStream out = new BufferedOutputStream(client.getOutputStream())) {
-            Request request = parseRequest(in);
+    /**
+     * Hands an accepted connection to a worker.
+     */
+    private void dispatch(Closeable client, InputStream input, OutputStream output, WritableByteChannel channel,
+            SocketAddress remoteAddress, boolean tls) {
+        LifecycleListener listener = lifecycleListener;
+        long accepted = 0;
+        if (listener != null) {
+            accepted = System.nanoTime();
+            listener.connectionOpened(remoteAddress, accepted);
+        }
+        ConnectionMetrics.Connection connection = connectionMetrics.open(ConnectionMetrics.State.QUEUED, tls);
+        long received = accepted;
+        ExecutorService executor = workers;
+        executor.submit(() ->
+                handleClient(client, input, output, channel, remoteAddress, connection, received, executor));
+    }
+
+    /**
+     * Serves one connection.
+     *
+     * @param channel channel of the socket for file transfers, or {@code null} if there is none or it carries TLS
+     */
+    private void handleClient(Closeable socket, InputStream input, OutputStream output, WritableByteChannel channel,
+            SocketAddress remoteAddress, ConnectionMetrics.Connection connection, long received, Executor executor) {
+        LifecycleListener listener = lifecycleListener;
+        Timeline timeline = listener == null ? null : new Timeline(received, System.nanoTime());
+        Request request = null;
+        try (Closeable client = socket;
+             InputStream in = new BufferedInputStream(input);
+             OutputStream out = new BufferedOutputStream(output)) {
+            connection.enter(ConnectionMetrics.State.READING);
+            try {
+                request = parseRequest(in, remoteAddress, timeline, bodyLimits, requestHandler);
+            } catch (PayloadTooLargeException tooLarge) {
+                connection.enter(ConnectionMetrics.State.WRITING);
+                writeResponse(out, channel, PAYLOAD_TOO_LARGE, false);
+                return;
+            }
             if (request == null) {
                 return;
             }
+            connection.enter(ConnectionMetrics.State.HANDLING);
             RequestHandler handler = this.effectiveHandler;
             Response response;
             try {
-                response = Objects.requireNonNullElseGet(handler.handle(request), () -> Response.text(HttpStatus.NO_CONTENT, ""));
+                response = Objects.requireNonNullElse(handler.handle(request), NO_CONTENT);
             } catch (Exception ex) {
-                response = Response.text(HttpStatus.INTERNAL_SERVER_ERROR, "Internal Server Error");
+                response = INTERNAL_ERROR;
+            }
+            if (timeline != null) {
+                timeline.handled = System.nanoTime();
+            }
+            if (response.webSocketHandler() != null) {
+                if (WebSocketProtocol.isUpgrade(request)) {
+                    connection.enter(ConnectionMetrics.State.IDLE);
+                    ServerWebSocket webSocket =
+                            ServerWebSocket.accept(client, in, out, executor, request, response, webSocketOptions);
+                    if (timeline != null) {
+                        listener.requestCompleted(timeline.complete(request, response, System.nanoTime()));
+                    }
+                    webSockets.add(webSocket);
+                    try {
+                        webSocket.run();
+                    } finally {
+                        webSockets.remove(webSocket);
+                    }
+                    return;
+                }
+                response = BAD_REQUEST;
+            }
+            if (response.eventStreamHandler() != null && request.method() != HttpMethod.HEAD) {
+                connection.enter(ConnectionMetrics.State.IDLE);
+                ServerEventStream eventStream =
+                        ServerEventStream.open(client, in, out, executor, request, response, eventStreamOptions);
+                if (timeline != null) {
+                    listener.requestCompleted(timeline.complete(request, response, System.nanoTime()));
+                }
+                eventStreams.add(eventStream);
+                try {
+                    eventStream.run();
+                } finally {
+                    eventStreams.remove(eventStream);
+                }
+                return;
+            }
+            connection.enter(ConnectionMetrics.State.WRITING);
+            writeResponse(out, channel, response, request.method() == HttpMethod.HEAD);
+            if (timeline != null) {
+                listener.requestCompleted(timeline.complete(request, response, System.nanoTime()));
             }
-            writeResponse(out, response);
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            if (request != null && request.bodyFile() != null) {
+                BodyBuffer.delete(request.bodyFile());
+            }
+            connection.close();
+            if (listener != null) {
+                listener.connectionClosed(remoteAddress, System.nanoTime());
+            }
         }
     }
 
-    private static Request parseRequest(InputStream input) throws IOException {
+    /**
+     * Reads one request from the connection. Package-private for the codec benchmarks.
+     *
+     * @param timeline receives the parse timestamps, or {@code null}
+     * @param routes handler consulted for a route-specific body limit, or {@code null}
+     * @return parsed request, or {@code null} if the connection carried no valid request line
+     * @throws PayloadTooLargeException if the declared body length exceeds the limit; the body is left unread
+     */
+    static Request parseRequest(
+            InputStream input, SocketAddress remoteAddress, Timeline timeline, BodyLimits limits, RequestHandler routes)
+            throws IOException {
         String requestLine = readLine(input);
         if (requestLine == null || requestLine.isEmpty()) {
             return null;
@@ -243,50 +482,69 @@ public final class Server implements Closeable {
             }
         }
 
-        int contentLength = headers.entrySet().stream()
-                .filter(entry -> entry.getKey().equalsIgnoreCase("Content-Length"))
-                .findFirst()
-                .map(entry -> parseInt(entry.getValue()))
-                .orElse(0);
+        if (timeline != null) {
+            timeline.headersParsed = System.nanoTime();
+        }
+        HeaderView headerView = HeaderView.wrap(headers);
+        String contentLengthHeader = headerView.get("Content-Length");
+        long contentLength = contentLengthHeader == null ? 0 : parseLength(contentLengthHeader);
 
-        byte[] body = readBody(input, contentLength);
-        return new Request(method, target, version, Collections.unmodifiableMap(headers), body);
+        BodyBuffer body = new BodyBuffer(limits, limits.maxBytesFor(routes, method, target), contentLength);
+        try {
+            body.transferFrom(input, contentLength);
+            if (timeline != null) {
+                timeline.bodyRead = System.nanoTime();
+            }
+            // A spilled body stays in its file until the connection is done with the request.
+            return body.toRequest(method, target, version, headerView, remoteAddress);
+        } catch (IOException | RuntimeException e) {
+            body.close();
+            throw e;
+        }
     }
 
-    private static int parseInt(String value) {
+    private static long parseLength(String value) {
         try {
-            return Integer.parseInt(value);
+            return Math.max(0, Long.parseLong(value));
         } catch (NumberFormatException e) {
             return 0;
         }
     }
 
-    private static byte[] readBody(InputStream input, int contentLength) throws IOException {
-        if (contentLength <= 0) {
-            return new byte[0];
+    /**
+     * Writes a response to the connection. Package-private for the codec benchmarks.
+     *
+     * @param channel the socket's channel, to which file bodies are transferred directly, or {@code null} to copy
+     *                them through {@code out}
+     */
+    static void writeResponse(OutputStream out, WritableByteChannel channel, Response response, boolean headOnly)
+            throws IOException {
+        if (response.encoded() == null && response.bodyRegion() != null) {
+            // Preparing a file-backed response only encodes its head; the body stays in the file.
+            response = response.prepare();
         }
-        byte[] body = new byte[contentLength];
-        int offset = 0;
-        while (offset < contentLength) {
-            int read = input.read(body, offset, contentLength - offset);
-            if (read == -1) {
-                break;
+        // HEAD responses announce the headers of the full response but carry no body.
+        boolean sendBody = !headOnly && EncodedResponse.hasContent(response.statusCode());
+        EncodedResponse encoded = response.encoded();
+        if (encoded != null) {
+            encoded.writeHead(out);
+            BodyRegion region = encoded.bodyRegion();
+            if (sendBody && region != null && channel != null) {
+                out.flush();
+                region.transferTo(channel);
+            } else if (sendBody && region != null) {
+                // TLS sockets and those from a custom ServerSocketFactory have no usable channel, so the transfer
+                // goes through the stream's buffer in small chunks rather than loading the whole body.
+                region.transferTo(Channels.newChannel(out));
+            } else if (sendBody) {
+                out.write(response.body());
             }
-            offset += read;
-        }
-        if (offset < contentLength) {
-            byte[] truncated = new byte[offset];
-            System.arraycopy(body, 0, truncated, 0, offset);
-            return truncated;
+            out.flush();
+            return;
         }
-        return body;
-    }
-
-    private static void writeResponse(OutputStream out, Response response) throws IOException {
-        byte[] body = response.body();
-        Map<String, String> headers = new LinkedHashMap<>(response.headers());
-        headers.putIfAbsent("Content-Length", String.valueOf(body.length));
-        headers.putIfAbsent("Content-Type", "text/plain; charset=UTF-8");
+        byte[] body = sendBody ? response.body() : null;
+        Map<String, String> headers =
+                EncodedResponse.wireHeaders(response.statusCode(), response.headers(), response.bodyLength());
         headers.put("Connection", "close");
 
         StringBuilder head = new StringBuilder()
@@ -298,7 +556,9 @@ public final class Server implements Closeable {
         headers.forEach((key, value) -> head.append(key).append(": ").append(value).append("\r\n"));
         head.append("\r\n");
         out.write(head.toString().getBytes(StandardCharsets.UTF_8));
-        out.write(body);
+        if (body != null) {
+            out.write(body);
+        }
         out.flush();
     }
 
@@ -324,7 +584,7 @@ public final class Server implements Closeable {
         return buffer.toString(StandardCharsets.UTF_8);
     }
 
-    private static void closeQuietly(ServerSocket socket) {
+    private static void closeQuietly(Closeable socket) {
         if (socket != null) {
             try {
                 socket.close();
@@ -334,6 +594,88 @@ public final class Server implements Closeable {
         }
     }
 
+    /**
+     * Phase timestamps of the request being handled on a connection, collected only while a listener is installed.
+     */
+    static final class Timeline {
+        private final long received;
+        private final long started;
+        private long headersParsed;
+        private long bodyRead;
+        private long handled;
+
+        Timeline(long received, long started) {
+            this.received = received;
+            this.started = started;
+        }
+
+        RequestTimings complete(Request request, Response response, long written) {
+            return new RequestTimings(request.method(), request.route(), response.statusCode(),
+                    received, started, headersParsed, bodyRead, handled, written);
+        }
+    }
+
+    /**
+     * Reads a domain socket channel directly. The streams of {@link Channels} take the channel's blocking lock on
+     * every call before JDK 19 (JDK-8279339), so a read blocked waiting for the client would hold up writes from other
+     * threads; the channel itself has separate read and write locks, which lets WebSocket connections and event
+     * streams read and write at the same time as on TCP.
+     */
+    private static final class ChannelInputStream extends InputStream {
+        private final SocketChannel channel;
+
+        ChannelInputStream(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, b.length);
+            return len == 0 ? 0 : channel.read(ByteBuffer.wrap(b, off, len));
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes a domain socket channel directly, for the reason given on {@link ChannelInputStream}.
+     */
+    private static final class ChannelOutputStream extends OutputStream {
+        private final SocketChannel channel;
+
+        ChannelOutputStream(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, b.length);
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
     private static final class WorkerFactory implements ThreadFactory {
         private int counter;
 
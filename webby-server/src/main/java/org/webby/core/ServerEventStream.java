@@ -0,0 +1,116 @@
+package org.webby.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Event stream of the native {@link Server}.
+ *
+ * <p>The body is delimited by closing the connection, as the server does for every response. The worker thread that
+ * wrote the head stays with the connection and reads from it, which is how a client hanging up is noticed; writes run
+ * as tasks on the server's executor, so sending never blocks on a slow client.
+ */
+final class ServerEventStream extends AbstractEventStream {
+    private final Closeable socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private final Executor writer;
+
+    private ServerEventStream(Closeable socket, InputStream in, OutputStream out, Executor writer, Request request,
+            EventStreamHandler handler, EventStreamOptions options) {
+        super(request, handler, options);
+        this.socket = socket;
+        this.in = in;
+        this.out = out;
+        this.writer = writer;
+    }
+
+    /**
+     * Writes the head of an event stream response.
+     *
+     * @param response the handler's {@linkplain Response#eventStream(EventStreamHandler) event stream response}
+     * @return the stream, ready to {@link #run()}
+     */
+    static ServerEventStream open(Closeable socket, InputStream in, OutputStream out, Executor writer, Request request,
+            Response response, EventStreamOptions options) throws IOException {
+        StringBuilder head = new StringBuilder(128)
+                .append("HTTP/1.1 ")
+                .append(response.statusCode())
+                .append(' ')
+                .append(response.reasonPhrase())
+                .append("\r\n");
+        response.headers().forEach((name, value) -> head.append(name).append(": ").append(value).append("\r\n"));
+        head.append("Connection: close\r\n\r\n");
+        out.write(head.toString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        return new ServerEventStream(socket, in, out, writer, request, response.eventStreamHandler(), options);
+    }
+
+    /**
+     * Opens the stream and waits for the connection to end. Runs on the worker thread that wrote the head.
+     */
+    void run() {
+        deliverOpen();
+        byte[] discard = new byte[256];
+        try {
+            // Clients send nothing after the request, so reading only reveals when they hang up.
+            while (in.read(discard) != -1) {
+                // discard
+            }
+        } catch (IOException ignored) {
+            // The connection is gone either way.
+        }
+        disconnected();
+    }
+
+    @Override
+    protected void write(ByteBuffer data, CompletableFuture<Void> done) {
+        try {
+            writer.execute(() -> writeNow(data, done));
+        } catch (RejectedExecutionException shuttingDown) {
+            writeNow(data, done);
+        }
+    }
+
+    private void writeNow(ByteBuffer data, CompletableFuture<Void> done) {
+        try {
+            if (data.hasArray()) {
+                out.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            } else {
+                byte[] bytes = new byte[data.remaining()];
+                data.duplicate().get(bytes);
+                out.write(bytes);
+            }
+            out.flush();
+            done.complete(null);
+        } catch (IOException e) {
+            done.completeExceptionally(e);
+        }
+    }
+
+    @Override
+    protected void finish() {
+        // Everything written has been flushed; closing the connection ends the body and the reader.
+        closeSocket();
+    }
+
+    @Override
+    protected void abort() {
+        closeSocket();
+    }
+
+    private void closeSocket() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // ignored
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package org.webby.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WebSocket connection of the native {@link Server}.
+ *
+ * <p>The worker thread that accepted the upgrade stays with the connection and reads it frame by frame, so the next
+ * frame is only read once the handler has returned. Sends are queued and written by a task on the server's executor:
+ * a sender never blocks on a slow client, frames queued while one is being written go out with a single flush, and
+ * the queue is bounded by {@link WebSocketOptions#maxBufferedBytes()}.
+ *
+ * <p>After this side's close frame has been written, the peer gets {@link #CLOSE_TIMEOUT_MILLIS} to answer it before
+ * the socket is closed.
+ */
+final class ServerWebSocket extends AbstractWebSocketSession {
+    static final long CLOSE_TIMEOUT_MILLIS = 5_000;
+
+    private final Closeable socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private final Executor writer;
+    private final int maxMessageBytes;
+    private final WebSocketProtocol.Deflate deflate;
+    private final ArrayDeque<Outgoing> queue = new ArrayDeque<>();
+    private final CountDownLatch readerDone = new CountDownLatch(1);
+    private boolean writing;
+    private boolean broken;
+
+    private ServerWebSocket(Closeable socket, InputStream in, OutputStream out, Executor writer, Request request,
+            WebSocketHandler handler, WebSocketOptions options, boolean deflate) {
+        super(request, handler, options);
+        this.socket = socket;
+        this.in = in;
+        this.out = out;
+        this.writer = writer;
+        this.maxMessageBytes = options.maxMessageBytes();
+        this.deflate = deflate ? new WebSocketProtocol.Deflate() : null;
+    }
+
+    /**
+     * Answers an upgrade request with {@code 101 Switching Protocols}, including the headers of {@code response}.
+     *
+     * @param request request for which {@link WebSocketProtocol#isUpgrade(Request)} holds
+     * @param response the handler's {@linkplain Response#webSocket(WebSocketHandler) upgrade response}
+     * @return the connection, ready to {@link #run()}
+     */
+    static ServerWebSocket accept(Closeable socket, InputStream in, OutputStream out, Executor writer, Request request,
+            Response response, WebSocketOptions options) throws IOException {
+        boolean deflate = options.compression()
+                && WebSocketProtocol.acceptsDeflate(request.header("Sec-WebSocket-Extensions"));
+        StringBuilder head = new StringBuilder(256)
+                .append("HTTP/1.1 101 Switching Protocols\r\n")
+                .append("Upgrade: websocket\r\n")
+                .append("Connection: Upgrade\r\n")
+                .append("Sec-WebSocket-Accept: ")
+                .append(WebSocketProtocol.acceptKey(request.header("Sec-WebSocket-Key")))
+                .append("\r\n");
+        if (deflate) {
+            head.append("Sec-WebSocket-Extensions: ").append(WebSocketProtocol.DEFLATE_RESPONSE).append("\r\n");
+        }
+        response.headers().forEach((name, value) -> head.append(name).append(": ").append(value).append("\r\n"));
+        head.append("\r\n");
+        out.write(head.toString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        return new ServerWebSocket(
+                socket, in, out, writer, request, response.webSocketHandler(), options, deflate);
+    }
+
+    /**
+     * Delivers the connection's events until it closes. Runs on the worker thread that accepted the upgrade.
+     */
+    void run() {
+        deliverOpen();
+        int code = ABNORMAL_CLOSURE;
+        String reason = "";
+        try {
+            byte[] close = readMessages();
+            if (close != null) {
+                code = WebSocketProtocol.closeCode(close);
+                reason = WebSocketProtocol.closeReason(close);
+                if (startClosing()) {
+                    // Echo the peer's close, as the closing handshake requires.
+                    int echo = code == NO_STATUS_RECEIVED ? NORMAL_CLOSURE : code;
+                    enqueue(WebSocketProtocol.CLOSE, false,
+                            WebSocketProtocol.closePayload(echo, ""), new CompletableFuture<>());
+                }
+            }
+        } catch (WebSocketProtocol.FrameException e) {
+            deliverError(e);
+            code = e.code();
+            reason = e.getMessage();
+            if (startClosing()) {
+                enqueue(WebSocketProtocol.CLOSE, false,
+                        WebSocketProtocol.closePayload(code, reason), new CompletableFuture<>());
+            }
+        } catch (IOException e) {
+            if (isOpen()) {
+                deliverError(e);
+            }
+        } finally {
+            readerDone.countDown();
+            deliverClose(code, reason);
+            finish();
+        }
+    }
+
+    /**
+     * Reads frames and delivers messages until the peer sends a close frame.
+     *
+     * @return payload of the peer's close frame, or {@code null} if the connection ended without one
+     */
+    private byte[] readMessages() throws IOException {
+        int type = -1;
+        boolean compressed = false;
+        byte[] first = null;
+        ByteArrayOutputStream fragments = null;
+        while (true) {
+            long received = fragments != null ? fragments.size() : first != null ? first.length : 0;
+            WebSocketProtocol.Frame frame =
+                    WebSocketProtocol.readFrame(in, maxMessageBytes - received, deflate != null);
+            if (frame == null) {
+                return null;
+            }
+            byte[] payload = frame.payload();
+            switch (frame.opcode()) {
+                case WebSocketProtocol.PING -> enqueue(
+                        WebSocketProtocol.PONG, false, ByteBuffer.wrap(payload), new CompletableFuture<>());
+                case WebSocketProtocol.PONG -> {
+                    // Unsolicited pongs are allowed and need no answer.
+                }
+                case WebSocketProtocol.CLOSE -> {
+                    return payload;
+                }
+                case WebSocketProtocol.CONTINUATION -> {
+                    if (type < 0 || frame.compressed()) {
+                        throw new WebSocketProtocol.FrameException(PROTOCOL_ERROR, "unexpected continuation frame");
+                    }
+                    if (fragments == null) {
+                        fragments = new ByteArrayOutputStream(first.length + payload.length);
+                        fragments.writeBytes(first);
+                    }
+                    fragments.writeBytes(payload);
+                }
+                default -> {
+                    if (type >= 0) {
+                        throw new WebSocketProtocol.FrameException(PROTOCOL_ERROR, "expected a continuation frame");
+                    }
+                    type = frame.opcode();
+                    compressed = frame.compressed();
+                    first = payload;
+                }
+            }
+            if (frame.fin() && type >= 0 && frame.opcode() < WebSocketProtocol.CLOSE) {
+                byte[] message = fragments != null ? fragments.toByteArray() : first;
+                if (compressed) {
+                    message = deflate.decompress(message, message.length, maxMessageBytes);
+                }
+                if (type == WebSocketProtocol.TEXT) {
+                    deliverText(WebSocketProtocol.decodeText(message, 0, message.length));
+                } else {
+                    deliverBinary(ByteBuffer.wrap(message));
+                }
+                type = -1;
+                first = null;
+                fragments = null;
+            }
+        }
+    }
+
+    @Override
+    protected void write(boolean text, ByteBuffer payload, CompletableFuture<Void> done) {
+        boolean compress = deflate != null && payload.remaining() >= WebSocketProtocol.Deflate.MIN_COMPRESSED_BYTES;
+        enqueue(text ? WebSocketProtocol.TEXT : WebSocketProtocol.BINARY, compress,
+                compress ? deflate.compress(payload) : payload, done);
+    }
+
+    @Override
+    protected void writeClose(int code, String reason, CompletableFuture<Void> done) {
+        enqueue(WebSocketProtocol.CLOSE, false, WebSocketProtocol.closePayload(code, reason), done);
+    }
+
+    private void enqueue(int opcode, boolean compressed, ByteBuffer payload, CompletableFuture<Void> done) {
+        synchronized (queue) {
+            if (broken) {
+                done.completeExceptionally(new ClosedChannelException());
+                return;
+            }
+            queue.add(new Outgoing(opcode, compressed, payload, done));
+            if (writing) {
+                return;
+            }
+            writing = true;
+        }
+        try {
+            writer.execute(this::drain);
+        } catch (RejectedExecutionException shuttingDown) {
+            drain();
+        }
+    }
+
+    /**
+     * Writes queued frames until the queue is empty, flushing whenever it runs dry.
+     */
+    private void drain() {
+        List<Outgoing> unflushed = new ArrayList<>();
+        try {
+            while (true) {
+                Outgoing next;
+                synchronized (queue) {
+                    next = queue.poll();
+                    if (next == null && unflushed.isEmpty()) {
+                        writing = false;
+                        queue.notifyAll();
+                        return;
+                    }
+                }
+                if (next != null) {
+                    WebSocketProtocol.writeFrame(out, next.opcode(), next.compressed(), next.payload());
+                    unflushed.add(next);
+                }
+                if (next == null || next.opcode() == WebSocketProtocol.CLOSE) {
+                    out.flush();
+                    for (Outgoing written : unflushed) {
+                        written.done().complete(null);
+                    }
+                    unflushed.clear();
+                }
+                if (next != null && next.opcode() == WebSocketProtocol.CLOSE) {
+                    awaitPeerClose();
+                }
+            }
+        } catch (IOException e) {
+            List<Outgoing> failed = new ArrayList<>(unflushed);
+            synchronized (queue) {
+                broken = true;
+                writing = false;
+                failed.addAll(queue);
+                queue.clear();
+                queue.notifyAll();
+            }
+            for (Outgoing outgoing : failed) {
+                outgoing.done().completeExceptionally(e);
+            }
+            closeSocket();
+        }
+    }
+
+    /**
+     * Gives the peer time to answer this side's close frame, then closes the socket, which ends the reader.
+     */
+    private void awaitPeerClose() {
+        try {
+            if (!readerDone.await(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                closeSocket();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            closeSocket();
+        }
+    }
+
+    /**
+     * Lets the writer finish the close frame, then fails whatever is still queued and releases the deflate state.
+     */
+    private void finish() {
+        List<Outgoing> failed;
+        synchronized (queue) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_TIMEOUT_MILLIS);
+            long remaining;
+            while (writing && (remaining = deadline - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(queue, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (writing) {
+                // The client stopped reading; closing the socket fails the blocked write.
+                closeSocket();
+            }
+            broken = true;
+            failed = new ArrayList<>(queue);
+            queue.clear();
+        }
+        for (Outgoing outgoing : failed) {
+            outgoing.done().completeExceptionally(new ClosedChannelException());
+        }
+        if (deflate != null) {
+            deflate.end();
+        }
+    }
+
+    private void closeSocket() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // ignored
+        }
+    }
+
+    private record Outgoing(int opcode, boolean compressed, ByteBuffer payload, CompletableFuture<Void> done) {
+    }
+}
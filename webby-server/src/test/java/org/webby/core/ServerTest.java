@@ -1,6 +1,7 @@
 package org.webby.core;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -12,9 +13,23 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocket;
@@ -164,6 +179,350 @@ class ServerTest {
         }
     }
 
+    @Test
+    void preparedResponsesAreWrittenVerbatim() throws Exception {
+        int port = nextPort();
+        Response health = new Response(HttpStatus.OK, Map.of("Cache-Control", "no-store"),
+                "OK".getBytes(StandardCharsets.UTF_8)).prepare();
+        Server server = new Server(port);
+        server.setRequestHandler(request -> health);
+        server.setExecutorService(Executors.newVirtualThreadPerTaskExecutor());
+        Thread serverThread = runServerAsync(server);
+        awaitServer(port);
+
+        try {
+            String response = sendHttpRequest(port, "GET /health HTTP/1.1\r\n"
+                    + "Host: localhost\r\n\r\n");
+            assertEquals("HTTP/1.1 200 OK\r\n"
+                    + "Cache-Control: no-store\r\n"
+                    + "Content-Type: text/plain; charset=UTF-8\r\n"
+                    + "Content-Length: 2\r\n"
+                    + "Connection: close\r\n\r\n"
+                    + "OK", response);
+        } finally {
+            stopServer(server, serverThread);
+        }
+    }
+
+    @Test
+    void headRequestsReceiveHeadersWithoutBody() throws Exception {
+        int port = nextPort();
+        Server server = new Server(port);
+        server.setRequestHandler(new Router().get("/hello", request -> Response.text(HttpStatus.OK, "hello")));
+        server.setExecutorService(Executors.newVirtualThreadPerTaskExecutor());
+        Thread serverThread = runServerAsync(server);
+        awaitServer(port);
+
+        try {
+            String response = sendHttpRequest(port, "HEAD /hello HTTP/1.1\r\n"
+                    + "Host: localhost\r\n\r\n");
+            assertTrue(response.startsWith("HTTP/1.1 200 OK"));
+            assertTrue(response.contains("Content-Length: 5"));
+            assertEquals("", responseBody(response));
+        } finally {
+            stopServer(server, serverThread);
+        }
+    }
+
+    @Test
+    void fileBackedBodiesAreTransferredFromTheFile() throws Exception {
+        int port = nextPort();
+        Path file = Files.createTempFile("webby-body", ".txt");
+        Files.writeString(file, "skipped|file body|skipped");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Response response = Response.file(HttpStatus.OK, Map.of(), new BodyRegion(channel, 8, 9));
+            Server server = new Server(port);
+            server.setRequestHandler(request -> response);
+            server.setExecutorService(Executors.newVirtualThreadPerTaskExecutor());
+            Thread serverThread = runServerAsync(server);
+            awaitServer(port);
+
+            try {
+                String reply = sendHttpRequest(port, "GET /file HTTP/1.1\r\n"
+                        + "Host: localhost\r\n\r\n");
+                assertTrue(reply.contains("Content-Length: 9"));
+                assertEquals("file body", responseBody(reply));
+            } finally {
+                stopServer(server, serverThread);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void lifecycleListenerReceivesOrderedPhaseTimestamps() throws Exception {
+        int port = nextPort();
+        AtomicReference<RequestTimings> timings = new AtomicReference<>();
+        CountDownLatch completions = new CountDownLatch(1);
+        LifecycleRecorder recorder = new LifecycleRecorder();
+        Server server = new Server(port);
+        server.setRequestHandler(new Router().post("/items/{id}", request -> Response.text(HttpStatus.CREATED, "ok")));
+        server.setExecutorService(Executors.newVirtualThreadPerTaskExecutor());
+        server.setLifecycleListener(new LifecycleListener() {
+            @Override
+            public void connectionOpened(SocketAddress remoteAddress, long nanos) {
+                recorder.connectionOpened(remoteAddress, nanos);
+            }
+
+            @Override
+            public void requestCompleted(RequestTimings completed) {
+                timings.set(completed);
+                recorder.requestCompleted(completed);
+                completions.countDown();
+            }
+
+            @Override
+            public void connectionClosed(SocketAddress remoteAddress, long nanos) {
+                recorder.connectionClosed(remoteAddress, nanos);
+            }
+        });
+        Thread serverThread = runServerAsync(server);
+        awaitServer(port);
+
+        try {
+            sendHttpRequest(port, "POST /items/7 HTTP/1.1\r\n"
+                    + "Host: localhost\r\n"
+                    + "Content-Length: 4\r\n\r\n", "body".getBytes(StandardCharsets.UTF_8));
+            assertTrue(completions.await(5, TimeUnit.SECONDS));
+
+            RequestTimings completed = timings.get();
+            assertEquals(HttpMethod.POST, completed.method());
+            assertEquals("/items/{id}", completed.route());
+            assertEquals(201, completed.status());
+            long[] phases = {completed.received(), completed.started(), completed.headersParsed(),
+                    completed.bodyRead(), completed.handled(), completed.written()};
+            for (int i = 1; i < phases.length; i++) {
+                assertTrue(phases[i] >= phases[i - 1], "phase " + i);
+            }
+            assertEquals(1, recorder.histogram(LifecycleRecorder.Phase.TOTAL).count());
+            // The readiness probe opened a connection as well.
+            assertEquals(2, recorder.connectionsOpened());
+        } finally {
+            stopServer(server, serverThread);
+        }
+    }
+
+    @Test
+    void connectionMetricsFollowConnectionsThroughTheirStates() throws Exception {
+        int port = nextPort();
+        Server server = new Server(port);
+        ConnectionMetrics metrics = server.connectionMetrics();
+        AtomicLong handling = new AtomicLong(-1);
+        server.setRequestHandler(request -> {
+            handling.set(metrics.connections(ConnectionMetrics.State.HANDLING));
+            return Response.text(HttpStatus.OK, "ok");
+        });
+        server.setExecutorService(Executors.newVirtualThreadPerTaskExecutor());
+        Thread serverThread = runServerAsync(server);
+        awaitServer(port);
+
+        try {
+            sendHttpRequest(port, "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            assertEquals(1, handling.get());
+
+            long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+            while (metrics.openConnections() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(0, metrics.openConnections());
+            // The readiness probe opened a connection as well.
+            assertEquals(2, metrics.acceptedConnections());
+            assertEquals(2, metrics.lifetime().count());
+            assertEquals(0, metrics.openTlsConnections());
+        } finally {
+            stopServer(server, serverThread);
+        }
+    }
+
+    @Test
+    void servesRequestsOnAUnixDomainSocket() throws Exception {
+        Path directory = Files.createTempDirectory("webby-uds");
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(directory.resolve("webby.sock"));
+        AtomicReference<SocketAddress> remote = new AtomicReference<>();
+        Server server = new Server(address);
+        server.setRequestHandler(new Router().post("/echo", request -> {
+            remote.set(request.remoteAddress());
+            return Response.text(HttpStatus.OK, new String(request.body(), StandardCharsets.UTF_8));
+        }));
+        server.setExecutorService(Executors.newVirtualThreadPerTaskExecutor());
+        Thread serverThread = runServerAsync(server);
+
+        try {
+            String response = null;
+            long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+            while (response == null) {
+                try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+                    channel.connect(address);
+                    channel.write(ByteBuffer.wrap(("POST /echo HTTP/1.1\r\nHost: localhost\r\n"
+                            + "Content-Length: 5\r\n\r\nhello").getBytes(StandardCharsets.UTF_8)));
+                    channel.shutdownOutput();
+                    response = new String(Channels.newInputStream(channel).readAllBytes(), StandardCharsets.UTF_8);
+                } catch (IOException notYetBound) {
+                    assertTrue(System.nanoTime() < deadline, "server did not start in time");
+                    Thread.sleep(20);
+                }
+            }
+
+            assertTrue(response.startsWith("HTTP/1.1 200 OK"));
+            assertEquals("hello", responseBody(response));
+            assertTrue(remote.get() instanceof UnixDomainSocketAddress);
+            assertEquals(-1, server.port());
+        } finally {
+            stopServer(server, serverThread);
+        }
+        assertFalse(Files.exists(address.getPath()));
+        Files.delete(directory);
+    }
+
+    @Test
+    void bodiesAreLimitedAndSpilledToDisk() throws Exception {
+        Path directory = Files.createTempDirectory("webby-body");
+        AtomicReference<Path> spilled = new AtomicReference<>();
+        int port = nextPort();
+        Server server = new Server(port);
+        server.setRequestHandler(new Router()
+                .post("/notes", request -> Response.text(HttpStatus.OK, "stored"))
+                .route(HttpMethod.POST, "/uploads", request -> {
+                    spilled.set(request.bodyFile());
+                    try (InputStream body = request.bodyStream()) {
+                        return Response.text(HttpStatus.OK, Integer.toString(body.readAllBytes().length));
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }, new BodyLimitMiddleware(1024)));
+        server.setBodyLimits(new BodyLimits(64, 16, directory));
+        server.setExecutorService(Executors.newVirtualThreadPerTaskExecutor());
+        Thread serverThread = runServerAsync(server);
+        awaitServer(port);
+
+        try {
+            String tooLarge = sendHttpRequest(port, "POST /notes HTTP/1.1\r\n"
+                    + "Host: localhost\r\n"
+                    + "Content-Length: 100\r\n\r\n");
+            assertTrue(tooLarge.startsWith("HTTP/1.1 413 Payload Too Large"));
+
+            byte[] upload = new byte[200];
+            String accepted = sendHttpRequest(port, "POST /uploads HTTP/1.1\r\n"
+                    + "Host: localhost\r\n"
+                    + "Content-Length: 200\r\n\r\n", upload);
+            assertTrue(accepted.startsWith("HTTP/1.1 200 OK"));
+            assertEquals("200", responseBody(accepted));
+            assertEquals(directory, spilled.get().getParent());
+            long deadline = System.nanoTime() + Duration.ofSeconds(2).toNanos();
+            while (Files.exists(spilled.get()) && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(Files.notExists(spilled.get()));
+        } finally {
+            stopServer(server, serverThread);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    @Test
+    void webSocketsEchoMessagesAndCompleteTheClosingHandshake() throws Exception {
+        int port = nextPort();
+        CountDownLatch closed = new CountDownLatch(1);
+        AtomicReference<String> room = new AtomicReference<>();
+        Server server = new Server(port);
+        server.setRequestHandler(new Router().webSocket("/rooms/{room}", new WebSocketHandler() {
+            @Override
+            public void onOpen(WebSocketSession session) {
+                room.set(session.request().getPathVariable("room"));
+            }
+
+            @Override
+            public void onText(WebSocketSession session, String message) {
+                session.sendText("echo: " + message);
+            }
+
+            @Override
+            public void onClose(WebSocketSession session, int code, String reason) {
+                closed.countDown();
+            }
+        }));
+        server.setExecutorService(Executors.newVirtualThreadPerTaskExecutor());
+        Thread serverThread = runServerAsync(server);
+        awaitServer(port);
+
+        try {
+            String plain = sendHttpRequest(port, "GET /rooms/lobby HTTP/1.1\r\n"
+                    + "Host: localhost\r\n\r\n");
+            assertTrue(plain.startsWith("HTTP/1.1 426 Upgrade Required"), plain);
+
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1000);
+                socket.setSoTimeout(2000);
+                OutputStream out = socket.getOutputStream();
+                InputStream in = socket.getInputStream();
+                out.write(("GET /rooms/lobby HTTP/1.1\r\n"
+                        + "Host: localhost\r\n"
+                        + "Upgrade: websocket\r\n"
+                        + "Connection: Upgrade\r\n"
+                        + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+                        + "Sec-WebSocket-Version: 13\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                String head = readHead(in);
+                assertTrue(head.startsWith("HTTP/1.1 101 Switching Protocols"), head);
+                assertTrue(head.contains("Sec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo="), head);
+
+                out.write(clientFrame(0x1, "hello".getBytes(StandardCharsets.UTF_8)));
+                out.flush();
+                byte[] echo = readServerFrame(in, 0x1);
+                assertEquals("echo: hello", new String(echo, StandardCharsets.UTF_8));
+                assertEquals("lobby", room.get());
+
+                out.write(clientFrame(0x8, new byte[] {0x03, (byte) 0xE8}));
+                out.flush();
+                byte[] close = readServerFrame(in, 0x8);
+                assertEquals(1000, ((close[0] & 0xFF) << 8) | (close[1] & 0xFF));
+                assertEquals(-1, in.read());
+            }
+            assertTrue(closed.await(2, TimeUnit.SECONDS));
+        } finally {
+            stopServer(server, serverThread);
+        }
+    }
+
+    @Test
+    void eventStreamsDeliverPublishedEventsUntilClosed() throws Exception {
+        int port = nextPort();
+        EventBroadcaster broadcaster = new EventBroadcaster();
+        Server server = new Server(port);
+        server.setRequestHandler(new Router().get("/events", request -> Response.eventStream(broadcaster)));
+        server.setExecutorService(Executors.newVirtualThreadPerTaskExecutor());
+        Thread serverThread = runServerAsync(server);
+        awaitServer(port);
+
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1000);
+            socket.setSoTimeout(2000);
+            socket.getOutputStream().write(("GET /events HTTP/1.1\r\n"
+                    + "Host: localhost\r\n"
+                    + "Accept: text/event-stream\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            socket.getOutputStream().flush();
+            InputStream in = socket.getInputStream();
+            String head = readHead(in);
+            assertTrue(head.startsWith("HTTP/1.1 200 OK"), head);
+            assertTrue(head.contains("Content-Type: text/event-stream"), head);
+
+            long deadline = System.nanoTime() + Duration.ofSeconds(2).toNanos();
+            while (broadcaster.subscribers() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            ServerSentEvent event = new ServerSentEvent("1", "greeting", "hello");
+            assertEquals(1, broadcaster.publish(event));
+            byte[] received = in.readNBytes(event.encodedLength());
+            assertEquals("id: 1\nevent: greeting\ndata: hello\n\n", new String(received, StandardCharsets.UTF_8));
+
+            broadcaster.closeAll();
+            assertEquals(-1, in.read());
+        } finally {
+            stopServer(server, serverThread);
+        }
+    }
+
     @Test
     void tlsServerServesRequests() throws Exception {
         int port = nextPort();
@@ -268,6 +627,40 @@ class ServerTest {
         return buffer.toString(StandardCharsets.UTF_8);
     }
 
+    private static String readHead(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int matched = 0;
+        while (matched < 4) {
+            int next = in.read();
+            if (next == -1) {
+                throw new IOException("Connection closed before the end of the response head");
+            }
+            head.write(next);
+            matched = next == (matched % 2 == 0 ? '\r' : '\n') ? matched + 1 : next == '\r' ? 1 : 0;
+        }
+        return head.toString(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] clientFrame(int opcode, byte[] payload) {
+        byte[] mask = {0x11, 0x22, 0x33, 0x44};
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        frame.write(0x80 | opcode);
+        frame.write(0x80 | payload.length);
+        frame.writeBytes(mask);
+        for (int i = 0; i < payload.length; i++) {
+            frame.write(payload[i] ^ mask[i % 4]);
+        }
+        return frame.toByteArray();
+    }
+
+    private static byte[] readServerFrame(InputStream in, int expectedOpcode) throws IOException {
+        int first = in.read();
+        int length = in.read();
+        assertEquals(0x80 | expectedOpcode, first);
+        assertTrue(length < 126, "short unmasked frame expected");
+        return in.readNBytes(length);
+    }
+
     private static String responseBody(String response) {
         int idx = response.indexOf("\r\n\r\n");
         if (idx == -1) {